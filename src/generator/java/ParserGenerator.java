@@ -0,0 +1,560 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Build-time generator of {@code GeneratedParser} from a grammar file, see {@code src/main/grammar/select.grammar}
+ * for the format. The grammar must be LL(1) and right-linear: the right hand side of a production is terminals
+ * followed by at most one non-terminal. So the generated parser is a state machine with a state per non-terminal
+ * and no stack: the productions that start with a non-terminal are followed at generation time, and every state
+ * matches the keywords of its lookahead terminals by a trie of char comparisons inlined into its switch case.
+ *
+ * An input the parser can't match is handed to {@code Terminal.getTerminal}, so the rejections are the ones of
+ * {@code ParseEngine}: an unknown keyword where it is, a misplaced clause for a known one.
+ */
+public class ParserGenerator {
+    private static final String END_KEYWORD = "$";
+    private static final String INDENT = "    ";
+    private static final int MAX_LINE_LENGTH = 120;
+
+    private static class TerminalSymbol {
+        final String name;
+        // no keywords for the end of the statement
+        final List<String> keywords = new ArrayList<>();
+        String action = "";
+
+        TerminalSymbol(String name) {
+            this.name = name;
+        }
+
+        boolean isEnd() {
+            return keywords.isEmpty();
+        }
+    }
+
+    private static class Production {
+        final String left;
+        final List<String> symbols = new ArrayList<>();
+        // action of every symbol, null for the action of the terminal itself
+        final List<String> actions = new ArrayList<>();
+        final String text;
+
+        Production(String left, String text) {
+            this.left = left;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Node of the keyword trie of a state, the arm is the code run when the keyword ends at the node
+     */
+    private static class TrieNode {
+        final Map<Character, TrieNode> children = new LinkedHashMap<>();
+        List<String> arm;
+        String terminal;
+    }
+
+    private final String grammarName;
+    private final Map<String, TerminalSymbol> terminals = new LinkedHashMap<>();
+    private final Map<String, List<Production>> productions = new LinkedHashMap<>();
+    private final List<String> productionTexts = new ArrayList<>();
+    private final Map<String, Set<String>> firstSets = new LinkedHashMap<>();
+    // terminals matched after the first symbol of a production, which get a match method each
+    private final Set<String> matchedTerminals = new LinkedHashSet<>();
+    private String endTerminal;
+    private String start;
+
+    ParserGenerator(String grammarName, List<String> lines) {
+        this.grammarName = grammarName;
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                parseLine(line);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(grammarName + ":" + (i + 1) + ": " + e.getMessage(), e);
+            }
+        }
+        check();
+    }
+
+    /**
+     * Splits a line into words, quoted keywords and braced actions
+     */
+    private static List<String> split(String line) {
+        List<String> tokens = new ArrayList<>();
+        int idx = 0;
+        while (idx < line.length()) {
+            char value = line.charAt(idx);
+            if (value == ' ' || value == '\t') {
+                idx++;
+                continue;
+            }
+            int end = idx + 1;
+            if (value == '"') {
+                end = line.indexOf('"', end);
+                if (end < 0) {
+                    throw new IllegalArgumentException("the keyword is not closed");
+                }
+                end++;
+            } else if (value == '{') {
+                int depth = 1;
+                while (depth != 0) {
+                    if (end == line.length()) {
+                        throw new IllegalArgumentException("the action is not closed");
+                    }
+                    char actionChar = line.charAt(end++);
+                    if (actionChar == '{') {
+                        depth++;
+                    } else if (actionChar == '}') {
+                        depth--;
+                    }
+                }
+            } else {
+                while (end < line.length() && line.charAt(end) != ' ' && line.charAt(end) != '\t') {
+                    end++;
+                }
+            }
+            tokens.add(line.substring(idx, end));
+            idx = end;
+        }
+        return tokens;
+    }
+
+    private static boolean isAction(String token) {
+        return token.startsWith("{");
+    }
+
+    private static String actionCode(String token) {
+        return token.substring(1, token.length() - 1).trim();
+    }
+
+    private void parseLine(String line) {
+        List<String> tokens = split(line);
+        if (tokens.get(0).equals("terminal")) {
+            if (tokens.size() < 3) {
+                throw new IllegalArgumentException("a terminal needs a name and a keyword");
+            }
+            TerminalSymbol terminal = new TerminalSymbol(tokens.get(1));
+            if (terminals.put(terminal.name, terminal) != null) {
+                throw new IllegalArgumentException("the terminal " + terminal.name + " is defined twice");
+            }
+            for (String token : tokens.subList(2, tokens.size())) {
+                if (token.equals(END_KEYWORD)) {
+                    if (endTerminal != null) {
+                        throw new IllegalArgumentException("the end is defined twice");
+                    }
+                    endTerminal = terminal.name;
+                } else if (isAction(token)) {
+                    terminal.action = actionCode(token);
+                } else if (token.startsWith("\"")) {
+                    String keyword = token.substring(1, token.length() - 1);
+                    if (!keyword.matches("[A-Z]+( [A-Z]+)*")) {
+                        throw new IllegalArgumentException("a keyword is upper case words: " + token);
+                    }
+                    terminal.keywords.add(keyword);
+                } else {
+                    throw new IllegalArgumentException("unexpected " + token);
+                }
+            }
+            if (terminal.isEnd() != terminal.name.equals(endTerminal)) {
+                throw new IllegalArgumentException("a terminal is either the end or has keywords");
+            }
+            return;
+        }
+
+        if (tokens.size() < 3 || !tokens.get(1).equals("->")) {
+            throw new IllegalArgumentException("a production is NAME -> SYMBOL ...");
+        }
+        Production production = new Production(tokens.get(0), line);
+        for (String token : tokens.subList(2, tokens.size())) {
+            if (isAction(token)) {
+                if (production.symbols.isEmpty() || production.actions.get(production.actions.size() - 1) != null) {
+                    throw new IllegalArgumentException("an action must follow a terminal");
+                }
+                production.actions.set(production.actions.size() - 1, actionCode(token));
+            } else {
+                production.symbols.add(token);
+                production.actions.add(null);
+            }
+        }
+        if (start == null) {
+            start = production.left;
+        }
+        productions.computeIfAbsent(production.left, left -> new ArrayList<>()).add(production);
+        productionTexts.add(line.replaceAll("\\s*\\{[^}]*}", ""));
+    }
+
+    private boolean isTerminal(String symbol) {
+        return terminals.containsKey(symbol);
+    }
+
+    /**
+     * Checks that the grammar is complete, right-linear and LL(1)
+     */
+    private void check() {
+        if (start == null || endTerminal == null) {
+            throw new IllegalArgumentException(grammarName + ": the grammar needs productions and an end terminal");
+        }
+        for (List<Production> alternatives : productions.values()) {
+            for (Production production : alternatives) {
+                List<String> symbols = production.symbols;
+                for (int i = 0; i < symbols.size(); i++) {
+                    String symbol = symbols.get(i);
+                    if (!isTerminal(symbol) && !productions.containsKey(symbol)) {
+                        throw new IllegalArgumentException(production.text + ": " + symbol + " is not defined");
+                    }
+                    if (!isTerminal(symbol) && i != symbols.size() - 1) {
+                        throw new IllegalArgumentException(production.text
+                                + ": only the last symbol may be a non-terminal, the grammar must be right-linear");
+                    }
+                    if (!isTerminal(symbol) && production.actions.get(i) != null) {
+                        throw new IllegalArgumentException(production.text + ": an action must follow a terminal");
+                    }
+                }
+            }
+        }
+        for (String left : productions.keySet()) {
+            first(left, new HashSet<>());
+        }
+    }
+
+    private Set<String> first(Production production, Set<String> visiting) {
+        String symbol = production.symbols.get(0);
+        return isTerminal(symbol) ? Set.of(symbol) : first(symbol, visiting);
+    }
+
+    /**
+     * FIRST set of a non-terminal, which must not be left recursive or have two productions for a terminal
+     */
+    private Set<String> first(String left, Set<String> visiting) {
+        Set<String> firstSet = firstSets.get(left);
+        if (firstSet != null) {
+            return firstSet;
+        }
+        if (!visiting.add(left)) {
+            throw new IllegalArgumentException(grammarName + ": " + left + " is left recursive");
+        }
+        firstSet = new LinkedHashSet<>();
+        for (Production production : productions.get(left)) {
+            for (String terminal : first(production, visiting)) {
+                if (!firstSet.add(terminal)) {
+                    throw new IllegalArgumentException(grammarName + ": " + left + " has two productions for "
+                            + terminal + ", the grammar must be LL(1)");
+                }
+            }
+        }
+        firstSets.put(left, firstSet);
+        return firstSet;
+    }
+
+    /**
+     * @return the production of the non-terminal for the lookahead terminal, with the leading non-terminals
+     * followed, so it starts with the terminal
+     */
+    private Production resolve(String left, String terminal) {
+        for (Production production : productions.get(left)) {
+            if (first(production, new HashSet<>()).contains(terminal)) {
+                String symbol = production.symbols.get(0);
+                return isTerminal(symbol) ? production : resolve(symbol, terminal);
+            }
+        }
+        throw new IllegalStateException(left + " has no production for " + terminal);
+    }
+
+    private String action(Production production, int idx) {
+        String action = production.actions.get(idx);
+        return action != null ? action : terminals.get(production.symbols.get(idx)).action;
+    }
+
+    private static String camelCase(String name) {
+        StringBuilder builder = new StringBuilder();
+        for (String word : name.toLowerCase().split("_")) {
+            if (!word.isEmpty()) {
+                builder.append(Character.toUpperCase(word.charAt(0))).append(word.substring(1));
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Code run once the first terminal of the production is matched: the actions and the matches of the other
+     * terminals, then the move to the state of the last non-terminal or the end of the parse
+     */
+    private List<String> arm(Production production) {
+        List<String> lines = new ArrayList<>();
+        List<String> symbols = production.symbols;
+        for (int i = 0; i < symbols.size(); i++) {
+            String symbol = symbols.get(i);
+            if (!isTerminal(symbol)) {
+                lines.add("state = " + symbol + ";");
+                lines.add("continue;");
+                return lines;
+            }
+            if (i != 0) {
+                matchedTerminals.add(symbol);
+                lines.add("match" + camelCase(symbol) + "(iterator);");
+            }
+            String action = action(production, i);
+            if (!action.isEmpty()) {
+                lines.add(action);
+            }
+        }
+        lines.add("return;");
+        return lines;
+    }
+
+    private static void addKeyword(TrieNode root, String keyword, String terminal, List<String> arm) {
+        TrieNode node = root;
+        for (int i = 0; i < keyword.length(); i++) {
+            node = node.children.computeIfAbsent(keyword.charAt(i), value -> new TrieNode());
+        }
+        if (node.arm != null) {
+            throw new IllegalArgumentException("the keyword " + keyword + " of " + terminal + " is the keyword of "
+                    + node.terminal + " as well");
+        }
+        node.arm = arm;
+        node.terminal = terminal;
+    }
+
+    private static void line(StringBuilder output, int depth, String text) {
+        for (int i = 0; i < depth; i++) {
+            output.append(INDENT);
+        }
+        output.append(text).append('\n');
+    }
+
+    private static String charLiteral(char value) {
+        return "'" + value + "'";
+    }
+
+    /**
+     * Emits the comparisons of a trie node whose char is matched already, the iterator is at this char
+     */
+    private static void emitNode(StringBuilder output, int depth, TrieNode node) {
+        // the chars of a chain without branches are compared in one condition, like Terminal.getTerminal does
+        List<String> conditions = new ArrayList<>();
+        while (node.arm == null && node.children.size() == 1) {
+            Map.Entry<Character, TrieNode> child = node.children.entrySet().iterator().next();
+            if (child.getKey() == ' ') {
+                break;
+            }
+            conditions.add("iterator.next() == " + charLiteral(child.getKey()));
+            node = child.getValue();
+        }
+        if (!conditions.isEmpty()) {
+            emitCondition(output, depth, conditions);
+            emitNode(output, depth + 1, node);
+            line(output, depth, "}");
+            return;
+        }
+
+        line(output, depth, "value = iterator.next();");
+        emitLoadedNode(output, depth, node);
+    }
+
+    /**
+     * Emits an if of all the conditions, wrapped like the hand-written code when it is too long
+     */
+    private static void emitCondition(StringBuilder output, int depth, List<String> conditions) {
+        StringBuilder text = new StringBuilder(INDENT.repeat(depth)).append("if (");
+        int lineStart = 0;
+        for (int i = 0; i < conditions.size(); i++) {
+            String condition = conditions.get(i);
+            if (i != 0) {
+                if (text.length() - lineStart + condition.length() + " && ) {".length() > MAX_LINE_LENGTH) {
+                    text.append('\n');
+                    lineStart = text.length();
+                    text.append(INDENT.repeat(depth + 2)).append("&& ");
+                } else {
+                    text.append(" && ");
+                }
+            }
+            text.append(condition);
+        }
+        output.append(text).append(") {\n");
+    }
+
+    /**
+     * Emits the comparisons of a trie node with the char after it in {@code value}. The branches are exclusive,
+     * a branch that fails after reading more chars must not fall into the next one.
+     */
+    private static void emitLoadedNode(StringBuilder output, int depth, TrieNode node) {
+        String prefix = "if (";
+        if (node.arm != null) {
+            line(output, depth, "if (value == ' ' || value == CharacterIterator.DONE) {");
+            for (String armLine : node.arm) {
+                line(output, depth + 1, armLine);
+            }
+            prefix = "} else if (";
+        }
+        for (Map.Entry<Character, TrieNode> child : node.children.entrySet()) {
+            line(output, depth, prefix + "value == " + charLiteral(child.getKey()) + ") {");
+            prefix = "} else if (";
+            if (child.getKey() == ' ') {
+                // the words of a keyword are separated by any number of spaces
+                line(output, depth + 1, "value = iterator.next();");
+                line(output, depth + 1, "while (value == ' ') {");
+                line(output, depth + 2, "value = iterator.next();");
+                line(output, depth + 1, "}");
+                emitLoadedNode(output, depth + 1, child.getValue());
+            } else {
+                emitNode(output, depth + 1, child.getValue());
+            }
+        }
+        if (node.arm != null || !node.children.isEmpty()) {
+            line(output, depth, "}");
+        }
+    }
+
+    /**
+     * Emits the switch over the first char of the lookahead, which is in {@code value}, every arm leaves the
+     * switch by continue or return
+     *
+     * @param arms arm of every lookahead terminal
+     */
+    private void emitRecognizer(StringBuilder output, int depth, Map<String, List<String>> arms) {
+        TrieNode root = new TrieNode();
+        List<String> endArm = null;
+        for (Map.Entry<String, List<String>> arm : arms.entrySet()) {
+            TerminalSymbol terminal = terminals.get(arm.getKey());
+            if (terminal.isEnd()) {
+                endArm = arm.getValue();
+            }
+            for (String keyword : terminal.keywords) {
+                addKeyword(root, keyword, terminal.name, arm.getValue());
+            }
+        }
+
+        line(output, depth, "switch (value) {");
+        for (Map.Entry<Character, TrieNode> child : root.children.entrySet()) {
+            line(output, depth + 1, "case " + charLiteral(child.getKey()) + ": {");
+            emitNode(output, depth + 2, child.getValue());
+            line(output, depth + 1, "} break;");
+        }
+        if (endArm != null) {
+            line(output, depth + 1, "case Translator.STATEMENT_END:");
+            line(output, depth + 1, "case CharacterIterator.DONE: {");
+            for (String armLine : endArm) {
+                line(output, depth + 2, armLine);
+            }
+            line(output, depth + 1, "}");
+        }
+        line(output, depth, "}");
+    }
+
+    private static void emitSkipSpaces(StringBuilder output, int depth) {
+        line(output, depth, "char value = iterator.current();");
+        line(output, depth, "while (value == ' ') {");
+        line(output, depth + 1, "value = iterator.next();");
+        line(output, depth, "}");
+        line(output, depth, "int start = iterator.getIndex();");
+    }
+
+    String generate() {
+        StringBuilder output = new StringBuilder();
+        line(output, 0, "import java.text.CharacterIterator;");
+        line(output, 0, "");
+        line(output, 0, "/**");
+        line(output, 0, " * Parser generated by ParserGenerator from " + grammarName + ", do not edit.");
+        line(output, 0, " * It is a state machine with a state per non-terminal and the keywords matched inline,");
+        line(output, 0, " * {@link ParseEngine} is the reference implementation of the same grammar.");
+        line(output, 0, " *");
+        for (String text : productionTexts) {
+            line(output, 0, " * " + text);
+        }
+        line(output, 0, " */");
+        line(output, 0, "public final class GeneratedParser {");
+        int state = 0;
+        for (String left : productions.keySet()) {
+            line(output, 1, "private static final int " + left + " = " + state++ + ";");
+        }
+        line(output, 0, "");
+        line(output, 1, "private GeneratedParser() {");
+        line(output, 1, "}");
+        line(output, 0, "");
+
+        line(output, 1, "/**");
+        line(output, 1, " * Same as {@link ParseEngine#parse(CharacterIterator, MongoShellBuilder)}");
+        line(output, 1, " */");
+        line(output, 1, "public static void parse(CharacterIterator iterator, MongoShellBuilder mongoShellBuilder) {");
+        line(output, 2, "parseStatement(iterator, mongoShellBuilder);");
+        line(output, 2, "ParseEngine.checkStatementEnd(iterator);");
+        line(output, 1, "}");
+        line(output, 0, "");
+
+        line(output, 1, "/**");
+        line(output, 1, " * Same as {@link ParseEngine#parseStatement(CharacterIterator, MongoShellBuilder)}");
+        line(output, 1, " */");
+        line(output, 1, "public static void parseStatement(CharacterIterator iterator, "
+                + "MongoShellBuilder mongoShellBuilder) {");
+        line(output, 2, "int state = " + start + ";");
+        line(output, 2, "while (true) {");
+        emitSkipSpaces(output, 3);
+        line(output, 3, "switch (state) {");
+        for (String left : productions.keySet()) {
+            line(output, 4, "case " + left + ": {");
+            Map<String, List<String>> arms = new LinkedHashMap<>();
+            for (String terminal : terminals.keySet()) {
+                if (firstSets.get(left).contains(terminal)) {
+                    arms.put(terminal, arm(resolve(left, terminal)));
+                }
+            }
+            emitRecognizer(output, 5, arms);
+            line(output, 4, "} break;");
+        }
+        line(output, 3, "}");
+        line(output, 3, "throw unexpected(iterator, start);");
+        line(output, 2, "}");
+        line(output, 1, "}");
+
+        for (String terminal : matchedTerminals) {
+            line(output, 0, "");
+            line(output, 1, "private static void match" + camelCase(terminal) + "(CharacterIterator iterator) {");
+            emitSkipSpaces(output, 2);
+            Map<String, List<String>> arms = new LinkedHashMap<>();
+            arms.put(terminal, List.of("return;"));
+            emitRecognizer(output, 2, arms);
+            line(output, 2, "throw unexpected(iterator, start);");
+            line(output, 1, "}");
+        }
+
+        line(output, 0, "");
+        line(output, 1, "/**");
+        line(output, 1, " * Rejects the input at the start of an unexpected terminal the way ParseEngine does");
+        line(output, 1, " */");
+        line(output, 1, "private static TranslationException unexpected(CharacterIterator iterator, int start) {");
+        line(output, 2, "iterator.setIndex(start);");
+        line(output, 2, "// throws for an unknown keyword, a known one is misplaced");
+        line(output, 2, "Terminal.getTerminal(iterator);");
+        line(output, 2, "return new TranslationException(TranslationException.Kind.MISPLACED_CLAUSE,");
+        line(output, 4, "\"logic of your SQL query is not correct\");");
+        line(output, 1, "}");
+        line(output, 0, "}");
+        return output.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: ParserGenerator <grammar file> <output java file>");
+            System.exit(1);
+        }
+        Path grammar = Paths.get(args[0]);
+        Path output = Paths.get(args[1]);
+        ParserGenerator generator = new ParserGenerator(grammar.getFileName().toString(),
+                Files.readAllLines(grammar, StandardCharsets.UTF_8));
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        Files.write(output, generator.generate().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,68 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling curve of Translator.translateAll: throughput in queries per microsecond for every pool parallelism.
+ * One query in a hundred is malformed, so the failure capture is part of the measurement. The queries are either
+ * the shapes of {@link QueryCorpus} or random ones of {@code QueryGenerator}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchTranslationBenchmark {
+    private static final int BATCH_SIZE = 100_000;
+
+    private static final MethodHandle TRANSLATE_ALL = DefaultPackage.findStatic("Translator", "translateAll",
+            "[LTranslationResult;", String[].class, String[].class, ForkJoinPool.class);
+    private static final MethodHandle NEW_GENERATOR = DefaultPackage.findConstructor("QueryGenerator", long.class);
+    private static final MethodHandle GENERATOR_NEXT =
+            DefaultPackage.findVirtual("QueryGenerator", "next", String.class, double.class);
+
+    @Param({"1", "2", "4", "8", "16"})
+    public int parallelism;
+
+    @Param({"SHAPES", "GENERATED"})
+    public String corpus;
+
+    private ForkJoinPool pool;
+    private String[] sqlQueries;
+    private String[] out;
+
+    @Setup
+    public void setUp() throws Throwable {
+        pool = new ForkJoinPool(parallelism);
+        String[] shapes = {QueryCorpus.SELECT_ALL, QueryCorpus.WIDE_PROJECTION, QueryCorpus.MANY_PREDICATES,
+                QueryCorpus.OFFSET_LIMIT};
+        Object generator = (Object) NEW_GENERATOR.invokeExact(42L);
+        sqlQueries = new String[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            if (corpus.equals("GENERATED")) {
+                sqlQueries[i] = (String) (Object) GENERATOR_NEXT.invokeExact(generator, 0.01);
+            } else {
+                sqlQueries[i] = i % 100 == 0
+                        ? "SELECT * FROM customers WHERE 1 = 1"
+                        : QueryCorpus.query(shapes[i % shapes.length], 1 + i % 16);
+            }
+        }
+        out = new String[BATCH_SIZE];
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public Object translateAll() throws Throwable {
+        return (Object) TRANSLATE_ALL.invokeExact((Object) sqlQueries, (Object) out, (Object) pool);
+    }
+}
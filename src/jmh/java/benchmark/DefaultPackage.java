@@ -0,0 +1,66 @@
+package benchmark;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * JMH refuses benchmark classes in the default package and a named package can't import the default one, so
+ * the translator classes are reached through method handles. Handles kept in static final fields are constants
+ * for the JIT and get inlined like direct calls.
+ *
+ * Types are passed either as a {@link Class} or as a name of a default package class. Every reference type of
+ * the returned handle is erased to {@link Object}, so call sites use {@code (Object) handle.invokeExact(...)}.
+ */
+final class DefaultPackage {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    private DefaultPackage() {
+    }
+
+    static Class<?> type(Object type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        }
+        try {
+            return Class.forName((String) type);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodType methodType(Object returnType, Object... parameterTypes) {
+        Class<?>[] parameterClasses = new Class<?>[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            parameterClasses[i] = type(parameterTypes[i]);
+        }
+        return MethodType.methodType(type(returnType), parameterClasses);
+    }
+
+    static MethodHandle findStatic(String className, String name, Object returnType, Object... parameterTypes) {
+        try {
+            MethodHandle handle = LOOKUP.findStatic(type(className), name, methodType(returnType, parameterTypes));
+            return handle.asType(handle.type().erase());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static MethodHandle findVirtual(String className, String name, Object returnType, Object... parameterTypes) {
+        try {
+            MethodHandle handle = LOOKUP.findVirtual(type(className), name, methodType(returnType, parameterTypes));
+            return handle.asType(handle.type().erase());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static MethodHandle findConstructor(String className, Object... parameterTypes) {
+        try {
+            MethodHandle handle = LOOKUP.findConstructor(type(className), methodType(void.class, parameterTypes));
+            return handle.asType(handle.type().erase());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the shape fingerprint. It is mixed while the query is parsed, so {@code translate} already pays for it
+ * and has to stay within the noise of the results before the fingerprint; {@code shapeString} is the second pass
+ * it replaces: the query with the literals cut out, hashed as a string.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FingerprintBenchmark {
+    private static final MethodHandle NEW_CONTEXT = DefaultPackage.findConstructor("TranslatorContext");
+    private static final MethodHandle CONTEXT_TRANSLATE = DefaultPackage.findVirtual(
+            "TranslatorContext", "translate", void.class, CharSequence.class, StringBuilder.class);
+    private static final MethodHandle GET_FINGERPRINT =
+            DefaultPackage.findVirtual("TranslatorContext", "getFingerprint", long.class);
+
+    @Param({QueryCorpus.SELECT_ALL, QueryCorpus.WIDE_PROJECTION, QueryCorpus.MANY_PREDICATES,
+            QueryCorpus.OFFSET_LIMIT})
+    public String shape;
+
+    @Param({"1", "8", "64"})
+    public int width;
+
+    private String query;
+    private Object context;
+    private final StringBuilder output = new StringBuilder();
+    private final StringBuilder shapeOutput = new StringBuilder();
+
+    @Setup
+    public void setUp() throws Throwable {
+        query = QueryCorpus.query(shape, width);
+        context = (Object) NEW_CONTEXT.invokeExact();
+    }
+
+    @Benchmark
+    public long translate() throws Throwable {
+        output.setLength(0);
+        CONTEXT_TRANSLATE.invokeExact(context, (Object) query, (Object) output);
+        return (long) GET_FINGERPRINT.invokeExact(context);
+    }
+
+    @Benchmark
+    public int shapeString() {
+        shapeOutput.setLength(0);
+        int length = query.length();
+        int idx = 0;
+        while (idx < length) {
+            char value = query.charAt(idx);
+            if (value == ' ' || value == ',') {
+                shapeOutput.append(value);
+                idx++;
+                continue;
+            }
+            int startIdx = idx;
+            boolean isNumber = true;
+            while (idx < length && (value = query.charAt(idx)) != ' ' && value != ',') {
+                isNumber &= '0' <= value && value <= '9';
+                idx++;
+            }
+            if (isNumber) {
+                shapeOutput.append('?');
+            } else {
+                shapeOutput.append(query, startIdx, idx);
+            }
+        }
+        return shapeOutput.toString().hashCode();
+    }
+}
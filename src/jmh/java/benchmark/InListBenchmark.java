@@ -0,0 +1,52 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Translation of {@code WHERE id IN (...)} with up to a million random values drawn from a range 10% smaller than
+ * the list, so the list has duplicates
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InListBenchmark {
+    private static final MethodHandle NEW_CONTEXT = DefaultPackage.findConstructor("TranslatorContext");
+    private static final MethodHandle CONTEXT_TRANSLATE = DefaultPackage.findVirtual(
+            "TranslatorContext", "translate", void.class, CharSequence.class, StringBuilder.class);
+
+    @Param({"10", "1000", "100000", "1000000"})
+    public int size;
+
+    private String query;
+    private Object context;
+    private final StringBuilder output = new StringBuilder();
+
+    @Setup
+    public void setUp() throws Throwable {
+        Random random = new Random(42);
+        StringBuilder query = new StringBuilder("SELECT * FROM orders WHERE id IN (");
+        for (int i = 0; i < size; i++) {
+            if (i != 0) {
+                query.append(", ");
+            }
+            query.append(random.nextInt(size * 9 / 10 + 1) * 7919L);
+        }
+        query.append(") AND status = 1");
+        this.query = query.toString();
+        context = (Object) NEW_CONTEXT.invokeExact();
+    }
+
+    @Benchmark
+    public StringBuilder translate() throws Throwable {
+        output.setLength(0);
+        CONTEXT_TRANSLATE.invokeExact(context, (Object) query, (Object) output);
+        return output;
+    }
+}
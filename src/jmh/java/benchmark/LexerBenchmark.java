@@ -0,0 +1,134 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.CharacterIterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Iterator driven parsing against the packed token stream of Lexer: the lexing alone and the whole parse into a
+ * builder, for chars and for UTF-8 bytes
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LexerBenchmark {
+    private static final MethodHandle NEW_ITERATOR =
+            DefaultPackage.findConstructor("CharArrayIterator", char[].class);
+    private static final MethodHandle NEW_BYTE_ITERATOR =
+            DefaultPackage.findConstructor("ByteBufferCharIterator", ByteBuffer.class);
+    private static final MethodHandle NEW_LEXER = DefaultPackage.findConstructor("Lexer");
+    private static final MethodHandle NEW_ENGINE = DefaultPackage.findConstructor("ParseEngine");
+    private static final MethodHandle NEW_BUILDER =
+            DefaultPackage.findConstructor("MongoShellBuilder", char[].class);
+    private static final MethodHandle NEW_BYTE_BUILDER =
+            DefaultPackage.findConstructor("MongoShellBuilder", ByteBuffer.class);
+    private static final MethodHandle GET_TERMINAL =
+            DefaultPackage.findStatic("Terminal", "getTerminal", "Terminal", CharacterIterator.class);
+    private static final MethodHandle TOKENIZE_CHARS =
+            DefaultPackage.findVirtual("Lexer", "tokenize", int.class, char[].class, int.class);
+    private static final MethodHandle TOKENIZE_BYTES = DefaultPackage.findVirtual(
+            "Lexer", "tokenize", int.class, byte[].class, int.class, int.class, int.class);
+    private static final MethodHandle RESET_BUILDER =
+            DefaultPackage.findVirtual("MongoShellBuilder", "reset", void.class, char[].class);
+    private static final MethodHandle RESET_BYTE_BUILDER =
+            DefaultPackage.findVirtual("MongoShellBuilder", "reset", void.class, ByteBuffer.class);
+    private static final MethodHandle PARSE_ITERATOR = DefaultPackage.findVirtual(
+            "ParseEngine", "parse", void.class, CharacterIterator.class, "MongoShellBuilder");
+    private static final MethodHandle PARSE_TOKENS =
+            DefaultPackage.findVirtual("ParseEngine", "parse", void.class, "Lexer", "MongoShellBuilder");
+
+    @Param({QueryCorpus.SELECT_ALL, QueryCorpus.WIDE_PROJECTION, QueryCorpus.MANY_PREDICATES,
+            QueryCorpus.OFFSET_LIMIT})
+    public String shape;
+
+    @Param({"1", "8", "64"})
+    public int width;
+
+    private char[] chars;
+    private byte[] bytes;
+    private ByteBuffer byteBuffer;
+    private CharacterIterator iterator;
+    private CharacterIterator byteIterator;
+    private int[] keywordPositions;
+    private Object lexer;
+    private Object engine;
+    private Object builder;
+    private Object byteBuilder;
+
+    @Setup
+    public void setUp() throws Throwable {
+        String query = QueryCorpus.query(shape, width);
+        chars = query.toCharArray();
+        bytes = query.getBytes(StandardCharsets.UTF_8);
+        byteBuffer = ByteBuffer.wrap(bytes);
+        iterator = (CharacterIterator) (Object) NEW_ITERATOR.invokeExact((Object) chars);
+        byteIterator = (CharacterIterator) (Object) NEW_BYTE_ITERATOR.invokeExact((Object) byteBuffer);
+        keywordPositions = QueryCorpus.keywordPositions(chars);
+        lexer = (Object) NEW_LEXER.invokeExact();
+        engine = (Object) NEW_ENGINE.invokeExact();
+        builder = (Object) NEW_BUILDER.invokeExact((Object) chars);
+        byteBuilder = (Object) NEW_BYTE_BUILDER.invokeExact((Object) byteBuffer);
+    }
+
+    /**
+     * Keyword recognition through the iterator, the names and values are skipped by the clause parsers
+     */
+    @Benchmark
+    public Object lexIterator() throws Throwable {
+        Object terminal = null;
+        for (int position : keywordPositions) {
+            iterator.setIndex(position);
+            terminal = (Object) GET_TERMINAL.invokeExact((Object) iterator);
+        }
+        return terminal;
+    }
+
+    @Benchmark
+    public int lexTokens() throws Throwable {
+        return (int) TOKENIZE_CHARS.invokeExact(lexer, (Object) chars, chars.length);
+    }
+
+    @Benchmark
+    public int lexTokensFromBytes() throws Throwable {
+        return (int) TOKENIZE_BYTES.invokeExact(lexer, (Object) bytes, 0, 0, bytes.length);
+    }
+
+    @Benchmark
+    public Object parseIterator() throws Throwable {
+        iterator.setIndex(0);
+        RESET_BUILDER.invokeExact(builder, (Object) chars);
+        PARSE_ITERATOR.invokeExact(engine, (Object) iterator, builder);
+        return builder;
+    }
+
+    @Benchmark
+    public Object parseTokens() throws Throwable {
+        int count = (int) TOKENIZE_CHARS.invokeExact(lexer, (Object) chars, chars.length);
+        RESET_BUILDER.invokeExact(builder, (Object) chars);
+        PARSE_TOKENS.invokeExact(engine, lexer, builder);
+        return builder;
+    }
+
+    @Benchmark
+    public Object parseIteratorFromBytes() throws Throwable {
+        byteIterator.setIndex(0);
+        RESET_BYTE_BUILDER.invokeExact(byteBuilder, (Object) byteBuffer);
+        PARSE_ITERATOR.invokeExact(engine, (Object) byteIterator, byteBuilder);
+        return byteBuilder;
+    }
+
+    @Benchmark
+    public Object parseTokensFromBytes() throws Throwable {
+        int count = (int) TOKENIZE_BYTES.invokeExact(lexer, (Object) bytes, 0, 0, bytes.length);
+        RESET_BYTE_BUILDER.invokeExact(byteBuilder, (Object) byteBuffer);
+        PARSE_TOKENS.invokeExact(engine, lexer, byteBuilder);
+        return byteBuilder;
+    }
+}
@@ -0,0 +1,56 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the translator metrics: a translation with the metrics off must be as fast as before they existed, and
+ * with them on it pays for three clock reads and the striped counts. Run with several threads to see the counts
+ * don't contend: {@code -Pjmh.args='-t 4'}.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MetricsBenchmark {
+    private static final MethodHandle GET_METRICS =
+            DefaultPackage.findStatic("TranslatorMetrics", "getInstance", "TranslatorMetrics");
+    private static final MethodHandle SET_ENABLED =
+            DefaultPackage.findVirtual("TranslatorMetrics", "setEnabled", void.class, boolean.class);
+    private static final MethodHandle NEW_CONTEXT = DefaultPackage.findConstructor("TranslatorContext");
+    private static final MethodHandle CONTEXT_TRANSLATE = DefaultPackage.findVirtual(
+            "TranslatorContext", "translate", void.class, CharSequence.class, StringBuilder.class);
+
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    @Param({QueryCorpus.SELECT_ALL, QueryCorpus.MANY_PREDICATES})
+    public String shape;
+
+    private String query;
+    private Object context;
+    private final StringBuilder output = new StringBuilder();
+
+    @Setup
+    public void setUp() throws Throwable {
+        SET_ENABLED.invokeExact((Object) GET_METRICS.invokeExact(), metrics);
+        query = QueryCorpus.query(shape, 8);
+        context = (Object) NEW_CONTEXT.invokeExact();
+    }
+
+    @TearDown
+    public void tearDown() throws Throwable {
+        SET_ENABLED.invokeExact((Object) GET_METRICS.invokeExact(), false);
+    }
+
+    @Benchmark
+    public StringBuilder translate() throws Throwable {
+        output.setLength(0);
+        CONTEXT_TRANSLATE.invokeExact(context, (Object) query, (Object) output);
+        return output;
+    }
+}
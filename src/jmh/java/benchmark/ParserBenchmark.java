@@ -0,0 +1,66 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.text.CharacterIterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse phase of the table-driven {@code ParseEngine}, the reference, against the state machine generated from the
+ * grammar file. Both fill a reused builder, the command is not rendered.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+    private static final MethodHandle NEW_ITERATOR =
+            DefaultPackage.findConstructor("CharArrayIterator", char[].class);
+    private static final MethodHandle NEW_BUILDER =
+            DefaultPackage.findConstructor("MongoShellBuilder", char[].class);
+    private static final MethodHandle RESET_BUILDER =
+            DefaultPackage.findVirtual("MongoShellBuilder", "reset", void.class, char[].class);
+    private static final MethodHandle NEW_ENGINE = DefaultPackage.findConstructor("ParseEngine");
+    private static final MethodHandle ENGINE_PARSE = DefaultPackage.findVirtual(
+            "ParseEngine", "parse", void.class, CharacterIterator.class, "MongoShellBuilder");
+    private static final MethodHandle GENERATED_PARSE = DefaultPackage.findStatic(
+            "GeneratedParser", "parse", void.class, CharacterIterator.class, "MongoShellBuilder");
+
+    @Param({QueryCorpus.SELECT_ALL, QueryCorpus.MANY_PREDICATES, QueryCorpus.OFFSET_LIMIT})
+    public String shape;
+
+    @Param({"1", "8"})
+    public int width;
+
+    private char[] chars;
+    private CharacterIterator iterator;
+    private Object builder;
+    private Object parseEngine;
+
+    @Setup
+    public void setUp() throws Throwable {
+        chars = QueryCorpus.query(shape, width).toCharArray();
+        iterator = (CharacterIterator) (Object) NEW_ITERATOR.invokeExact((Object) chars);
+        builder = (Object) NEW_BUILDER.invokeExact((Object) chars);
+        parseEngine = (Object) NEW_ENGINE.invokeExact();
+    }
+
+    @Benchmark
+    public Object reference() throws Throwable {
+        iterator.first();
+        RESET_BUILDER.invokeExact(builder, (Object) chars);
+        ENGINE_PARSE.invokeExact(parseEngine, (Object) iterator, builder);
+        return builder;
+    }
+
+    @Benchmark
+    public Object generated() throws Throwable {
+        iterator.first();
+        RESET_BUILDER.invokeExact(builder, (Object) chars);
+        GENERATED_PARSE.invokeExact((Object) iterator, builder);
+        return builder;
+    }
+}
@@ -0,0 +1,104 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Realistic query shapes used by the benchmarks. Every shape is scaled by a width, which is the number of
+ * projected fields or predicates in the generated query.
+ */
+public class QueryCorpus {
+    public static final String SELECT_ALL = "SELECT_ALL";
+    public static final String WIDE_PROJECTION = "WIDE_PROJECTION";
+    public static final String MANY_PREDICATES = "MANY_PREDICATES";
+    public static final String OFFSET_LIMIT = "OFFSET_LIMIT";
+
+    private static final String[] KEYWORDS = {"SELECT", "FROM", "WHERE", "AND", "SKIP", "OFFSET", "LIMIT"};
+
+    public static String query(String shape, int width) {
+        StringBuilder query = new StringBuilder("SELECT ");
+        switch (shape) {
+            case SELECT_ALL: {
+                query.append("* FROM customers");
+            } break;
+            case WIDE_PROJECTION: {
+                appendFields(query, width);
+                query.append(" FROM customers");
+            } break;
+            case MANY_PREDICATES: {
+                query.append("* FROM customers WHERE ");
+                appendPredicates(query, width);
+            } break;
+            case OFFSET_LIMIT: {
+                appendFields(query, width);
+                query.append(" FROM customers WHERE ");
+                appendPredicates(query, width);
+                query.append(" OFFSET 500 LIMIT 20");
+            } break;
+            default: {
+                throw new IllegalArgumentException("unknown query shape " + shape);
+            }
+        }
+        return query.toString();
+    }
+
+    private static void appendFields(StringBuilder query, int width) {
+        for (int i = 0; i < width; i++) {
+            if (i != 0) {
+                query.append(", ");
+            }
+            query.append("field").append(i);
+        }
+    }
+
+    private static void appendPredicates(StringBuilder query, int width) {
+        final String[] signs = {" > ", " < ", " = ", " <> "};
+        for (int i = 0; i < width; i++) {
+            if (i != 0) {
+                query.append(" AND ");
+            }
+            // every second predicate constrains an already used field, so the where grouping is exercised
+            query.append("field").append(i / 2).append(signs[i % signs.length]).append(100 + i);
+        }
+    }
+
+    /**
+     * @return start indexes of every keyword in the query
+     */
+    public static int[] keywordPositions(char[] query) {
+        List<Integer> positions = new ArrayList<>();
+        int idx = 0;
+        while (idx < query.length) {
+            while (idx < query.length && query[idx] == ' ') {
+                idx++;
+            }
+            int startIdx = idx;
+            while (idx < query.length && query[idx] != ' ') {
+                idx++;
+            }
+            String word = new String(query, startIdx, idx - startIdx);
+            for (String keyword : KEYWORDS) {
+                if (keyword.equals(word)) {
+                    positions.add(startIdx);
+                }
+            }
+        }
+        return positions.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @return indexes right after every occurrence of the given keywords, which is where the clause parsers start
+     */
+    public static int[] clausePositions(char[] query, String... keywords) {
+        List<Integer> positions = new ArrayList<>();
+        for (int startIdx : keywordPositions(query)) {
+            for (String keyword : keywords) {
+                if (startIdx + keyword.length() <= query.length
+                        && keyword.equals(new String(query, startIdx, keyword.length()))) {
+                    positions.add(startIdx + keyword.length());
+                }
+            }
+        }
+        return positions.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -0,0 +1,80 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of rejecting a malformed query: {@code translateThrowing} is the exception path with the stack trace and the
+ * message a caller logs, {@code tryTranslate} reports the error kind and position without either. The valid query
+ * shows both paths cost the same for a query which is accepted.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RejectBenchmark {
+    private static final MethodHandle NEW_CONTEXT = DefaultPackage.findConstructor("TranslatorContext");
+    private static final MethodHandle CONTEXT_TRANSLATE = DefaultPackage.findVirtual(
+            "TranslatorContext", "translate", void.class, CharSequence.class, StringBuilder.class);
+    private static final MethodHandle CONTEXT_TRY_TRANSLATE = DefaultPackage.findVirtual(
+            "TranslatorContext", "tryTranslate", boolean.class, CharSequence.class, StringBuilder.class);
+    private static final MethodHandle GET_ERROR_KIND = DefaultPackage.findVirtual(
+            "TranslatorContext", "getErrorKind", "TranslationException$Kind");
+    private static final MethodHandle GET_ERROR_POSITION =
+            DefaultPackage.findVirtual("TranslatorContext", "getErrorPosition", int.class);
+
+    @Param({"UNKNOWN_KEYWORD", "INVALID_SYMBOL", "INVALID_PREDICATE", "MISPLACED_CLAUSE", "VALID"})
+    public String error;
+
+    private String query;
+    private Object context;
+    private final StringBuilder output = new StringBuilder();
+
+    @Setup
+    public void setUp() throws Throwable {
+        switch (error) {
+            case "UNKNOWN_KEYWORD":
+                query = "SELECT * FROM customers WHERE age > 22 ADN id < 5";
+                break;
+            case "INVALID_SYMBOL":
+                query = "SELECT * FROM customers WHERE age > 22 AND id.x < 5";
+                break;
+            case "INVALID_PREDICATE":
+                query = "SELECT * FROM customers WHERE age > 22 AND 1 < 5";
+                break;
+            case "MISPLACED_CLAUSE":
+                query = "SELECT * FROM customers LIMIT 10 WHERE age > 22";
+                break;
+            default:
+                query = "SELECT * FROM customers WHERE age > 22 AND id < 5";
+        }
+        context = (Object) NEW_CONTEXT.invokeExact();
+    }
+
+    @Benchmark
+    public void translateThrowing(Blackhole blackhole) throws Throwable {
+        output.setLength(0);
+        try {
+            CONTEXT_TRANSLATE.invokeExact(context, (Object) query, (Object) output);
+            blackhole.consume(output);
+        } catch (IllegalArgumentException e) {
+            blackhole.consume(e.getMessage());
+        }
+    }
+
+    @Benchmark
+    public void tryTranslate(Blackhole blackhole) throws Throwable {
+        output.setLength(0);
+        if ((boolean) CONTEXT_TRY_TRANSLATE.invokeExact(context, (Object) query, (Object) output)) {
+            blackhole.consume(output);
+        } else {
+            blackhole.consume((Object) GET_ERROR_KIND.invokeExact(context));
+            blackhole.consume((int) GET_ERROR_POSITION.invokeExact(context));
+        }
+    }
+}
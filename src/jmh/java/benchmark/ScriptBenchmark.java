@@ -0,0 +1,92 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Translation of a whole script of generated statements. {@code perStatement} translates the statements one by one
+ * with a context, as a caller splitting the script itself would. {@code script} parses the statements of the
+ * script one after another with {@code ScriptTranslator}, {@code tokenizedScript} lexes the script in one pass
+ * first and {@code parallelScript} splits it between four workers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScriptBenchmark {
+    private static final MethodHandle NEW_GENERATOR = DefaultPackage.findConstructor("QueryGenerator", long.class);
+    private static final MethodHandle GENERATOR_NEXT_VALID =
+            DefaultPackage.findVirtual("QueryGenerator", "nextValid", String.class);
+    private static final MethodHandle NEW_CONTEXT = DefaultPackage.findConstructor("TranslatorContext");
+    private static final MethodHandle CONTEXT_TRANSLATE = DefaultPackage.findVirtual(
+            "TranslatorContext", "translate", void.class, CharSequence.class, StringBuilder.class);
+    private static final MethodHandle NEW_SCRIPT_TRANSLATOR =
+            DefaultPackage.findConstructor("ScriptTranslator", int.class);
+    private static final MethodHandle SET_TOKENIZED =
+            DefaultPackage.findVirtual("ScriptTranslator", "setTokenized", void.class, boolean.class);
+    private static final MethodHandle SCRIPT_TRANSLATE = DefaultPackage.findVirtual(
+            "ScriptTranslator", "translate", int.class, CharSequence.class, StringBuilder.class);
+
+    @Param({"100", "10000"})
+    public int statementCount;
+
+    private String[] statements;
+    private String script;
+    private Object context;
+    private Object scriptTranslator;
+    private Object tokenizedScriptTranslator;
+    private Object parallelScriptTranslator;
+    private final StringBuilder output = new StringBuilder();
+
+    @Setup
+    public void setUp() throws Throwable {
+        Object generator = (Object) NEW_GENERATOR.invokeExact(42L);
+        statements = new String[statementCount];
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < statementCount; i++) {
+            statements[i] = (String) (Object) GENERATOR_NEXT_VALID.invokeExact(generator);
+            builder.append(statements[i]).append(";\n");
+        }
+        script = builder.toString();
+        context = (Object) NEW_CONTEXT.invokeExact();
+        scriptTranslator = (Object) NEW_SCRIPT_TRANSLATOR.invokeExact(1);
+        tokenizedScriptTranslator = (Object) NEW_SCRIPT_TRANSLATOR.invokeExact(1);
+        SET_TOKENIZED.invokeExact(tokenizedScriptTranslator, true);
+        parallelScriptTranslator = (Object) NEW_SCRIPT_TRANSLATOR.invokeExact(4);
+    }
+
+    @Benchmark
+    public StringBuilder perStatement() throws Throwable {
+        output.setLength(0);
+        for (String statement : statements) {
+            CONTEXT_TRANSLATE.invokeExact(context, (Object) statement, (Object) output);
+            output.append('\n');
+        }
+        return output;
+    }
+
+    @Benchmark
+    public StringBuilder script() throws Throwable {
+        output.setLength(0);
+        int count = (int) SCRIPT_TRANSLATE.invokeExact(scriptTranslator, (Object) script, (Object) output);
+        return output;
+    }
+
+    @Benchmark
+    public StringBuilder tokenizedScript() throws Throwable {
+        output.setLength(0);
+        int count = (int) SCRIPT_TRANSLATE.invokeExact(tokenizedScriptTranslator, (Object) script, (Object) output);
+        return output;
+    }
+
+    @Benchmark
+    public StringBuilder parallelScript() throws Throwable {
+        output.setLength(0);
+        int count = (int) SCRIPT_TRANSLATE.invokeExact(parallelScriptTranslator, (Object) script, (Object) output);
+        return output;
+    }
+}
@@ -0,0 +1,58 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming translation of wide projections against the in-memory one. {@code translate} needs the query string
+ * and copies it into the context, {@code stream} reads the same query through the ring buffer of the streaming
+ * translator, so its allocations per query, reported by {@code -prof gc}, must not grow with the width past the
+ * spilled projection.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StreamingBenchmark {
+    private static final MethodHandle NEW_CONTEXT = DefaultPackage.findConstructor("TranslatorContext");
+    private static final MethodHandle CONTEXT_TRANSLATE = DefaultPackage.findVirtual(
+            "TranslatorContext", "translate", void.class, CharSequence.class, StringBuilder.class);
+    private static final MethodHandle NEW_STREAMING = DefaultPackage.findConstructor("StreamingTranslator");
+    private static final MethodHandle STREAMING_TRANSLATE = DefaultPackage.findVirtual(
+            "StreamingTranslator", "translate", void.class, Reader.class, Writer.class);
+
+    @Param({"100", "10000", "1000000"})
+    public int width;
+
+    private String query;
+    private Object context;
+    private Object streamingTranslator;
+    private final StringBuilder output = new StringBuilder();
+    private final Writer nullWriter = Writer.nullWriter();
+
+    @Setup
+    public void setUp() throws Throwable {
+        query = QueryCorpus.query(QueryCorpus.WIDE_PROJECTION, width);
+        context = (Object) NEW_CONTEXT.invokeExact();
+        streamingTranslator = (Object) NEW_STREAMING.invokeExact();
+    }
+
+    @Benchmark
+    public StringBuilder translate() throws Throwable {
+        output.setLength(0);
+        CONTEXT_TRANSLATE.invokeExact(context, (Object) query, (Object) output);
+        return output;
+    }
+
+    @Benchmark
+    public void stream() throws Throwable {
+        STREAMING_TRANSLATE.invokeExact(streamingTranslator, (Object) new StringReader(query), (Object) nullWriter);
+    }
+}
@@ -0,0 +1,162 @@
+package benchmark;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Load client of the translation server: many connections pipeline batches of queries at once and the latency of
+ * every query, from the write of its batch to the read of its response, is reported as percentiles next to the
+ * total throughput. The server is started in-process unless a port is given.
+ *
+ * <pre>
+ * gradle serverLoad -Pload.args='&lt;connections&gt; &lt;queries per connection&gt; &lt;pipeline depth&gt; [port]'
+ * </pre>
+ */
+public class TranslationServerLoad {
+    private static final MethodHandle START = DefaultPackage.findStatic("TranslationServer", "start",
+            "TranslationServer", int.class);
+    private static final MethodHandle GET_PORT = DefaultPackage.findVirtual("TranslationServer", "getPort",
+            int.class);
+
+    private static String[] queries() {
+        List<String> queries = new ArrayList<>();
+        for (String shape : new String[]{QueryCorpus.SELECT_ALL, QueryCorpus.WIDE_PROJECTION,
+                QueryCorpus.MANY_PREDICATES, QueryCorpus.OFFSET_LIMIT}) {
+            for (int width : new int[]{1, 4, 16}) {
+                queries.add(QueryCorpus.query(shape, width));
+            }
+        }
+        // one malformed query, so the failure path is part of the load
+        queries.add("SELECT * FROM customers WHERE 1 = 1");
+        return queries.toArray(new String[0]);
+    }
+
+    /**
+     * Sends the queries over one connection in batches and records the latency of every one in nanoseconds
+     */
+    private static long[] runConnection(int port, String[] queries, int firstQuery, int queryCount, int depth,
+                                        CountDownLatch connected, CountDownLatch started) throws Exception {
+        long[] latencies = new long[queryCount];
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            connected.countDown();
+            started.await();
+
+            int queryIdx = firstQuery;
+            for (int sent = 0; sent < queryCount; ) {
+                int batchSize = Math.min(depth, queryCount - sent);
+                long batchStart = System.nanoTime();
+                for (int i = 0; i < batchSize; i++) {
+                    writer.write(queries[queryIdx++ % queries.length]);
+                    writer.write('\n');
+                }
+                writer.flush();
+                for (int i = 0; i < batchSize; i++) {
+                    if (reader.readLine() == null) {
+                        throw new IOException("the server has closed the connection");
+                    }
+                    latencies[sent + i] = System.nanoTime() - batchStart;
+                }
+                sent += batchSize;
+            }
+        }
+        return latencies;
+    }
+
+    private static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    public static void main(String[] args) throws Throwable {
+        if (args.length < 3 || args.length > 4) {
+            System.err.println("Usage: TranslationServerLoad <connections> <queries per connection> "
+                    + "<pipeline depth> [port]");
+            System.exit(1);
+        }
+        int connectionCount = Integer.parseInt(args[0]);
+        int queryCount = Integer.parseInt(args[1]);
+        int depth = Integer.parseInt(args[2]);
+
+        Closeable server = null;
+        int port;
+        if (args.length == 4) {
+            port = Integer.parseInt(args[3]);
+        } else {
+            server = (Closeable) (Object) START.invokeExact(0);
+            port = (int) GET_PORT.invokeExact((Object) server);
+        }
+
+        String[] queries = queries();
+        ExecutorService executor = newThreadPerTaskExecutor();
+        try {
+            CountDownLatch connected = new CountDownLatch(connectionCount);
+            CountDownLatch started = new CountDownLatch(1);
+            List<Future<long[]>> results = new ArrayList<>();
+            for (int i = 0; i < connectionCount; i++) {
+                int firstQuery = i % queries.length;
+                results.add(executor.submit(
+                        () -> runConnection(port, queries, firstQuery, queryCount, depth, connected, started)));
+            }
+            connected.await();
+            long start = System.nanoTime();
+            started.countDown();
+
+            long[] latencies = new long[connectionCount * queryCount];
+            int latencyCount = 0;
+            for (Future<long[]> result : results) {
+                try {
+                    long[] connectionLatencies = result.get();
+                    System.arraycopy(connectionLatencies, 0, latencies, latencyCount, connectionLatencies.length);
+                    latencyCount += connectionLatencies.length;
+                } catch (ExecutionException e) {
+                    throw e.getCause();
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+
+            Arrays.sort(latencies);
+            System.out.printf("connections: %d, queries: %d, pipeline depth: %d%n",
+                    connectionCount, latencyCount, depth);
+            System.out.printf("throughput: %.0f queries/s%n", latencyCount / (elapsed / 1e9));
+            System.out.printf("latency us: p50 %.1f, p99 %.1f, p99.9 %.1f, max %.1f%n",
+                    micros(latencies[latencyCount / 2]), micros(latencies[(int) (latencyCount * 0.99)]),
+                    micros(latencies[(int) (latencyCount * 0.999)]), micros(latencies[latencyCount - 1]));
+        } finally {
+            executor.shutdownNow();
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a whole Translator.translate(String) call
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TranslatorBenchmark {
+    private static final MethodHandle TRANSLATE =
+            DefaultPackage.findStatic("Translator", "translate", String.class, String.class);
+    private static final MethodHandle CONTEXT_TRANSLATE_BYTES = DefaultPackage.findVirtual(
+            "TranslatorContext", "translate", void.class, ByteBuffer.class, ByteBuffer.class);
+    private static final MethodHandle CONTEXT_TRANSLATE_TO_BSON = DefaultPackage.findVirtual(
+            "TranslatorContext", "translateToBson", void.class, CharSequence.class, ByteBuffer.class);
+    private static final MethodHandle NEW_CACHE = DefaultPackage.findConstructor("TranslationCache", int.class);
+    private static final MethodHandle CACHE_TRANSLATE =
+            DefaultPackage.findVirtual("TranslationCache", "translate", String.class, String.class);
+    private static final MethodHandle NEW_CONTEXT = DefaultPackage.findConstructor("TranslatorContext");
+    private static final MethodHandle CONTEXT_TRANSLATE = DefaultPackage.findVirtual(
+            "TranslatorContext", "translate", void.class, CharSequence.class, StringBuilder.class);
+
+    @Param({QueryCorpus.SELECT_ALL, QueryCorpus.WIDE_PROJECTION, QueryCorpus.MANY_PREDICATES,
+            QueryCorpus.OFFSET_LIMIT})
+    public String shape;
+
+    @Param({"1", "8", "64"})
+    public int width;
+
+    private String query;
+    private Object context;
+    private Object cache;
+    private final StringBuilder output = new StringBuilder();
+    private byte[] queryBytes;
+    private ByteBuffer queryBuffer;
+    private final ByteBuffer outputBuffer = ByteBuffer.allocate(64 * 1024);
+
+    @Setup
+    public void setUp() throws Throwable {
+        query = QueryCorpus.query(shape, width);
+        context = (Object) NEW_CONTEXT.invokeExact();
+        cache = (Object) NEW_CACHE.invokeExact(1024);
+        queryBytes = query.getBytes(StandardCharsets.UTF_8);
+        queryBuffer = ByteBuffer.wrap(queryBytes);
+    }
+
+    @Benchmark
+    public Object translate() throws Throwable {
+        return (Object) TRANSLATE.invokeExact((Object) query);
+    }
+
+    /**
+     * Reused TranslatorContext writing into a reused buffer, which must show no allocations in the gc profiler
+     */
+    @Benchmark
+    public StringBuilder translateWithContext() throws Throwable {
+        output.setLength(0);
+        CONTEXT_TRANSLATE.invokeExact(context, (Object) query, (Object) output);
+        return output;
+    }
+
+    /**
+     * TranslationCache hit: literal scan and template splicing only
+     */
+    @Benchmark
+    public Object translateCached() throws Throwable {
+        return (Object) CACHE_TRANSLATE.invokeExact(cache, (Object) query);
+    }
+
+    /**
+     * UTF-8 request to UTF-8 response through the String API: decode, translate, encode
+     */
+    @Benchmark
+    public byte[] translateDecodedBytes() throws Throwable {
+        String query = new String(queryBytes, StandardCharsets.UTF_8);
+        String command = (String) (Object) TRANSLATE.invokeExact((Object) query);
+        return command.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * UTF-8 request to UTF-8 response parsed and rendered on bytes
+     */
+    @Benchmark
+    public ByteBuffer translateBytes() throws Throwable {
+        outputBuffer.clear();
+        CONTEXT_TRANSLATE_BYTES.invokeExact(context, (Object) queryBuffer, (Object) outputBuffer);
+        return outputBuffer;
+    }
+
+    /**
+     * BSON find command written straight into a reused buffer, no shell string in between
+     */
+    @Benchmark
+    public ByteBuffer translateToBson() throws Throwable {
+        outputBuffer.clear();
+        CONTEXT_TRANSLATE_TO_BSON.invokeExact(context, (Object) query, (Object) outputBuffer);
+        return outputBuffer;
+    }
+}
@@ -0,0 +1,91 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.invoke.MethodHandle;
+import java.text.CharacterIterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of every translation phase measured separately: keyword lexing, clause parsing and shell command rendering
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TranslatorPhasesBenchmark {
+    private static final MethodHandle NEW_ITERATOR =
+            DefaultPackage.findConstructor("CharArrayIterator", char[].class);
+    private static final MethodHandle NEW_BUILDER =
+            DefaultPackage.findConstructor("MongoShellBuilder", char[].class);
+    private static final MethodHandle GET_TERMINAL =
+            DefaultPackage.findStatic("Terminal", "getTerminal", "Terminal", CharacterIterator.class);
+    private static final MethodHandle PARSE =
+            DefaultPackage.findStatic("Translator", "parse", void.class, CharacterIterator.class, "MongoShellBuilder");
+    private static final MethodHandle PARSE_SELECT = DefaultPackage.findStatic(
+            "Translator", "parseSelectExpression", void.class, CharacterIterator.class, "MongoShellBuilder");
+    private static final MethodHandle PARSE_WHERE = DefaultPackage.findStatic(
+            "Translator", "parseWhereExpression", void.class, CharacterIterator.class, "MongoShellBuilder");
+    private static final MethodHandle BUILD =
+            DefaultPackage.findVirtual("MongoShellBuilder", "build", String.class);
+
+    @Param({QueryCorpus.SELECT_ALL, QueryCorpus.WIDE_PROJECTION, QueryCorpus.MANY_PREDICATES,
+            QueryCorpus.OFFSET_LIMIT})
+    public String shape;
+
+    @Param({"1", "8", "64"})
+    public int width;
+
+    private char[] chars;
+    private CharacterIterator iterator;
+    private int[] keywordPositions;
+    private int selectPosition;
+    private int[] wherePositions;
+    private Object parsedBuilder;
+
+    @Setup
+    public void setUp() throws Throwable {
+        chars = QueryCorpus.query(shape, width).toCharArray();
+        iterator = (CharacterIterator) (Object) NEW_ITERATOR.invokeExact((Object) chars);
+        keywordPositions = QueryCorpus.keywordPositions(chars);
+        selectPosition = QueryCorpus.clausePositions(chars, "SELECT")[0];
+        wherePositions = QueryCorpus.clausePositions(chars, "WHERE", "AND");
+
+        parsedBuilder = (Object) NEW_BUILDER.invokeExact((Object) chars);
+        PARSE.invokeExact((Object) NEW_ITERATOR.invokeExact((Object) chars), parsedBuilder);
+    }
+
+    @Benchmark
+    public void lex(Blackhole blackhole) throws Throwable {
+        for (int position : keywordPositions) {
+            iterator.setIndex(position);
+            blackhole.consume((Object) GET_TERMINAL.invokeExact((Object) iterator));
+        }
+    }
+
+    @Benchmark
+    public Object parseSelectExpression() throws Throwable {
+        Object builder = (Object) NEW_BUILDER.invokeExact((Object) chars);
+        iterator.setIndex(selectPosition);
+        PARSE_SELECT.invokeExact((Object) iterator, builder);
+        return builder;
+    }
+
+    @Benchmark
+    public Object parseWhereExpression() throws Throwable {
+        Object builder = (Object) NEW_BUILDER.invokeExact((Object) chars);
+        for (int position : wherePositions) {
+            iterator.setIndex(position);
+            PARSE_WHERE.invokeExact((Object) iterator, builder);
+        }
+        return builder;
+    }
+
+    @Benchmark
+    public Object build() throws Throwable {
+        return (Object) BUILD.invokeExact(parsedBuilder);
+    }
+}
@@ -0,0 +1,45 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Translation time from 1 to 10,000 predicates and projected columns. The time per element must stay flat as the
+ * width grows, anything growing faster than linearly shows up as a rising time per element.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WhereScalingBenchmark {
+    private static final MethodHandle NEW_CONTEXT = DefaultPackage.findConstructor("TranslatorContext");
+    private static final MethodHandle CONTEXT_TRANSLATE = DefaultPackage.findVirtual(
+            "TranslatorContext", "translate", void.class, CharSequence.class, StringBuilder.class);
+
+    @Param({QueryCorpus.WIDE_PROJECTION, QueryCorpus.MANY_PREDICATES, QueryCorpus.OFFSET_LIMIT})
+    public String shape;
+
+    @Param({"1", "10", "100", "1000", "10000"})
+    public int width;
+
+    private String query;
+    private Object context;
+    private final StringBuilder output = new StringBuilder();
+
+    @Setup
+    public void setUp() throws Throwable {
+        query = QueryCorpus.query(shape, width);
+        context = (Object) NEW_CONTEXT.invokeExact();
+    }
+
+    @Benchmark
+    public StringBuilder translate() throws Throwable {
+        output.setLength(0);
+        CONTEXT_TRANSLATE.invokeExact(context, (Object) query, (Object) output);
+        return output;
+    }
+}
@@ -0,0 +1,79 @@
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork-join task translating a range of a batch. Leaves run on the translator context of their worker thread,
+ * so the parser state is reused across the whole batch, and a failing query only fails its own index.
+ */
+class BatchTranslation extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> sqlQueries;
+    private final String[] commands;
+    private final long[] fingerprints;
+    private final TranslationResult[] failures;
+    private final int from;
+    private final int to;
+    private final int leafSize;
+
+    /**
+     * @param commands     receives the commands of the successful queries
+     * @param fingerprints receives the shape fingerprints of the successful queries, may be null
+     * @param failures     receives the failed results, the successful indexes are left untouched
+     */
+    BatchTranslation(List<String> sqlQueries, String[] commands, long[] fingerprints, TranslationResult[] failures,
+                     int leafSize) {
+        this(sqlQueries, commands, fingerprints, failures, 0, sqlQueries.size(), leafSize);
+    }
+
+    private BatchTranslation(List<String> sqlQueries, String[] commands, long[] fingerprints,
+                             TranslationResult[] failures, int from, int to, int leafSize) {
+        this.sqlQueries = sqlQueries;
+        this.commands = commands;
+        this.fingerprints = fingerprints;
+        this.failures = failures;
+        this.from = from;
+        this.to = to;
+        this.leafSize = leafSize;
+    }
+
+    /**
+     * @return number of queries per leaf, so every worker gets several leaves to balance the load
+     */
+    static int leafSize(int batchSize, int parallelism) {
+        return Math.max(64, batchSize / (parallelism * 8));
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from <= leafSize) {
+            TranslatorContext context = TranslatorContext.forCurrentThread();
+            StringBuilder output = new StringBuilder();
+            for (int i = from; i < to; i++) {
+                output.setLength(0);
+                try {
+                    // a rejection by tryTranslate skips the stack trace
+                    if (!context.tryTranslate(sqlQueries.get(i), output)) {
+                        failures[i] = TranslationResult.failure(context.getErrorKind(), context.getErrorPosition(),
+                                context.getErrorMessage());
+                        continue;
+                    }
+                } catch (RuntimeException e) {
+                    failures[i] = TranslationResult.failure(e);
+                    continue;
+                }
+                commands[i] = output.toString();
+                if (fingerprints != null) {
+                    fingerprints[i] = context.getFingerprint();
+                }
+            }
+            return;
+        }
+
+        int middle = (from + to) >>> 1;
+        invokeAll(
+                new BatchTranslation(sqlQueries, commands, fingerprints, failures, from, middle, leafSize),
+                new BatchTranslation(sqlQueries, commands, fingerprints, failures, middle, to, leafSize)
+        );
+    }
+}
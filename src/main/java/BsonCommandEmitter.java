@@ -0,0 +1,524 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Writes the clauses collected by a {@link MongoShellBuilder} as the BSON document of a {@code find} or an
+ * {@code aggregate} command, see {@link MongoShellBuilder#buildFindCommand}. The documents mirror the shell
+ * commands of {@link MongoShellBuilder#build(StringBuilder)}.
+ *
+ * An emitter is owned by one builder and reads its state after the build stages have run.
+ */
+final class BsonCommandEmitter {
+    private final MongoShellBuilder builder;
+
+    BsonCommandEmitter(MongoShellBuilder builder) {
+        this.builder = builder;
+    }
+
+    private long parseNumber(CharsMapping mapping) {
+        if (mapping.isParameter) {
+            throw new IllegalStateException("a query with placeholders can't be encoded");
+        }
+        long number = builder.parseNumberOrNegative(mapping);
+        if (number < 0) {
+            throw TranslationException.atPosition(TranslationException.Kind.NUMBER_TOO_LARGE, mapping.offset,
+                    "the number at position %2$d is too large");
+        }
+        return number;
+    }
+
+    private void putNameKey(ByteBuffer output, CharsMapping mapping) {
+        builder.putName(output, mapping);
+        output.put((byte) 0);
+    }
+
+    private void putNumberElement(ByteBuffer output, String key, CharsMapping valueMapping) {
+        putNumberElement(output, key, parseNumber(valueMapping));
+    }
+
+    private void putNumberElement(ByteBuffer output, String key, long value) {
+        int typePosition = BsonWriter.reserveType(output);
+        for (int i = 0; i < key.length(); i++) {
+            output.put((byte) key.charAt(i));
+        }
+        output.put((byte) 0);
+        BsonWriter.putNumber(output, typePosition, value);
+    }
+
+    private void putInList(ByteBuffer output, MongoShellBuilder.WhereExpression whereExpression) {
+        BsonWriter.putKey(output, BsonWriter.TYPE_ARRAY, "$in");
+        int arrayStart = BsonWriter.startDocument(output);
+        for (int i = 0; i < whereExpression.inCount; i++) {
+            int typePosition = BsonWriter.reserveType(output);
+            BsonWriter.putIndexKey(output, i);
+            BsonWriter.putNumber(output, typePosition, whereExpression.inValues[i]);
+        }
+        BsonWriter.endDocument(output, arrayStart);
+    }
+
+    /**
+     * Writes the element of a field in the filter the way the shell command has it, see
+     * {@link MongoShellBuilder#build(StringBuilder)}
+     */
+    private void putWhereExpression(ByteBuffer output, MongoShellBuilder.WhereExpression whereExpression) {
+        if (whereExpression.isUnsatisfiable()) {
+            output.put(BsonWriter.TYPE_DOCUMENT);
+            putNameKey(output, whereExpression.varMapping);
+            int expressionStart = BsonWriter.startDocument(output);
+            BsonWriter.putKey(output, BsonWriter.TYPE_ARRAY, "$in");
+            BsonWriter.endDocument(output, BsonWriter.startDocument(output));
+            BsonWriter.endDocument(output, expressionStart);
+            return;
+        }
+        int equalityIdx = builder.plainEqualityIdx(whereExpression);
+        if (equalityIdx >= 0) {
+            int typePosition = BsonWriter.reserveType(output);
+            putNameKey(output, whereExpression.varMapping);
+            BsonWriter.putNumber(output, typePosition, parseNumber(whereExpression.valueMappings.get(equalityIdx)));
+            return;
+        }
+
+        output.put(BsonWriter.TYPE_DOCUMENT);
+        putNameKey(output, whereExpression.varMapping);
+        int expressionStart = BsonWriter.startDocument(output);
+        int size = whereExpression.size();
+        boolean isNotInList = whereExpression.keptCount(MongoShellBuilder.WhereExpression.CompareSign.NON_EQUALS) > 1;
+        for (int i = 0; i < size; i++) {
+            MongoShellBuilder.WhereExpression.CompareSign sign = whereExpression.signs.get(i);
+            if (whereExpression.isKept(i)
+                    && !(isNotInList && sign == MongoShellBuilder.WhereExpression.CompareSign.NON_EQUALS)) {
+                putNumberElement(output, sign.value, whereExpression.valueMappings.get(i));
+            }
+        }
+        if (isNotInList) {
+            BsonWriter.putKey(output, BsonWriter.TYPE_ARRAY, "$nin");
+            int arrayStart = BsonWriter.startDocument(output);
+            int valueIdx = 0;
+            for (int i = 0; i < size; i++) {
+                if (whereExpression.signs.get(i) == MongoShellBuilder.WhereExpression.CompareSign.NON_EQUALS
+                        && whereExpression.isKept(i)) {
+                    int typePosition = BsonWriter.reserveType(output);
+                    BsonWriter.putIndexKey(output, valueIdx++);
+                    BsonWriter.putNumber(output, typePosition, parseNumber(whereExpression.valueMappings.get(i)));
+                }
+            }
+            BsonWriter.endDocument(output, arrayStart);
+        }
+        if (whereExpression == builder.keysetExpression && builder.isKeysetKept) {
+            putNumberElement(output, builder.keysetSign().value, builder.lastKey);
+        }
+        if (whereExpression.hasInList) {
+            putInList(output, whereExpression);
+        }
+        BsonWriter.endDocument(output, expressionStart);
+    }
+
+    /**
+     * Starts an element of {@code $and} that constrains the field
+     *
+     * @return positions of the element and of the operator document, which are passed to
+     * {@link BsonWriter#endDocument} in reverse order
+     */
+    private long startAndElement(ByteBuffer output, int elementIdx, CharsMapping field) {
+        int elementStart = startStage(output, elementIdx);
+        output.put(BsonWriter.TYPE_DOCUMENT);
+        putNameKey(output, field);
+        return (long) elementStart << 32 | BsonWriter.startDocument(output);
+    }
+
+    private static void endAndElement(ByteBuffer output, long starts) {
+        BsonWriter.endDocument(output, (int) starts);
+        BsonWriter.endDocument(output, (int) (starts >>> 32));
+    }
+
+    /**
+     * Writes every constraint of a field that repeats an operator as an element of {@code $and}
+     *
+     * @return index of the next element
+     */
+    private int putAndElements(ByteBuffer output, MongoShellBuilder.WhereExpression whereExpression, int elementIdx) {
+        for (int i = 0; i < whereExpression.size(); i++) {
+            if (whereExpression.isKept(i)) {
+                long starts = startAndElement(output, elementIdx++, whereExpression.varMapping);
+                putNumberElement(output, whereExpression.signs.get(i).value, whereExpression.valueMappings.get(i));
+                endAndElement(output, starts);
+            }
+        }
+        if (whereExpression == builder.keysetExpression && builder.isKeysetKept) {
+            long starts = startAndElement(output, elementIdx++, whereExpression.varMapping);
+            putNumberElement(output, builder.keysetSign().value, builder.lastKey);
+            endAndElement(output, starts);
+        }
+        if (whereExpression.hasInList) {
+            long starts = startAndElement(output, elementIdx++, whereExpression.varMapping);
+            putInList(output, whereExpression);
+            endAndElement(output, starts);
+        }
+        return elementIdx;
+    }
+
+    private void putFilter(ByteBuffer output, String key) {
+        BsonWriter.putKey(output, BsonWriter.TYPE_DOCUMENT, key);
+        int filterStart = BsonWriter.startDocument(output);
+        boolean hasAnd = false;
+        for (int i = 0; i < builder.whereExpressions.size(); i++) {
+            MongoShellBuilder.WhereExpression whereExpression = builder.whereExpressionAt(i);
+            if (builder.isRenderedInAnd(whereExpression)) {
+                hasAnd = true;
+            } else {
+                putWhereExpression(output, whereExpression);
+            }
+        }
+        if (builder.isKeysetApplied && builder.keysetExpression == null) {
+            output.put(BsonWriter.TYPE_DOCUMENT);
+            if (builder.sortFields.isEmpty()) {
+                output.put((byte) '_').put((byte) 'i').put((byte) 'd').put((byte) 0);
+            } else {
+                putNameKey(output, builder.sortFields.get(0));
+            }
+            int expressionStart = BsonWriter.startDocument(output);
+            putNumberElement(output, builder.keysetSign().value, builder.lastKey);
+            BsonWriter.endDocument(output, expressionStart);
+        }
+        if (hasAnd) {
+            BsonWriter.putKey(output, BsonWriter.TYPE_ARRAY, "$and");
+            int arrayStart = BsonWriter.startDocument(output);
+            int elementIdx = 0;
+            for (int i = 0; i < builder.whereExpressions.size(); i++) {
+                MongoShellBuilder.WhereExpression whereExpression = builder.whereExpressionAt(i);
+                if (builder.isRenderedInAnd(whereExpression)) {
+                    elementIdx = putAndElements(output, whereExpression, elementIdx);
+                }
+            }
+            BsonWriter.endDocument(output, arrayStart);
+        }
+        BsonWriter.endDocument(output, filterStart);
+    }
+
+    private void putProjection(ByteBuffer output) {
+        BsonWriter.putKey(output, BsonWriter.TYPE_DOCUMENT, "projection");
+        int projectionStart = BsonWriter.startDocument(output);
+        for (int i = 0; i < builder.selectFields.size(); i++) {
+            int typePosition = BsonWriter.reserveType(output);
+            putNameKey(output, builder.selectFields.get(i));
+            BsonWriter.putNumber(output, typePosition, 1);
+        }
+        if (builder.indexSelection.isCovered()) {
+            putNumberElement(output, "_id", 0);
+        }
+        BsonWriter.endDocument(output, projectionStart);
+    }
+
+    private void putHint(ByteBuffer output, IndexCatalog.Index hintIndex) {
+        BsonWriter.putKey(output, BsonWriter.TYPE_DOCUMENT, "hint");
+        int hintStart = BsonWriter.startDocument(output);
+        for (int i = 0; i < hintIndex.getFieldCount(); i++) {
+            int typePosition = BsonWriter.reserveType(output);
+            output.put(hintIndex.getEncodedField(i)).put((byte) 0);
+            BsonWriter.putNumber(output, typePosition, 1);
+        }
+        BsonWriter.endDocument(output, hintStart);
+    }
+
+    private void putFieldPath(ByteBuffer output, CharsMapping field) {
+        int pathStart = BsonWriter.startString(output);
+        output.put((byte) '$');
+        builder.putName(output, field);
+        BsonWriter.endString(output, pathStart);
+    }
+
+    private void putAggregateNameKey(ByteBuffer output, byte type, int aggregateIdx) {
+        output.put(type);
+        putAggregateName(output, aggregateIdx);
+    }
+
+    private void putAggregateName(ByteBuffer output, int aggregateIdx) {
+        String prefix = builder.aggregates.get(aggregateIdx).prefix;
+        for (int i = 0; i < prefix.length(); i++) {
+            output.put((byte) prefix.charAt(i));
+        }
+        CharsMapping field = builder.aggregateFields.get(aggregateIdx);
+        if (field != null) {
+            output.put((byte) '_');
+            builder.putName(output, field);
+        }
+        output.put((byte) 0);
+    }
+
+    /**
+     * Starts the document of the pipeline stage with the given index in the array
+     *
+     * @return position of the stage document, which is passed to {@link BsonWriter#endDocument}
+     */
+    private static int startStage(ByteBuffer output, int stageIdx) {
+        output.put(BsonWriter.TYPE_DOCUMENT);
+        BsonWriter.putIndexKey(output, stageIdx);
+        return BsonWriter.startDocument(output);
+    }
+
+    private void putProjectStage(ByteBuffer output) {
+        BsonWriter.putKey(output, BsonWriter.TYPE_DOCUMENT, "$project");
+        int projectStart = BsonWriter.startDocument(output);
+        for (int i = 0; i < builder.groupFields.size(); i++) {
+            int typePosition = BsonWriter.reserveType(output);
+            putNameKey(output, builder.groupFields.get(i));
+            BsonWriter.putNumber(output, typePosition, 1);
+        }
+        for (int i = 0; i < builder.aggregates.size(); i++) {
+            if (builder.aggregateFields.get(i) != null && !builder.isProjected(i)) {
+                int typePosition = BsonWriter.reserveType(output);
+                putNameKey(output, builder.aggregateFields.get(i));
+                BsonWriter.putNumber(output, typePosition, 1);
+            }
+        }
+        putNumberElement(output, "_id", 0);
+        BsonWriter.endDocument(output, projectStart);
+    }
+
+    private void putResultStage(ByteBuffer output) {
+        BsonWriter.putKey(output, BsonWriter.TYPE_DOCUMENT, "$project");
+        int projectStart = BsonWriter.startDocument(output);
+        for (int i = 0; i < builder.groupFields.size(); i++) {
+            if (!builder.isGroupFieldSelected(i)) {
+                continue;
+            }
+            output.put(BsonWriter.TYPE_STRING);
+            putNameKey(output, builder.groupFields.get(i));
+            int pathStart = BsonWriter.startString(output);
+            output.put((byte) '$').put((byte) '_').put((byte) 'i').put((byte) 'd');
+            if (builder.groupFields.size() != 1) {
+                output.put((byte) '.');
+                builder.putName(output, builder.groupFields.get(i));
+            }
+            BsonWriter.endString(output, pathStart);
+        }
+        for (int i = 0; i < builder.aggregates.size(); i++) {
+            int typePosition = BsonWriter.reserveType(output);
+            putAggregateName(output, i);
+            BsonWriter.putNumber(output, typePosition, 1);
+        }
+        putNumberElement(output, "_id", 0);
+        BsonWriter.endDocument(output, projectStart);
+    }
+
+    private void putGroupStage(ByteBuffer output) {
+        BsonWriter.putKey(output, BsonWriter.TYPE_DOCUMENT, "$group");
+        int groupStart = BsonWriter.startDocument(output);
+        if (builder.groupFields.isEmpty()) {
+            BsonWriter.putKey(output, BsonWriter.TYPE_NULL, "_id");
+        } else if (builder.groupFields.size() == 1) {
+            BsonWriter.putKey(output, BsonWriter.TYPE_STRING, "_id");
+            putFieldPath(output, builder.groupFields.get(0));
+        } else {
+            BsonWriter.putKey(output, BsonWriter.TYPE_DOCUMENT, "_id");
+            int idStart = BsonWriter.startDocument(output);
+            for (int i = 0; i < builder.groupFields.size(); i++) {
+                output.put(BsonWriter.TYPE_STRING);
+                putNameKey(output, builder.groupFields.get(i));
+                putFieldPath(output, builder.groupFields.get(i));
+            }
+            BsonWriter.endDocument(output, idStart);
+        }
+        for (int i = 0; i < builder.aggregates.size(); i++) {
+            putAggregateNameKey(output, BsonWriter.TYPE_DOCUMENT, i);
+            int accumulatorStart = BsonWriter.startDocument(output);
+            String accumulator = builder.aggregates.get(i).accumulator;
+            if (builder.aggregateFields.get(i) == null) {
+                putNumberElement(output, accumulator, 1);
+            } else {
+                BsonWriter.putKey(output, BsonWriter.TYPE_STRING, accumulator);
+                putFieldPath(output, builder.aggregateFields.get(i));
+            }
+            BsonWriter.endDocument(output, accumulatorStart);
+        }
+        BsonWriter.endDocument(output, groupStart);
+    }
+
+    /**
+     * Writes the sort keys: the fields as they are for a find, the grouped fields as paths in the {@code _id} of
+     * the group and the aggregates by their names for an aggregation
+     */
+    private void putSort(ByteBuffer output, String key) {
+        BsonWriter.putKey(output, BsonWriter.TYPE_DOCUMENT, key);
+        int sortStart = BsonWriter.startDocument(output);
+        for (int i = 0; i < builder.sortFields.size(); i++) {
+            int typePosition = BsonWriter.reserveType(output);
+            if (builder.sortFields.get(i) == null) {
+                putAggregateName(output, builder.sortAggregates[i]);
+            } else if (!builder.isAggregation()) {
+                putNameKey(output, builder.sortFields.get(i));
+            } else if (builder.groupFields.size() == 1) {
+                output.put((byte) '_').put((byte) 'i').put((byte) 'd').put((byte) 0);
+            } else {
+                output.put((byte) '_').put((byte) 'i').put((byte) 'd').put((byte) '.');
+                putNameKey(output, builder.sortFields.get(i));
+            }
+            BsonWriter.putNumber(output, typePosition, builder.sortDescending[i] ? -1 : 1);
+        }
+        BsonWriter.endDocument(output, sortStart);
+    }
+
+    private void putHavingStage(ByteBuffer output) {
+        BsonWriter.putKey(output, BsonWriter.TYPE_DOCUMENT, "$match");
+        int matchStart = BsonWriter.startDocument(output);
+        boolean hasAnd = false;
+        for (int i = 0; i < builder.aggregates.size(); i++) {
+            if (builder.isHavingInAnd(i)) {
+                hasAnd = true;
+                continue;
+            }
+            int constraintsStart = -1;
+            for (int j = 0; j < builder.havingSigns.size(); j++) {
+                if (builder.havingAggregates[j] != i) {
+                    continue;
+                }
+                if (constraintsStart < 0) {
+                    putAggregateNameKey(output, BsonWriter.TYPE_DOCUMENT, i);
+                    constraintsStart = BsonWriter.startDocument(output);
+                }
+                putNumberElement(output, builder.havingSigns.get(j).value, builder.havingValues.get(j));
+            }
+            if (constraintsStart >= 0) {
+                BsonWriter.endDocument(output, constraintsStart);
+            }
+        }
+        if (hasAnd) {
+            BsonWriter.putKey(output, BsonWriter.TYPE_ARRAY, "$and");
+            int arrayStart = BsonWriter.startDocument(output);
+            int elementIdx = 0;
+            for (int i = 0; i < builder.aggregates.size(); i++) {
+                if (!builder.isHavingInAnd(i)) {
+                    continue;
+                }
+                for (int j = 0; j < builder.havingSigns.size(); j++) {
+                    if (builder.havingAggregates[j] == i) {
+                        int elementStart = startStage(output, elementIdx++);
+                        putAggregateNameKey(output, BsonWriter.TYPE_DOCUMENT, i);
+                        int constraintStart = BsonWriter.startDocument(output);
+                        putNumberElement(output, builder.havingSigns.get(j).value, builder.havingValues.get(j));
+                        BsonWriter.endDocument(output, constraintStart);
+                        BsonWriter.endDocument(output, elementStart);
+                    }
+                }
+            }
+            BsonWriter.endDocument(output, arrayStart);
+        }
+        BsonWriter.endDocument(output, matchStart);
+    }
+
+    /**
+     * Writes {@code {aggregate: "collection", pipeline: [...], cursor: {}, allowDiskUse: true, hint: {...}}} with
+     * the stages of the shell aggregation
+     */
+    private void putAggregateCommand(ByteBuffer output) {
+        int documentStart = BsonWriter.startDocument(output);
+        BsonWriter.putKey(output, BsonWriter.TYPE_STRING, "aggregate");
+        int nameStart = BsonWriter.startString(output);
+        builder.putName(output, builder.fromDatabaseName);
+        BsonWriter.endString(output, nameStart);
+
+        BsonWriter.putKey(output, BsonWriter.TYPE_ARRAY, "pipeline");
+        int pipelineStart = BsonWriter.startDocument(output);
+        int stageIdx = 0;
+        int stageStart;
+        if (!builder.whereExpressions.isEmpty()) {
+            stageStart = startStage(output, stageIdx++);
+            putFilter(output, "$match");
+            BsonWriter.endDocument(output, stageStart);
+        }
+        if (builder.hasProjection()) {
+            stageStart = startStage(output, stageIdx++);
+            putProjectStage(output);
+            BsonWriter.endDocument(output, stageStart);
+        }
+        stageStart = startStage(output, stageIdx++);
+        putGroupStage(output);
+        BsonWriter.endDocument(output, stageStart);
+        if (!builder.havingSigns.isEmpty()) {
+            stageStart = startStage(output, stageIdx++);
+            putHavingStage(output);
+            BsonWriter.endDocument(output, stageStart);
+        }
+        if (!builder.sortFields.isEmpty()) {
+            stageStart = startStage(output, stageIdx++);
+            putSort(output, "$sort");
+            BsonWriter.endDocument(output, stageStart);
+        }
+        if (builder.skipValue != null) {
+            stageStart = startStage(output, stageIdx++);
+            putNumberElement(output, "$skip", builder.skipValue);
+            BsonWriter.endDocument(output, stageStart);
+        }
+        if (builder.limitValue != null) {
+            stageStart = startStage(output, stageIdx++);
+            putNumberElement(output, "$limit", builder.limitValue);
+            BsonWriter.endDocument(output, stageStart);
+        }
+        if (!builder.groupFields.isEmpty()) {
+            stageStart = startStage(output, stageIdx);
+            putResultStage(output);
+            BsonWriter.endDocument(output, stageStart);
+        }
+        BsonWriter.endDocument(output, pipelineStart);
+
+        BsonWriter.putKey(output, BsonWriter.TYPE_DOCUMENT, "cursor");
+        BsonWriter.endDocument(output, BsonWriter.startDocument(output));
+        if (builder.isAllowDiskUse) {
+            BsonWriter.putKey(output, BsonWriter.TYPE_BOOLEAN, "allowDiskUse");
+            BsonWriter.putBoolean(output, true);
+        }
+        IndexCatalog.Index hintIndex = builder.indexSelection.getHintIndex();
+        if (hintIndex != null) {
+            putHint(output, hintIndex);
+        }
+        BsonWriter.endDocument(output, documentStart);
+    }
+
+    private void putFindCommand(ByteBuffer output) {
+        int documentStart = BsonWriter.startDocument(output);
+        BsonWriter.putKey(output, BsonWriter.TYPE_STRING, "find");
+        int nameStart = BsonWriter.startString(output);
+        builder.putName(output, builder.fromDatabaseName);
+        BsonWriter.endString(output, nameStart);
+
+        putFilter(output, "filter");
+        if (!builder.selectFields.isEmpty()) {
+            putProjection(output);
+        }
+        IndexCatalog.Index hintIndex = builder.indexSelection.getHintIndex();
+        if (hintIndex != null) {
+            putHint(output, hintIndex);
+        }
+        if (!builder.sortFields.isEmpty()) {
+            putSort(output, "sort");
+        } else if (builder.isKeysetApplied) {
+            BsonWriter.putKey(output, BsonWriter.TYPE_DOCUMENT, "sort");
+            int sortStart = BsonWriter.startDocument(output);
+            putNumberElement(output, "_id", 1);
+            BsonWriter.endDocument(output, sortStart);
+        }
+        if (builder.skipValue != null && !builder.isKeysetApplied) {
+            putNumberElement(output, "skip", builder.skipValue);
+        }
+        if (builder.limitValue != null) {
+            putNumberElement(output, "limit", builder.limitValue);
+        }
+        BsonWriter.endDocument(output, documentStart);
+    }
+
+    /**
+     * Writes the command at the buffer position, the position is moved back if the command doesn't fit
+     */
+    void write(ByteBuffer output) {
+        int commandStart = output.position();
+        try {
+            if (builder.isAggregation()) {
+                putAggregateCommand(output);
+            } else {
+                putFindCommand(output);
+            }
+        } catch (RuntimeException e) {
+            output.position(commandStart);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Minimal BSON encoder over a caller supplied buffer, just the element types the find and aggregate commands need.
+ * See http://bsonspec.org/spec.html
+ *
+ * Elements are written at the buffer position in little-endian order whatever the order of the buffer is.
+ * The writer keeps no state, so a single buffer can be reused for every command.
+ */
+public final class BsonWriter {
+    public static final byte TYPE_STRING = 0x02;
+    public static final byte TYPE_DOCUMENT = 0x03;
+    public static final byte TYPE_ARRAY = 0x04;
+    public static final byte TYPE_BOOLEAN = 0x08;
+    public static final byte TYPE_NULL = 0x0a;
+    public static final byte TYPE_INT32 = 0x10;
+    public static final byte TYPE_INT64 = 0x12;
+
+    private BsonWriter() {
+    }
+
+    private static void ensureRemaining(ByteBuffer output, int length) {
+        if (output.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+    }
+
+    private static void putInt32(ByteBuffer output, int position, int value) {
+        output.put(position, (byte) value);
+        output.put(position + 1, (byte) (value >>> 8));
+        output.put(position + 2, (byte) (value >>> 16));
+        output.put(position + 3, (byte) (value >>> 24));
+    }
+
+    /**
+     * Reserves the length of a document
+     *
+     * @return position of the document, which is passed to {@link #endDocument}
+     */
+    public static int startDocument(ByteBuffer output) {
+        ensureRemaining(output, 4);
+        int start = output.position();
+        output.position(start + 4);
+        return start;
+    }
+
+    /**
+     * Writes the terminating zero and the length of the document started at the given position
+     */
+    public static void endDocument(ByteBuffer output, int start) {
+        ensureRemaining(output, 1);
+        output.put((byte) 0);
+        putInt32(output, start, output.position() - start);
+    }
+
+    /**
+     * Writes the type and the ASCII key of an element
+     */
+    public static void putKey(ByteBuffer output, byte type, String key) {
+        ensureRemaining(output, key.length() + 2);
+        output.put(type);
+        for (int i = 0; i < key.length(); i++) {
+            output.put((byte) key.charAt(i));
+        }
+        output.put((byte) 0);
+    }
+
+    /**
+     * Writes the key of an array element, which is its decimal index, after the type reserved by
+     * {@link #reserveType}
+     */
+    public static void putIndexKey(ByteBuffer output, int index) {
+        int digits = 1;
+        for (int rest = index / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        ensureRemaining(output, digits + 1);
+        int position = output.position();
+        for (int i = digits - 1; i >= 0; i--) {
+            output.put(position + i, (byte) ('0' + index % 10));
+            index /= 10;
+        }
+        output.position(position + digits);
+        output.put((byte) 0);
+    }
+
+    /**
+     * Reserves the type of an element whose key is written by the caller, the type is filled by
+     * {@link #putNumber}
+     *
+     * @return position of the type
+     */
+    public static int reserveType(ByteBuffer output) {
+        ensureRemaining(output, 1);
+        int position = output.position();
+        output.put((byte) 0);
+        return position;
+    }
+
+    /**
+     * Writes the number as int32 if it fits or as int64 otherwise and sets the element type accordingly
+     */
+    public static void putNumber(ByteBuffer output, int typePosition, long value) {
+        if ((int) value == value) {
+            ensureRemaining(output, 4);
+            output.put(typePosition, TYPE_INT32);
+            putInt32(output, output.position(), (int) value);
+            output.position(output.position() + 4);
+        } else {
+            ensureRemaining(output, 8);
+            output.put(typePosition, TYPE_INT64);
+            ByteOrder order = output.order();
+            output.order(ByteOrder.LITTLE_ENDIAN).putLong(value);
+            output.order(order);
+        }
+    }
+
+    /**
+     * Writes the value of a boolean element, whose type and key are written by {@link #putKey}
+     */
+    public static void putBoolean(ByteBuffer output, boolean value) {
+        ensureRemaining(output, 1);
+        output.put((byte) (value ? 1 : 0));
+    }
+
+    /**
+     * Reserves the length of a string value, the caller writes the UTF-8 bytes of the string after it
+     *
+     * @return position of the string length, which is passed to {@link #endString}
+     */
+    public static int startString(ByteBuffer output) {
+        return startDocument(output);
+    }
+
+    /**
+     * Writes the terminating zero and the length of the string started at the given position
+     */
+    public static void endString(ByteBuffer output, int start) {
+        ensureRemaining(output, 1);
+        output.put((byte) 0);
+        putInt32(output, start, output.position() - start - 4);
+    }
+}
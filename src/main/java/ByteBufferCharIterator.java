@@ -0,0 +1,138 @@
+import java.nio.ByteBuffer;
+import java.text.CharacterIterator;
+
+/**
+ * Iterator over a range of a byte buffer, which reads every byte as an ISO-8859-1 char. The grammar is ASCII,
+ * so UTF-8 input parses the same way and multi-byte names are passed through unchanged.
+ *
+ * Only absolute reads are used, so the buffer can be shared between iterators of several threads. Heap buffers
+ * are read through their backing array.
+ */
+public class ByteBufferCharIterator implements CharacterIterator {
+    private ByteBuffer bytes;
+    // backing array of a heap buffer or null, indexes in the array are shifted by arrayOffset
+    private byte[] array;
+    private int arrayOffset;
+    private int begin;
+    private int end;
+    // invariant: begin <= pos <= end
+    private int pos;
+
+    public ByteBufferCharIterator(ByteBuffer bytes) {
+        reset(bytes, 0, bytes.limit());
+    }
+
+    /**
+     * Points the iterator to the range of another buffer and moves it to the beginning
+     *
+     * @param begin absolute index of the first byte of the text
+     * @param end   absolute index after the last byte of the text
+     */
+    public void reset(ByteBuffer bytes, int begin, int end) {
+        if (bytes == null) {
+            throw new NullPointerException();
+        }
+        if (begin < 0 || begin > end || end > bytes.limit()) {
+            throw new IllegalArgumentException("Invalid substring range");
+        }
+
+        this.bytes = bytes;
+        if (bytes.hasArray()) {
+            this.array = bytes.array();
+            this.arrayOffset = bytes.arrayOffset();
+        } else {
+            this.array = null;
+            this.arrayOffset = 0;
+        }
+        this.begin = begin;
+        this.end = end;
+        this.pos = begin;
+    }
+
+    private char charAt(int position) {
+        if (array != null) {
+            return (char) (array[arrayOffset + position] & 0xff);
+        }
+        return (char) (bytes.get(position) & 0xff);
+    }
+
+    @Override
+    public char first() {
+        pos = begin;
+        return current();
+    }
+
+    @Override
+    public char last() {
+        if (end != begin) {
+            pos = end - 1;
+        } else {
+            pos = end;
+        }
+        return current();
+    }
+
+    @Override
+    public char current() {
+        if (pos >= begin && pos < end) {
+            return charAt(pos);
+        } else {
+            return DONE;
+        }
+    }
+
+    @Override
+    public char next() {
+        if (pos < end - 1) {
+            pos++;
+            return charAt(pos);
+        } else {
+            pos = end;
+            return DONE;
+        }
+    }
+
+    @Override
+    public char previous() {
+        if (pos > begin) {
+            pos--;
+            return charAt(pos);
+        } else {
+            return DONE;
+        }
+    }
+
+    @Override
+    public char setIndex(int position) {
+        if (position < begin || position > end) {
+            throw new IllegalArgumentException("Invalid index");
+        }
+        pos = position;
+        return current();
+    }
+
+    @Override
+    public int getBeginIndex() {
+        return begin;
+    }
+
+    @Override
+    public int getEndIndex() {
+        return end;
+    }
+
+    @Override
+    public int getIndex() {
+        return pos;
+    }
+
+    @Override
+    public Object clone() {
+        try {
+            return super.clone();
+        }
+        catch (CloneNotSupportedException e) {
+            throw new InternalError(e);
+        }
+    }
+}
@@ -1,7 +1,7 @@
 import java.text.CharacterIterator;
 
 public class CharArrayIterator implements CharacterIterator {
-    private final char[] chars;
+    private char[] chars;
     private int begin;
     private int end;
     // invariant: begin <= pos <= end
@@ -18,6 +18,26 @@ public class CharArrayIterator implements CharacterIterator {
         this.pos = 0;
     }
 
+    /**
+     * Points the iterator to the first {@code length} characters of another array and moves it to the beginning
+     *
+     * @param chars  the new text
+     * @param length number of characters of the array that belong to the text
+     */
+    public void reset(char[] chars, int length) {
+        if (chars == null) {
+            throw new NullPointerException();
+        }
+        if (length < 0 || length > chars.length) {
+            throw new IllegalArgumentException("Invalid length");
+        }
+
+        this.chars = chars;
+        this.begin = 0;
+        this.end = length;
+        this.pos = 0;
+    }
+
     /**
      * Sets the position to getBeginIndex() and returns the character at that
      * position.
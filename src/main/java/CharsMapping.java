@@ -2,13 +2,56 @@
  * Holder for array mapping indexes
  */
 public class CharsMapping {
-    public final int offset;
-    public final int length;
-    public final boolean isNumber;
+    public int offset;
+    public int length;
+    public boolean isNumber;
+    /**
+     * The mapping is a {@code ?} placeholder of a prepared query, which stands for a number
+     */
+    public boolean isParameter;
+    /**
+     * Hash of the chars, valid only if {@link #isHashed} is set. The parser computes it while it scans a name, so
+     * the builder can index the names without reading them again.
+     */
+    public int hash;
+    public boolean isHashed;
+    public CharsMapping() {
+    }
     public CharsMapping(int startIdx, int endIdx, boolean isNumber) {
+        set(startIdx, endIdx, isNumber);
+    }
+    /**
+     * Points a reused mapping to another range
+     *
+     * @return this mapping
+     */
+    public CharsMapping set(int startIdx, int endIdx, boolean isNumber) {
         this.offset = startIdx;
         this.length = endIdx - startIdx;
         this.isNumber = isNumber;
+        this.isParameter = false;
+        this.isHashed = false;
+        return this;
+    }
+    /**
+     * Sets the hash of the chars, which is {@code 31 * h + c} over the chars as {@link String#hashCode()}
+     *
+     * @return this mapping
+     */
+    public CharsMapping setHash(int hash) {
+        this.hash = hash;
+        this.isHashed = true;
+        return this;
+    }
+    /**
+     * Points a reused mapping to a {@code ?} placeholder
+     *
+     * @return this mapping
+     */
+    public CharsMapping setParameter(int idx) {
+        set(idx, idx + 1, true);
+        this.isParameter = true;
+        return this;
     }
     public int getEndIndex() {
         return offset + length;
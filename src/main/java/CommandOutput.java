@@ -0,0 +1,113 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Target of the shell command rendered by a {@link MongoShellBuilder}: a StringBuilder or a ByteBuffer the UTF-8
+ * command is put into directly. The names of a byte input are put into a buffer as they are, see
+ * {@link MongoShellBuilder#putName}.
+ *
+ * An output is owned by one builder and is pointed at the target of every build.
+ */
+final class CommandOutput {
+    private StringBuilder text;
+    private ByteBuffer bytes;
+
+    void reset(StringBuilder text) {
+        this.text = text;
+        this.bytes = null;
+    }
+
+    void reset(ByteBuffer bytes) {
+        this.text = null;
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return the target buffer or null if the target is a StringBuilder
+     */
+    ByteBuffer getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the target StringBuilder or null if the target is a buffer
+     */
+    StringBuilder getText() {
+        return text;
+    }
+
+    /**
+     * @return chars or bytes in the target, the offsets of the splices are taken from it
+     */
+    int length() {
+        return bytes == null ? text.length() : bytes.position();
+    }
+
+    CommandOutput append(char value) {
+        if (bytes == null) {
+            text.append(value);
+        } else {
+            putCodePoint(bytes, value);
+        }
+        return this;
+    }
+
+    CommandOutput append(String value) {
+        if (bytes == null) {
+            text.append(value);
+            return this;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            int codePoint = value.charAt(i);
+            if (Character.isHighSurrogate(value.charAt(i)) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                codePoint = Character.toCodePoint(value.charAt(i), value.charAt(++i));
+            }
+            putCodePoint(bytes, codePoint);
+        }
+        return this;
+    }
+
+    CommandOutput append(long value) {
+        if (bytes == null) {
+            text.append(value);
+            return this;
+        }
+        if (value < 0) {
+            bytes.put((byte) '-');
+        }
+        // the digits are put from the lowest one and reversed then
+        int digitsStart = bytes.position();
+        long rest = value;
+        do {
+            bytes.put((byte) ('0' + Math.abs(rest % 10)));
+            rest /= 10;
+        } while (rest != 0);
+        for (int i = digitsStart, j = bytes.position() - 1; i < j; i++, j--) {
+            byte digit = bytes.get(i);
+            bytes.put(i, bytes.get(j));
+            bytes.put(j, digit);
+        }
+        return this;
+    }
+
+    /**
+     * Puts the UTF-8 encoding of the code point, an unpaired surrogate is encoded as it is
+     */
+    static void putCodePoint(ByteBuffer output, int value) {
+        if (value < 0x80) {
+            output.put((byte) value);
+        } else if (value < 0x800) {
+            output.put((byte) (0xc0 | value >> 6));
+            output.put((byte) (0x80 | value & 0x3f));
+        } else if (value < 0x10000) {
+            output.put((byte) (0xe0 | value >> 12));
+            output.put((byte) (0x80 | value >> 6 & 0x3f));
+            output.put((byte) (0x80 | value & 0x3f));
+        } else {
+            output.put((byte) (0xf0 | value >> 18));
+            output.put((byte) (0x80 | value >> 12 & 0x3f));
+            output.put((byte) (0x80 | value >> 6 & 0x3f));
+            output.put((byte) (0x80 | value & 0x3f));
+        }
+    }
+}
@@ -0,0 +1,266 @@
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * File-to-file translator for logs with one SQL query per line. The output has one line per input line: the
+ * MongoDB command, an empty line for an empty one or a {@code //} comment with the reason of the failure.
+ *
+ * The input is memory-mapped block by block and parsed directly over the mapped bytes. Every block is split at
+ * line boundaries into chunks of at most {@link #MAX_CHUNK_SIZE} bytes, the workers translate them round by round
+ * and their UTF-8 outputs are written in order, so the heap usage depends on the number of workers only, not on
+ * the block or the file size.
+ */
+public class FileTranslator {
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024 * 1024;
+    // input bytes of a chunk, a chunk is longer only if it is a single line
+    static final int MAX_CHUNK_SIZE = 1024 * 1024;
+
+    private static final String ERROR_PREFIX = "// ";
+
+    private final int parallelism;
+    private final int blockSize;
+
+    public FileTranslator() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param parallelism number of worker threads
+     * @param blockSize   number of bytes mapped at once, every line must fit into a block
+     */
+    public FileTranslator(int parallelism, int blockSize) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("block size must be positive");
+        }
+        this.parallelism = parallelism;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Translates the lines of one chunk of a block into its own output buffer
+     */
+    private static class ChunkWorker implements Callable<Void> {
+        private final ByteBufferCharIterator iterator;
+        private final MongoShellBuilder mongoShellBuilder;
+
+        // UTF-8 output of the chunk, it grows to the output of the largest chunk
+        private ByteBuffer output = ByteBuffer.allocate(64 * 1024);
+
+        private ByteBuffer block;
+        private int from;
+        private int to;
+
+        ChunkWorker(ByteBuffer block) {
+            iterator = new ByteBufferCharIterator(block);
+            mongoShellBuilder = new MongoShellBuilder(block);
+        }
+
+        void assign(ByteBuffer block, int from, int to) {
+            this.block = block;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Void call() {
+            output.clear();
+            int lineStart = from;
+            while (lineStart < to) {
+                int lineEnd = lineStart;
+                while (lineEnd < to && block.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                int textEnd = lineEnd;
+                if (textEnd > lineStart && block.get(textEnd - 1) == '\r') {
+                    textEnd--;
+                }
+
+                translateLine(lineStart, textEnd);
+                lineStart = lineEnd + 1;
+            }
+            return null;
+        }
+
+        private void translateLine(int lineStart, int lineEnd) {
+            if (lineStart != lineEnd) {
+                try {
+                    iterator.reset(block, lineStart, lineEnd);
+                    mongoShellBuilder.reset(block);
+                    GeneratedParser.parse(iterator, mongoShellBuilder);
+                    buildCommand();
+                } catch (TranslationException e) {
+                    // the line is parsed in place, so the position is an offset in the block
+                    e.shiftPosition(-lineStart);
+                    putError(e);
+                } catch (RuntimeException e) {
+                    putError(e);
+                }
+            }
+            ensureRemaining(1);
+            output.put((byte) '\n');
+        }
+
+        private void putError(RuntimeException e) {
+            byte[] message = (ERROR_PREFIX + e.getMessage()).getBytes(StandardCharsets.UTF_8);
+            ensureRemaining(message.length);
+            output.put(message);
+        }
+
+        /**
+         * Puts the command straight into the output, names are copied from the input bytes
+         */
+        private void buildCommand() {
+            while (true) {
+                try {
+                    mongoShellBuilder.build(output);
+                    return;
+                } catch (BufferOverflowException e) {
+                    // the position is not moved, so the command is built again into a larger buffer
+                    ensureRemaining(output.remaining() + 1);
+                }
+            }
+        }
+
+        private void ensureRemaining(int length) {
+            if (output.remaining() >= length) {
+                return;
+            }
+            ByteBuffer newOutput = ByteBuffer.allocate(Math.max(output.capacity() * 2, output.position() + length));
+            output.flip();
+            newOutput.put(output);
+            output = newOutput;
+        }
+
+        void writeTo(FileChannel channel) throws IOException {
+            output.flip();
+            while (output.hasRemaining()) {
+                channel.write(output);
+            }
+        }
+    }
+
+    public void translate(Path input, Path output) throws IOException {
+        ExecutorService executor = parallelism > 1 ? Executors.newFixedThreadPool(parallelism) : null;
+        try (FileChannel inputChannel = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel outputChannel = FileChannel.open(output, StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            List<ChunkWorker> workers = new ArrayList<>();
+            long size = inputChannel.size();
+            long position = 0;
+            while (position < size) {
+                int mappedSize = (int) Math.min(blockSize, size - position);
+                MappedByteBuffer block = inputChannel.map(FileChannel.MapMode.READ_ONLY, position, mappedSize);
+
+                int blockEnd = mappedSize;
+                if (position + mappedSize < size) {
+                    blockEnd = lastLineEnd(block, mappedSize);
+                    if (blockEnd == 0) {
+                        throw new IOException("the line at offset " + position + " is longer than the block size");
+                    }
+                }
+
+                int[] chunkEnds = splitBlock(block, blockEnd);
+                int chunkStart = 0;
+                for (int firstChunk = 0; firstChunk < chunkEnds.length; firstChunk += parallelism) {
+                    int roundSize = Math.min(parallelism, chunkEnds.length - firstChunk);
+                    for (int i = 0; i < roundSize; i++) {
+                        if (i == workers.size()) {
+                            workers.add(new ChunkWorker(block));
+                        }
+                        workers.get(i).assign(block, chunkStart, chunkEnds[firstChunk + i]);
+                        chunkStart = chunkEnds[firstChunk + i];
+                    }
+                    runWorkers(executor, workers.subList(0, roundSize));
+                    for (int i = 0; i < roundSize; i++) {
+                        workers.get(i).writeTo(outputChannel);
+                    }
+                }
+                position += blockEnd;
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * @return index after the last line feed of the block or 0 if there is none
+     */
+    private static int lastLineEnd(ByteBuffer block, int blockEnd) {
+        for (int i = blockEnd - 1; i >= 0; i--) {
+            if (block.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Splits the block into chunks of about the same size that end at line boundaries, a round of the workers
+     * covers the whole block unless the chunks would exceed {@link #MAX_CHUNK_SIZE}
+     *
+     * @return the end of every chunk
+     */
+    private int[] splitBlock(ByteBuffer block, int blockEnd) {
+        int chunkSize = Math.max(1, Math.min(MAX_CHUNK_SIZE, (blockEnd + parallelism - 1) / parallelism));
+        int[] chunkEnds = new int[blockEnd / chunkSize + 1];
+        int chunkCount = 0;
+        int chunkStart = 0;
+        while (chunkStart < blockEnd) {
+            int chunkEnd = Math.min(blockEnd, chunkStart + chunkSize);
+            while (chunkEnd < blockEnd && block.get(chunkEnd - 1) != '\n') {
+                chunkEnd++;
+            }
+            chunkEnds[chunkCount++] = chunkEnd;
+            chunkStart = chunkEnd;
+        }
+        return Arrays.copyOf(chunkEnds, chunkCount);
+    }
+
+    private static void runWorkers(ExecutorService executor, List<ChunkWorker> workers) throws IOException {
+        if (executor == null || workers.size() == 1) {
+            for (ChunkWorker worker : workers) {
+                worker.call();
+            }
+            return;
+        }
+
+        try {
+            for (Future<Void> future : executor.invokeAll(workers)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("the translation has been interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("a worker has failed", e.getCause());
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: FileTranslator <input file> <output file>");
+            System.exit(1);
+        }
+        new FileTranslator().translate(Paths.get(args[0]), Paths.get(args[1]));
+    }
+}
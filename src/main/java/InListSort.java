@@ -0,0 +1,73 @@
+import java.util.Arrays;
+
+/**
+ * Sort of the values of an IN list, see {@link MongoShellBuilder#addInValue}. Short lists are sorted in place, long
+ * ones by radix through a buffer kept between the lists.
+ */
+final class InListSort {
+    // long lists are sorted by radix through this buffer, the values are never negative
+    private static final int RADIX_SORT_THRESHOLD = 4096;
+    private static final int RADIX_BITS = 11;
+    private static final int RADIX_MASK = (1 << RADIX_BITS) - 1;
+    private long[] sortBuffer = new long[0];
+
+    /**
+     * Sorts the values and moves the distinct ones to the beginning
+     *
+     * @return number of distinct values
+     */
+    int sortDistinct(long[] values, int count) {
+        if (count < RADIX_SORT_THRESHOLD) {
+            Arrays.sort(values, 0, count);
+        } else {
+            radixSort(values, count);
+        }
+        int distinctCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinctCount == 0 || values[distinctCount - 1] != values[i]) {
+                values[distinctCount++] = values[i];
+            }
+        }
+        return distinctCount;
+    }
+
+    /**
+     * LSD radix sort of non-negative values, which takes as many passes as there are 11-bit digits in the largest
+     * value
+     */
+    private void radixSort(long[] values, int count) {
+        long allBits = 0;
+        for (int i = 0; i < count; i++) {
+            allBits |= values[i];
+        }
+        if (sortBuffer.length < count) {
+            sortBuffer = new long[Math.max(count, values.length)];
+        }
+
+        long[] source = values;
+        long[] target = sortBuffer;
+        int[] counts = new int[1 << RADIX_BITS];
+        for (int shift = 0; shift < 64 - Long.numberOfLeadingZeros(allBits); shift += RADIX_BITS) {
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < count; i++) {
+                counts[(int) (source[i] >>> shift) & RADIX_MASK]++;
+            }
+            int position = 0;
+            for (int digit = 0; digit < counts.length; digit++) {
+                int digitCount = counts[digit];
+                counts[digit] = position;
+                position += digitCount;
+            }
+            for (int i = 0; i < count; i++) {
+                long value = source[i];
+                target[counts[(int) (value >>> shift) & RADIX_MASK]++] = value;
+            }
+            long[] sorted = target;
+            target = source;
+            source = sorted;
+        }
+        if (source != values) {
+            System.arraycopy(source, 0, values, 0, count);
+        }
+    }
+}
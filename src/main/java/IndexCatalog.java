@@ -0,0 +1,100 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Indexes of the collections, which let the builder hint an index and make covered queries, see
+ * {@link MongoShellBuilder#setIndexCatalog}. The catalog is read from properties with a collection per key and its
+ * indexes separated by {@code ;} as the value, every index lists its fields in order separated by {@code ,}:
+ * <pre>
+ * customers = age, name; email
+ * </pre>
+ * Only ascending indexes are described. The catalog is immutable and can be shared between threads.
+ */
+public final class IndexCatalog {
+    /**
+     * Fields of one index in order
+     */
+    public static final class Index {
+        private final String[] fields;
+        // UTF-8 bytes of the fields, which are compared with the names of a byte input
+        private final byte[][] encodedFields;
+
+        private Index(String[] fields) {
+            this.fields = fields;
+            encodedFields = new byte[fields.length][];
+            for (int i = 0; i < fields.length; i++) {
+                encodedFields[i] = fields[i].getBytes(StandardCharsets.UTF_8);
+            }
+        }
+
+        public int getFieldCount() {
+            return fields.length;
+        }
+
+        public String getField(int idx) {
+            return fields[idx];
+        }
+
+        byte[] getEncodedField(int idx) {
+            return encodedFields[idx];
+        }
+    }
+
+    private final Map<String, List<Index>> indexes;
+
+    private IndexCatalog(Map<String, List<Index>> indexes) {
+        this.indexes = indexes;
+    }
+
+    /**
+     * @throws IllegalArgumentException if an index has no fields or an empty field
+     */
+    public static IndexCatalog of(Properties properties) {
+        Map<String, List<Index>> indexes = new HashMap<>();
+        for (String collection : properties.stringPropertyNames()) {
+            String[] indexDescriptions = properties.getProperty(collection).split(";", -1);
+            Index[] collectionIndexes = new Index[indexDescriptions.length];
+            for (int i = 0; i < indexDescriptions.length; i++) {
+                String[] fields = indexDescriptions[i].split(",", -1);
+                for (int j = 0; j < fields.length; j++) {
+                    fields[j] = fields[j].trim();
+                    if (fields[j].isEmpty()) {
+                        throw new IllegalArgumentException("an index of the collection '" + collection
+                                + "' has an empty field");
+                    }
+                }
+                collectionIndexes[i] = new Index(fields);
+            }
+            indexes.put(collection, Collections.unmodifiableList(Arrays.asList(collectionIndexes)));
+        }
+        return new IndexCatalog(indexes);
+    }
+
+    public static IndexCatalog load(Reader reader) throws IOException {
+        Properties properties = new Properties();
+        properties.load(reader);
+        return of(properties);
+    }
+
+    public static IndexCatalog load(Path path) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return load(reader);
+        }
+    }
+
+    /**
+     * @return indexes of the collection in the catalog order, empty if it has none
+     */
+    public List<Index> getIndexes(String collection) {
+        return indexes.getOrDefault(collection, Collections.emptyList());
+    }
+}
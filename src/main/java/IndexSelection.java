@@ -0,0 +1,221 @@
+import java.util.List;
+
+/**
+ * Index stage of a {@link MongoShellBuilder} build: picks the catalog index to hint, puts the WHERE fields into its
+ * order, finds out whether the query is covered by an index and whether the ORDER BY needs a blocking sort.
+ *
+ * A stage is owned by one builder and keeps the choice of its last build.
+ */
+final class IndexSelection {
+    private final MongoShellBuilder builder;
+
+    // indexes of the collections, see MongoShellBuilder#setIndexCatalog
+    private IndexCatalog indexCatalog;
+    // the index hinted by the last build, the WHERE expressions are rendered in its order
+    private IndexCatalog.Index hintIndex;
+    private int[] whereOrder = new int[16];
+    // the WHERE expressions follow whereOrder, which is not the case for an index hinted for the sort only
+    private boolean isWhereInIndexOrder = false;
+    // the last build excludes _id from the projection, so the query can be answered from an index only
+    private boolean isCovered = false;
+    // the last build sorts the whole result in memory, see MongoShellBuilder#isBlockingSort
+    private boolean isBlockingSort = false;
+
+    IndexSelection(MongoShellBuilder builder) {
+        this.builder = builder;
+    }
+
+    void setIndexCatalog(IndexCatalog indexCatalog) {
+        this.indexCatalog = indexCatalog;
+    }
+
+    IndexCatalog.Index getHintIndex() {
+        return hintIndex;
+    }
+
+    boolean isCovered() {
+        return isCovered;
+    }
+
+    boolean isBlockingSort() {
+        return isBlockingSort;
+    }
+
+    private boolean isInIndex(CharsMapping mapping, IndexCatalog.Index index) {
+        for (int i = 0; i < index.getFieldCount(); i++) {
+            if (builder.isIndexField(mapping, index, i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Puts the WHERE expressions into the index order if their fields are a prefix of the index
+     *
+     * @return false if the fields are not a prefix of the index
+     */
+    private boolean orderWhereExpressions(IndexCatalog.Index index) {
+        List<MongoShellBuilder.WhereExpression> whereExpressions = builder.whereExpressions;
+        int whereCount = whereExpressions.size();
+        if (index.getFieldCount() < whereCount) {
+            return false;
+        }
+        if (whereOrder.length < whereCount) {
+            whereOrder = new int[Math.max(whereCount, whereOrder.length * 2)];
+        }
+        for (int i = 0; i < whereCount; i++) {
+            int expressionIdx = 0;
+            while (expressionIdx < whereCount
+                    && !builder.isIndexField(whereExpressions.get(expressionIdx).varMapping, index, i)) {
+                expressionIdx++;
+            }
+            if (expressionIdx == whereCount) {
+                return false;
+            }
+            whereOrder[i] = expressionIdx;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the index holds every filtered, selected and sorted field and _id is not selected
+     */
+    private boolean isCoveredBy(IndexCatalog.Index index) {
+        for (int i = 0; i < builder.selectFields.size(); i++) {
+            CharsMapping field = builder.selectFields.get(i);
+            if (builder.isIdField(field) || !isInIndex(field, index)) {
+                return false;
+            }
+        }
+        for (int i = 0; i < builder.whereExpressions.size(); i++) {
+            if (!isInIndex(builder.whereExpressions.get(i).varMapping, index)) {
+                return false;
+            }
+        }
+        for (int i = 0; i < builder.sortFields.size(); i++) {
+            if (builder.sortFields.get(i) == null || !isInIndex(builder.sortFields.get(i), index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the index field is filtered by a single value, so the index is ordered by the following
+     * fields within the matched documents
+     */
+    private boolean isEqualityField(IndexCatalog.Index index, int fieldIdx) {
+        for (int i = 0; i < builder.whereExpressions.size(); i++) {
+            MongoShellBuilder.WhereExpression whereExpression = builder.whereExpressions.get(i);
+            if (!builder.isIndexField(whereExpression.varMapping, index, fieldIdx)) {
+                continue;
+            }
+            if (whereExpression.hasInList) {
+                return whereExpression.inCount == 1;
+            }
+            for (int j = 0; j < whereExpression.signs.size(); j++) {
+                if (whereExpression.signs.get(j) == MongoShellBuilder.WhereExpression.CompareSign.EQUALS
+                        && whereExpression.isKept(j)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a scan of the index returns the documents in the ORDER BY order: the sorted fields follow
+     * each other in the index after fields filtered by equality only, and they are all ascending or all
+     * descending, as the catalog indexes are ascending and may be scanned backwards
+     */
+    private boolean isSortedBy(IndexCatalog.Index index) {
+        List<CharsMapping> sortFields = builder.sortFields;
+        for (int i = 1; i < sortFields.size(); i++) {
+            if (builder.sortDescending[i] != builder.sortDescending[0]) {
+                return false;
+            }
+        }
+        int start = 0;
+        while (start < index.getFieldCount() && !builder.isIndexField(sortFields.get(0), index, start)) {
+            if (!isEqualityField(index, start)) {
+                return false;
+            }
+            start++;
+        }
+        if (start + sortFields.size() > index.getFieldCount()) {
+            return false;
+        }
+        for (int i = 1; i < sortFields.size(); i++) {
+            if (!builder.isIndexField(sortFields.get(i), index, start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Picks the first index of the collection the filtered fields are a prefix of as the hint, or else the first
+     * index that returns the documents in the ORDER BY order, and checks whether the query is covered, by the
+     * hinted index if there is one or by any index otherwise
+     */
+    void chooseIndex() {
+        hintIndex = null;
+        isCovered = false;
+        if (indexCatalog == null) {
+            return;
+        }
+
+        List<IndexCatalog.Index> indexes = indexCatalog.getIndexes(builder.nameOf(builder.fromDatabaseName));
+        boolean hasWhere = !builder.whereExpressions.isEmpty();
+        for (int i = 0; i < indexes.size() && hintIndex == null && hasWhere; i++) {
+            if (orderWhereExpressions(indexes.get(i))) {
+                hintIndex = indexes.get(i);
+            }
+        }
+        isWhereInIndexOrder = hintIndex != null;
+        boolean hasSort = !builder.sortFields.isEmpty() && !builder.isAggregation();
+        for (int i = 0; i < indexes.size() && hintIndex == null && hasSort; i++) {
+            if (isSortedBy(indexes.get(i))) {
+                hintIndex = indexes.get(i);
+            }
+        }
+        if (builder.isSelectAll) {
+            return;
+        }
+        if (hintIndex != null) {
+            isCovered = isCoveredBy(hintIndex);
+            return;
+        }
+        for (int i = 0; i < indexes.size() && !isCovered; i++) {
+            isCovered = isCoveredBy(indexes.get(i));
+        }
+    }
+
+    /**
+     * @return the WHERE expression rendered at the given place
+     */
+    MongoShellBuilder.WhereExpression whereExpressionAt(int idx) {
+        return builder.whereExpressions.get(isWhereInIndexOrder ? whereOrder[idx] : idx);
+    }
+
+    /**
+     * Finds out whether the ORDER BY needs a blocking sort. A find is sorted by the hinted index if it is
+     * compatible with the order, or by the {@code _id} index, an aggregation is sorted after the {@code $group}
+     * stage, so always in memory.
+     */
+    void checkSort() {
+        boolean isSortedByIndex;
+        if (builder.sortFields.isEmpty()) {
+            isSortedByIndex = true;
+        } else if (builder.isAggregation()) {
+            isSortedByIndex = false;
+        } else if (hintIndex != null) {
+            isSortedByIndex = isSortedBy(hintIndex);
+        } else {
+            isSortedByIndex = builder.sortFields.size() == 1 && builder.isIdField(builder.sortFields.get(0));
+        }
+        isBlockingSort = builder.limitValue == null && !isSortedByIndex;
+    }
+}
@@ -0,0 +1,475 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.text.CharacterIterator;
+import java.util.Arrays;
+
+/**
+ * Single pass lexer that splits the whole query into a packed token stream. A token is a run of chars between
+ * spaces and commas, or a comma itself, and it is stored in one {@code long}: the offset in the input, the length,
+ * the kind and the number flag, see {@link #kind(long)} and the other accessors.
+ *
+ * Keywords are matched by packing the run into a long and comparing it with the packed keyword, and a byte input
+ * is scanned for the token boundaries eight bytes at a time. The last token is always a {@link Terminal#TS_END}
+ * token at the end of the input, a {@link Translator#STATEMENT_END} is a one char TS_END token as well and the
+ * line breaks after it are skipped, so a script is tokenized in one pass.
+ *
+ * A lexer and its token array are reused between queries, it is not thread-safe.
+ */
+public final class Lexer {
+    // Keyword kinds are the terminal codes, the other kinds follow them
+    public static final int KIND_NAME = 16;
+    public static final int KIND_PARAMETER = 17;
+    public static final int KIND_COMMA = 18;
+    public static final int KIND_STAR = 19;
+    public static final int KIND_LOWER = 20;
+    public static final int KIND_GREATER = 21;
+    /**
+     * A lone {@code =}, which is also a valid name
+     */
+    public static final int KIND_EQUALS = 22;
+    public static final int KIND_NON_EQUALS = 23;
+    /**
+     * A run with a symbol which is not allowed in names, see {@link #getInvalidSymbolOffset(long)}
+     */
+    public static final int KIND_INVALID = 24;
+
+    private static final int LENGTH_SHIFT = 32;
+    private static final int KIND_SHIFT = 56;
+    private static final long MAX_LENGTH = (1L << (KIND_SHIFT - LENGTH_SHIFT)) - 1;
+    private static final long NUMBER_FLAG = 1L << 63;
+
+    // Char classes of ASCII chars, a run is a number if it has digits only and invalid if it has a bad symbol
+    private static final byte CLASS_NAME = 1;
+    private static final byte CLASS_DIGIT = 2;
+    private static final byte CLASS_BAD = 4;
+    private static final byte CLASS_DELIMITER = 8;
+    private static final byte[] CHAR_CLASSES = new byte[128];
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long SPACES = ' ' * ONES;
+    private static final long COMMAS = ',' * ONES;
+    private static final long STATEMENT_ENDS = Translator.STATEMENT_END * ONES;
+    private static final VarHandle LONG_VIEW =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final Terminal[] TERMINALS = {
+            Terminal.TS_SELECT, Terminal.TS_FROM, Terminal.TS_WHERE, Terminal.TS_SKIP, Terminal.TS_LIMIT,
+            Terminal.TS_AND, Terminal.TS_GROUP, Terminal.TS_HAVING, Terminal.TS_ORDER, Terminal.TS_END
+    };
+
+    private static final long AND = pack("AND");
+    private static final long FROM = pack("FROM");
+    private static final long GROUP = pack("GROUP");
+    private static final long HAVING = pack("HAVING");
+    private static final long ORDER = pack("ORDER");
+    private static final long SKIP = pack("SKIP");
+    private static final long LIMIT = pack("LIMIT");
+    private static final long WHERE = pack("WHERE");
+    private static final long OFFSET = pack("OFFSET");
+    private static final long SELECT = pack("SELECT");
+
+    static {
+        for (char value = 0; value < CHAR_CLASSES.length; value++) {
+            if (value == ' ' || value == ',' || value == Translator.STATEMENT_END) {
+                CHAR_CLASSES[value] = CLASS_DELIMITER;
+            } else if ('0' <= value && value <= '9') {
+                CHAR_CLASSES[value] = CLASS_DIGIT;
+            } else if (Translator.isBadNameSymbol(value)) {
+                CHAR_CLASSES[value] = CLASS_BAD;
+            } else {
+                CHAR_CLASSES[value] = CLASS_NAME;
+            }
+        }
+    }
+
+    private long[] tokens = new long[32];
+    // hashes of the runs as CharsMapping#setHash expects them, by token index
+    private int[] hashes = new int[32];
+    private int count;
+
+    // the input of the last tokenize call, read on the error paths and by iterator()
+    private char[] chars;
+    private byte[] bytes;
+    private int bytesOffset;
+    private int inputEnd;
+    private CharArrayIterator charIterator;
+    private final TokenSource.Tokens tokenSource = new TokenSource.Tokens(this);
+
+    private static long pack(String keyword) {
+        long word = 0;
+        for (int i = 0; i < keyword.length(); i++) {
+            word |= (long) keyword.charAt(i) << (i * 8);
+        }
+        return word;
+    }
+
+    public static int kind(long token) {
+        return (int) (token >>> KIND_SHIFT) & 0x7f;
+    }
+
+    public static int offset(long token) {
+        return (int) token;
+    }
+
+    public static int length(long token) {
+        return (int) (token >>> LENGTH_SHIFT) & (int) MAX_LENGTH;
+    }
+
+    public static boolean isNumber(long token) {
+        return token < 0;
+    }
+
+    /**
+     * @return true if the token is a keyword, which can also be used as a name
+     */
+    public static boolean isKeyword(long token) {
+        return kind(token) < Terminal.TS_END.code;
+    }
+
+    /**
+     * @return the terminal symbol of a keyword or the end token, null for the other kinds
+     */
+    public static Terminal terminal(long token) {
+        int kind = kind(token);
+        return kind < TERMINALS.length ? TERMINALS[kind] : null;
+    }
+
+    private void add(int kind, int offset, int length, boolean isNumber) {
+        add(kind, offset, length, isNumber, 0);
+    }
+
+    private void add(int kind, int offset, int length, boolean isNumber, int hash) {
+        if (length > MAX_LENGTH) {
+            throw TranslationException.atPosition(TranslationException.Kind.INVALID_NAME, offset,
+                    "the token at position %2$d is too long");
+        }
+        if (count == tokens.length) {
+            long[] newTokens = new long[tokens.length * 2];
+            System.arraycopy(tokens, 0, newTokens, 0, count);
+            tokens = newTokens;
+            hashes = Arrays.copyOf(hashes, tokens.length);
+        }
+        hashes[count] = hash;
+        tokens[count++] = (isNumber ? NUMBER_FLAG : 0) | (long) kind << KIND_SHIFT
+                | (long) length << LENGTH_SHIFT | offset & 0xffffffffL;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getToken(int idx) {
+        return tokens[idx];
+    }
+
+    /**
+     * @return hash of the chars of the token, see {@link CharsMapping#setHash(int)}
+     */
+    public int getHash(int idx) {
+        return hashes[idx];
+    }
+
+    /**
+     * @return the input char at the offset of the last tokenized query
+     */
+    public char charAt(int offset) {
+        return chars != null ? chars[offset] : (char) (bytes[bytesOffset + offset] & 0xff);
+    }
+
+    /**
+     * Iterator over the last tokenized input for the parts of the grammar that are parsed by chars, like the
+     * IN lists. The iterator indexes are the token offsets.
+     *
+     * @param offset the initial index of the iterator
+     */
+    public CharacterIterator iterator(int offset) {
+        CharacterIterator iterator;
+        if (chars != null) {
+            if (charIterator == null) {
+                charIterator = new CharArrayIterator(chars);
+            }
+            charIterator.reset(chars, inputEnd);
+            iterator = charIterator;
+        } else {
+            ByteBuffer input = ByteBuffer.wrap(bytes, bytesOffset, bytes.length - bytesOffset).slice();
+            ByteBufferCharIterator byteIterator = new ByteBufferCharIterator(input);
+            byteIterator.reset(input, 0, inputEnd);
+            iterator = byteIterator;
+        }
+        iterator.setIndex(offset);
+        return iterator;
+    }
+
+    /**
+     * @return the source the clause parsers of {@link Translator} read the tokens through, at the token index
+     */
+    TokenSource.Tokens tokens(int idx) {
+        return tokenSource.reset(idx);
+    }
+
+    /**
+     * @return offset of the first symbol of the token which is not allowed in names
+     */
+    public int getInvalidSymbolOffset(long token) {
+        int end = offset(token) + length(token);
+        for (int i = offset(token); i < end; i++) {
+            char value = charAt(i);
+            if (value < CHAR_CLASSES.length && CHAR_CLASSES[value] == CLASS_BAD) {
+                return i;
+            }
+        }
+        return offset(token);
+    }
+
+    /**
+     * Kind of a run, which has ASCII chars only if {@code isAscii} is set. The word holds the first chars of the
+     * run packed by {@link #pack(String)}.
+     */
+    private static int runKind(long word, int length, int classes, boolean isAscii) {
+        if (length == 1 && word == '=') {
+            return KIND_EQUALS;
+        }
+        if ((classes & CLASS_BAD) == 0) {
+            if (!isAscii || (classes & CLASS_DIGIT) != 0) {
+                return KIND_NAME;
+            }
+            switch (length) {
+                case 3: {
+                    if (word == AND) {
+                        return Terminal.TS_AND.code;
+                    }
+                } break;
+                case 4: {
+                    if (word == FROM) {
+                        return Terminal.TS_FROM.code;
+                    } else if (word == SKIP) {
+                        return Terminal.TS_SKIP.code;
+                    }
+                } break;
+                case 5: {
+                    if (word == WHERE) {
+                        return Terminal.TS_WHERE.code;
+                    } else if (word == LIMIT) {
+                        return Terminal.TS_LIMIT.code;
+                    } else if (word == GROUP) {
+                        return Terminal.TS_GROUP.code;
+                    } else if (word == ORDER) {
+                        return Terminal.TS_ORDER.code;
+                    }
+                } break;
+                case 6: {
+                    if (word == SELECT) {
+                        return Terminal.TS_SELECT.code;
+                    } else if (word == OFFSET) {
+                        return Terminal.TS_SKIP.code;
+                    } else if (word == HAVING) {
+                        return Terminal.TS_HAVING.code;
+                    }
+                } break;
+            }
+            return KIND_NAME;
+        }
+
+        if (length == 1) {
+            switch ((int) word) {
+                case '*': return KIND_STAR;
+                case '<': return KIND_LOWER;
+                case '>': return KIND_GREATER;
+                case Translator.PARAMETER_SYMBOL: return KIND_PARAMETER;
+            }
+        } else if (length == 2 && word == ('<' | '>' << 8)) {
+            return KIND_NON_EQUALS;
+        }
+        return KIND_INVALID;
+    }
+
+    private void addRun(long word, int start, int end, int classes, boolean isAscii, int hash) {
+        int length = end - start;
+        int kind = runKind(word, length, classes, isAscii);
+        add(kind, start, length, kind == KIND_NAME && classes == CLASS_DIGIT || kind == KIND_PARAMETER, hash);
+    }
+
+    /**
+     * Tokenizes the first {@code length} chars of the array
+     *
+     * @return number of tokens
+     */
+    public int tokenize(char[] chars, int length) {
+        return tokenize(chars, 0, length);
+    }
+
+    /**
+     * Tokenizes the chars {@code [begin, end)} of the array, the token offsets are the array indexes
+     *
+     * @return number of tokens
+     */
+    public int tokenize(char[] chars, int begin, int end) {
+        this.chars = chars;
+        this.bytes = null;
+        this.inputEnd = end;
+        count = 0;
+
+        int idx = begin;
+        while (idx < end) {
+            char value = chars[idx];
+            if (value == ' ') {
+                idx++;
+                continue;
+            }
+            if (value == ',') {
+                add(KIND_COMMA, idx, 1, false);
+                idx++;
+                continue;
+            }
+            if (value == Translator.STATEMENT_END) {
+                add(Terminal.TS_END.code, idx, 1, false);
+                idx++;
+                while (idx < end && Translator.isStatementSpace(chars[idx])) {
+                    idx++;
+                }
+                continue;
+            }
+
+            int start = idx;
+            int classes = 0;
+            int allChars = 0;
+            int hash = 0;
+            while (idx < end) {
+                value = chars[idx];
+                int charClass = value < CHAR_CLASSES.length ? CHAR_CLASSES[value] : CLASS_NAME;
+                if (charClass == CLASS_DELIMITER) {
+                    break;
+                }
+                classes |= charClass;
+                allChars |= value;
+                hash = 31 * hash + value;
+                idx++;
+            }
+
+            // only short ASCII runs can be keywords or operators
+            long word = 0;
+            if (idx - start <= 8 && allChars < 0x80) {
+                for (int i = start; i < idx; i++) {
+                    word |= (long) chars[i] << ((i - start) * 8);
+                }
+            }
+            addRun(word, start, idx, classes, allChars < 0x80, hash);
+        }
+        add(Terminal.TS_END.code, end, 0, false);
+        return count;
+    }
+
+    /**
+     * @return index of the first byte of the word that is set in the mask or 8 if there is none
+     */
+    private static int firstByte(long mask) {
+        return Long.numberOfTrailingZeros(mask) >>> 3;
+    }
+
+    /**
+     * @return mask with the high bit set in the bytes that are equal to the byte of the pattern, exact for the
+     * lowest such byte
+     */
+    private static long equalBytes(long word, long pattern) {
+        long difference = word ^ pattern;
+        return (difference - ONES) & ~difference & HIGH_BITS;
+    }
+
+    /**
+     * Tokenizes the array bytes {@code [arrayOffset + begin, arrayOffset + end)}. The token offsets are relative
+     * to the array offset, so they are the indexes of a heap buffer with this offset.
+     *
+     * @return number of tokens
+     */
+    public int tokenize(byte[] bytes, int arrayOffset, int begin, int end) {
+        this.chars = null;
+        this.bytes = bytes;
+        this.bytesOffset = arrayOffset;
+        this.inputEnd = end;
+        count = 0;
+
+        int arrayEnd = arrayOffset + end;
+        int idx = arrayOffset + begin;
+        while (idx < arrayEnd) {
+            // skip the spaces eight at a time
+            while (idx + 8 <= arrayEnd) {
+                long notSpaces = (long) LONG_VIEW.get(bytes, idx) ^ SPACES;
+                if (notSpaces != 0) {
+                    idx += firstByte(notSpaces);
+                    break;
+                }
+                idx += 8;
+            }
+            if (idx == arrayEnd) {
+                break;
+            }
+
+            byte value = bytes[idx];
+            if (value == ' ') {
+                idx++;
+                continue;
+            }
+            if (value == ',') {
+                add(KIND_COMMA, idx - arrayOffset, 1, false);
+                idx++;
+                continue;
+            }
+            if (value == Translator.STATEMENT_END) {
+                add(Terminal.TS_END.code, idx - arrayOffset, 1, false);
+                idx++;
+                while (idx < arrayEnd && Translator.isStatementSpace((char) bytes[idx])) {
+                    idx++;
+                }
+                continue;
+            }
+
+            // find the end of the run eight bytes at a time, then classify its bytes
+            int start = idx;
+            long word = start + 8 <= arrayEnd ? (long) LONG_VIEW.get(bytes, start) : 0;
+            int runEnd = start;
+            while (runEnd + 8 <= arrayEnd) {
+                long chunk = (long) LONG_VIEW.get(bytes, runEnd);
+                long delimiters = equalBytes(chunk, SPACES) | equalBytes(chunk, COMMAS)
+                        | equalBytes(chunk, STATEMENT_ENDS);
+                if (delimiters != 0) {
+                    runEnd += firstByte(delimiters);
+                    break;
+                }
+                runEnd += 8;
+            }
+            if (runEnd + 8 > arrayEnd) {
+                while (runEnd < arrayEnd && bytes[runEnd] != ' ' && bytes[runEnd] != ','
+                        && bytes[runEnd] != Translator.STATEMENT_END) {
+                    runEnd++;
+                }
+            }
+
+            int classes = 0;
+            int allBytes = 0;
+            int hash = 0;
+            for (int i = start; i < runEnd; i++) {
+                int unsigned = bytes[i] & 0xff;
+                allBytes |= unsigned;
+                hash = 31 * hash + unsigned;
+                classes |= unsigned < CHAR_CLASSES.length ? CHAR_CLASSES[unsigned] : CLASS_NAME;
+            }
+
+            int length = runEnd - start;
+            if (start + 8 > arrayEnd) {
+                word = 0;
+                for (int i = 0; i < Math.min(length, 8); i++) {
+                    word |= (long) (bytes[start + i] & 0xff) << (i * 8);
+                }
+            } else if (length < 8) {
+                word &= -1L >>> (64 - length * 8);
+            }
+            addRun(word, start - arrayOffset, runEnd - arrayOffset, classes, allBytes < 0x80, hash);
+            idx = runEnd;
+        }
+        add(Terminal.TS_END.code, end, 0, false);
+        return count;
+    }
+}
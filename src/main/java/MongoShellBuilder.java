@@ -1,10 +1,23 @@
-import java.util.ArrayDeque;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.CharacterIterator;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Queue;
+import java.util.List;
 
+/**
+ * Collects the clauses of a parsed query and renders them as a MongoDB shell command. The build stages and the BSON
+ * output live in their own classes: {@link WhereFolding}, {@link IndexSelection} and {@link BsonCommandEmitter}.
+ */
 public class MongoShellBuilder {
     private final StringBuilder builder;
+    // the input is either chars or bytes, which are read as ISO-8859-1, so UTF-8 names are copied byte by byte
     private char[] chars;
+    private ByteBuffer bytes;
+    // backing array of a heap buffer input or null, indexes in the array are shifted by bytesOffset
+    private byte[] bytesArray;
+    private int bytesOffset;
 
     public static class WhereExpression {
         public enum CompareSign {
@@ -20,40 +33,217 @@ public class MongoShellBuilder {
             }
         }
 
-        public final CharsMapping varMapping;
-        public final Queue<CompareSign> signQueue;
-        public final Queue<CharsMapping> valueMappingQueue;
-        private WhereExpression(CharsMapping varMapping, CompareSign sign, CharsMapping valueMapping) {
+        public CharsMapping varMapping;
+        public final List<CompareSign> signs;
+        public final List<CharsMapping> valueMappings;
+        // sorted distinct values of the IN lists of the field, several lists are intersected
+        boolean hasInList;
+        long[] inValues = new long[0];
+        int inCount;
+        // result of the fold, see WhereFolding: the constraints are kept all unless the field has been folded
+        boolean isFolded;
+        boolean isUnsatisfiable;
+        long keptMask;
+        private WhereExpression() {
+            signs = new ArrayList<>();
+            valueMappings = new ArrayList<>();
+        }
+        private void reset(CharsMapping varMapping) {
             this.varMapping = varMapping;
-            signQueue = new ArrayDeque<>();
-            signQueue.add(sign);
-            valueMappingQueue = new ArrayDeque<>();
-            valueMappingQueue.add(valueMapping);
+            signs.clear();
+            valueMappings.clear();
+            hasInList = false;
+            inCount = 0;
+            isFolded = false;
+        }
+        /**
+         * Restricts the field to the sorted distinct values, the list is copied
+         */
+        private void addInList(long[] values, int count) {
+            if (!hasInList) {
+                if (inValues.length < count) {
+                    inValues = new long[count];
+                }
+                System.arraycopy(values, 0, inValues, 0, count);
+                inCount = count;
+                hasInList = true;
+                return;
+            }
+
+            int newCount = 0;
+            int idx = 0;
+            for (int i = 0; i < inCount && idx < count; i++) {
+                while (idx < count && values[idx] < inValues[i]) {
+                    idx++;
+                }
+                if (idx < count && values[idx] == inValues[i]) {
+                    inValues[newCount++] = inValues[i];
+                }
+            }
+            inCount = newCount;
+        }
+        /**
+         * @return number of the comparison constraints
+         */
+        int size() {
+            return Math.min(signs.size(), valueMappings.size());
+        }
+        /**
+         * @return number of the kept constraints with the sign
+         */
+        int keptCount(CompareSign sign) {
+            int count = 0;
+            for (int i = 0; i < size(); i++) {
+                if (signs.get(i) == sign && isKept(i)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+        public boolean hasInList() {
+            return hasInList;
+        }
+        public int getInCount() {
+            return inCount;
+        }
+        public long getInValue(int idx) {
+            return inValues[idx];
+        }
+        /**
+         * @return false if the constraint is redundant and is left out of the command
+         */
+        public boolean isKept(int idx) {
+            return !isFolded || isUnsatisfiable || (keptMask >>> idx & 1) != 0;
+        }
+        /**
+         * @return true if no value satisfies the constraints of the field
+         */
+        public boolean isUnsatisfiable() {
+            return isFolded && isUnsatisfiable;
         }
         public void addConstraint(CompareSign sign, CharsMapping valueMapping) {
             if (valueMapping == null) {
                 throw new NullPointerException();
             }
-            signQueue.add(sign);
-            valueMappingQueue.add(valueMapping);
+            signs.add(sign);
+            valueMappings.add(valueMapping);
+        }
+    }
+
+    /**
+     * Aggregate functions of the SELECT and HAVING clauses, every one is an accumulator of the {@code $group} stage
+     */
+    public enum Aggregate {
+        COUNT("$sum", "count"),
+        SUM("$sum", "sum"),
+        AVG("$avg", "avg"),
+        MIN("$min", "min"),
+        MAX("$max", "max");
+
+        final String accumulator;
+        // the accumulated field is named by the prefix and the aggregated field, like sum_amount
+        final String prefix;
+
+        Aggregate(String accumulator, String prefix) {
+            this.accumulator = accumulator;
+            this.prefix = prefix;
         }
     }
 
     // SELECT expression
-    private boolean isSelectAll = false;
-    private final Queue<CharsMapping> selectFields;
+    boolean isSelectAll = false;
+    final List<CharsMapping> selectFields;
 
     // FROM expression
-    private CharsMapping fromDatabaseName;
+    CharsMapping fromDatabaseName;
 
     // WHERE expression
-    private final Queue<WhereExpression> whereExpressions;
+    final List<WhereExpression> whereExpressions;
+    // Open addressing index of the WHERE expressions by field name: a slot holds the expression index and is used
+    // only if its stamp is the current one, so a reset empties the index without clearing it
+    private int[] whereIndex = new int[16];
+    private int[] whereIndexStamps = new int[16];
+    private int whereIndexStamp = 1;
+
+    // IN list being parsed, see addInValue
+    private long[] inValues = new long[16];
+    private int inCount;
+    private final InListSort inListSort = new InListSort();
+    private boolean hasInList = false;
+
+    // build stages and the BSON output, see buildFindCommand
+    final WhereFolding whereFolding = new WhereFolding(this);
+    final IndexSelection indexSelection = new IndexSelection(this);
+    private final BsonCommandEmitter bsonEmitter = new BsonCommandEmitter(this);
+    // target of the shell command, see build(StringBuilder) and build(ByteBuffer)
+    private final CommandOutput commandOutput = new CommandOutput();
+    // where the projection of the last find build starts, see getSelectOutputOffset
+    private int selectOutputOffset;
+
+    // GROUP BY expression and the aggregates of the SELECT and HAVING clauses, a query with any of them is built
+    // as an aggregation pipeline
+    final List<CharsMapping> groupFields;
+    final List<Aggregate> aggregates;
+    // the aggregated field of every aggregate, null for COUNT(*)
+    final List<CharsMapping> aggregateFields;
+    // HAVING predicates: the index of the aggregate, the sign and the value
+    int[] havingAggregates = new int[4];
+    final List<WhereExpression.CompareSign> havingSigns;
+    final List<CharsMapping> havingValues;
+    boolean isAllowDiskUse = false;
+
+    // ORDER BY expression: every sort key is a field or, with a null field, the aggregate of the given index
+    final List<CharsMapping> sortFields;
+    int[] sortAggregates = new int[4];
+    boolean[] sortDescending = new boolean[4];
+
+    // keyset pagination, see setLastKey, the key is forgotten by a reset
+    private boolean hasLastKey = false;
+    long lastKey;
+    // the last build replaced the skip by a range after the last key, which is merged into the expression of the
+    // key field or is a constraint of its own if the field has no expression
+    boolean isKeysetApplied = false;
+    WhereExpression keysetExpression;
+    boolean isKeysetKept;
 
     // SKIP expression
-    private CharsMapping skipValue;
+    CharsMapping skipValue;
 
     // LIMIT expression
-    private CharsMapping limitValue;
+    CharsMapping limitValue;
+
+    // Shape fingerprint mixed from every clause element as it is added, see getFingerprint
+    private static final long FINGERPRINT_SEED = 0x5bd1e9955bd1e995L;
+    private static final int SHAPE_SELECT_ALL = 1;
+    private static final int SHAPE_SELECT = 2;
+    private static final int SHAPE_SELECT_AGGREGATE = 3;
+    private static final int SHAPE_FROM = 4;
+    private static final int SHAPE_WHERE = 5;
+    private static final int SHAPE_WHERE_IN = 6;
+    private static final int SHAPE_GROUP = 7;
+    private static final int SHAPE_HAVING = 8;
+    private static final int SHAPE_SORT = 9;
+    private static final int SHAPE_SORT_AGGREGATE = 10;
+    private static final int SHAPE_SKIP = 11;
+    private static final int SHAPE_LIMIT = 12;
+    private long fingerprint = FINGERPRINT_SEED;
+
+    // Objects handed out by the builder are kept between resets, so a reused builder doesn't allocate
+    private final List<CharsMapping> mappingPool;
+    private int usedMappings;
+    private final List<WhereExpression> wherePool;
+    private final TokenSource.Chars charTokens = new TokenSource.Chars();
+
+    // Placeholders are accepted only while a prepared query is compiled
+    private boolean isParametersAllowed = false;
+    private int[] parameterOffsets = new int[8];
+    private int parameterCount;
+
+    // Splice points: where every value literal starts in the output and which input offset it was copied from
+    private boolean isRecordingSplices = false;
+    private int[] spliceOutputOffsets = new int[8];
+    private int[] spliceInputOffsets = new int[8];
+    private int spliceCount;
 
     public MongoShellBuilder(char[] chars) {
         if (chars == null) {
@@ -61,12 +251,289 @@ public class MongoShellBuilder {
         }
         this.chars = chars;
         this.builder = new StringBuilder();
-        selectFields = new ArrayDeque<>();
-        whereExpressions = new ArrayDeque<>();
+        selectFields = new ArrayList<>();
+        whereExpressions = new ArrayList<>();
+        groupFields = new ArrayList<>();
+        aggregates = new ArrayList<>();
+        aggregateFields = new ArrayList<>();
+        havingSigns = new ArrayList<>();
+        havingValues = new ArrayList<>();
+        sortFields = new ArrayList<>();
+        mappingPool = new ArrayList<>();
+        wherePool = new ArrayList<>();
+    }
+
+    /**
+     * Builder over bytes, the mappings are absolute indexes in the buffer
+     */
+    public MongoShellBuilder(ByteBuffer bytes) {
+        this(new char[0]);
+        reset(bytes);
+    }
+
+    /**
+     * Forgets every parsed clause and starts collecting clauses of the new input
+     */
+    public void reset(char[] chars) {
+        if (chars == null) {
+            throw new NullPointerException();
+        }
+        this.chars = chars;
+        this.bytes = null;
+        resetClauses();
+    }
+
+    /**
+     * Forgets every parsed clause and starts collecting clauses of the new input. The output has a char for
+     * every input byte.
+     */
+    public void reset(ByteBuffer bytes) {
+        if (bytes == null) {
+            throw new NullPointerException();
+        }
+        this.chars = null;
+        this.bytes = bytes;
+        this.bytesArray = bytes.hasArray() ? bytes.array() : null;
+        this.bytesOffset = bytes.hasArray() ? bytes.arrayOffset() : 0;
+        resetClauses();
+    }
+
+    private void resetClauses() {
+        isSelectAll = false;
+        selectFields.clear();
+        fromDatabaseName = null;
+        whereExpressions.clear();
+        if (++whereIndexStamp == 0) {
+            Arrays.fill(whereIndexStamps, 0);
+            whereIndexStamp = 1;
+        }
+        inCount = 0;
+        hasInList = false;
+        groupFields.clear();
+        aggregates.clear();
+        aggregateFields.clear();
+        havingSigns.clear();
+        havingValues.clear();
+        sortFields.clear();
+        hasLastKey = false;
+        skipValue = null;
+        limitValue = null;
+        usedMappings = 0;
+        parameterCount = 0;
+        fingerprint = FINGERPRINT_SEED;
+    }
+
+    /**
+     * The fingerprint of the query shape: the collection, the selected, filtered, grouped and sorted fields with
+     * their operators, aggregates and sort directions, and whether the query has SKIP and LIMIT, in the order of
+     * the query. The values are left out, so queries which differ only in numbers share the fingerprint.
+     *
+     * It is mixed as the clauses are added, every name by a 64-bit hash of its chars, so names which only share
+     * the 32-bit hash of the parser don't share the fingerprint. Names are hashed as chars of a char input and as
+     * bytes of a byte input, so a query with non-ASCII names has different fingerprints in the two.
+     *
+     * @return fingerprint of the parsed query
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    private void mixFingerprint(long value) {
+        long mixed = (fingerprint + value) * 0x9e3779b97f4a7c15L;
+        mixed = (mixed ^ (mixed >>> 32)) * 0xd6e8feb86659fd93L;
+        fingerprint = mixed ^ (mixed >>> 32);
+    }
+
+    /**
+     * @param variant operator, aggregate or direction of the element, 0 if it has none
+     * @param name    the field or null if the element has no field
+     */
+    private void mixFingerprint(int element, int variant, CharsMapping name) {
+        mixFingerprint((long) variant << 8 | element);
+        if (name != null) {
+            // FNV-1a over the chars, seeded by the length
+            long hash = 0xcbf29ce484222325L ^ name.length;
+            for (int i = name.offset; i < name.getEndIndex(); i++) {
+                hash = (hash ^ charAt(i)) * 0x100000001b3L;
+            }
+            mixFingerprint(hash);
+        }
+    }
+
+    /**
+     * @return a mapping owned by the builder, which stays valid until the next reset
+     */
+    public CharsMapping nextMapping() {
+        if (usedMappings == mappingPool.size()) {
+            mappingPool.add(new CharsMapping());
+        }
+        return mappingPool.get(usedMappings++);
+    }
+
+    /**
+     * @return the source the clause parsers of {@link Translator} read the chars of the iterator through, it is
+     * reused like the mappings
+     */
+    TokenSource tokens(CharacterIterator iterator) {
+        return charTokens.reset(iterator);
+    }
+
+    /**
+     * @return offset of the projection in the output of the last build of a find command, relative to the start
+     * of the command: it is the end of the filter, so a projection rendered elsewhere can be inserted there
+     */
+    public int getSelectOutputOffset() {
+        return selectOutputOffset;
+    }
+
+    /**
+     * Makes the following builds record the splice points of the value literals, see {@link #getSpliceCount()}
+     */
+    public void setRecordingSplices(boolean isRecordingSplices) {
+        this.isRecordingSplices = isRecordingSplices;
+    }
+
+    /**
+     * @return number of value literals copied into the output by the last build with recording enabled
+     */
+    public int getSpliceCount() {
+        return spliceCount;
+    }
+
+    /**
+     * @return offset of the literal in the output of the last build, relative to the start of the command
+     */
+    public int getSpliceOutputOffset(int idx) {
+        return spliceOutputOffsets[idx];
+    }
+
+    /**
+     * @return offset of the literal in the input
+     */
+    public int getSpliceInputOffset(int idx) {
+        return spliceInputOffsets[idx];
+    }
+
+    /**
+     * @return number of fields folded by the last build with recording enabled, the literals of their dropped
+     * constraints are not spliced, so a template is valid only for the values that fold the same way
+     */
+    public int getFoldGroupCount() {
+        return whereFolding.getGroupCount();
+    }
+
+    /**
+     * @return index after the last constraint of the folded field, the constraints of the field start at the end
+     * of the previous one
+     */
+    public int getFoldGroupEnd(int group) {
+        return whereFolding.getGroupEnd(group);
+    }
+
+    /**
+     * @return the result of {@link RangeFolding#fold} for the folded field
+     */
+    public long getFoldResult(int group) {
+        return whereFolding.getResult(group);
+    }
+
+    /**
+     * @return input offset of the value of the folded constraint
+     */
+    public int getFoldInputOffset(int idx) {
+        return whereFolding.getInputOffset(idx);
+    }
+
+    public WhereExpression.CompareSign getFoldSign(int idx) {
+        return whereFolding.getSign(idx);
+    }
+
+    /**
+     * @return true if the filter of the last build can't match any document, so the query can be answered with
+     * an empty result without sending it
+     */
+    public boolean isUnsatisfiable() {
+        return whereFolding.isUnsatisfiable();
+    }
+
+    /**
+     * Makes the following builds use the indexes of the collection: when the filtered fields are a prefix of an
+     * index, the filter keys follow the index order and the index is hinted, when an index holds every filtered
+     * and selected field, {@code _id} is excluded from the projection, so the query is covered by the index.
+     *
+     * @param indexCatalog the catalog or null to build the commands without any index
+     */
+    public void setIndexCatalog(IndexCatalog indexCatalog) {
+        indexSelection.setIndexCatalog(indexCatalog);
+    }
+
+    /**
+     * @return true if the last build has ORDER BY without LIMIT and its order doesn't come from an index, so the
+     * server sorts the whole result in memory and fails once the sort needs more than 100MB
+     */
+    public boolean isBlockingSort() {
+        return indexSelection.isBlockingSort();
+    }
+
+    /**
+     * Makes the builds of the parsed query page by the key instead of skipping: the skip is dropped and the key
+     * field gets a range after the last key, merged with the constraints the field has, so the server reads the
+     * page only instead of walking every skipped document. The key field is the only ORDER BY field, or
+     * {@code _id} in ascending order if the query has no ORDER BY, and its values must be unique numbers. An
+     * aggregation or an order by several keys is built with the skip. The key is forgotten by a reset.
+     */
+    public void setLastKey(long lastKey) {
+        this.lastKey = lastKey;
+        hasLastKey = true;
+    }
+
+    /**
+     * @return true if the last build replaced the skip with a range after the last key, see {@link #setLastKey}
+     */
+    public boolean isKeysetApplied() {
+        return isKeysetApplied;
+    }
+
+    /**
+     * Makes the following builds of aggregations let the server spill the {@code $group} stage to disk
+     */
+    public void setAllowDiskUse(boolean isAllowDiskUse) {
+        this.isAllowDiskUse = isAllowDiskUse;
+    }
+
+    public void setParametersAllowed(boolean isParametersAllowed) {
+        this.isParametersAllowed = isParametersAllowed;
+    }
+
+    private void checkParameter(CharsMapping mapping, boolean isValuePosition) {
+        if (mapping.isParameter && (!isParametersAllowed || !isValuePosition)) {
+            throw TranslationException.invalidSymbol(Translator.PARAMETER_SYMBOL, mapping.offset);
+        }
+        if (mapping.isParameter) {
+            if (parameterCount == parameterOffsets.length) {
+                parameterOffsets = Arrays.copyOf(parameterOffsets, parameterCount * 2);
+            }
+            parameterOffsets[parameterCount++] = mapping.offset;
+        }
+    }
+
+    /**
+     * @return number of placeholders in the parsed query
+     */
+    public int getParameterCount() {
+        return parameterCount;
+    }
+
+    /**
+     * @return input offset of the placeholder, placeholders are numbered in the order of the input
+     */
+    public int getParameterOffset(int idx) {
+        return parameterOffsets[idx];
     }
 
     public void setSelectAll() {
         isSelectAll = true;
+        mixFingerprint(SHAPE_SELECT_ALL, 0, null);
     }
 
     public void addSelectField(CharsMapping mapping) {
@@ -76,21 +543,187 @@ public class MongoShellBuilder {
         if (isSelectAll) {
             throw new IllegalStateException("selectAll is already set");
         }
+        checkParameter(mapping, false);
         if (mapping.isNumber) {
-            throw new IllegalArgumentException("unknown value in select statement");
+            throw new TranslationException(TranslationException.Kind.INVALID_NAME, mapping.offset,
+                    "unknown value in select statement");
         }
 
+        mixFingerprint(SHAPE_SELECT, 0, mapping);
         selectFields.add(mapping);
     }
 
+    /**
+     * @param field the aggregated field, null for COUNT(*)
+     * @return index of the aggregate, the same aggregate of the same field is added once
+     */
+    private int addAggregate(Aggregate aggregate, CharsMapping field) {
+        if (aggregate == Aggregate.COUNT && field != null) {
+            throw new TranslationException(TranslationException.Kind.INVALID_AGGREGATION, field.offset,
+                    "only COUNT(*) is supported");
+        }
+        if (aggregate != Aggregate.COUNT && field == null) {
+            throw TranslationException.withArgument(TranslationException.Kind.INVALID_AGGREGATION, -1,
+                    "%3$s(*) is not supported", aggregate);
+        }
+        if (field != null) {
+            checkParameter(field, false);
+            if (field.isNumber) {
+                throw TranslationException.withArgument(TranslationException.Kind.INVALID_NAME, field.offset,
+                        "unknown value in %3$s function", aggregate);
+            }
+        }
+
+        for (int i = 0; i < aggregates.size(); i++) {
+            CharsMapping aggregateField = aggregateFields.get(i);
+            if (aggregates.get(i) == aggregate
+                    && (field == null || aggregateField != null && isSameName(aggregateField, field))) {
+                return i;
+            }
+        }
+        aggregates.add(aggregate);
+        aggregateFields.add(field);
+        return aggregates.size() - 1;
+    }
+
+    /**
+     * Adds an aggregate to the SELECT clause, which makes the query an aggregation
+     *
+     * @param field the aggregated field, null for COUNT(*)
+     */
+    public void addSelectAggregate(Aggregate aggregate, CharsMapping field) {
+        if (aggregate == null) {
+            throw new NullPointerException();
+        }
+        if (isSelectAll) {
+            throw new IllegalStateException("selectAll is already set");
+        }
+        addAggregate(aggregate, field);
+        mixFingerprint(SHAPE_SELECT_AGGREGATE, aggregate.ordinal(), field);
+    }
+
+    public void addGroupField(CharsMapping mapping) {
+        if (mapping == null) {
+            throw new NullPointerException();
+        }
+        checkParameter(mapping, false);
+        if (mapping.isNumber) {
+            throw new TranslationException(TranslationException.Kind.INVALID_NAME, mapping.offset,
+                    "unknown value in group by statement");
+        }
+        mixFingerprint(SHAPE_GROUP, 0, mapping);
+
+        for (int i = 0; i < groupFields.size(); i++) {
+            if (isSameName(groupFields.get(i), mapping)) {
+                return;
+            }
+        }
+        groupFields.add(mapping);
+    }
+
+    /**
+     * Adds a HAVING predicate, which compares an aggregate of the groups with a number
+     *
+     * @param field the aggregated field, null for COUNT(*)
+     */
+    public void addHavingExpression(Aggregate aggregate, CharsMapping field, WhereExpression.CompareSign sign,
+                                    CharsMapping valueMapping) {
+        if (aggregate == null || valueMapping == null) {
+            throw new NullPointerException();
+        }
+        checkParameter(valueMapping, true);
+        if (!valueMapping.isNumber) {
+            throw new TranslationException(TranslationException.Kind.INVALID_PREDICATE, valueMapping.offset,
+                    "in Having statement must be one aggregate and one number");
+        }
+
+        int aggregateIdx = addAggregate(aggregate, field);
+        mixFingerprint(SHAPE_HAVING, aggregate.ordinal() << 8 | sign.ordinal(), field);
+        if (havingSigns.size() == havingAggregates.length) {
+            havingAggregates = Arrays.copyOf(havingAggregates, havingAggregates.length * 2);
+        }
+        havingAggregates[havingSigns.size()] = aggregateIdx;
+        havingSigns.add(sign);
+        havingValues.add(valueMapping);
+    }
+
+    /**
+     * @return true once the first HAVING predicate is added, so the following AND predicates belong to HAVING
+     */
+    public boolean hasHavingExpressions() {
+        return !havingSigns.isEmpty();
+    }
+
+    /**
+     * Adds a sort key to the ORDER BY clause, a repeated field is ignored
+     */
+    public void addSortField(CharsMapping mapping, boolean isDescending) {
+        if (mapping == null) {
+            throw new NullPointerException();
+        }
+        checkParameter(mapping, false);
+        if (mapping.isNumber) {
+            throw new TranslationException(TranslationException.Kind.INVALID_NAME, mapping.offset,
+                    "unknown value in order by statement");
+        }
+        mixFingerprint(SHAPE_SORT, isDescending ? 1 : 0, mapping);
+
+        for (int i = 0; i < sortFields.size(); i++) {
+            if (sortFields.get(i) != null && isSameName(sortFields.get(i), mapping)) {
+                return;
+            }
+        }
+        addSortKey(mapping, -1, isDescending);
+    }
+
+    /**
+     * Adds an aggregate to the ORDER BY clause, which makes the query an aggregation
+     *
+     * @param field the aggregated field, null for COUNT(*)
+     */
+    public void addSortAggregate(Aggregate aggregate, CharsMapping field, boolean isDescending) {
+        if (aggregate == null) {
+            throw new NullPointerException();
+        }
+        int aggregateIdx = addAggregate(aggregate, field);
+        mixFingerprint(SHAPE_SORT_AGGREGATE, aggregate.ordinal() << 8 | (isDescending ? 1 : 0), field);
+        for (int i = 0; i < sortFields.size(); i++) {
+            if (sortFields.get(i) == null && sortAggregates[i] == aggregateIdx) {
+                return;
+            }
+        }
+        addSortKey(null, aggregateIdx, isDescending);
+    }
+
+    private void addSortKey(CharsMapping field, int aggregateIdx, boolean isDescending) {
+        int idx = sortFields.size();
+        if (idx == sortAggregates.length) {
+            sortAggregates = Arrays.copyOf(sortAggregates, idx * 2);
+            sortDescending = Arrays.copyOf(sortDescending, idx * 2);
+        }
+        sortAggregates[idx] = aggregateIdx;
+        sortDescending[idx] = isDescending;
+        sortFields.add(field);
+    }
+
+    /**
+     * @return true if the query has GROUP BY or aggregates, so it is built as an aggregation pipeline
+     */
+    public boolean isAggregation() {
+        return !groupFields.isEmpty() || !aggregates.isEmpty();
+    }
+
     public void setFromDatabaseName(CharsMapping mapping) {
+        checkParameter(mapping, false);
         if (fromDatabaseName != null) {
             throw new IllegalStateException("the from database name is already set");
         }
         if (mapping.length >= 64) {
-            throw new IllegalArgumentException("database names must have fewer than 64 characters");
+            throw new TranslationException(TranslationException.Kind.INVALID_NAME, mapping.offset,
+                    "database names must have fewer than 64 characters");
         }
 
+        mixFingerprint(SHAPE_FROM, 0, mapping);
         fromDatabaseName = mapping;
     }
 
@@ -99,39 +732,124 @@ public class MongoShellBuilder {
         if (varMapping == null || valueMapping == null) {
             throw new NullPointerException();
         }
+        checkParameter(valueMapping, true);
 
-        for (WhereExpression expression : whereExpressions) {
-            if (expression.varMapping.length == varMapping.length) {
-                if (Arrays.compare(
-                        chars, expression.varMapping.offset, expression.varMapping.getEndIndex(),
-                        chars, varMapping.offset, varMapping.getEndIndex()
-                ) == 0) {
-                    expression.addConstraint(sign, valueMapping);
-                    return;
-                }
+        mixFingerprint(SHAPE_WHERE, sign.ordinal(), varMapping);
+        getWhereExpression(varMapping).addConstraint(sign, valueMapping);
+    }
+
+    /**
+     * Appends a value to the IN list being parsed, which is attached to a field by {@link #addWhereInExpression}.
+     * Duplicates are dropped before the list grows, so its size follows the number of distinct values.
+     */
+    public void addInValue(long value) {
+        if (inCount == inValues.length) {
+            inCount = inListSort.sortDistinct(inValues, inCount);
+            if (inCount * 2 > inValues.length) {
+                inValues = Arrays.copyOf(inValues, inValues.length * 2);
+            }
+        }
+        inValues[inCount++] = value;
+    }
+
+    /**
+     * Restricts the field to the values collected by {@link #addInValue}. Lists of the same field are intersected,
+     * the other constraints of the field are kept.
+     */
+    public void addWhereInExpression(CharsMapping varMapping) {
+        if (varMapping == null) {
+            throw new NullPointerException();
+        }
+        checkParameter(varMapping, false);
+        if (varMapping.isNumber) {
+            throw new TranslationException(TranslationException.Kind.INVALID_PREDICATE, varMapping.offset,
+                    "in Where statement must be one number and one variable");
+        }
+        if (inCount == 0) {
+            throw new TranslationException(TranslationException.Kind.INVALID_PREDICATE, varMapping.offset,
+                    "the IN list is empty");
+        }
+
+        mixFingerprint(SHAPE_WHERE_IN, 0, varMapping);
+        int count = inListSort.sortDistinct(inValues, inCount);
+        getWhereExpression(varMapping).addInList(inValues, count);
+        inCount = 0;
+        hasInList = true;
+    }
+
+    /**
+     * @return false if the command contains values computed from the query, like a sorted IN list, so the command
+     * can't be made into a template by splicing the query literals
+     */
+    public boolean isSpliceable() {
+        return !hasInList;
+    }
+
+    /**
+     * @return expression of the field, a new one if the field has no constraints yet
+     */
+    private WhereExpression getWhereExpression(CharsMapping varMapping) {
+        int hash = hashOf(varMapping);
+        int mask = whereIndex.length - 1;
+        int slot = mix(hash) & mask;
+        while (whereIndexStamps[slot] == whereIndexStamp) {
+            WhereExpression expression = whereExpressions.get(whereIndex[slot]);
+            if (expression.varMapping.hash == hash && isSameName(expression.varMapping, varMapping)) {
+                return expression;
             }
+            slot = (slot + 1) & mask;
         }
 
-        whereExpressions.add(
-                new WhereExpression(
-                        varMapping,
-                        sign,
-                        valueMapping
-                )
-        );
+        if (whereExpressions.size() == wherePool.size()) {
+            wherePool.add(new WhereExpression());
+        }
+        WhereExpression expression = wherePool.get(whereExpressions.size());
+        expression.reset(varMapping);
+        whereIndex[slot] = whereExpressions.size();
+        whereIndexStamps[slot] = whereIndexStamp;
+        whereExpressions.add(expression);
+        if (whereExpressions.size() * 2 > whereIndex.length) {
+            growWhereIndex();
+        }
+        return expression;
+    }
+
+    private static int mix(int hash) {
+        int mixed = hash * 0x9e3779b9;
+        return mixed ^ (mixed >>> 16);
+    }
+
+    /**
+     * Doubles the index, so at most half of the slots are used
+     */
+    private void growWhereIndex() {
+        whereIndex = new int[whereIndex.length * 2];
+        whereIndexStamps = new int[whereIndex.length];
+        int mask = whereIndex.length - 1;
+        for (int i = 0; i < whereExpressions.size(); i++) {
+            int slot = mix(whereExpressions.get(i).varMapping.hash) & mask;
+            while (whereIndexStamps[slot] == whereIndexStamp) {
+                slot = (slot + 1) & mask;
+            }
+            whereIndex[slot] = i;
+            whereIndexStamps[slot] = whereIndexStamp;
+        }
     }
 
     public void setSkipValue(CharsMapping skipValue) {
         if (skipValue == null) {
             throw new NullPointerException();
         }
+        checkParameter(skipValue, true);
         if (this.skipValue != null) {
             throw new IllegalStateException("the skip value is already set");
         }
         if (!skipValue.isNumber) {
-            throw new IllegalArgumentException("unknown variable in skip/offset statement");
+            throw new TranslationException(TranslationException.Kind.INVALID_NAME, skipValue.offset,
+                    "unknown variable in skip/offset statement");
         }
 
+        mixFingerprint(SHAPE_SKIP, 0, null);
         this.skipValue = skipValue;
     }
 
@@ -139,89 +857,932 @@ public class MongoShellBuilder {
         if (limitValue == null) {
             throw new NullPointerException();
         }
+        checkParameter(limitValue, true);
         if (this.limitValue != null) {
             throw new IllegalStateException("the limit value is already set");
         }
         if (!limitValue.isNumber) {
-            throw new IllegalArgumentException("unknown variable in skip/offset statement");
+            throw new TranslationException(TranslationException.Kind.INVALID_NAME, limitValue.offset,
+                    "unknown variable in skip/offset statement");
         }
 
+        mixFingerprint(SHAPE_LIMIT, 0, null);
         this.limitValue = limitValue;
     }
 
-    private void buildWhereExpression(WhereExpression whereExpression) {
-        {
-            WhereExpression.CompareSign firstSign = whereExpression.signQueue.remove();
-            CharsMapping firstValueMapping = whereExpression.valueMappingQueue.remove();
-            builder.append(chars, whereExpression.varMapping.offset, whereExpression.varMapping.length).append(": {")
-                    .append(firstSign.value).append(": ")
-                    .append(chars, firstValueMapping.offset, firstValueMapping.length);
+    /**
+     * @return the hash computed by the parser or, for a mapping made elsewhere, computed and stored now
+     */
+    private int hashOf(CharsMapping mapping) {
+        if (!mapping.isHashed) {
+            int hash = 0;
+            for (int i = mapping.offset; i < mapping.getEndIndex(); i++) {
+                hash = 31 * hash + charAt(i);
+            }
+            mapping.setHash(hash);
+        }
+        return mapping.hash;
+    }
+
+    private boolean isSameName(CharsMapping first, CharsMapping second) {
+        if (first.length != second.length) {
+            return false;
+        }
+        if (bytes == null) {
+            return Arrays.compare(
+                    chars, first.offset, first.getEndIndex(),
+                    chars, second.offset, second.getEndIndex()
+            ) == 0;
+        }
+        if (bytesArray != null) {
+            return Arrays.equals(
+                    bytesArray, bytesOffset + first.offset, bytesOffset + first.getEndIndex(),
+                    bytesArray, bytesOffset + second.offset, bytesOffset + second.getEndIndex()
+            );
+        }
+        for (int i = 0; i < first.length; i++) {
+            if (bytes.get(first.offset + i) != bytes.get(second.offset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void appendMapping(CommandOutput output, CharsMapping mapping) {
+        if (output.getBytes() != null) {
+            putName(output.getBytes(), mapping);
+            return;
+        }
+        StringBuilder text = output.getText();
+        if (bytes == null) {
+            text.append(chars, mapping.offset, mapping.length);
+            return;
+        }
+        if (bytesArray != null) {
+            for (int i = bytesOffset + mapping.offset; i < bytesOffset + mapping.getEndIndex(); i++) {
+                text.append((char) (bytesArray[i] & 0xff));
+            }
+            return;
+        }
+        for (int i = mapping.offset; i < mapping.getEndIndex(); i++) {
+            text.append((char) (bytes.get(i) & 0xff));
+        }
+    }
+
+    String nameOf(CharsMapping mapping) {
+        if (bytes == null) {
+            return new String(chars, mapping.offset, mapping.length);
+        }
+        byte[] name = new byte[mapping.length];
+        for (int i = 0; i < mapping.length; i++) {
+            name[i] = bytes.get(mapping.offset + i);
+        }
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    boolean isIndexField(CharsMapping mapping, IndexCatalog.Index index, int fieldIdx) {
+        if (bytes == null) {
+            String field = index.getField(fieldIdx);
+            if (field.length() != mapping.length) {
+                return false;
+            }
+            for (int i = 0; i < mapping.length; i++) {
+                if (chars[mapping.offset + i] != field.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        byte[] field = index.getEncodedField(fieldIdx);
+        if (field.length != mapping.length) {
+            return false;
+        }
+        for (int i = 0; i < mapping.length; i++) {
+            if (bytes.get(mapping.offset + i) != field[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean isIdField(CharsMapping field) {
+        return field.length == 3 && charAt(field.offset) == '_' && charAt(field.offset + 1) == 'i'
+                && charAt(field.offset + 2) == 'd';
+    }
+
+    WhereExpression whereExpressionAt(int idx) {
+        return indexSelection.whereExpressionAt(idx);
+    }
+
+    private void appendIndexField(CommandOutput output, IndexCatalog.Index index, int fieldIdx) {
+        if (output.getBytes() != null) {
+            output.getBytes().put(index.getEncodedField(fieldIdx));
+            return;
         }
+        if (bytes == null) {
+            output.append(index.getField(fieldIdx));
+            return;
+        }
+        // the text output of a byte input has a char for every byte
+        for (byte value : index.getEncodedField(fieldIdx)) {
+            output.append((char) (value & 0xff));
+        }
+    }
 
-        while (!whereExpression.signQueue.isEmpty() && !whereExpression.valueMappingQueue.isEmpty()) {
-            WhereExpression.CompareSign sign = whereExpression.signQueue.remove();
-            CharsMapping valueMapping = whereExpression.valueMappingQueue.remove();
-            builder.append(", ")
-                    .append(sign.value).append(": ")
-                    .append(chars, valueMapping.offset, valueMapping.length);
+    private void appendHintIndex(CommandOutput output) {
+        IndexCatalog.Index hintIndex = indexSelection.getHintIndex();
+        output.append('{');
+        for (int i = 0; i < hintIndex.getFieldCount(); i++) {
+            if (i != 0) {
+                output.append(", ");
+            }
+            appendIndexField(output, hintIndex, i);
+            output.append(": 1");
         }
-        builder.append('}');
+        output.append('}');
     }
 
-    private void buildWhere() {
-        if (whereExpressions.isEmpty()) {
+    private void buildHint(CommandOutput output) {
+        if (indexSelection.getHintIndex() == null) {
+            return;
+        }
+
+        output.append(".hint(");
+        appendHintIndex(output);
+        output.append(')');
+    }
+
+    private void buildSort(CommandOutput output) {
+        if (sortFields.isEmpty()) {
+            if (isKeysetApplied) {
+                output.append(".sort({_id: 1})");
+            }
             return;
         }
 
-        WhereExpression firstExpression = whereExpressions.remove();
-        buildWhereExpression(firstExpression);
+        output.append(".sort({");
+        for (int i = 0; i < sortFields.size(); i++) {
+            if (i != 0) {
+                output.append(", ");
+            }
+            appendMapping(output, sortFields.get(i));
+            output.append(sortDescending[i] ? ": -1" : ": 1");
+        }
+        output.append("})");
+    }
+
+    private void appendValue(CommandOutput output, int commandStart, CharsMapping valueMapping) {
+        if (isRecordingSplices) {
+            if (spliceCount == spliceOutputOffsets.length) {
+                spliceOutputOffsets = Arrays.copyOf(spliceOutputOffsets, spliceCount * 2);
+                spliceInputOffsets = Arrays.copyOf(spliceInputOffsets, spliceCount * 2);
+            }
+            spliceOutputOffsets[spliceCount] = output.length() - commandStart;
+            spliceInputOffsets[spliceCount] = valueMapping.offset;
+            spliceCount++;
+        }
+        appendMapping(output, valueMapping);
+    }
+
+    /**
+     * @return true if the kept constraints of the field with the range after the last key repeat an operator other
+     * than {@code $ne}, which happens only to fields that are not folded. Such a field can't be one operator
+     * document, so each of its constraints becomes an element of {@code $and}.
+     */
+    boolean isRenderedInAnd(WhereExpression whereExpression) {
+        if (whereExpression.isUnsatisfiable()) {
+            return false;
+        }
+        WhereExpression.CompareSign keySign = whereExpression == keysetExpression && isKeysetKept
+                ? keysetSign()
+                : null;
+        return isRepeated(whereExpression, WhereExpression.CompareSign.EQUALS, keySign)
+                || isRepeated(whereExpression, WhereExpression.CompareSign.GREATER, keySign)
+                || isRepeated(whereExpression, WhereExpression.CompareSign.LOWER, keySign);
+    }
+
+    private static boolean isRepeated(WhereExpression whereExpression, WhereExpression.CompareSign sign,
+                                      WhereExpression.CompareSign keySign) {
+        return whereExpression.keptCount(sign) + (sign == keySign ? 1 : 0) > 1;
+    }
+
+    /**
+     * @return index of the equality a folded field has been reduced to, such a field is rendered as the plain
+     * value, or -1 if the field keeps other constraints
+     */
+    int plainEqualityIdx(WhereExpression whereExpression) {
+        if (!whereExpression.isFolded || whereExpression.isUnsatisfiable() || whereExpression.hasInList
+                || whereExpression == keysetExpression && isKeysetKept) {
+            return -1;
+        }
+        int equalityIdx = -1;
+        for (int i = 0; i < whereExpression.size(); i++) {
+            if (!whereExpression.isKept(i)) {
+                continue;
+            }
+            if (equalityIdx >= 0 || whereExpression.signs.get(i) != WhereExpression.CompareSign.EQUALS) {
+                return -1;
+            }
+            equalityIdx = i;
+        }
+        return equalityIdx;
+    }
+
+    /**
+     * Renders the value of a field in the filter: {@code {$in: []}} if the constraints contradict each other, the
+     * plain value of a folded equality, or the operator document, where several {@code $ne} become one
+     * {@code $nin}
+     */
+    private void buildWhereExpression(CommandOutput output, int commandStart, WhereExpression whereExpression) {
+        appendMapping(output, whereExpression.varMapping);
+        output.append(": ");
+        if (whereExpression.isUnsatisfiable()) {
+            output.append("{$in: []}");
+            return;
+        }
+        int equalityIdx = plainEqualityIdx(whereExpression);
+        if (equalityIdx >= 0) {
+            appendValue(output, commandStart, whereExpression.valueMappings.get(equalityIdx));
+            return;
+        }
+
+        output.append('{');
+        int size = whereExpression.size();
+        boolean isNotInList = whereExpression.keptCount(WhereExpression.CompareSign.NON_EQUALS) > 1;
+        boolean isFirst = true;
+        for (int i = 0; i < size; i++) {
+            if (!whereExpression.isKept(i)) {
+                continue;
+            }
+            WhereExpression.CompareSign sign = whereExpression.signs.get(i);
+            if (isNotInList && sign == WhereExpression.CompareSign.NON_EQUALS) {
+                continue;
+            }
+            if (!isFirst) {
+                output.append(", ");
+            }
+            isFirst = false;
+            output.append(sign.value).append(": ");
+            appendValue(output, commandStart, whereExpression.valueMappings.get(i));
+        }
+        if (isNotInList) {
+            if (!isFirst) {
+                output.append(", ");
+            }
+            isFirst = false;
+            output.append("$nin: [");
+            boolean isFirstValue = true;
+            for (int i = 0; i < size; i++) {
+                if (whereExpression.signs.get(i) == WhereExpression.CompareSign.NON_EQUALS
+                        && whereExpression.isKept(i)) {
+                    if (!isFirstValue) {
+                        output.append(", ");
+                    }
+                    isFirstValue = false;
+                    appendValue(output, commandStart, whereExpression.valueMappings.get(i));
+                }
+            }
+            output.append(']');
+        }
+        if (whereExpression == keysetExpression && isKeysetKept) {
+            if (!isFirst) {
+                output.append(", ");
+            }
+            isFirst = false;
+            output.append(keysetSign().value).append(": ").append(lastKey);
+        }
+        if (whereExpression.hasInList) {
+            if (!isFirst) {
+                output.append(", ");
+            }
+            appendInList(output, whereExpression);
+        }
+        output.append('}');
+    }
+
+    private void appendInList(CommandOutput output, WhereExpression whereExpression) {
+        output.append("$in: [");
+        for (int i = 0; i < whereExpression.inCount; i++) {
+            if (i != 0) {
+                output.append(", ");
+            }
+            output.append(whereExpression.inValues[i]);
+        }
+        output.append(']');
+    }
 
-        for (WhereExpression whereExpression : whereExpressions) {
-            builder.append(", ");
-            buildWhereExpression(whereExpression);
+    /**
+     * Renders the constraints of a field that repeats an operator as elements of {@code $and}, one per constraint
+     *
+     * @return false, so the caller knows the next element needs a separator
+     */
+    private boolean buildAndElements(CommandOutput output, int commandStart, WhereExpression whereExpression,
+                                     boolean isFirst) {
+        for (int i = 0; i < whereExpression.size(); i++) {
+            if (!whereExpression.isKept(i)) {
+                continue;
+            }
+            if (!isFirst) {
+                output.append(", ");
+            }
+            isFirst = false;
+            output.append('{');
+            appendMapping(output, whereExpression.varMapping);
+            output.append(": {").append(whereExpression.signs.get(i).value).append(": ");
+            appendValue(output, commandStart, whereExpression.valueMappings.get(i));
+            output.append("}}");
         }
+        if (whereExpression == keysetExpression && isKeysetKept) {
+            if (!isFirst) {
+                output.append(", ");
+            }
+            isFirst = false;
+            output.append('{');
+            appendMapping(output, whereExpression.varMapping);
+            output.append(": {").append(keysetSign().value).append(": ").append(lastKey).append("}}");
+        }
+        if (whereExpression.hasInList) {
+            if (!isFirst) {
+                output.append(", ");
+            }
+            isFirst = false;
+            output.append('{');
+            appendMapping(output, whereExpression.varMapping);
+            output.append(": {");
+            appendInList(output, whereExpression);
+            output.append("}}");
+        }
+        return isFirst;
     }
 
-    private void buildSelect() {
+    private void buildWhere(CommandOutput output, int commandStart) {
+        boolean isFirst = true;
+        boolean hasAnd = false;
+        for (int i = 0; i < whereExpressions.size(); i++) {
+            WhereExpression whereExpression = whereExpressionAt(i);
+            if (isRenderedInAnd(whereExpression)) {
+                hasAnd = true;
+                continue;
+            }
+            if (!isFirst) {
+                output.append(", ");
+            }
+            isFirst = false;
+            buildWhereExpression(output, commandStart, whereExpression);
+        }
+        if (isKeysetApplied && keysetExpression == null) {
+            if (!isFirst) {
+                output.append(", ");
+            }
+            isFirst = false;
+            appendKeysetField(output);
+            output.append(": {").append(keysetSign().value).append(": ").append(lastKey).append('}');
+        }
+        if (hasAnd) {
+            if (!isFirst) {
+                output.append(", ");
+            }
+            output.append("$and: [");
+            boolean isFirstElement = true;
+            for (int i = 0; i < whereExpressions.size(); i++) {
+                WhereExpression whereExpression = whereExpressionAt(i);
+                if (isRenderedInAnd(whereExpression)) {
+                    isFirstElement = buildAndElements(output, commandStart, whereExpression, isFirstElement);
+                }
+            }
+            output.append(']');
+        }
+    }
+
+    private void appendKeysetField(CommandOutput output) {
+        if (sortFields.isEmpty()) {
+            output.append("_id");
+        } else {
+            appendMapping(output, sortFields.get(0));
+        }
+    }
+
+    private void buildSelect(CommandOutput output) {
         if (selectFields.isEmpty()) {
             return;
         }
 
-        builder.append(", {");
-        CharsMapping firstField = selectFields.remove();
-        builder.append(chars, firstField.offset, firstField.length)
-                .append(": 1");
-        for (CharsMapping field : selectFields) {
-            builder.append(", ")
-                    .append(chars, field.offset, field.length)
-                    .append(": 1");
+        output.append(", {");
+        for (int i = 0; i < selectFields.size(); i++) {
+            CharsMapping field = selectFields.get(i);
+            if (i != 0) {
+                output.append(", ");
+            }
+            appendMapping(output, field);
+            output.append(": 1");
+        }
+        if (indexSelection.isCovered()) {
+            output.append(", _id: 0");
         }
-        builder.append('}');
+        output.append('}');
     }
 
-    public String build() {
-        if (fromDatabaseName == null || !isSelectAll && selectFields.isEmpty()) {
-            throw new IllegalStateException("Not enough input values");
+    private void appendAggregateName(CommandOutput output, int aggregateIdx) {
+        output.append(aggregates.get(aggregateIdx).prefix);
+        CharsMapping field = aggregateFields.get(aggregateIdx);
+        if (field != null) {
+            output.append('_');
+            appendMapping(output, field);
         }
+    }
 
-        builder.append("db.").append(chars, fromDatabaseName.offset, fromDatabaseName.length).append(".find({");
-        buildWhere();
-        builder.append('}');
-        buildSelect();
-        builder.append(')');
+    /**
+     * @return true if the field of the aggregate is a group field or the field of a previous aggregate, so the
+     * {@code $project} stage has it already
+     */
+    boolean isProjected(int aggregateIdx) {
+        CharsMapping field = aggregateFields.get(aggregateIdx);
+        for (int i = 0; i < groupFields.size(); i++) {
+            if (isSameName(groupFields.get(i), field)) {
+                return true;
+            }
+        }
+        for (int i = 0; i < aggregateIdx; i++) {
+            if (aggregateFields.get(i) != null && isSameName(aggregateFields.get(i), field)) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        if (skipValue != null) {
-            builder.append(".skip(")
-                    .append(chars, skipValue.offset, skipValue.length)
-                    .append(')');
+    /**
+     * @return true if the $project stage keeps any field, which is not the case for a lone COUNT(*)
+     */
+    boolean hasProjection() {
+        if (!groupFields.isEmpty()) {
+            return true;
         }
+        for (int i = 0; i < aggregateFields.size(); i++) {
+            if (aggregateFields.get(i) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
 
+    private void buildProjectStage(CommandOutput output) {
+        output.append("{$project: {");
+        for (int i = 0; i < groupFields.size(); i++) {
+            appendMapping(output, groupFields.get(i));
+            output.append(": 1, ");
+        }
+        for (int i = 0; i < aggregates.size(); i++) {
+            if (aggregateFields.get(i) != null && !isProjected(i)) {
+                appendMapping(output, aggregateFields.get(i));
+                output.append(": 1, ");
+            }
+        }
+        output.append("_id: 0}}");
+    }
+
+    /**
+     * @return true if the group field is selected, so the result stage maps it back from the {@code _id} of the
+     * group
+     */
+    boolean isGroupFieldSelected(int groupIdx) {
+        CharsMapping field = groupFields.get(groupIdx);
+        for (int i = 0; i < selectFields.size(); i++) {
+            if (isSameName(selectFields.get(i), field)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Renders the last stage of a grouped aggregation, which gives the selected group fields their names back from
+     * the {@code _id} of the group and keeps the aggregates
+     */
+    private void buildResultStage(CommandOutput output) {
+        output.append("{$project: {");
+        for (int i = 0; i < groupFields.size(); i++) {
+            if (!isGroupFieldSelected(i)) {
+                continue;
+            }
+            appendMapping(output, groupFields.get(i));
+            if (groupFields.size() == 1) {
+                output.append(": \"$_id\", ");
+            } else {
+                output.append(": \"$_id.");
+                appendMapping(output, groupFields.get(i));
+                output.append("\", ");
+            }
+        }
+        for (int i = 0; i < aggregates.size(); i++) {
+            appendAggregateName(output, i);
+            output.append(": 1, ");
+        }
+        output.append("_id: 0}}");
+    }
+
+    private void buildGroupStage(CommandOutput output) {
+        output.append("{$group: {_id: ");
+        if (groupFields.isEmpty()) {
+            output.append("null");
+        } else if (groupFields.size() == 1) {
+            output.append("\"$");
+            appendMapping(output, groupFields.get(0));
+            output.append('"');
+        } else {
+            output.append('{');
+            for (int i = 0; i < groupFields.size(); i++) {
+                if (i != 0) {
+                    output.append(", ");
+                }
+                appendMapping(output, groupFields.get(i));
+                output.append(": \"$");
+                appendMapping(output, groupFields.get(i));
+                output.append('"');
+            }
+            output.append('}');
+        }
+        for (int i = 0; i < aggregates.size(); i++) {
+            output.append(", ");
+            appendAggregateName(output, i);
+            output.append(": {").append(aggregates.get(i).accumulator).append(": ");
+            if (aggregateFields.get(i) == null) {
+                output.append('1');
+            } else {
+                output.append("\"$");
+                appendMapping(output, aggregateFields.get(i));
+                output.append('"');
+            }
+            output.append('}');
+        }
+        output.append("}}");
+    }
+
+    /**
+     * @return true if the HAVING predicates of the aggregate repeat an operator, so they can't be one operator
+     * document and each of them becomes an element of {@code $and}
+     */
+    boolean isHavingInAnd(int aggregateIdx) {
+        int signMask = 0;
+        for (int i = 0; i < havingSigns.size(); i++) {
+            if (havingAggregates[i] != aggregateIdx) {
+                continue;
+            }
+            int signBit = 1 << havingSigns.get(i).ordinal();
+            if ((signMask & signBit) != 0) {
+                return true;
+            }
+            signMask |= signBit;
+        }
+        return false;
+    }
+
+    private void buildHavingStage(CommandOutput output, int commandStart) {
+        output.append("{$match: {");
+        boolean isFirstAggregate = true;
+        boolean hasAnd = false;
+        for (int i = 0; i < aggregates.size(); i++) {
+            if (isHavingInAnd(i)) {
+                hasAnd = true;
+                continue;
+            }
+            boolean isFirst = true;
+            for (int j = 0; j < havingSigns.size(); j++) {
+                if (havingAggregates[j] != i) {
+                    continue;
+                }
+                if (isFirst) {
+                    if (!isFirstAggregate) {
+                        output.append(", ");
+                    }
+                    isFirstAggregate = false;
+                    appendAggregateName(output, i);
+                    output.append(": {");
+                } else {
+                    output.append(", ");
+                }
+                isFirst = false;
+                output.append(havingSigns.get(j).value).append(": ");
+                appendValue(output, commandStart, havingValues.get(j));
+            }
+            if (!isFirst) {
+                output.append('}');
+            }
+        }
+        if (hasAnd) {
+            if (!isFirstAggregate) {
+                output.append(", ");
+            }
+            output.append("$and: [");
+            boolean isFirst = true;
+            for (int i = 0; i < aggregates.size(); i++) {
+                if (!isHavingInAnd(i)) {
+                    continue;
+                }
+                for (int j = 0; j < havingSigns.size(); j++) {
+                    if (havingAggregates[j] != i) {
+                        continue;
+                    }
+                    if (!isFirst) {
+                        output.append(", ");
+                    }
+                    isFirst = false;
+                    output.append('{');
+                    appendAggregateName(output, i);
+                    output.append(": {").append(havingSigns.get(j).value).append(": ");
+                    appendValue(output, commandStart, havingValues.get(j));
+                    output.append("}}");
+                }
+            }
+            output.append(']');
+        }
+        output.append("}}");
+    }
+
+    /**
+     * Renders the sort stage, which follows the {@code $group}: a grouped field is read from the {@code _id} of
+     * the group and an aggregate by its name
+     */
+    private void buildSortStage(CommandOutput output) {
+        output.append("{$sort: {");
+        for (int i = 0; i < sortFields.size(); i++) {
+            if (i != 0) {
+                output.append(", ");
+            }
+            if (sortFields.get(i) == null) {
+                appendAggregateName(output, sortAggregates[i]);
+            } else if (groupFields.size() == 1) {
+                output.append("_id");
+            } else {
+                output.append("\"_id.");
+                appendMapping(output, sortFields.get(i));
+                output.append('"');
+            }
+            output.append(sortDescending[i] ? ": -1" : ": 1");
+        }
+        output.append("}}");
+    }
+
+    /**
+     * Renders {@code db.collection.aggregate([...])} with the stages ordered to keep the documents small as early
+     * as possible: the WHERE {@code $match}, a {@code $project} of the fields the {@code $group} needs, the
+     * {@code $group}, the HAVING {@code $match}, {@code $sort}, {@code $skip}, {@code $limit} and, for GROUP BY, a
+     * {@code $project} of the result columns
+     */
+    private void buildAggregation(CommandOutput output, int commandStart) {
+        output.append("db.");
+        appendMapping(output, fromDatabaseName);
+        output.append(".aggregate([");
+        if (!whereExpressions.isEmpty()) {
+            output.append("{$match: {");
+            buildWhere(output, commandStart);
+            output.append("}}, ");
+        }
+        if (hasProjection()) {
+            buildProjectStage(output);
+            output.append(", ");
+        }
+        buildGroupStage(output);
+        if (!havingSigns.isEmpty()) {
+            output.append(", ");
+            buildHavingStage(output, commandStart);
+        }
+        if (!sortFields.isEmpty()) {
+            output.append(", ");
+            buildSortStage(output);
+        }
+        if (skipValue != null) {
+            output.append(", {$skip: ");
+            appendValue(output, commandStart, skipValue);
+            output.append('}');
+        }
         if (limitValue != null) {
-            builder.append(".limit(")
-                    .append(chars, limitValue.offset, limitValue.length)
-                    .append(')');
+            output.append(", {$limit: ");
+            appendValue(output, commandStart, limitValue);
+            output.append('}');
+        }
+        if (!groupFields.isEmpty()) {
+            output.append(", ");
+            buildResultStage(output);
         }
+        output.append(']');
+
+        boolean hasHint = indexSelection.getHintIndex() != null;
+        if (isAllowDiskUse || hasHint) {
+            output.append(", {");
+            if (isAllowDiskUse) {
+                output.append("allowDiskUse: true");
+            }
+            if (hasHint) {
+                output.append(isAllowDiskUse ? ", hint: " : "hint: ");
+                appendHintIndex(output);
+            }
+            output.append('}');
+        }
+        output.append(')');
+    }
 
+    /**
+     * @throws IllegalStateException    if the query misses the FROM or SELECT clause
+     * @throws TranslationException     if an aggregation selects a field which is neither grouped nor aggregated
+     */
+    private void checkClauses() {
+        if (fromDatabaseName == null || !isSelectAll && selectFields.isEmpty() && aggregates.isEmpty()) {
+            throw new IllegalStateException("Not enough input values");
+        }
+        if (!isAggregation()) {
+            return;
+        }
+        if (isSelectAll) {
+            throw new TranslationException(TranslationException.Kind.INVALID_AGGREGATION,
+                    "SELECT * can't be grouped");
+        }
+        for (int i = 0; i < selectFields.size(); i++) {
+            CharsMapping field = selectFields.get(i);
+            boolean isGrouped = false;
+            for (int j = 0; j < groupFields.size() && !isGrouped; j++) {
+                isGrouped = isSameName(groupFields.get(j), field);
+            }
+            if (!isGrouped) {
+                throw TranslationException.atPosition(TranslationException.Kind.INVALID_AGGREGATION, field.offset,
+                        "the field at position %2$d is neither grouped nor aggregated");
+            }
+        }
+        for (int i = 0; i < sortFields.size(); i++) {
+            CharsMapping field = sortFields.get(i);
+            boolean isGrouped = field == null;
+            for (int j = 0; j < groupFields.size() && !isGrouped; j++) {
+                isGrouped = isSameName(groupFields.get(j), field);
+            }
+            if (!isGrouped) {
+                throw TranslationException.atPosition(TranslationException.Kind.INVALID_AGGREGATION, field.offset,
+                        "the sorted field at position %2$d is neither grouped nor aggregated");
+            }
+        }
+    }
+
+    /**
+     * Runs the stages every build starts with: the fold of the constraints, the keyset page and the index choice
+     */
+    private void runStages() {
+        whereFolding.foldWhereExpressions(whereExpressions, isRecordingSplices);
+        applyKeyset();
+        indexSelection.chooseIndex();
+        indexSelection.checkSort();
+    }
+
+    /**
+     * Renders the collected clauses. The builder state is left untouched, so the method can be called repeatedly.
+     */
+    public String build() {
+        builder.setLength(0);
+        build(builder);
         return builder.toString();
     }
+
+    /**
+     * Appends the rendered command to the output without any intermediate copy. Redundant constraints are left
+     * out, see {@link RangeFolding}, and {@link #isUnsatisfiable()} tells whether the filter matches nothing. A
+     * query with GROUP BY or aggregates is rendered as an aggregation pipeline. ORDER BY is rendered before the
+     * skip and the limit, so the server keeps only the top documents while sorting, and
+     * {@link #isBlockingSort()} tells whether the sort is unbounded.
+     */
+    public void build(StringBuilder output) {
+        commandOutput.reset(output);
+        build(commandOutput);
+    }
+
+    /**
+     * Puts the UTF-8 command into the buffer without any intermediate copy, see {@link #build(StringBuilder)}. The
+     * names of a byte input are put as they are, the names of a char input are encoded.
+     *
+     * @throws BufferOverflowException if the command doesn't fit into the remaining space, the buffer position
+     *                                 is not moved in this case
+     */
+    public void build(ByteBuffer output) {
+        int commandStart = output.position();
+        commandOutput.reset(output);
+        try {
+            build(commandOutput);
+        } catch (RuntimeException e) {
+            output.position(commandStart);
+            throw e;
+        }
+    }
+
+    private void build(CommandOutput output) {
+        checkClauses();
+
+        int commandStart = output.length();
+        spliceCount = 0;
+        runStages();
+        if (isAggregation()) {
+            buildAggregation(output, commandStart);
+            return;
+        }
+        output.append("db.");
+        appendMapping(output, fromDatabaseName);
+        output.append(".find({");
+        buildWhere(output, commandStart);
+        output.append('}');
+        selectOutputOffset = output.length() - commandStart;
+        buildSelect(output);
+        output.append(')');
+        buildHint(output);
+        buildSort(output);
+
+        if (skipValue != null && !isKeysetApplied) {
+            output.append(".skip(");
+            appendValue(output, commandStart, skipValue);
+            output.append(')');
+        }
+
+        if (limitValue != null) {
+            output.append(".limit(");
+            appendValue(output, commandStart, limitValue);
+            output.append(')');
+        }
+    }
+
+    void putName(ByteBuffer output, CharsMapping mapping) {
+        if (bytes != null) {
+            for (int i = mapping.offset; i < mapping.getEndIndex(); i++) {
+                output.put(bytes.get(i));
+            }
+            return;
+        }
+        for (int i = mapping.offset; i < mapping.getEndIndex(); i++) {
+            int value = chars[i];
+            if (Character.isHighSurrogate(chars[i]) && i + 1 < mapping.getEndIndex()
+                    && Character.isLowSurrogate(chars[i + 1])) {
+                value = Character.toCodePoint(chars[i], chars[++i]);
+            }
+            CommandOutput.putCodePoint(output, value);
+        }
+    }
+
+    private char charAt(int idx) {
+        return bytes == null ? chars[idx] : (char) (bytes.get(idx) & 0xff);
+    }
+
+    /**
+     * @return the value of the digits or -1 if it doesn't fit into a long
+     */
+    long parseNumberOrNegative(CharsMapping mapping) {
+        long number = 0;
+        for (int i = mapping.offset; i < mapping.getEndIndex(); i++) {
+            int digit = charAt(i) - '0';
+            if (number > (Long.MAX_VALUE - digit) / 10) {
+                return -1;
+            }
+            number = number * 10 + digit;
+        }
+        return number;
+    }
+
+    WhereExpression.CompareSign keysetSign() {
+        return !sortFields.isEmpty() && sortDescending[0]
+                ? WhereExpression.CompareSign.LOWER
+                : WhereExpression.CompareSign.GREATER;
+    }
+
+    /**
+     * Decides whether the last key replaces the skip, see {@link #setLastKey}, and folds the range after the key
+     * into the constraints of the key field, so the key is left out if the field has a tighter bound already
+     */
+    private void applyKeyset() {
+        isKeysetApplied = hasLastKey && !isAggregation() && sortFields.size() <= 1;
+        keysetExpression = null;
+        isKeysetKept = true;
+        if (!isKeysetApplied) {
+            return;
+        }
+        for (int i = 0; i < whereExpressions.size() && keysetExpression == null; i++) {
+            CharsMapping field = whereExpressions.get(i).varMapping;
+            if (sortFields.isEmpty() ? isIdField(field) : isSameName(field, sortFields.get(0))) {
+                keysetExpression = whereExpressions.get(i);
+            }
+        }
+        if (keysetExpression == null) {
+            return;
+        }
+
+        isKeysetKept = whereFolding.foldKeyset(keysetExpression, keysetSign(), lastKey);
+    }
+
+    /**
+     * Writes the collected clauses as the BSON document of a {@code find} command at the buffer position:
+     * {@code {find: "collection", filter: {...}, projection: {...}, hint: {...}, skip: n, limit: m}}. The
+     * projection, skip and limit are present only if the query has them and the hint only if an index of the
+     * catalog is chosen, an IN list is an array. Numbers are encoded as int32
+     * when they fit and as int64 otherwise, names are encoded as UTF-8. A query with GROUP BY or aggregates is
+     * written as an {@code aggregate} command instead.
+     *
+     * @throws BufferOverflowException if the document doesn't fit into the remaining space, the buffer position
+     *                                 is not moved in this case
+     */
+    public void buildFindCommand(ByteBuffer output) {
+        checkClauses();
+        runStages();
+        bsonEmitter.write(output);
+    }
 }
@@ -0,0 +1,132 @@
+import java.text.CharacterIterator;
+
+/**
+ * Table-driven LL driver for the grammar described in {@link Translator}. Grammar symbols are kept on a primitive
+ * stack as {@link Terminal#code} values, and a production is expanded by copying its precomputed right hand side
+ * from {@link ParseTable}, so new clauses only need new table entries.
+ *
+ * Characters are parsed by {@link GeneratedParser}, generated from the same grammar, and this engine is kept as its
+ * reference and for the tokens of {@link Lexer}.
+ *
+ * An engine can be reused for any number of queries, but it is not thread-safe.
+ */
+public class ParseEngine {
+    private byte[] stack = new byte[16];
+    private int size;
+
+    private void push(byte[] symbols) {
+        if (size + symbols.length > stack.length) {
+            byte[] newStack = new byte[Math.max(stack.length * 2, size + symbols.length)];
+            System.arraycopy(stack, 0, newStack, 0, size);
+            stack = newStack;
+        }
+        System.arraycopy(symbols, 0, stack, size, symbols.length);
+        size += symbols.length;
+    }
+
+    /**
+     * Parses one query, which may be ended by a {@link Translator#STATEMENT_END} followed by spaces only
+     */
+    public void parse(CharacterIterator inputIterator, MongoShellBuilder mongoShellBuilder) {
+        parseStatement(inputIterator, mongoShellBuilder);
+        checkStatementEnd(inputIterator);
+    }
+
+    /**
+     * Checks that nothing but spaces follows the end of a parsed statement
+     */
+    static void checkStatementEnd(CharacterIterator inputIterator) {
+        if (inputIterator.current() == Translator.STATEMENT_END) {
+            char value = inputIterator.next();
+            while (Translator.isStatementSpace(value)) {
+                value = inputIterator.next();
+            }
+            if (value != CharacterIterator.DONE) {
+                throw secondStatement(inputIterator.getIndex());
+            }
+        }
+    }
+
+    private static TranslationException secondStatement(int position) {
+        return TranslationException.atPosition(TranslationException.Kind.MISPLACED_CLAUSE, position,
+                "a second statement starts at position %2$d, use ScriptTranslator for scripts");
+    }
+
+    /**
+     * Parses the statement at the iterator, the iterator is left at its end: the end of the input or the
+     * {@link Translator#STATEMENT_END}
+     */
+    public void parseStatement(CharacterIterator inputIterator, MongoShellBuilder mongoShellBuilder) {
+        size = 0;
+        stack[size++] = Terminal.NTS_SELECT_QUERY.code;
+        Terminal actualSymbol = Terminal.getTerminal(inputIterator);
+
+        while (size != 0) {
+            byte expectedSymbol = stack[--size];
+            if (expectedSymbol == actualSymbol.code) {
+                Translator.parseTerminalExpression(actualSymbol, inputIterator, mongoShellBuilder);
+                if (size != 0) {
+                    actualSymbol = Terminal.getTerminal(inputIterator);
+                }
+            } else {
+                byte[] production = ParseTable.getProduction(expectedSymbol, actualSymbol.code);
+                if (production == null) {
+                    throw new TranslationException(TranslationException.Kind.MISPLACED_CLAUSE,
+                            "logic of your SQL query is not correct");
+                }
+                push(production);
+            }
+        }
+    }
+
+    private static Terminal getTerminal(Lexer lexer, int idx) {
+        long token = lexer.getToken(idx);
+        Terminal terminal = Lexer.terminal(token);
+        if (terminal == null) {
+            throw TranslationException.unknownKeyword(lexer.charAt(Lexer.offset(token)), Lexer.offset(token));
+        }
+        return terminal;
+    }
+
+    /**
+     * Same as {@link #parse(CharacterIterator, MongoShellBuilder)} over the tokens of the last
+     * {@link Lexer#tokenize} call, which are consumed by index
+     */
+    public void parse(Lexer lexer, MongoShellBuilder mongoShellBuilder) {
+        int idx = parseStatement(lexer, 0, mongoShellBuilder);
+        // the last token is the end of the input, which may follow the end of the statement
+        if (idx < lexer.getCount() - 1) {
+            throw secondStatement(Lexer.offset(lexer.getToken(idx)));
+        }
+    }
+
+    /**
+     * Parses the statement that starts at the token, which ends at a {@link Terminal#TS_END} token: a
+     * {@link Translator#STATEMENT_END} or the end of the input
+     *
+     * @return index of the token after the end of the statement
+     */
+    public int parseStatement(Lexer lexer, int idx, MongoShellBuilder mongoShellBuilder) {
+        size = 0;
+        stack[size++] = Terminal.NTS_SELECT_QUERY.code;
+        Terminal actualSymbol = getTerminal(lexer, idx);
+
+        while (size != 0) {
+            byte expectedSymbol = stack[--size];
+            if (expectedSymbol == actualSymbol.code) {
+                idx = Translator.parseTerminalExpression(actualSymbol, lexer, idx + 1, mongoShellBuilder);
+                if (size != 0) {
+                    actualSymbol = getTerminal(lexer, idx);
+                }
+            } else {
+                byte[] production = ParseTable.getProduction(expectedSymbol, actualSymbol.code);
+                if (production == null) {
+                    throw new TranslationException(TranslationException.Kind.MISPLACED_CLAUSE,
+                            "logic of your SQL query is not correct");
+                }
+                push(production);
+            }
+        }
+        return idx;
+    }
+}
@@ -1,14 +1,71 @@
 public class ParseTable {
     private final static byte UNK = Byte.MIN_VALUE;
 
+    /**
+     * Flag of the non-terminal symbol codes, see {@link Terminal#code}
+     */
+    public final static int NON_TERMINAL = 0x40;
+
     private final static byte[][] table = {
-/* SELECT_QUERY */ {0, UNK, UNK, UNK, UNK, UNK, UNK},
-/* WHERE_CLAUSE */ {UNK, UNK, 2, 1, 1, UNK, 1},
-/* WHERE_EXPR   */ {UNK, UNK, UNK, 4, 4, 3, 4},
-/* SKIP_CLAUSE  */ {UNK, UNK, UNK, 5, 6, UNK, 6},
-/* LIMIT_CLAUSE */ {UNK, UNK, UNK, UNK, 7, UNK, 8}
+/*                   SELECT FROM WHERE SKIP LIMIT AND GROUP HAVING ORDER END */
+/* SELECT_QUERY  */ {0, UNK, UNK, UNK, UNK, UNK, UNK, UNK, UNK, UNK},
+/* WHERE_CLAUSE  */ {UNK, UNK, 2, 1, 1, UNK, 1, UNK, 1, 1},
+/* WHERE_EXPR    */ {UNK, UNK, UNK, 4, 4, 3, 4, UNK, 4, 4},
+/* SKIP_CLAUSE   */ {UNK, UNK, UNK, 5, 6, UNK, UNK, UNK, UNK, 6},
+/* LIMIT_CLAUSE  */ {UNK, UNK, UNK, UNK, 7, UNK, UNK, UNK, UNK, 8},
+/* GROUP_CLAUSE  */ {UNK, UNK, UNK, 10, 10, UNK, 9, UNK, 10, 10},
+/* HAVING_CLAUSE */ {UNK, UNK, UNK, 12, 12, UNK, UNK, 11, 12, 12},
+/* HAVING_EXPR   */ {UNK, UNK, UNK, 14, 14, 13, UNK, UNK, 14, 14},
+/* ORDER_CLAUSE  */ {UNK, UNK, UNK, 16, 16, UNK, UNK, UNK, 15, 16}
+    };
+
+    /**
+     * Right hand sides of the productions as symbol codes. They are stored reversed, so a production is pushed onto
+     * the parser stack with a single array copy.
+     */
+    private final static byte[][] productions = {
+/* 0 */ production(Terminal.TS_SELECT, Terminal.TS_FROM, Terminal.NTS_WHERE_CLAUSE),
+/* 1 */ production(Terminal.NTS_GROUP_CLAUSE),
+/* 2 */ production(Terminal.TS_WHERE, Terminal.NTS_WHERE_EXPR),
+/* 3 */ production(Terminal.TS_AND, Terminal.NTS_WHERE_EXPR),
+/* 4 */ production(Terminal.NTS_GROUP_CLAUSE),
+/* 5 */ production(Terminal.TS_SKIP, Terminal.NTS_LIMIT_CLAUSE),
+/* 6 */ production(Terminal.NTS_LIMIT_CLAUSE),
+/* 7 */ production(Terminal.TS_LIMIT, Terminal.TS_END),
+/* 8 */ production(Terminal.TS_END),
+/* 9 */ production(Terminal.TS_GROUP, Terminal.NTS_HAVING_CLAUSE),
+/* 10 */ production(Terminal.NTS_ORDER_CLAUSE),
+/* 11 */ production(Terminal.TS_HAVING, Terminal.NTS_HAVING_EXPR),
+/* 12 */ production(Terminal.NTS_ORDER_CLAUSE),
+/* 13 */ production(Terminal.TS_AND, Terminal.NTS_HAVING_EXPR),
+/* 14 */ production(Terminal.NTS_ORDER_CLAUSE),
+/* 15 */ production(Terminal.TS_ORDER, Terminal.NTS_SKIP_CLAUSE),
+/* 16 */ production(Terminal.NTS_SKIP_CLAUSE)
     };
 
+    /**
+     * Productions indexed by {@code row * columns + column}, so the parser needs one lookup per expansion
+     */
+    private final static byte[][] productionTable = new byte[table.length * table[0].length][];
+
+    static {
+        for (int row = 0; row < table.length; row++) {
+            for (int column = 0; column < table[row].length; column++) {
+                if (table[row][column] != UNK) {
+                    productionTable[row * table[row].length + column] = productions[table[row][column]];
+                }
+            }
+        }
+    }
+
+    private static byte[] production(Terminal... symbols) {
+        byte[] reversedCodes = new byte[symbols.length];
+        for (int i = 0; i < symbols.length; i++) {
+            reversedCodes[symbols.length - 1 - i] = symbols[i].code;
+        }
+        return reversedCodes;
+    }
+
     public static int getCase(Terminal nonTerminalSymbol, Terminal terminalSymbol) {
         if (nonTerminalSymbol.isTerminal || !terminalSymbol.isTerminal) {
             return UNK;
@@ -18,4 +75,18 @@ public class ParseTable {
 
         return ParseTable.table[tableRow][tableColumn];
     }
+
+    /**
+     * @param nonTerminalCode code of the expected non-terminal symbol
+     * @param terminalCode    code of the actual terminal symbol
+     * @return reversed right hand side of the production or null if the table has no production for the pair
+     */
+    public static byte[] getProduction(int nonTerminalCode, int terminalCode) {
+        int tableRow = nonTerminalCode & ~NON_TERMINAL;
+        if ((nonTerminalCode & NON_TERMINAL) == 0 || tableRow >= table.length
+                || terminalCode < 0 || terminalCode >= table[0].length) {
+            return null;
+        }
+        return productionTable[tableRow * table[0].length + terminalCode];
+    }
 }
@@ -0,0 +1,47 @@
+/**
+ * Compiled query with {@code ?} placeholders, see {@link Translator#prepare(String)}. The command is kept split
+ * around the placeholders with the where grouping already resolved, so binding only concatenates.
+ *
+ * Prepared queries are immutable and can be shared between threads.
+ */
+public final class PreparedQuery {
+    private final ShellTemplate template;
+    private final int parameterCount;
+
+    PreparedQuery(ShellTemplate template, int parameterCount) {
+        this.template = template;
+        this.parameterCount = parameterCount;
+    }
+
+    public int getParameterCount() {
+        return parameterCount;
+    }
+
+    /**
+     * @param values values of the placeholders in the order they appear in the query
+     * @return the MongoDB command
+     */
+    public String bind(long... values) {
+        StringBuilder output = new StringBuilder();
+        bind(output, values);
+        return output.toString();
+    }
+
+    /**
+     * Appends the MongoDB command with the bound values to the output
+     *
+     * @param values values of the placeholders in the order they appear in the query
+     */
+    public void bind(StringBuilder output, long... values) {
+        if (values.length != parameterCount) {
+            throw new IllegalArgumentException("expected " + parameterCount + " values, got " + values.length);
+        }
+        for (long value : values) {
+            if (value < 0) {
+                throw new IllegalArgumentException("only non-negative numbers can be bound, got " + value);
+            }
+        }
+
+        template.render(output, values);
+    }
+}
@@ -0,0 +1,560 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Random query generator for load tests and differential fuzzing. A valid query is derived by walking the grammar of
+ * {@link ParseTable}: at every non-terminal the next clause is drawn among the terminals the table has a production
+ * for, following the counts and probabilities set on the generator, and every terminal is rendered with random
+ * names and numbers. A query with GROUP BY selects, sorts and filters by its grouped fields and aggregates only.
+ *
+ * A near-miss invalid query is a valid one with a single mutation the translator must reject: a misspelled keyword,
+ * the last clause moved in front of the others, a name where a number is expected, a bad symbol in a name, a
+ * predicate cut after its sign or a number too large for a long in an IN list.
+ *
+ * A generator is not thread-safe. Generators with the same seed and settings produce the same queries.
+ */
+public class QueryGenerator {
+    private static final Terminal[] TERMINALS = new Terminal[Terminal.TS_END.value + 1];
+    // the terminals in the order of the grammar, the first wanted one is taken at every non-terminal
+    private static final Terminal[] CLAUSE_ORDER = {Terminal.TS_SELECT, Terminal.TS_FROM, Terminal.TS_WHERE,
+            Terminal.TS_AND, Terminal.TS_GROUP, Terminal.TS_HAVING, Terminal.TS_ORDER, Terminal.TS_SKIP,
+            Terminal.TS_LIMIT, Terminal.TS_END};
+    private static final String[] SIGNS = {"<", ">", "=", "<>"};
+    private static final MongoShellBuilder.Aggregate[] AGGREGATES = MongoShellBuilder.Aggregate.values();
+    // a number with more digits doesn't fit into a long
+    private static final int MAX_LITERAL_DIGITS = 18;
+
+    private static final int MISSPELLED_KEYWORD = 0;
+    private static final int MOVED_CLAUSE = 1;
+    private static final int NAME_FOR_NUMBER = 2;
+    private static final int BAD_NAME_SYMBOL = 3;
+    private static final int CUT_PREDICATE = 4;
+    private static final int NUMBER_TOO_LARGE = 5;
+    private static final int MUTATION_COUNT = 6;
+
+    static {
+        for (Terminal terminal : Terminal.values()) {
+            if (terminal.isTerminal && terminal.value >= 0) {
+                TERMINALS[terminal.value] = terminal;
+            }
+        }
+    }
+
+    private final Random random;
+    private int minColumns = 0;
+    private int maxColumns = 8;
+    private int minPredicates = 0;
+    private int maxPredicates = 4;
+    private int minLiteralDigits = 1;
+    private int maxLiteralDigits = 6;
+    private int fieldNameCount = 32;
+    private double inProbability = 0.2;
+    private double groupProbability = 0.15;
+    private double orderProbability = 0.3;
+    private double skipProbability = 0.3;
+    private double limitProbability = 0.5;
+
+    // the query being derived and the plan of its clauses
+    private final StringBuilder query = new StringBuilder();
+    private byte[] stack = new byte[16];
+    private int size;
+    private int columnCount;
+    private int predicatesLeft;
+    private int havingLeft;
+    private boolean isHaving;
+    private int[] groupFields = new int[4];
+    private int groupFieldCount;
+    private boolean isOrdered;
+    private boolean isSkipped;
+    private boolean isLimited;
+
+    // spots of the derived query a mutation can use: pairs of start and end indexes
+    private final Spots keywords = new Spots();
+    private final Spots names = new Spots();
+    private final Spots comparedNumbers = new Spots();
+    private final Spots signs = new Spots();
+    private final Spots inNumbers = new Spots();
+    private int firstClauseStart;
+    private int lastClauseStart;
+    private int clauseCount;
+
+    /**
+     * Growable list of index ranges
+     */
+    private static class Spots {
+        private int[] bounds = new int[16];
+        private int count;
+
+        void add(int start, int end) {
+            if (count * 2 == bounds.length) {
+                int[] newBounds = new int[bounds.length * 2];
+                System.arraycopy(bounds, 0, newBounds, 0, bounds.length);
+                bounds = newBounds;
+            }
+            bounds[count * 2] = start;
+            bounds[count * 2 + 1] = end;
+            count++;
+        }
+
+        int start(int idx) {
+            return bounds[idx * 2];
+        }
+
+        int end(int idx) {
+            return bounds[idx * 2 + 1];
+        }
+    }
+
+    public QueryGenerator(long seed) {
+        random = new Random(seed);
+    }
+
+    private static void checkRange(int min, int max) {
+        if (min < 0 || min > max) {
+            throw new IllegalArgumentException("invalid range " + min + ".." + max);
+        }
+    }
+
+    private static void checkProbability(double probability) {
+        if (!(probability >= 0 && probability <= 1)) {
+            throw new IllegalArgumentException("invalid probability " + probability);
+        }
+    }
+
+    /**
+     * Sets the range of the number of fields in the SELECT list, a query without any is a SELECT *. A grouped
+     * query selects one item at least.
+     */
+    public void setColumnCount(int min, int max) {
+        checkRange(min, max);
+        minColumns = min;
+        maxColumns = max;
+    }
+
+    /**
+     * Sets the range of the number of WHERE predicates
+     */
+    public void setPredicateCount(int min, int max) {
+        checkRange(min, max);
+        minPredicates = min;
+        maxPredicates = max;
+    }
+
+    /**
+     * Sets the range of the number of digits of the numbers, at most 18 so every number fits into a long
+     */
+    public void setLiteralDigits(int min, int max) {
+        checkRange(min, max);
+        if (min == 0 || max > MAX_LITERAL_DIGITS) {
+            throw new IllegalArgumentException("a number has 1 to " + MAX_LITERAL_DIGITS + " digits");
+        }
+        minLiteralDigits = min;
+        maxLiteralDigits = max;
+    }
+
+    /**
+     * Sets the number of distinct field names the fields are drawn from
+     */
+    public void setFieldNameCount(int fieldNameCount) {
+        if (fieldNameCount <= 0) {
+            throw new IllegalArgumentException("field name count must be positive");
+        }
+        this.fieldNameCount = fieldNameCount;
+    }
+
+    /**
+     * Sets the probability of a WHERE predicate to be an IN list instead of a comparison
+     */
+    public void setInProbability(double probability) {
+        checkProbability(probability);
+        inProbability = probability;
+    }
+
+    public void setGroupProbability(double probability) {
+        checkProbability(probability);
+        groupProbability = probability;
+    }
+
+    public void setOrderProbability(double probability) {
+        checkProbability(probability);
+        orderProbability = probability;
+    }
+
+    /**
+     * Sets the probability of the SKIP or OFFSET clause, the keyword is drawn evenly
+     */
+    public void setSkipProbability(double probability) {
+        checkProbability(probability);
+        skipProbability = probability;
+    }
+
+    public void setLimitProbability(double probability) {
+        checkProbability(probability);
+        limitProbability = probability;
+    }
+
+    public String nextValid() {
+        derive();
+        return query.toString();
+    }
+
+    public String nextInvalid() {
+        derive();
+        mutate();
+        return query.toString();
+    }
+
+    /**
+     * @param invalidProbability probability of the query to be a near-miss invalid one
+     */
+    public String next(double invalidProbability) {
+        return random.nextDouble() < invalidProbability ? nextInvalid() : nextValid();
+    }
+
+    /**
+     * Writes the queries one per line
+     */
+    public void write(Writer output, long count, double invalidProbability) throws IOException {
+        for (long i = 0; i < count; i++) {
+            output.write(next(invalidProbability));
+            output.write('\n');
+        }
+    }
+
+    private int nextInt(int min, int max) {
+        return min + random.nextInt(max - min + 1);
+    }
+
+    private void plan() {
+        columnCount = nextInt(minColumns, maxColumns);
+        predicatesLeft = nextInt(minPredicates, maxPredicates);
+        groupFieldCount = 0;
+        havingLeft = 0;
+        isHaving = false;
+        if (random.nextDouble() < groupProbability) {
+            groupFieldCount = nextInt(1, 3);
+            for (int i = 0; i < groupFieldCount; i++) {
+                groupFields[i] = random.nextInt(fieldNameCount);
+            }
+            havingLeft = random.nextInt(3);
+            columnCount = Math.max(1, columnCount);
+        }
+        isOrdered = random.nextDouble() < orderProbability;
+        isSkipped = random.nextDouble() < skipProbability;
+        isLimited = random.nextDouble() < limitProbability;
+
+        query.setLength(0);
+        keywords.count = 0;
+        names.count = 0;
+        comparedNumbers.count = 0;
+        signs.count = 0;
+        inNumbers.count = 0;
+        clauseCount = 0;
+    }
+
+    /**
+     * Derives a valid query the way {@link ParseEngine} parses one: the right hand side of the production the
+     * table has for the top non-terminal and the chosen terminal is pushed, and the terminals are rendered as they
+     * are popped
+     */
+    private void derive() {
+        plan();
+        size = 0;
+        stack[size++] = Terminal.NTS_SELECT_QUERY.code;
+        while (size != 0) {
+            byte symbol = stack[--size];
+            if ((symbol & ParseTable.NON_TERMINAL) == 0) {
+                render(TERMINALS[symbol]);
+                continue;
+            }
+            Terminal terminal = null;
+            for (int i = 0; i < CLAUSE_ORDER.length && terminal == null; i++) {
+                if (ParseTable.getProduction(symbol, CLAUSE_ORDER[i].code) != null && isWanted(CLAUSE_ORDER[i])) {
+                    terminal = CLAUSE_ORDER[i];
+                }
+            }
+            push(ParseTable.getProduction(symbol, terminal.code));
+        }
+    }
+
+    private void push(byte[] symbols) {
+        if (size + symbols.length > stack.length) {
+            byte[] newStack = new byte[Math.max(stack.length * 2, size + symbols.length)];
+            System.arraycopy(stack, 0, newStack, 0, size);
+            stack = newStack;
+        }
+        System.arraycopy(symbols, 0, stack, size, symbols.length);
+        size += symbols.length;
+    }
+
+    private boolean isWanted(Terminal terminal) {
+        switch (terminal) {
+            case TS_WHERE:
+                return predicatesLeft > 0;
+            case TS_AND:
+                return isHaving ? havingLeft > 0 : predicatesLeft > 0;
+            case TS_GROUP:
+                return groupFieldCount > 0;
+            case TS_HAVING:
+                return havingLeft > 0;
+            case TS_ORDER:
+                return isOrdered;
+            case TS_SKIP:
+                return isSkipped;
+            case TS_LIMIT:
+                return isLimited;
+            default:
+                return true;
+        }
+    }
+
+    private void render(Terminal terminal) {
+        if (terminal != Terminal.TS_SELECT && terminal != Terminal.TS_FROM && terminal != Terminal.TS_END) {
+            if (clauseCount++ == 0) {
+                firstClauseStart = query.length();
+            }
+            lastClauseStart = query.length();
+        }
+        switch (terminal) {
+            case TS_SELECT: {
+                appendKeyword("SELECT");
+                renderSelect();
+            } break;
+            case TS_FROM: {
+                appendKeyword(" FROM");
+                query.append(' ');
+                appendName("c" + random.nextInt(fieldNameCount));
+            } break;
+            case TS_WHERE: {
+                appendKeyword(" WHERE");
+                renderPredicate();
+            } break;
+            case TS_AND: {
+                appendKeyword(" AND");
+                if (isHaving) {
+                    renderHavingPredicate();
+                } else {
+                    renderPredicate();
+                }
+            } break;
+            case TS_GROUP: {
+                appendKeyword(" GROUP");
+                query.append(" BY ");
+                for (int i = 0; i < groupFieldCount; i++) {
+                    query.append(i == 0 ? "" : ", ");
+                    appendField(groupFields[i]);
+                }
+            } break;
+            case TS_HAVING: {
+                appendKeyword(" HAVING");
+                isHaving = true;
+                renderHavingPredicate();
+            } break;
+            case TS_ORDER: {
+                appendKeyword(" ORDER");
+                query.append(" BY ");
+                int keyCount = nextInt(1, 2);
+                for (int i = 0; i < keyCount; i++) {
+                    query.append(i == 0 ? "" : ", ");
+                    appendItem();
+                    int direction = random.nextInt(3);
+                    query.append(direction == 0 ? "" : direction == 1 ? " ASC" : " DESC");
+                }
+            } break;
+            case TS_SKIP: {
+                appendKeyword(random.nextBoolean() ? " SKIP" : " OFFSET");
+                query.append(' ');
+                appendNumber();
+            } break;
+            case TS_LIMIT: {
+                appendKeyword(" LIMIT");
+                query.append(' ');
+                appendNumber();
+            } break;
+            default: {
+            } break;
+        }
+    }
+
+    private void appendKeyword(String keyword) {
+        int start = query.length() + (keyword.charAt(0) == ' ' ? 1 : 0);
+        query.append(keyword);
+        keywords.add(start, query.length());
+    }
+
+    private void appendName(String name) {
+        int start = query.length();
+        query.append(name);
+        names.add(start, query.length());
+    }
+
+    private void appendField(int field) {
+        appendName("f" + field);
+    }
+
+    private void appendNumber() {
+        int digits = nextInt(minLiteralDigits, maxLiteralDigits);
+        query.append((char) ('1' + random.nextInt(9)));
+        for (int i = 1; i < digits; i++) {
+            query.append((char) ('0' + random.nextInt(10)));
+        }
+    }
+
+    private void appendAggregate() {
+        MongoShellBuilder.Aggregate aggregate = AGGREGATES[random.nextInt(AGGREGATES.length)];
+        query.append(aggregate.name()).append('(');
+        if (aggregate == MongoShellBuilder.Aggregate.COUNT) {
+            query.append('*');
+        } else {
+            appendField(random.nextInt(fieldNameCount));
+        }
+        query.append(')');
+    }
+
+    /**
+     * Appends a field, or a grouped field or an aggregate if the query is grouped
+     */
+    private void appendItem() {
+        if (groupFieldCount == 0) {
+            appendField(random.nextInt(fieldNameCount));
+        } else if (random.nextBoolean()) {
+            appendField(groupFields[random.nextInt(groupFieldCount)]);
+        } else {
+            appendAggregate();
+        }
+    }
+
+    private void renderSelect() {
+        query.append(' ');
+        if (columnCount == 0) {
+            query.append('*');
+            return;
+        }
+        for (int i = 0; i < columnCount; i++) {
+            query.append(i == 0 ? "" : ", ");
+            appendItem();
+        }
+    }
+
+    private void appendSign() {
+        int start = query.length();
+        query.append(SIGNS[random.nextInt(SIGNS.length)]);
+        signs.add(start, query.length());
+    }
+
+    private void appendComparedNumber() {
+        int start = query.length();
+        appendNumber();
+        comparedNumbers.add(start, query.length());
+    }
+
+    private void renderPredicate() {
+        predicatesLeft--;
+        query.append(' ');
+        if (random.nextDouble() < inProbability) {
+            appendField(random.nextInt(fieldNameCount));
+            query.append(" IN (");
+            int valueCount = nextInt(1, 4);
+            for (int i = 0; i < valueCount; i++) {
+                query.append(i == 0 ? "" : ", ");
+                int start = query.length();
+                appendNumber();
+                inNumbers.add(start, query.length());
+            }
+            query.append(')');
+        } else if (random.nextInt(4) == 0) {
+            appendComparedNumber();
+            query.append(' ');
+            appendSign();
+            query.append(' ');
+            appendField(random.nextInt(fieldNameCount));
+        } else {
+            appendField(random.nextInt(fieldNameCount));
+            query.append(' ');
+            appendSign();
+            query.append(' ');
+            appendComparedNumber();
+        }
+    }
+
+    private void renderHavingPredicate() {
+        havingLeft--;
+        query.append(' ');
+        appendAggregate();
+        query.append(' ').append(SIGNS[random.nextInt(SIGNS.length)]).append(' ');
+        appendNumber();
+    }
+
+    private boolean isApplicable(int mutation) {
+        switch (mutation) {
+            case MOVED_CLAUSE:
+                return clauseCount >= 2;
+            case NAME_FOR_NUMBER:
+                return comparedNumbers.count > 0;
+            case CUT_PREDICATE:
+                return signs.count > 0;
+            case NUMBER_TOO_LARGE:
+                return inNumbers.count > 0;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Applies one of the mutations the query has the spots for, each of them makes the query invalid
+     */
+    private void mutate() {
+        int mutation;
+        do {
+            mutation = random.nextInt(MUTATION_COUNT);
+        } while (!isApplicable(mutation));
+
+        switch (mutation) {
+            case MISSPELLED_KEYWORD: {
+                // no keyword has an X, so the misspelled one is no keyword at all
+                int idx = random.nextInt(keywords.count);
+                query.setCharAt(nextInt(keywords.start(idx), keywords.end(idx) - 1), 'X');
+            } break;
+            case MOVED_CLAUSE: {
+                // the clauses must follow the order of the grammar and the last one is never repeated, so it
+                // can't be followed by the first one
+                String lastClause = query.substring(lastClauseStart);
+                query.setLength(lastClauseStart);
+                query.insert(firstClauseStart, lastClause);
+            } break;
+            case NAME_FOR_NUMBER: {
+                int idx = random.nextInt(comparedNumbers.count);
+                query.replace(comparedNumbers.start(idx), comparedNumbers.end(idx), "n" + random.nextInt(10));
+            } break;
+            case BAD_NAME_SYMBOL: {
+                int idx = random.nextInt(names.count);
+                query.insert(nextInt(names.start(idx) + 1, names.end(idx)), random.nextBoolean() ? '.' : '$');
+            } break;
+            case CUT_PREDICATE: {
+                query.setLength(signs.end(random.nextInt(signs.count)));
+            } break;
+            case NUMBER_TOO_LARGE: {
+                int idx = random.nextInt(inNumbers.count);
+                query.replace(inNumbers.start(idx), inNumbers.end(idx), "99999999999999999999");
+            } break;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 4) {
+            System.err.println("Usage: QueryGenerator <output file> <count> [invalid probability] [seed]");
+            System.exit(1);
+        }
+        long count = Long.parseLong(args[1]);
+        double invalidProbability = args.length > 2 ? Double.parseDouble(args[2]) : 0;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+        try (BufferedWriter output = Files.newBufferedWriter(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+            new QueryGenerator(seed).write(output, count, invalidProbability);
+        }
+    }
+}
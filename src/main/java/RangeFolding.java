@@ -0,0 +1,157 @@
+import java.util.Arrays;
+
+/**
+ * Simplification of the constraints of one field. The constraints are compared as numbers: only the tightest
+ * {@code $gt} and {@code $lt} bounds are kept, {@code $ne} values outside of the range and repeated ones are dropped
+ * and an {@code $eq} that satisfies every other constraint replaces them all.
+ *
+ * The field values are not known to be integers, so {@code x > 1 AND x < 2} is satisfiable, while
+ * {@code x > 2 AND x < 2} is not.
+ */
+public final class RangeFolding {
+    /**
+     * Result of a fold whose constraints can't be satisfied together
+     */
+    public static final long UNSATISFIABLE = -1L;
+    /**
+     * Fields with more constraints are not folded, so the kept ones fit into a mask
+     */
+    public static final int MAX_CONSTRAINTS = 63;
+
+    private RangeFolding() {
+    }
+
+    /**
+     * @param signs  signs of the constraints
+     * @param values values of the constraints
+     * @param count  number of constraints, at most {@link #MAX_CONSTRAINTS}
+     * @return mask of the kept constraints, bit i stands for the constraint i, or {@link #UNSATISFIABLE}
+     */
+    public static long fold(MongoShellBuilder.WhereExpression.CompareSign[] signs, long[] values, int count) {
+        int lowerIdx = -1;
+        int upperIdx = -1;
+        int equalsIdx = -1;
+        for (int i = 0; i < count; i++) {
+            switch (signs[i]) {
+                case GREATER: {
+                    if (lowerIdx < 0 || values[i] > values[lowerIdx]) {
+                        lowerIdx = i;
+                    }
+                }
+                break;
+                case LOWER: {
+                    if (upperIdx < 0 || values[i] < values[upperIdx]) {
+                        upperIdx = i;
+                    }
+                }
+                break;
+                case EQUALS: {
+                    if (equalsIdx < 0) {
+                        equalsIdx = i;
+                    } else if (values[i] != values[equalsIdx]) {
+                        return UNSATISFIABLE;
+                    }
+                }
+                break;
+                default:
+                    break;
+            }
+        }
+        if (lowerIdx >= 0 && upperIdx >= 0 && values[lowerIdx] >= values[upperIdx]) {
+            return UNSATISFIABLE;
+        }
+
+        if (equalsIdx >= 0) {
+            for (int i = 0; i < count; i++) {
+                if (!isSatisfied(signs[i], values[i], values[equalsIdx])) {
+                    return UNSATISFIABLE;
+                }
+            }
+            return 1L << equalsIdx;
+        }
+
+        long keptMask = 0;
+        if (lowerIdx >= 0) {
+            keptMask |= 1L << lowerIdx;
+        }
+        if (upperIdx >= 0) {
+            keptMask |= 1L << upperIdx;
+        }
+        for (int i = 0; i < count; i++) {
+            if (signs[i] != MongoShellBuilder.WhereExpression.CompareSign.NON_EQUALS
+                    || lowerIdx >= 0 && values[i] <= values[lowerIdx]
+                    || upperIdx >= 0 && values[i] >= values[upperIdx]
+                    || isRepeated(signs, values, i)) {
+                continue;
+            }
+            keptMask |= 1L << i;
+        }
+        return keptMask;
+    }
+
+    private static boolean isRepeated(MongoShellBuilder.WhereExpression.CompareSign[] signs, long[] values, int idx) {
+        for (int i = 0; i < idx; i++) {
+            if (signs[i] == signs[idx] && values[i] == values[idx]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the value satisfies the constraint with the given sign and bound
+     */
+    public static boolean isSatisfied(MongoShellBuilder.WhereExpression.CompareSign sign, long bound, long value) {
+        switch (sign) {
+            case EQUALS:
+                return value == bound;
+            case GREATER:
+                return value > bound;
+            case LOWER:
+                return value < bound;
+            default:
+                return value != bound;
+        }
+    }
+
+    /**
+     * Keeps the sorted values that satisfy every constraint, they are moved to the beginning of the array
+     *
+     * @return number of kept values
+     */
+    public static int filter(MongoShellBuilder.WhereExpression.CompareSign[] signs, long[] bounds, int count,
+                             long[] values, int valueCount) {
+        long lower = Long.MIN_VALUE;
+        long upper = Long.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            if (signs[i] == MongoShellBuilder.WhereExpression.CompareSign.GREATER) {
+                lower = Math.max(lower, bounds[i]);
+            } else if (signs[i] == MongoShellBuilder.WhereExpression.CompareSign.LOWER) {
+                upper = Math.min(upper, bounds[i]);
+            }
+        }
+        // the values are sorted, so the range is cut by two searches and the rest is checked value by value
+        int from = Arrays.binarySearch(values, 0, valueCount, lower);
+        from = from < 0 ? -from - 1 : from + 1;
+        int to = Arrays.binarySearch(values, 0, valueCount, upper);
+        to = to < 0 ? -to - 1 : to;
+        if (lower == Long.MIN_VALUE) {
+            from = 0;
+        }
+        if (upper == Long.MAX_VALUE) {
+            to = valueCount;
+        }
+
+        int keptCount = 0;
+        for (int i = from; i < to; i++) {
+            boolean isKept = true;
+            for (int j = 0; j < count && isKept; j++) {
+                isKept = isSatisfied(signs[j], bounds[j], values[i]);
+            }
+            if (isKept) {
+                values[keptCount++] = values[i];
+            }
+        }
+        return keptCount;
+    }
+}
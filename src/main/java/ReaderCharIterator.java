@@ -0,0 +1,233 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.text.CharacterIterator;
+
+/**
+ * Iterator over a text read from a reader through a ring buffer, so a text of any length is iterated in the memory
+ * of the buffer. The indexes are absolute from the start of the text. The chars before the index passed to
+ * {@link #release} may be overwritten by the following reads, the later ones stay readable, so the iterator can
+ * go back within the text that is not released yet.
+ *
+ * The text ends at the end of the input or at the first line break, {@link #hasTextAfterEnd()} tells whether
+ * anything but spaces and line breaks follows it. A read failure is thrown as an {@link UncheckedIOException}.
+ */
+class ReaderCharIterator implements CharacterIterator {
+    private final char[] ring;
+    // the ring length is a power of two, the char at an index is at index & mask
+    private final int mask;
+    private Reader reader;
+    // invariant: released <= pos <= end, the chars between released and end are in the ring
+    private int released;
+    private int end;
+    private int pos;
+    private boolean isEnded;
+    // the reader has returned the end of the input, the text may have ended at a line break before
+    private boolean isInputEnded;
+    // something but spaces and line breaks has been read after the line break the text ends at
+    private boolean isTextAfterEnd;
+    // scratch of the reads that don't fit before the end of the ring and of the reads after the end of the text
+    private final char[] readBuffer = new char[64];
+
+    /**
+     * @param capacity the minimal number of chars the iterator can go back over, the ring is the next power of two
+     */
+    ReaderCharIterator(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        ring = new char[Integer.highestOneBit(capacity) << 1];
+        mask = ring.length - 1;
+    }
+
+    /**
+     * Starts iterating over the text of another reader
+     */
+    void reset(Reader reader) {
+        if (reader == null) {
+            throw new NullPointerException();
+        }
+        this.reader = reader;
+        released = 0;
+        end = 0;
+        pos = 0;
+        isEnded = false;
+        isInputEnded = false;
+        isTextAfterEnd = false;
+    }
+
+    /**
+     * Allows the chars before the index to be overwritten, the iterator can't go back before it anymore
+     */
+    void release(int index) {
+        if (index < released || index > end) {
+            throw new IllegalArgumentException("Invalid index");
+        }
+        released = index;
+    }
+
+    /**
+     * Appends the chars between the indexes, which must not be released
+     */
+    void appendTo(StringBuilder output, int begin, int end) {
+        for (int i = begin; i < end; i++) {
+            output.append(ring[i & mask]);
+        }
+    }
+
+    /**
+     * Reads the following chars into the free part of the ring. A single char is never read: the decoding readers
+     * of the JDK lose the char read after it if the input ends then, so the ring keeps one char free.
+     *
+     * @throws TranslationException if the ring is full, so the text which is not released doesn't fit into it
+     */
+    private void fill() {
+        int free = ring.length - (end - released);
+        if (free < 2) {
+            throw TranslationException.atPosition(TranslationException.Kind.INVALID_NAME, released,
+                    "the text at position %2$d doesn't fit into the buffer");
+        }
+        int offset = end & mask;
+        int count;
+        try {
+            if (ring.length - offset >= 2) {
+                count = reader.read(ring, offset, Math.min(free, ring.length - offset));
+            } else {
+                count = reader.read(readBuffer, 0, Math.min(free, readBuffer.length));
+                for (int i = 0; i < count; i++) {
+                    ring[(end + i) & mask] = readBuffer[i];
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (count < 0) {
+            isEnded = true;
+            isInputEnded = true;
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            char value = ring[(end + i) & mask];
+            if (value == '\n' || value == '\r') {
+                for (int j = i + 1; j < count && !isTextAfterEnd; j++) {
+                    isTextAfterEnd = isText(ring[(end + j) & mask]);
+                }
+                count = i;
+                isEnded = true;
+                break;
+            }
+        }
+        end += count;
+    }
+
+    private static boolean isText(char value) {
+        return value != ' ' && value != '\t' && value != '\n' && value != '\r';
+    }
+
+    /**
+     * Reads the input after the end of the text until anything but spaces and line breaks is found
+     *
+     * @return true if the text is followed by anything but spaces and line breaks
+     * @throws IllegalStateException if the text has not ended yet
+     */
+    boolean hasTextAfterEnd() {
+        if (!isEnded) {
+            throw new IllegalStateException("the text has not ended yet");
+        }
+        while (!isTextAfterEnd && !isInputEnded) {
+            int count;
+            try {
+                count = reader.read(readBuffer, 0, readBuffer.length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (count < 0) {
+                isInputEnded = true;
+            }
+            for (int i = 0; i < count && !isTextAfterEnd; i++) {
+                isTextAfterEnd = isText(readBuffer[i]);
+            }
+        }
+        return isTextAfterEnd;
+    }
+
+    @Override
+    public char first() {
+        return setIndex(released);
+    }
+
+    /**
+     * The end of a stream is not known until it is read, which may not fit into the ring
+     */
+    @Override
+    public char last() {
+        throw new UnsupportedOperationException("the end of a stream is not known");
+    }
+
+    @Override
+    public char current() {
+        while (pos == end && !isEnded) {
+            fill();
+        }
+        return pos < end ? ring[pos & mask] : DONE;
+    }
+
+    @Override
+    public char next() {
+        // reads the current char first if it is not read yet
+        current();
+        if (pos < end) {
+            pos++;
+        }
+        return current();
+    }
+
+    @Override
+    public char previous() {
+        if (pos > released) {
+            pos--;
+            return ring[pos & mask];
+        } else {
+            return DONE;
+        }
+    }
+
+    @Override
+    public char setIndex(int position) {
+        if (position < released || position > end) {
+            throw new IllegalArgumentException("Invalid index");
+        }
+        pos = position;
+        return current();
+    }
+
+    /**
+     * @return the first index which is not released
+     */
+    @Override
+    public int getBeginIndex() {
+        return released;
+    }
+
+    /**
+     * @return index after the last char read so far, it is the end of the text once {@link #current()} has
+     * returned {@link #DONE}
+     */
+    @Override
+    public int getEndIndex() {
+        return end;
+    }
+
+    @Override
+    public int getIndex() {
+        return pos;
+    }
+
+    /**
+     * A copy would share the ring and the reader with the original
+     */
+    @Override
+    public Object clone() {
+        throw new UnsupportedOperationException("a stream iterator can't be copied");
+    }
+}
@@ -0,0 +1,284 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.CharacterIterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Translator of SQL scripts: statements ended by {@link Translator#STATEMENT_END}, which may be followed by line
+ * breaks. The output has one line per statement: the MongoDB command or a {@code //} comment with the reason of
+ * the failure, empty statements are skipped. A statement itself is on one line, like a query of
+ * {@link FileTranslator}, and the positions in its error are counted from its first char.
+ *
+ * The script is copied into one array and its statements are parsed one after another into one reused
+ * {@link MongoShellBuilder}, which appends every command right to the output, so nothing is allocated per
+ * statement. They are parsed by the {@link CharacterIterator} parser over the array, or from the tokens of one
+ * {@link Lexer} pass over the whole script, see {@link #setTokenized}. A large script may be split at statement
+ * ends between several workers, their outputs are joined in order.
+ *
+ * A translator can be reused for any number of scripts, but it is not thread-safe.
+ */
+public class ScriptTranslator {
+    // scripts shorter than that are not worth a second worker
+    public static final int MIN_CHUNK_SIZE = 64 * 1024;
+
+    private static final String ERROR_PREFIX = "// ";
+
+    private final int parallelism;
+    private boolean isTokenized;
+    private final List<StatementWorker> workers = new ArrayList<>();
+    private char[] chars = new char[256];
+
+    public ScriptTranslator() {
+        this(1);
+    }
+
+    /**
+     * @param parallelism number of worker threads, 1 translates the script on the calling thread
+     */
+    public ScriptTranslator(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Switches between the two parsers like {@link TranslatorContext#setTokenized} does. The tokenized one lexes
+     * the script in one pass, the default one is faster on short statements, which have no token array to fill.
+     */
+    public void setTokenized(boolean isTokenized) {
+        this.isTokenized = isTokenized;
+    }
+
+    /**
+     * Translates the statements of a chunk of the script into an output buffer
+     */
+    private static class StatementWorker implements Callable<Void> {
+        private final CharArrayIterator iterator = new CharArrayIterator(new char[0]);
+        // tokenizes the chunk before parsing if set
+        private Lexer lexer;
+        private final ParseEngine parseEngine = new ParseEngine();
+        private final MongoShellBuilder mongoShellBuilder = new MongoShellBuilder(new char[0]);
+        private final StringBuilder chunkOutput = new StringBuilder();
+
+        private char[] chars;
+        private int from;
+        private int to;
+        private StringBuilder output;
+        private int statementCount;
+
+        void assign(char[] chars, int from, int to, StringBuilder output, boolean isTokenized) {
+            if (isTokenized && lexer == null) {
+                lexer = new Lexer();
+            } else if (!isTokenized) {
+                lexer = null;
+            }
+            this.chars = chars;
+            this.from = from;
+            this.to = to;
+            this.output = output;
+        }
+
+        @Override
+        public Void call() {
+            statementCount = 0;
+            // the messages are written, but the stack traces of the failed statements are not needed
+            boolean wasQuiet = TranslationException.beginQuiet();
+            try {
+                if (lexer != null) {
+                    translateTokens();
+                } else {
+                    translateChars();
+                }
+            } finally {
+                TranslationException.endQuiet(wasQuiet);
+                output = null;
+            }
+            return null;
+        }
+
+        private void translateChars() {
+            iterator.reset(chars, to);
+            char value = iterator.setIndex(from);
+            while (value != CharacterIterator.DONE) {
+                if (value == Translator.STATEMENT_END || Translator.isStatementSpace(value)) {
+                    // an empty statement or the line breaks before the next one
+                    value = iterator.next();
+                    continue;
+                }
+                translateStatement();
+                statementCount++;
+                // the statement has been parsed up to its end or has failed before it
+                value = iterator.current();
+                while (value != Translator.STATEMENT_END && value != CharacterIterator.DONE) {
+                    value = iterator.next();
+                }
+            }
+        }
+
+        private void translateStatement() {
+            int lineStart = output.length();
+            int statementStart = iterator.getIndex();
+            try {
+                mongoShellBuilder.reset(chars);
+                GeneratedParser.parseStatement(iterator, mongoShellBuilder);
+                mongoShellBuilder.build(output);
+            } catch (RuntimeException e) {
+                if (e instanceof TranslationException) {
+                    // the statement is parsed in place, so the position is an offset in the script
+                    ((TranslationException) e).shiftPosition(-statementStart);
+                }
+                output.setLength(lineStart);
+                output.append(ERROR_PREFIX).append(e.getMessage());
+            }
+            output.append('\n');
+        }
+
+        private void translateTokens() {
+            int count = lexer.tokenize(chars, from, to);
+            int idx = 0;
+            while (idx < count) {
+                if (Lexer.kind(lexer.getToken(idx)) == Terminal.TS_END.code) {
+                    // an empty statement or the end of the input after the last one
+                    idx++;
+                    continue;
+                }
+                idx = translateStatement(idx);
+                statementCount++;
+            }
+        }
+
+        /**
+         * @return index of the token after the end of the statement
+         */
+        private int translateStatement(int idx) {
+            int lineStart = output.length();
+            try {
+                mongoShellBuilder.reset(chars);
+                int nextIdx = parseEngine.parseStatement(lexer, idx, mongoShellBuilder);
+                mongoShellBuilder.build(output);
+                idx = nextIdx;
+            } catch (RuntimeException e) {
+                if (e instanceof TranslationException) {
+                    // the tokens are the ones of the whole script, so the position is an offset in it
+                    ((TranslationException) e).shiftPosition(-Lexer.offset(lexer.getToken(idx)));
+                }
+                output.setLength(lineStart);
+                output.append(ERROR_PREFIX).append(e.getMessage());
+                // every statement end is a TS_END token, so the failed statement ends at the first one
+                while (Lexer.kind(lexer.getToken(idx)) != Terminal.TS_END.code) {
+                    idx++;
+                }
+                idx++;
+            }
+            output.append('\n');
+            return idx;
+        }
+    }
+
+    /**
+     * Appends the lines of the statements of the script to the output
+     *
+     * @return number of statements
+     */
+    public int translate(CharSequence script, StringBuilder output) {
+        int end = script.length();
+        if (chars.length < end) {
+            chars = new char[Math.max(end, chars.length * 2)];
+        }
+        for (int i = 0; i < end; i++) {
+            chars[i] = script.charAt(i);
+        }
+        int begin = skipStatementSpaces(0, end);
+        while (end > begin && Translator.isStatementSpace(chars[end - 1])) {
+            end--;
+        }
+
+        int chunkCount = split(begin, end, output);
+        if (chunkCount == 1) {
+            workers.get(0).call();
+            return workers.get(0).statementCount;
+        }
+        runWorkers(workers.subList(0, chunkCount));
+        int statementCount = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            StatementWorker worker = workers.get(i);
+            output.append(worker.chunkOutput);
+            statementCount += worker.statementCount;
+        }
+        return statementCount;
+    }
+
+    private int skipStatementSpaces(int idx, int end) {
+        while (idx < end && Translator.isStatementSpace(chars[idx])) {
+            idx++;
+        }
+        return idx;
+    }
+
+    /**
+     * Assigns chunks of about the same size that end at statement ends to the workers, a single chunk is
+     * translated right into the output
+     *
+     * @return number of chunks
+     */
+    private int split(int begin, int end, StringBuilder output) {
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, (end - begin) / parallelism);
+        int chunkCount = 0;
+        int chunkStart = begin;
+        do {
+            int chunkEnd = Math.min(end, chunkStart + chunkSize);
+            while (chunkEnd < end && chars[chunkEnd - 1] != Translator.STATEMENT_END) {
+                chunkEnd++;
+            }
+
+            if (chunkCount == workers.size()) {
+                workers.add(new StatementWorker());
+            }
+            StatementWorker worker = workers.get(chunkCount++);
+            if (chunkStart == begin && chunkEnd == end) {
+                worker.assign(chars, chunkStart, chunkEnd, output, isTokenized);
+            } else {
+                worker.chunkOutput.setLength(0);
+                worker.assign(chars, chunkStart, chunkEnd, worker.chunkOutput, isTokenized);
+            }
+            chunkStart = skipStatementSpaces(chunkEnd, end);
+        } while (chunkStart < end);
+        return chunkCount;
+    }
+
+    private void runWorkers(List<StatementWorker> chunkWorkers) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, chunkWorkers.size()));
+        try {
+            for (Future<Void> future : executor.invokeAll(chunkWorkers)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("the translation has been interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("a worker has failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: ScriptTranslator <input script> <output script>");
+            System.exit(1);
+        }
+        String script = new String(Files.readAllBytes(Paths.get(args[0])), StandardCharsets.UTF_8);
+        StringBuilder output = new StringBuilder();
+        new ScriptTranslator(Runtime.getRuntime().availableProcessors()).translate(script, output);
+        Files.write(Paths.get(args[1]), output.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
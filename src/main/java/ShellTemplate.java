@@ -0,0 +1,201 @@
+import java.util.Arrays;
+
+/**
+ * Rendered MongoDB command with splice points at the value literals. Rendering a template copies the constant
+ * parts and the literal values, so no parsing and no {@link MongoShellBuilder} is involved.
+ *
+ * Templates are immutable and can be shared between threads.
+ */
+public final class ShellTemplate {
+    // the command without its literals
+    private final String text;
+    // offsets in the text where a literal goes
+    private final int[] spliceOffsets;
+    // index of the input literal that goes to every splice point
+    private final int[] slots;
+    // Guards of the folded fields: the slots and the signs of their constraints, grouped by field, and the fold
+    // result the text has been rendered with
+    private final int[] guardSlots;
+    private final MongoShellBuilder.WhereExpression.CompareSign[] guardSigns;
+    private final int[] guardEnds;
+    private final long[] guardResults;
+
+    private ShellTemplate(String text, int[] spliceOffsets, int[] slots, int[] guardSlots,
+                          MongoShellBuilder.WhereExpression.CompareSign[] guardSigns, int[] guardEnds,
+                          long[] guardResults) {
+        this.text = text;
+        this.spliceOffsets = spliceOffsets;
+        this.slots = slots;
+        this.guardSlots = guardSlots;
+        this.guardSigns = guardSigns;
+        this.guardEnds = guardEnds;
+        this.guardResults = guardResults;
+    }
+
+    /**
+     * Cuts the literals out of a command built with splice recording enabled. The other numbers of the query, like
+     * the fixed values of a prepared query, stay in the text as they are, and so do the fold guards of the fields
+     * that have none of the literals.
+     *
+     * @param command        the output of the build
+     * @param builder        the builder that has produced the command
+     * @param literalOffsets sorted input offsets of the literals, the index in this array is the slot number
+     * @param literalLengths lengths of the literals by slot
+     * @param literalCount   number of used elements of the literal arrays
+     * @return the template or null if some literal is neither copied into the command verbatim exactly once nor
+     * dropped by a fold, or if a fold mixes literals with fixed numbers
+     */
+    public static ShellTemplate of(CharSequence command, MongoShellBuilder builder,
+                                   int[] literalOffsets, int[] literalLengths, int literalCount) {
+        int spliceCount = builder.getSpliceCount();
+        int groupCount = builder.getFoldGroupCount();
+        int[] guardEnds = new int[groupCount];
+        long[] guardResults = new long[groupCount];
+        int guardCount = groupCount == 0 ? 0 : builder.getFoldGroupEnd(groupCount - 1);
+        int[] guardSlots = new int[guardCount];
+        MongoShellBuilder.WhereExpression.CompareSign[] guardSigns =
+                new MongoShellBuilder.WhereExpression.CompareSign[guardCount];
+        boolean[] isSlotGuarded = new boolean[literalCount];
+        int keptGroupCount = 0;
+        int keptGuardCount = 0;
+        int groupStart = 0;
+        for (int group = 0; group < groupCount; group++) {
+            int groupEnd = builder.getFoldGroupEnd(group);
+            int slotCount = 0;
+            for (int i = groupStart; i < groupEnd; i++) {
+                int slot = Arrays.binarySearch(literalOffsets, 0, literalCount, builder.getFoldInputOffset(i));
+                if (slot >= 0) {
+                    guardSlots[keptGuardCount + slotCount] = slot;
+                    guardSigns[keptGuardCount + slotCount] = builder.getFoldSign(i);
+                    slotCount++;
+                }
+            }
+            if (slotCount != 0 && slotCount != groupEnd - groupStart) {
+                return null;
+            }
+            if (slotCount != 0) {
+                for (int i = keptGuardCount; i < keptGuardCount + slotCount; i++) {
+                    isSlotGuarded[guardSlots[i]] = true;
+                }
+                keptGuardCount += slotCount;
+                guardEnds[keptGroupCount] = keptGuardCount;
+                guardResults[keptGroupCount] = builder.getFoldResult(group);
+                keptGroupCount++;
+            }
+            groupStart = groupEnd;
+        }
+        guardEnds = Arrays.copyOf(guardEnds, keptGroupCount);
+        guardResults = Arrays.copyOf(guardResults, keptGroupCount);
+        guardSlots = Arrays.copyOf(guardSlots, keptGuardCount);
+        guardSigns = Arrays.copyOf(guardSigns, keptGuardCount);
+
+        StringBuilder text = new StringBuilder(command.length());
+        int[] spliceOffsets = new int[spliceCount];
+        int[] slots = new int[spliceCount];
+        boolean[] isSlotUsed = new boolean[literalCount];
+        int usedSpliceCount = 0;
+        int commandIdx = 0;
+        for (int i = 0; i < spliceCount; i++) {
+            int slot = Arrays.binarySearch(literalOffsets, 0, literalCount, builder.getSpliceInputOffset(i));
+            if (slot < 0) {
+                // a fixed number, it is a part of the text
+                continue;
+            }
+            if (isSlotUsed[slot]) {
+                return null;
+            }
+            isSlotUsed[slot] = true;
+
+            int spliceOutputOffset = builder.getSpliceOutputOffset(i);
+            text.append(command, commandIdx, spliceOutputOffset);
+            spliceOffsets[usedSpliceCount] = text.length();
+            slots[usedSpliceCount] = slot;
+            usedSpliceCount++;
+
+            commandIdx = spliceOutputOffset + literalLengths[slot];
+        }
+        text.append(command, commandIdx, command.length());
+        spliceOffsets = Arrays.copyOf(spliceOffsets, usedSpliceCount);
+        slots = Arrays.copyOf(slots, usedSpliceCount);
+        for (int i = 0; i < literalCount; i++) {
+            if (!isSlotUsed[i] && !isSlotGuarded[i]) {
+                return null;
+            }
+        }
+
+        return new ShellTemplate(text.toString(), spliceOffsets, slots,
+                guardSlots, guardSigns, guardEnds, guardResults);
+    }
+
+    /**
+     * Checks that the literals fold the same way as the ones the template has been made of, otherwise the
+     * template would keep the wrong constraints
+     *
+     * @param literalOffsets offsets of the literals in the source by slot
+     * @param literalLengths lengths of the literals by slot
+     * @param values         scratch array of at least {@link RangeFolding#MAX_CONSTRAINTS} elements
+     * @param signs          scratch array of at least {@link RangeFolding#MAX_CONSTRAINTS} elements
+     */
+    public boolean matches(CharSequence source, int[] literalOffsets, int[] literalLengths,
+                           long[] values, MongoShellBuilder.WhereExpression.CompareSign[] signs) {
+        if (guardEnds.length == 0) {
+            return true;
+        }
+
+        int guardStart = 0;
+        for (int group = 0; group < guardEnds.length; group++) {
+            int size = guardEnds[group] - guardStart;
+            for (int i = 0; i < size; i++) {
+                int slot = guardSlots[guardStart + i];
+                long value = 0;
+                for (int j = literalOffsets[slot]; j < literalOffsets[slot] + literalLengths[slot]; j++) {
+                    int digit = source.charAt(j) - '0';
+                    if (value > (Long.MAX_VALUE - digit) / 10) {
+                        // the builder doesn't fold such values
+                        return false;
+                    }
+                    value = value * 10 + digit;
+                }
+                values[i] = value;
+                signs[i] = guardSigns[guardStart + i];
+            }
+            if (RangeFolding.fold(signs, values, size) != guardResults[group]) {
+                return false;
+            }
+            guardStart = guardEnds[group];
+        }
+        return true;
+    }
+
+    /**
+     * Appends the command with the literals taken from the source
+     *
+     * @param literalOffsets offsets of the literals in the source by slot
+     * @param literalLengths lengths of the literals by slot
+     */
+    public void render(StringBuilder output, CharSequence source, int[] literalOffsets, int[] literalLengths) {
+        int textIdx = 0;
+        for (int i = 0; i < spliceOffsets.length; i++) {
+            int slot = slots[i];
+            output.append(text, textIdx, spliceOffsets[i])
+                    .append(source, literalOffsets[slot], literalOffsets[slot] + literalLengths[slot]);
+            textIdx = spliceOffsets[i];
+        }
+        output.append(text, textIdx, text.length());
+    }
+
+    /**
+     * Appends the command with the given values in place of the literals
+     *
+     * @param values values by slot
+     */
+    public void render(StringBuilder output, long[] values) {
+        int textIdx = 0;
+        for (int i = 0; i < spliceOffsets.length; i++) {
+            output.append(text, textIdx, spliceOffsets[i])
+                    .append(values[slots[i]]);
+            textIdx = spliceOffsets[i];
+        }
+        output.append(text, textIdx, text.length());
+    }
+}
@@ -0,0 +1,356 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.CharacterIterator;
+
+/**
+ * Translator of a query read from a stream, for generated queries too long to be held in memory, which are mostly
+ * huge projection lists. The query is read through a ring buffer: every field of the SELECT list is checked as soon
+ * as it is parsed and its chars are released, only the clauses from FROM on are kept and parsed by
+ * {@link GeneratedParser}. The memory used depends on the buffer size and the clauses after the SELECT list, not on
+ * the length of the query.
+ *
+ * The shell syntax puts the collection and the filter before the projection, so no part of the command can be
+ * written before the whole query is parsed and nothing is written for a rejected query. A query read from a
+ * {@link SeekableByteChannel} is read twice: the first pass checks it and builds the command around the projection,
+ * the second one copies the fields straight into the output. A query read from a {@link Reader} can't be read again,
+ * so a projection longer than the buffer is spilled into a temporary file until the command is written.
+ *
+ * The commands are the ones of {@link Translator#translate}, except that aggregates and GROUP BY are rejected with a
+ * SELECT list, as the fields are not kept for the {@code $group} stage, and that the query ends at the end of the
+ * input or at the first line break. A query followed by anything but spaces and line breaks is rejected.
+ *
+ * A translator can be reused for any number of queries, but it is not thread-safe.
+ */
+public class StreamingTranslator {
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    // the ring buffer holds the SELECT keyword with the spaces around it at least
+    private static final int MIN_RING_SIZE = 16;
+
+    // the clauses after the SELECT list are parsed as the ones of a SELECT * query
+    private static final String TAIL_PREFIX = "SELECT * ";
+
+    private final int bufferSize;
+    private final ReaderCharIterator iterator;
+    private final CharsMapping field = new CharsMapping();
+    private int fieldCount;
+    // the rendered fields which are not spilled yet
+    private final StringBuilder projection = new StringBuilder();
+    private char[] spillChars = new char[0];
+    private Path spillFile;
+    private Writer spill;
+    // the first pass over a seekable input only checks the fields
+    private boolean isRenderingFields = true;
+    // the output the fields are copied into by the second pass over a seekable input, see translate(channels)
+    private WritableByteChannel projectionOutput;
+    private ByteBuffer outputBytes;
+
+    // the clauses after the SELECT list with TAIL_PREFIX in front of them
+    private char[] tail = new char[64];
+    private final CharArrayIterator tailIterator = new CharArrayIterator(tail);
+    private final MongoShellBuilder mongoShellBuilder = new MongoShellBuilder(tail);
+    private final StringBuilder command = new StringBuilder();
+
+    public StreamingTranslator() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize number of chars of the ring buffer and of the projection kept in memory, every field of
+     *                   the SELECT list must fit into it
+     */
+    public StreamingTranslator(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("buffer size must be positive");
+        }
+        this.bufferSize = bufferSize;
+        this.iterator = new ReaderCharIterator(Math.max(bufferSize, MIN_RING_SIZE));
+    }
+
+    /**
+     * Writes the MongoDB command of the query read from the input. The output is not flushed.
+     *
+     * @throws TranslationException if the query is not valid, nothing is written in this case
+     */
+    public void translate(Reader input, Writer output) throws IOException {
+        iterator.reset(input);
+        fieldCount = 0;
+        projection.setLength(0);
+        try {
+            parseQuery();
+            writeCommand(output);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            deleteSpill();
+        }
+    }
+
+    /**
+     * Same as {@link #translate(Reader, Writer)} for a UTF-8 query
+     *
+     * @throws java.nio.charset.MalformedInputException if the query is not valid UTF-8
+     */
+    public void translate(ReadableByteChannel input, Writer output) throws IOException {
+        translate(Channels.newReader(input, StandardCharsets.UTF_8.newDecoder(), bufferSize), output);
+    }
+
+    /**
+     * Writes the UTF-8 command of the ASCII or UTF-8 query read from the position of the input to its end. The
+     * input is read twice and the bytes of the names are copied as they are, so nothing is spilled and the names
+     * are not decoded. The positions of the errors are byte offsets from the start of the query.
+     *
+     * @throws TranslationException if the query is not valid, nothing is written in this case
+     */
+    public void translate(SeekableByteChannel input, WritableByteChannel output) throws IOException {
+        long queryStart = input.position();
+        // every byte is read as a char and written back as it is, like a byte query of TranslatorContext
+        iterator.reset(Channels.newReader(input, StandardCharsets.ISO_8859_1.newDecoder(), bufferSize));
+        fieldCount = 0;
+        projection.setLength(0);
+        if (outputBytes == null) {
+            outputBytes = ByteBuffer.allocate(Math.max(bufferSize, MIN_RING_SIZE));
+        }
+        outputBytes.clear();
+        try {
+            isRenderingFields = false;
+            parseQuery();
+            isRenderingFields = true;
+            if (fieldCount == 0) {
+                putBytes(output, command, 0, command.length());
+                flushBytes(output);
+                return;
+            }
+            int selectOffset = mongoShellBuilder.getSelectOutputOffset();
+            putBytes(output, command, 0, selectOffset);
+            putBytes(output, ", {", 0, 3);
+
+            input.position(queryStart);
+            iterator.reset(Channels.newReader(input, StandardCharsets.ISO_8859_1.newDecoder(), bufferSize));
+            fieldCount = 0;
+            projectionOutput = output;
+            parseSelect();
+            putBytes(output, projection, 0, projection.length());
+            putBytes(output, "}", 0, 1);
+            putBytes(output, command, selectOffset, command.length());
+            flushBytes(output);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            isRenderingFields = true;
+            projectionOutput = null;
+        }
+    }
+
+    /**
+     * Parses the whole query, the command is built around the projection
+     */
+    private void parseQuery() throws IOException {
+        int tailStart = parseSelect();
+        int tailLength = loadTail();
+        if (iterator.hasTextAfterEnd()) {
+            throw TranslationException.atPosition(TranslationException.Kind.INVALID_SYMBOL, iterator.getEndIndex(),
+                    "the query goes on after the line break at position %2$d");
+        }
+        parseTail(tailStart, tailLength);
+    }
+
+    /**
+     * Puts the chars as bytes, they are either the bytes of a seekable input or the ASCII command syntax
+     */
+    private void putBytes(WritableByteChannel output, CharSequence text, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            if (!outputBytes.hasRemaining()) {
+                flushBytes(output);
+            }
+            outputBytes.put((byte) text.charAt(i));
+        }
+    }
+
+    private void flushBytes(WritableByteChannel output) throws IOException {
+        outputBytes.flip();
+        while (outputBytes.hasRemaining()) {
+            output.write(outputBytes);
+        }
+        outputBytes.clear();
+    }
+
+    /**
+     * Parses the SELECT keyword and the SELECT list the way {@link Translator#parseSelectExpression} does, the
+     * fields are rendered into the projection
+     *
+     * @return index of the first clause after the SELECT list
+     */
+    private int parseSelect() throws IOException {
+        if (Terminal.getTerminal(iterator) != Terminal.TS_SELECT) {
+            throw new TranslationException(TranslationException.Kind.MISPLACED_CLAUSE,
+                    "logic of your SQL query is not correct");
+        }
+        iterator.next();
+        if (skipSpaces() == '*') {
+            if (iterator.next() != ' ') {
+                throw TranslationException.invalidSymbol(iterator.current(), iterator.getIndex());
+            }
+        } else {
+            boolean isParsingNotDone = true;
+            while (isParsingNotDone) {
+                parseSelectField();
+                if (skipSpaces() == ',') {
+                    iterator.next();
+                    iterator.release(iterator.getIndex());
+                } else {
+                    isParsingNotDone = false;
+                }
+            }
+        }
+        skipSpaces();
+        return iterator.getIndex();
+    }
+
+    /**
+     * Skips and releases the spaces
+     *
+     * @return the char after the spaces
+     */
+    private char skipSpaces() {
+        char value = iterator.current();
+        while (value == ' ') {
+            value = iterator.next();
+            iterator.release(iterator.getIndex());
+        }
+        return value;
+    }
+
+    /**
+     * Checks a field of the SELECT list the way {@link MongoShellBuilder#addSelectField} does and renders it,
+     * except in the first pass over a seekable input
+     */
+    private void parseSelectField() throws IOException {
+        skipSpaces();
+        int startIdx = iterator.getIndex();
+        if (Translator.parseAggregateFunction(iterator) != null) {
+            throw TranslationException.atPosition(TranslationException.Kind.INVALID_AGGREGATION, startIdx,
+                    "the aggregate at position %2$d is not supported by the streaming translation");
+        }
+        Translator.parseNameOrValue(iterator, field);
+        if (field.isParameter) {
+            throw TranslationException.invalidSymbol(Translator.PARAMETER_SYMBOL, field.offset);
+        }
+        if (field.isNumber) {
+            throw new TranslationException(TranslationException.Kind.INVALID_NAME, field.offset,
+                    "unknown value in select statement");
+        }
+
+        if (!isRenderingFields) {
+            fieldCount++;
+            return;
+        }
+        if (fieldCount++ != 0) {
+            projection.append(", ");
+        }
+        iterator.appendTo(projection, field.offset, field.getEndIndex());
+        projection.append(": 1");
+        if (projection.length() < bufferSize) {
+            return;
+        }
+        if (projectionOutput != null) {
+            putBytes(projectionOutput, projection, 0, projection.length());
+            projection.setLength(0);
+        } else {
+            spillProjection();
+        }
+    }
+
+    private void spillProjection() throws IOException {
+        if (spill == null) {
+            spillFile = Files.createTempFile("projection", ".js");
+            spill = Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8);
+        }
+        int length = projection.length();
+        if (spillChars.length < length) {
+            spillChars = new char[length];
+        }
+        projection.getChars(0, length, spillChars, 0);
+        spill.write(spillChars, 0, length);
+        projection.setLength(0);
+    }
+
+    private void deleteSpill() throws IOException {
+        if (spill != null) {
+            spill.close();
+            spill = null;
+        }
+        if (spillFile != null) {
+            Files.deleteIfExists(spillFile);
+            spillFile = null;
+        }
+    }
+
+    /**
+     * Copies the rest of the query after TAIL_PREFIX
+     *
+     * @return length of the tail
+     */
+    private int loadTail() {
+        int length = TAIL_PREFIX.length();
+        TAIL_PREFIX.getChars(0, length, tail, 0);
+        char value = iterator.current();
+        while (value != CharacterIterator.DONE) {
+            if (length == tail.length) {
+                char[] newTail = new char[tail.length * 2];
+                System.arraycopy(tail, 0, newTail, 0, length);
+                tail = newTail;
+            }
+            tail[length++] = value;
+            value = iterator.next();
+            iterator.release(iterator.getIndex());
+        }
+        return length;
+    }
+
+    /**
+     * Parses and builds the clauses after the SELECT list, the errors get the positions in the whole query
+     */
+    private void parseTail(int tailStart, int length) {
+        tailIterator.reset(tail, length);
+        mongoShellBuilder.reset(tail);
+        command.setLength(0);
+        try {
+            GeneratedParser.parse(tailIterator, mongoShellBuilder);
+            if (fieldCount != 0 && mongoShellBuilder.isAggregation()) {
+                throw new TranslationException(TranslationException.Kind.INVALID_AGGREGATION,
+                        "GROUP BY is not supported by the streaming translation");
+            }
+            mongoShellBuilder.build(command);
+        } catch (TranslationException e) {
+            e.shiftPosition(tailStart - TAIL_PREFIX.length());
+            throw e;
+        }
+    }
+
+    private void writeCommand(Writer output) throws IOException {
+        if (fieldCount == 0) {
+            output.append(command);
+            return;
+        }
+        int selectOffset = mongoShellBuilder.getSelectOutputOffset();
+        output.append(command, 0, selectOffset).append(", {");
+        if (spill != null) {
+            spill.close();
+            spill = null;
+            try (Reader reader = Files.newBufferedReader(spillFile, StandardCharsets.UTF_8)) {
+                reader.transferTo(output);
+            }
+        }
+        output.append(projection).append('}').append(command, selectOffset, command.length());
+    }
+}
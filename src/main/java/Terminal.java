@@ -8,7 +8,10 @@ public enum Terminal {
     TS_SKIP(3, true),
     TS_LIMIT(4, true),
     TS_AND(5, true),
-    TS_END(6, true),
+    TS_GROUP(6, true),
+    TS_HAVING(7, true),
+    TS_ORDER(8, true),
+    TS_END(9, true),
     TS_UNKNOWN(-1, true),
 
     /* Non-terminal symbols */
@@ -16,14 +19,38 @@ public enum Terminal {
     NTS_WHERE_CLAUSE(1, false),
     NTS_WHERE_EXPR(2, false),
     NTS_SKIP_CLAUSE(3, false),
-    NTS_LIMIT_CLAUSE(4, false);
+    NTS_LIMIT_CLAUSE(4, false),
+    NTS_GROUP_CLAUSE(5, false),
+    NTS_HAVING_CLAUSE(6, false),
+    NTS_HAVING_EXPR(7, false),
+    NTS_ORDER_CLAUSE(8, false);
 
     public final int value;
     public final boolean isTerminal;
+    /**
+     * Symbol code used by {@link ParseEngine}: the value for terminals and the value with the
+     * {@link ParseTable#NON_TERMINAL} flag for non-terminals
+     */
+    public final byte code;
 
     Terminal(int value, boolean isTerminal) {
         this.value = value;
         this.isTerminal = isTerminal;
+        this.code = (byte) (isTerminal ? value : value | ParseTable.NON_TERMINAL);
+    }
+
+    /**
+     * Matches the spaces and the BY that follow GROUP or ORDER
+     */
+    private static boolean isBy(CharacterIterator iterator) {
+        if (iterator.next() != ' ') {
+            return false;
+        }
+        char value = iterator.next();
+        while (value == ' ') {
+            value = iterator.next();
+        }
+        return value == 'B' && iterator.next() == 'Y';
     }
 
     public static Terminal getTerminal(CharacterIterator iterator) {
@@ -39,6 +66,18 @@ public enum Terminal {
                     result = TS_AND;
                 }
             } break;
+            case 'G': {     // GROUP BY
+                if (iterator.next() == 'R' && iterator.next() == 'O' && iterator.next() == 'U'
+                        && iterator.next() == 'P' && isBy(iterator)) {
+                    result = TS_GROUP;
+                }
+            } break;
+            case 'H': {     // HAVING
+                if (iterator.next() == 'A' && iterator.next() == 'V' && iterator.next() == 'I'
+                        && iterator.next() == 'N' && iterator.next() == 'G') {
+                    result = TS_HAVING;
+                }
+            } break;
             case 'F': {     // FROM
                 if (iterator.next() == 'R' && iterator.next() == 'O' && iterator.next() == 'M') {
                     result = TS_FROM;
@@ -50,10 +89,14 @@ public enum Terminal {
                     result = TS_LIMIT;
                 }
             } break;
-            case 'O': {     // OFFSET
-                if (iterator.next() == 'F' && iterator.next() == 'F' && iterator.next() == 'S'
+            case 'O': {     // OFFSET, ORDER BY
+                value = iterator.next();
+                if (value == 'F' && iterator.next() == 'F' && iterator.next() == 'S'
                         && iterator.next() == 'E' && iterator.next() == 'T') {
                     result = TS_SKIP;
+                } else if (value == 'R' && iterator.next() == 'D' && iterator.next() == 'E'
+                        && iterator.next() == 'R' && isBy(iterator)) {
+                    result = TS_ORDER;
                 }
             } break;
             case 'S': {     // SELECT, SKIP
@@ -71,21 +114,22 @@ public enum Terminal {
                     result = TS_WHERE;
                 }
             } break;
+            case Translator.STATEMENT_END:  // the iterator is left at the end of the statement
             case CharacterIterator.DONE:
                 return TS_END;
             default:
-                throw new IllegalArgumentException("Can't parse '" + value + "' at position " + iterator.getIndex());
+                throw TranslationException.unknownKeyword(value, iterator.getIndex());
         }
 
         if (result == Terminal.TS_UNKNOWN) {
-            throw new IllegalArgumentException("Can't parse '" + value + "' at position " + iterator.getIndex());
+            throw TranslationException.unknownKeyword(value, iterator.getIndex());
         }
 
         value = iterator.next();
         if (value == ' ' || value == CharacterIterator.DONE) {
             return result;
         } else {
-            throw new IllegalArgumentException("Can't parse '" + value + "' at position " + iterator.getIndex());
+            throw TranslationException.unknownKeyword(value, iterator.getIndex());
         }
     }
 }
@@ -0,0 +1,377 @@
+import java.text.CharacterIterator;
+
+/**
+ * Tokens of a clause as the clause parsers of {@link Translator} read them, so the same parsers serve the chars of
+ * a CharacterIterator and the token stream of a {@link Lexer}. The aggregates and the IN lists are parsed by chars
+ * in both cases, their parentheses are not delimiters of the lexer, see {@link #aggregateChars()}.
+ *
+ * A source is reused for every clause, it is owned by a {@link MongoShellBuilder} for the chars and by a
+ * {@link Lexer} for its tokens.
+ */
+abstract class TokenSource {
+    /**
+     * Reads the next name, number or placeholder into the mapping
+     *
+     * @return the filled mapping
+     */
+    abstract CharsMapping nameOrValue(CharsMapping mapping);
+
+    /**
+     * @return true if the next token is the word, which is skipped then
+     */
+    abstract boolean skipWord(String word);
+
+    /**
+     * @return true if the next token is a comma, which is skipped then
+     */
+    abstract boolean skipComma();
+
+    /**
+     * @return true if the next token is the {@code *} of SELECT, which is skipped then
+     */
+    abstract boolean skipStar();
+
+    /**
+     * Reads the comparison sign as it is written, the caller turns it for a number on the left
+     */
+    abstract MongoShellBuilder.WhereExpression.CompareSign compareSign();
+
+    /**
+     * @return iterator at the char after the IN that starts the next token, or null if it doesn't start with IN,
+     * the source is moved by {@link #skipTo(int)} after the list
+     */
+    abstract CharacterIterator inListChars();
+
+    /**
+     * @return iterator at the next token if it may be an aggregate, or null, the source is moved by
+     * {@link #skipTo(int)} after the aggregate
+     */
+    abstract CharacterIterator aggregateChars();
+
+    /**
+     * Skips the tokens which start before the offset, it is the index of the iterator after a part parsed by chars
+     */
+    abstract void skipTo(int offset);
+
+    /**
+     * @return offset of the next token
+     */
+    abstract int position();
+
+    /**
+     * @return error for the next token, which is not expected by the clause
+     */
+    abstract TranslationException unexpected();
+
+    static TranslationException unexpectedEnd(int position) {
+        return TranslationException.atPosition(TranslationException.Kind.UNEXPECTED_END, position,
+                "unexpected end of the query at position %2$d");
+    }
+
+    /**
+     * Source over a CharacterIterator, which is left at the delimiter after the last read token
+     */
+    static final class Chars extends TokenSource {
+        private CharacterIterator iterator;
+
+        Chars reset(CharacterIterator iterator) {
+            this.iterator = iterator;
+            return this;
+        }
+
+        private char skipSpaces() {
+            char value = iterator.current();
+            while (value == ' ') {
+                value = iterator.next();
+            }
+            return value;
+        }
+
+        private static boolean isDelimiter(char value) {
+            return value == ' ' || value == ',' || value == Translator.STATEMENT_END
+                    || value == CharacterIterator.DONE;
+        }
+
+        /**
+         * @return error for the char at the index of the iterator
+         */
+        static TranslationException unexpected(CharacterIterator iterator) {
+            char value = iterator.current();
+            if (value == Translator.STATEMENT_END || value == CharacterIterator.DONE) {
+                return unexpectedEnd(iterator.getIndex());
+            }
+            return TranslationException.invalidSymbol(value, iterator.getIndex());
+        }
+
+        @Override
+        CharsMapping nameOrValue(CharsMapping mapping) {
+            return Translator.parseNameOrValue(iterator, mapping);
+        }
+
+        @Override
+        boolean skipWord(String word) {
+            int startIdx = iterator.getIndex();
+            char value = skipSpaces();
+            for (int i = 0; i < word.length(); i++) {
+                if (value != word.charAt(i)) {
+                    iterator.setIndex(startIdx);
+                    return false;
+                }
+                value = iterator.next();
+            }
+            if (!isDelimiter(value)) {
+                iterator.setIndex(startIdx);
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        boolean skipComma() {
+            if (skipSpaces() != ',') {
+                return false;
+            }
+            iterator.next();
+            return true;
+        }
+
+        @Override
+        boolean skipStar() {
+            if (skipSpaces() != '*') {
+                return false;
+            }
+            if (iterator.next() != ' ') {
+                throw unexpected(iterator);
+            }
+            return true;
+        }
+
+        @Override
+        MongoShellBuilder.WhereExpression.CompareSign compareSign() {
+            MongoShellBuilder.WhereExpression.CompareSign sign;
+            char value = skipSpaces();
+            int startIdx = iterator.getIndex();
+            switch (value) {
+                case '<': {
+                    if (iterator.next() == '>') {
+                        sign = MongoShellBuilder.WhereExpression.CompareSign.NON_EQUALS;
+                    } else {
+                        iterator.setIndex(iterator.getIndex() - 1);
+                        sign = MongoShellBuilder.WhereExpression.CompareSign.LOWER;
+                    }
+                } break;
+                case '=': {
+                    sign = MongoShellBuilder.WhereExpression.CompareSign.EQUALS;
+                } break;
+                case '>': {
+                    sign = MongoShellBuilder.WhereExpression.CompareSign.GREATER;
+                } break;
+                default: {
+                    throw unexpected(iterator);
+                }
+            }
+            value = iterator.next();
+            if (value == ',' || value == Translator.STATEMENT_END || value == CharacterIterator.DONE) {
+                throw unexpected(iterator);
+            } else if (value != ' ') {
+                // the sign and the chars after it are one token, which is not a sign
+                throw TranslationException.invalidSymbol(iterator.setIndex(startIdx), startIdx);
+            }
+            return sign;
+        }
+
+        @Override
+        CharacterIterator inListChars() {
+            int startIdx = iterator.getIndex();
+            if (skipSpaces() == 'I' && iterator.next() == 'N') {
+                iterator.next();
+                return iterator;
+            }
+            iterator.setIndex(startIdx);
+            return null;
+        }
+
+        @Override
+        CharacterIterator aggregateChars() {
+            skipSpaces();
+            return iterator;
+        }
+
+        @Override
+        void skipTo(int offset) {
+            iterator.setIndex(offset);
+        }
+
+        @Override
+        int position() {
+            skipSpaces();
+            return iterator.getIndex();
+        }
+
+        @Override
+        TranslationException unexpected() {
+            skipSpaces();
+            return unexpected(iterator);
+        }
+    }
+
+    /**
+     * Source over the tokens of the last {@link Lexer#tokenize} call, which are consumed by index. A keyword or a
+     * lone {@code =} is a name here.
+     */
+    static final class Tokens extends TokenSource {
+        private final Lexer lexer;
+        private int idx;
+
+        Tokens(Lexer lexer) {
+            this.lexer = lexer;
+        }
+
+        Tokens reset(int idx) {
+            this.idx = idx;
+            return this;
+        }
+
+        /**
+         * @return index of the next token
+         */
+        int getIndex() {
+            return idx;
+        }
+
+        private int kind() {
+            return Lexer.kind(lexer.getToken(idx));
+        }
+
+        private boolean isWord(long token, String word) {
+            if (Lexer.kind(token) != Lexer.KIND_NAME || Lexer.length(token) != word.length()) {
+                return false;
+            }
+            int offset = Lexer.offset(token);
+            for (int i = 0; i < word.length(); i++) {
+                if (lexer.charAt(offset + i) != word.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        CharsMapping nameOrValue(CharsMapping mapping) {
+            long token = lexer.getToken(idx);
+            int kind = Lexer.kind(token);
+            int offset = Lexer.offset(token);
+            if (kind == Lexer.KIND_NAME || kind == Lexer.KIND_EQUALS || Lexer.isKeyword(token)) {
+                mapping.set(offset, offset + Lexer.length(token), Lexer.isNumber(token)).setHash(lexer.getHash(idx));
+            } else if (kind == Lexer.KIND_PARAMETER) {
+                mapping.setParameter(offset);
+            } else {
+                throw unexpected();
+            }
+            idx++;
+            return mapping;
+        }
+
+        @Override
+        boolean skipWord(String word) {
+            if (!isWord(lexer.getToken(idx), word)) {
+                return false;
+            }
+            idx++;
+            return true;
+        }
+
+        @Override
+        boolean skipComma() {
+            if (kind() != Lexer.KIND_COMMA) {
+                return false;
+            }
+            idx++;
+            return true;
+        }
+
+        @Override
+        boolean skipStar() {
+            if (kind() != Lexer.KIND_STAR) {
+                return false;
+            }
+            idx++;
+            return true;
+        }
+
+        @Override
+        MongoShellBuilder.WhereExpression.CompareSign compareSign() {
+            MongoShellBuilder.WhereExpression.CompareSign sign;
+            switch (kind()) {
+                case Lexer.KIND_NON_EQUALS: {
+                    sign = MongoShellBuilder.WhereExpression.CompareSign.NON_EQUALS;
+                } break;
+                case Lexer.KIND_EQUALS: {
+                    sign = MongoShellBuilder.WhereExpression.CompareSign.EQUALS;
+                } break;
+                case Lexer.KIND_LOWER: {
+                    sign = MongoShellBuilder.WhereExpression.CompareSign.LOWER;
+                } break;
+                case Lexer.KIND_GREATER: {
+                    sign = MongoShellBuilder.WhereExpression.CompareSign.GREATER;
+                } break;
+                default: {
+                    throw unexpected();
+                }
+            }
+            idx++;
+            return sign;
+        }
+
+        @Override
+        CharacterIterator inListChars() {
+            long token = lexer.getToken(idx);
+            int offset = Lexer.offset(token);
+            if (Lexer.kind(token) != Lexer.KIND_NAME || Lexer.length(token) < 2
+                    || lexer.charAt(offset) != 'I' || lexer.charAt(offset + 1) != 'N') {
+                return null;
+            }
+            return lexer.iterator(offset + 2);
+        }
+
+        @Override
+        CharacterIterator aggregateChars() {
+            long token = lexer.getToken(idx);
+            int kind = Lexer.kind(token);
+            if (kind != Lexer.KIND_NAME && kind != Lexer.KIND_INVALID) {
+                return null;
+            }
+            int offset = Lexer.offset(token);
+            int end = offset + Lexer.length(token);
+            for (int i = offset; i < end; i++) {
+                if (lexer.charAt(i) == '(') {
+                    return lexer.iterator(offset);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        void skipTo(int offset) {
+            while (Lexer.offset(lexer.getToken(idx)) < offset) {
+                idx++;
+            }
+        }
+
+        @Override
+        int position() {
+            return Lexer.offset(lexer.getToken(idx));
+        }
+
+        @Override
+        TranslationException unexpected() {
+            long token = lexer.getToken(idx);
+            if (Lexer.kind(token) == Terminal.TS_END.code) {
+                return unexpectedEnd(Lexer.offset(token));
+            }
+            int offset = Lexer.kind(token) == Lexer.KIND_INVALID
+                    ? lexer.getInvalidSymbolOffset(token) : Lexer.offset(token);
+            return TranslationException.invalidSymbol(lexer.charAt(offset), offset);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of translated query shapes in front of {@link Translator#translate(String)}.
+ *
+ * The shape of a query is its text with every number literal replaced by {@code ?}, so queries that differ only in
+ * numbers share one {@link ShellTemplate}. A hit scans the query for literals and splices them into the template
+ * without parsing. The template of a shape with folded constraints, see {@link RangeFolding}, is used only when
+ * the new numbers fold the same way, otherwise the query is translated again. The least recently used shape is
+ * evicted when the cache is full.
+ *
+ * The cache is thread-safe.
+ */
+public class TranslationCache {
+    private static final char LITERAL_PLACEHOLDER = '?';
+
+    /**
+     * Per-thread buffers of the literal scan
+     */
+    private static final class Scan {
+        final StringBuilder shape = new StringBuilder();
+        final StringBuilder output = new StringBuilder();
+        int[] literalOffsets = new int[8];
+        int[] literalLengths = new int[8];
+        int literalCount;
+        boolean hasPlaceholder;
+        // constraints of a fold guard being checked
+        final long[] foldValues = new long[RangeFolding.MAX_CONSTRAINTS];
+        final MongoShellBuilder.WhereExpression.CompareSign[] foldSigns =
+                new MongoShellBuilder.WhereExpression.CompareSign[RangeFolding.MAX_CONSTRAINTS];
+
+        /**
+         * Splits the query at the same separators as {@link Translator#parseNameOrValue} and replaces the number
+         * tokens by the placeholder
+         */
+        void scan(CharSequence sqlQuery) {
+            shape.setLength(0);
+            literalCount = 0;
+            hasPlaceholder = false;
+            int length = sqlQuery.length();
+            int idx = 0;
+            while (idx < length) {
+                char value = sqlQuery.charAt(idx);
+                if (value == ' ' || value == ',') {
+                    shape.append(value);
+                    idx++;
+                    continue;
+                }
+
+                int startIdx = idx;
+                boolean isNumber = true;
+                while (idx < length && (value = sqlQuery.charAt(idx)) != ' ' && value != ',') {
+                    if (value < '0' || '9' < value) {
+                        isNumber = false;
+                    }
+                    if (value == LITERAL_PLACEHOLDER) {
+                        hasPlaceholder = true;
+                    }
+                    idx++;
+                }
+                if (isNumber) {
+                    addLiteral(startIdx, idx - startIdx);
+                    shape.append(LITERAL_PLACEHOLDER);
+                } else {
+                    shape.append(sqlQuery, startIdx, idx);
+                }
+            }
+        }
+
+        private void addLiteral(int offset, int length) {
+            if (literalCount == literalOffsets.length) {
+                literalOffsets = Arrays.copyOf(literalOffsets, literalCount * 2);
+                literalLengths = Arrays.copyOf(literalLengths, literalCount * 2);
+            }
+            literalOffsets[literalCount] = offset;
+            literalLengths[literalCount] = length;
+            literalCount++;
+        }
+    }
+
+    private static final ThreadLocal<Scan> SCANS = ThreadLocal.withInitial(Scan::new);
+
+    private final Map<String, ShellTemplate> templates;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * @param maximumSize maximum number of cached query shapes
+     */
+    public TranslationCache(int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximum size must be positive");
+        }
+        templates = new LinkedHashMap<String, ShellTemplate>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ShellTemplate> eldest) {
+                if (size() > maximumSize) {
+                    evictionCount.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public String translate(String sqlQuery) {
+        Scan scan = SCANS.get();
+        scan.scan(sqlQuery);
+        if (scan.hasPlaceholder) {
+            // the shape would be ambiguous, such queries are never cached
+            missCount.increment();
+            return Translator.translate(sqlQuery);
+        }
+
+        String shape = scan.shape.toString();
+        ShellTemplate template;
+        synchronized (templates) {
+            template = templates.get(shape);
+        }
+
+        scan.output.setLength(0);
+        if (template != null && template.matches(sqlQuery, scan.literalOffsets, scan.literalLengths,
+                scan.foldValues, scan.foldSigns)) {
+            hitCount.increment();
+            template.render(scan.output, sqlQuery, scan.literalOffsets, scan.literalLengths);
+            return scan.output.toString();
+        }
+
+        missCount.increment();
+        template = TranslatorContext.forCurrentThread().translateToTemplate(
+                sqlQuery, scan.output, scan.literalOffsets, scan.literalLengths, scan.literalCount);
+        if (template != null) {
+            synchronized (templates) {
+                templates.put(shape, template);
+            }
+        }
+        return scan.output.toString();
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * @return number of cached query shapes
+     */
+    public int size() {
+        synchronized (templates) {
+            return templates.size();
+        }
+    }
+}
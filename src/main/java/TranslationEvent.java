@@ -0,0 +1,84 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Flight recorder event of one translation, committed while the {@link TranslatorMetrics} are enabled. The shape
+ * is the query with every number literal replaced by {@code ?}, so the recordings group the slow translations of
+ * the same statement together.
+ */
+@Name("sqlForMongoDB.Translation")
+@Label("SQL Translation")
+@Category("SQL for MongoDB")
+@Description("Translation of a SQL query into a MongoDB command")
+@StackTrace(false)
+class TranslationEvent extends Event {
+    @Label("Query Shape")
+    String shape;
+
+    @Label("Shape Fingerprint")
+    @Description("See MongoShellBuilder.getFingerprint(), valid only for a successful translation")
+    long fingerprint;
+
+    @Label("Outcome")
+    @Description("SUCCESS, the kind of the translation error or OTHER")
+    String outcome;
+
+    @Label("Lex Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long lexNanos;
+
+    @Label("Parse Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long parseNanos;
+
+    @Label("Build Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long buildNanos;
+
+    // scratch of the shape, the event is reused by its TranslatorContext, transient fields are not recorded
+    private final transient StringBuilder shapeBuilder = new StringBuilder();
+
+    /**
+     * Sets the shape of the query, called only for an event that is committed
+     */
+    void setShape(CharSequence query) {
+        shapeBuilder.setLength(0);
+        for (int i = 0; i < query.length(); i++) {
+            appendShapeChar(shapeBuilder, query.charAt(i));
+        }
+        this.shape = shapeBuilder.toString();
+    }
+
+    /**
+     * Same as {@link #setShape(CharSequence)} for the bytes between the position and the limit, every byte is
+     * taken as a char
+     */
+    void setShape(ByteBuffer query) {
+        shapeBuilder.setLength(0);
+        for (int i = query.position(); i < query.limit(); i++) {
+            appendShapeChar(shapeBuilder, (char) (query.get(i) & 0xFF));
+        }
+        this.shape = shapeBuilder.toString();
+    }
+
+    private static void appendShapeChar(StringBuilder shape, char value) {
+        boolean isDigit = '0' <= value && value <= '9';
+        if (!isDigit) {
+            shape.append(value);
+            return;
+        }
+        char previous = shape.length() == 0 ? ' ' : shape.charAt(shape.length() - 1);
+        if (previous == '?') {
+            return;
+        }
+        // a digit after a letter, a digit or an underscore is a part of a name
+        shape.append(Character.isLetterOrDigit(previous) || previous == '_' ? value : '?');
+    }
+}
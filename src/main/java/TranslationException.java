@@ -0,0 +1,164 @@
+import java.text.CharacterIterator;
+
+/**
+ * Rejection of a query that is not valid SQL or can't be expressed as a MongoDB command. It carries the kind of the
+ * error and the position in the query it was found at, so callers and metrics can tell failures apart without
+ * parsing the message.
+ */
+public class TranslationException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+
+    public enum Kind {
+        /** a clause keyword is misspelled or unknown, see {@link Terminal#getTerminal} */
+        UNKNOWN_KEYWORD,
+        /** a symbol is not allowed where it is */
+        INVALID_SYMBOL,
+        /** the query ends in the middle of a clause */
+        UNEXPECTED_END,
+        /** the clauses are not in the order of the grammar */
+        MISPLACED_CLAUSE,
+        /** a WHERE or HAVING predicate doesn't compare a name with a number */
+        INVALID_PREDICATE,
+        /** a name is used where it is not allowed */
+        INVALID_NAME,
+        /** a number doesn't fit into a long */
+        NUMBER_TOO_LARGE,
+        /** an aggregate or a grouped field is used in the wrong place */
+        INVALID_AGGREGATION
+    }
+
+    // set on the threads translating with TranslatorContext#tryTranslate, whose rejections never reach a caller
+    // and flipped by them only, so the translating threads share no state
+    private static final ThreadLocal<boolean[]> IS_QUIET = ThreadLocal.withInitial(() -> new boolean[1]);
+
+    private final Kind kind;
+    private int position;
+    // the message is formatted on the first getMessage call, so a rejection which is only counted costs no
+    // formatting: %1$c is the symbol, %2$d the position and %3$s the argument
+    private final String messageFormat;
+    private final char symbol;
+    private final Object argument;
+    private String message;
+
+    /**
+     * @param position index of the char in the query the error was found at, or -1 if it is unknown
+     */
+    public TranslationException(Kind kind, int position, String message) {
+        this(kind, position, message, (char) 0, null);
+        this.message = message;
+    }
+
+    public TranslationException(Kind kind, String message) {
+        this(kind, -1, message);
+    }
+
+    private TranslationException(Kind kind, int position, String messageFormat, char symbol, Object argument) {
+        this.kind = kind;
+        this.position = position;
+        this.messageFormat = messageFormat;
+        this.symbol = symbol;
+        this.argument = argument;
+    }
+
+    /**
+     * @param messageFormat the message with {@code %2$d} in place of the position
+     */
+    static TranslationException atPosition(Kind kind, int position, String messageFormat) {
+        return new TranslationException(kind, position, messageFormat, (char) 0, null);
+    }
+
+    /**
+     * @param messageFormat the message with {@code %3$s} in place of the argument
+     */
+    static TranslationException withArgument(Kind kind, int position, String messageFormat, Object argument) {
+        return new TranslationException(kind, position, messageFormat, (char) 0, argument);
+    }
+
+    /**
+     * @param symbol the symbol or {@link CharacterIterator#DONE} if the query has ended
+     */
+    static TranslationException invalidSymbol(char symbol, int position) {
+        Kind kind = symbol == CharacterIterator.DONE ? Kind.UNEXPECTED_END : Kind.INVALID_SYMBOL;
+        return new TranslationException(kind, position, "is not a valid symbol '%1$c' at position %2$d", symbol, null);
+    }
+
+    static TranslationException unknownKeyword(char symbol, int position) {
+        return new TranslationException(Kind.UNKNOWN_KEYWORD, position, "Can't parse '%1$c' at position %2$d",
+                symbol, null);
+    }
+
+    /**
+     * Makes the translation exceptions of the calling thread skip the stack trace, which is the most expensive
+     * part of a rejection, until {@link #endQuiet} is called
+     *
+     * @return the previous state to pass to {@link #endQuiet}
+     */
+    static boolean beginQuiet() {
+        boolean[] isQuiet = IS_QUIET.get();
+        boolean wasQuiet = isQuiet[0];
+        isQuiet[0] = true;
+        return wasQuiet;
+    }
+
+    static void endQuiet(boolean wasQuiet) {
+        if (!wasQuiet) {
+            IS_QUIET.get()[0] = false;
+        }
+    }
+
+    /**
+     * Moves the position of an error found in a part of the query parsed on its own, before the message is read
+     */
+    void shiftPosition(int delta) {
+        if (position >= 0) {
+            position += delta;
+        }
+    }
+
+    @Override
+    public Throwable fillInStackTrace() {
+        return IS_QUIET.get()[0] ? this : super.fillInStackTrace();
+    }
+
+    @Override
+    public String getMessage() {
+        if (message == null) {
+            message = format();
+        }
+        return message;
+    }
+
+    private String format() {
+        StringBuilder formatted = new StringBuilder(messageFormat.length() + 16);
+        int idx = 0;
+        int specifierIdx;
+        while ((specifierIdx = messageFormat.indexOf('%', idx)) >= 0) {
+            formatted.append(messageFormat, idx, specifierIdx);
+            switch (messageFormat.charAt(specifierIdx + 1)) {
+                case '1': {
+                    formatted.append(symbol);
+                } break;
+                case '2': {
+                    formatted.append(position);
+                } break;
+                default: {
+                    formatted.append(argument);
+                } break;
+            }
+            // every specifier is 4 chars long: %1$c, %2$d or %3$s
+            idx = specifierIdx + 4;
+        }
+        return formatted.append(messageFormat, idx, messageFormat.length()).toString();
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return index of the char in the query the error was found at, or -1 if it is unknown
+     */
+    public int getPosition() {
+        return position;
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Outcome of a single translation in a batch: either the MongoDB command or the reason of the failure
+ */
+public final class TranslationResult {
+    private final String command;
+    private final long fingerprint;
+    private final String errorMessage;
+    private final Class<? extends RuntimeException> errorType;
+    private final TranslationException.Kind errorKind;
+    private final int errorPosition;
+
+    private TranslationResult(String command, long fingerprint, String errorMessage,
+                              Class<? extends RuntimeException> errorType, TranslationException.Kind errorKind,
+                              int errorPosition) {
+        this.command = command;
+        this.fingerprint = fingerprint;
+        this.errorMessage = errorMessage;
+        this.errorType = errorType;
+        this.errorKind = errorKind;
+        this.errorPosition = errorPosition;
+    }
+
+    public static TranslationResult success(String command) {
+        return success(command, 0);
+    }
+
+    public static TranslationResult success(String command, long fingerprint) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        return new TranslationResult(command, fingerprint, null, null, null, -1);
+    }
+
+    public static TranslationResult failure(RuntimeException exception) {
+        if (exception instanceof TranslationException) {
+            TranslationException translationException = (TranslationException) exception;
+            return new TranslationResult(null, 0, exception.getMessage(), exception.getClass(),
+                    translationException.getKind(), translationException.getPosition());
+        }
+        return new TranslationResult(null, 0, exception.getMessage(), exception.getClass(), null, -1);
+    }
+
+    /**
+     * Failure of a rejected {@link TranslatorContext#tryTranslate} call, which has no exception to keep
+     */
+    public static TranslationResult failure(TranslationException.Kind kind, int position, String message) {
+        return new TranslationResult(null, 0, message, TranslationException.class, kind, position);
+    }
+
+    public boolean isSuccess() {
+        return command != null;
+    }
+
+    /**
+     * @return the MongoDB command or null if the translation has failed
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * @return shape fingerprint of the query, see {@link MongoShellBuilder#getFingerprint()}, or 0 if the
+     * translation has failed
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return message of the failure or null if the translation has succeeded
+     */
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    /**
+     * @return type of the exception the translation has failed with or null if it has succeeded
+     */
+    public Class<? extends RuntimeException> getErrorType() {
+        return errorType;
+    }
+
+    /**
+     * @return kind of the rejection or null if the translation has succeeded or failed with another exception
+     */
+    public TranslationException.Kind getErrorKind() {
+        return errorKind;
+    }
+
+    /**
+     * @return index of the char in the query the rejection was found at, or -1 if it is unknown or there is none
+     */
+    public int getErrorPosition() {
+        return errorPosition;
+    }
+
+    @Override
+    public String toString() {
+        return isSuccess() ? command : errorType.getSimpleName() + ": " + errorMessage;
+    }
+}
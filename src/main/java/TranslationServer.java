@@ -0,0 +1,209 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Local line protocol server for the processes which can't call the translator in-process. A client sends one
+ * UTF-8 SQL query per line and gets one line per query in the same order: the MongoDB command, an empty line for
+ * an empty one or a {@code //} comment with the reason of the failure, like the output of {@link FileTranslator}.
+ * Requests may be pipelined, the responses are flushed once the connection has no buffered request left.
+ *
+ * Every connection is served on its own thread, a virtual one when the runtime has virtual threads and a platform
+ * one otherwise, and it translates with the context of its thread, see {@link TranslatorContext#forCurrentThread()}.
+ * The server listens on the loopback address only. A request line longer than {@link #MAX_LINE_LENGTH} chars is
+ * skipped up to its end and answered with an error.
+ */
+public final class TranslationServer implements Closeable {
+    public static final int DEFAULT_PORT = 27117;
+    public static final int MAX_LINE_LENGTH = 1 << 16;
+
+    private static final String ERROR_PREFIX = "// ";
+    // thousands of clients may connect at once
+    private static final int BACKLOG = 4096;
+    private static final long MAX_ACCEPT_DELAY_MILLIS = 1000;
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService connectionExecutor;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final Thread acceptor;
+    private volatile boolean isClosed = false;
+
+    private TranslationServer(int port) throws IOException {
+        serverSocket = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+        connectionExecutor = newThreadPerTaskExecutor();
+        acceptor = new Thread(this::accept, "translation-server-acceptor");
+        acceptor.setDaemon(true);
+    }
+
+    /**
+     * Starts listening on the loopback address
+     *
+     * @param port the port or 0 for any free one, see {@link #getPort()}
+     */
+    public static TranslationServer start(int port) throws IOException {
+        TranslationServer server = new TranslationServer(port);
+        server.acceptor.start();
+        return server;
+    }
+
+    /**
+     * @return an executor that runs every task on a new virtual thread, or on a platform thread if the runtime has
+     * no virtual threads, idle platform threads are reused
+     */
+    static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "translation-server-connection");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void accept() {
+        long delayMillis = 0;
+        while (!isClosed) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+                delayMillis = 0;
+            } catch (IOException e) {
+                if (isClosed || serverSocket.isClosed()) {
+                    return;
+                }
+                // a failure like the exhausted file descriptors lasts, retry it with a growing delay
+                delayMillis = Math.min(Math.max(delayMillis * 2, 1), MAX_ACCEPT_DELAY_MILLIS);
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                continue;
+            }
+            connections.add(socket);
+            try {
+                connectionExecutor.execute(() -> serve(socket));
+            } catch (RejectedExecutionException e) {
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer writer = new BufferedWriter(
+                     new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            socket.setTcpNoDelay(true);
+            TranslatorContext context = TranslatorContext.forCurrentThread();
+            StringBuilder line = new StringBuilder();
+            StringBuilder response = new StringBuilder();
+            int length;
+            while ((length = readLine(reader, line)) >= 0) {
+                response.setLength(0);
+                if (length > MAX_LINE_LENGTH) {
+                    response.append(ERROR_PREFIX).append("the query is longer than ").append(MAX_LINE_LENGTH)
+                            .append(" chars");
+                } else if (length > 0) {
+                    try {
+                        if (!context.tryTranslate(line, response)) {
+                            response.append(ERROR_PREFIX).append(context.getErrorMessage());
+                        }
+                    } catch (RuntimeException e) {
+                        response.setLength(0);
+                        response.append(ERROR_PREFIX).append(e.getMessage());
+                    }
+                }
+                response.append('\n');
+                writer.append(response);
+                if (!reader.ready()) {
+                    writer.flush();
+                }
+            }
+        } catch (IOException e) {
+            // the client has gone, there is nobody to answer
+        } finally {
+            connections.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Reads a line without its terminator, a {@code \n} or a {@code \r\n}, like {@link BufferedReader#readLine()},
+     * but keeps at most {@link #MAX_LINE_LENGTH} chars of it
+     *
+     * @return length of the line, which is greater than the kept chars for a too long one, or -1 at the end of the
+     * stream
+     */
+    private static int readLine(BufferedReader reader, StringBuilder line) throws IOException {
+        line.setLength(0);
+        int length = 0;
+        int value = reader.read();
+        if (value < 0) {
+            return -1;
+        }
+        while (value >= 0 && value != '\n') {
+            if (length++ < MAX_LINE_LENGTH) {
+                line.append((char) value);
+            }
+            value = reader.read();
+        }
+        if (length > 0 && length <= MAX_LINE_LENGTH && line.charAt(length - 1) == '\r') {
+            line.setLength(--length);
+        }
+        return length;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing to do, the socket is dropped anyway
+        }
+    }
+
+    /**
+     * Stops accepting clients and drops the open connections
+     */
+    @Override
+    public void close() throws IOException {
+        isClosed = true;
+        serverSocket.close();
+        connectionExecutor.shutdownNow();
+        for (Socket socket : connections) {
+            closeQuietly(socket);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 1) {
+            System.err.println("Usage: TranslationServer [port]");
+            System.exit(1);
+        }
+        TranslatorMetrics.register();
+        TranslationServer server = start(args.length == 1 ? Integer.parseInt(args[0]) : DEFAULT_PORT);
+        System.out.println("Translating on localhost:" + server.getPort());
+        server.acceptor.join();
+    }
+}
@@ -1,28 +1,62 @@
+import java.nio.ByteBuffer;
 import java.text.CharacterIterator;
-import java.util.Stack;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * LL grammar in BNF form
  *
  * 0.  SELECT_QUERY -> "SELECT" "FROM" WHERE_CLAUSE
- * 1.  WHERE_CLAUSE -> SKIP_CLAUSE
+ * 1.  WHERE_CLAUSE -> GROUP_CLAUSE
  * 2.  WHERE_CLAUSE -> "WHERE" WHERE_EXPR
  * 3.  WHERE_EXPR -> "AND" WHERE_EXPR
- * 4.  WHERE_EXPR -> SKIP_CLAUSE
+ * 4.  WHERE_EXPR -> GROUP_CLAUSE
  * 5.  SKIP_CLAUSE -> "SKIP"/"OFFSET" LIMIT_CLAUSE
  * 6.  SKIP_CLAUSE -> LIMIT_CLAUSE
  * 7.  LIMIT_CLAUSE -> "LIMIT" $
  * 8.  LIMIT_CLAUSE -> $
+ * 9.  GROUP_CLAUSE -> "GROUP BY" HAVING_CLAUSE
+ * 10. GROUP_CLAUSE -> ORDER_CLAUSE
+ * 11. HAVING_CLAUSE -> "HAVING" HAVING_EXPR
+ * 12. HAVING_CLAUSE -> ORDER_CLAUSE
+ * 13. HAVING_EXPR -> "AND" HAVING_EXPR
+ * 14. HAVING_EXPR -> ORDER_CLAUSE
+ * 15. ORDER_CLAUSE -> "ORDER BY" SKIP_CLAUSE
+ * 16. ORDER_CLAUSE -> SKIP_CLAUSE
+ *
+ * A WHERE or AND is followed by a predicate: {@code name < 1}, {@code 1 < name} with any of {@code < > = <>}, or
+ * {@code name IN (1, 2, 3)}. The SELECT list may have the aggregates {@code COUNT(*)}, {@code SUM(name)},
+ * {@code AVG(name)}, {@code MIN(name)} and {@code MAX(name)} written without spaces, a HAVING or an AND after it is
+ * followed by an aggregate predicate: {@code SUM(name) > 1}. ORDER BY lists fields or aggregates, each one
+ * optionally followed by ASC or DESC.
+ *
+ * The $ end of a query is the end of the input or a {@code ;}, which ends a statement of a script, see
+ * {@link ScriptTranslator}. Names and values end at the {@code ;} like at a space.
+ *
+ * The grammar with its semantic actions is also written in {@code src/main/grammar/select.grammar}, the build
+ * generates {@link GeneratedParser} from it, and {@link ParseEngine} with {@link ParseTable} is kept as the
+ * reference parser.
  */
 
 public class Translator {
+    /**
+     * Placeholder of a number in prepared queries
+     */
+    public static final char PARAMETER_SYMBOL = '?';
+
+    /**
+     * End of a statement, it is matched as {@link Terminal#TS_END}
+     */
+    public static final char STATEMENT_END = ';';
+
     /**
      * Check for bad naming symbol according to MongoDB documentation
      * https://docs.mongodb.com/manual/reference/limits/#naming-restrictions
      *
      * @return true is the symbol can present in the name
      */
-    private static boolean isBadNameSymbol(char value) {
+    static boolean isBadNameSymbol(char value) {
         switch (value) {
             case '/':
             case '\\':
@@ -44,7 +78,38 @@ public class Translator {
         }
     }
 
+    /**
+     * @return true for the chars skipped after the end of a statement, line breaks are allowed between the
+     * statements only
+     */
+    static boolean isStatementSpace(char value) {
+        return value == ' ' || value == '\n' || value == '\r' || value == '\t';
+    }
+
+    private static final MongoShellBuilder.Aggregate[] AGGREGATES = MongoShellBuilder.Aggregate.values();
+    // names of the aggregates packed like the keywords of the Lexer, by ordinal
+    private static final long[] AGGREGATE_WORDS = new long[AGGREGATES.length];
+
+    static {
+        for (int i = 0; i < AGGREGATES.length; i++) {
+            String name = AGGREGATES[i].name();
+            for (int j = 0; j < name.length(); j++) {
+                AGGREGATE_WORDS[i] |= (long) name.charAt(j) << (j * 8);
+            }
+        }
+    }
+
     public static CharsMapping parseNameOrValue(CharacterIterator iterator) {
+        return parseNameOrValue(iterator, new CharsMapping());
+    }
+
+    /**
+     * Parses the next name or number into the given mapping, so a reused mapping can be filled without allocation
+     *
+     * @throws TranslationException if there is no name, like at the end of the query
+     * @return the filled mapping
+     */
+    public static CharsMapping parseNameOrValue(CharacterIterator iterator, CharsMapping mapping) {
         boolean isNumber = true;
         char value = iterator.current();
         while (value == ' ') {
@@ -52,184 +117,441 @@ public class Translator {
         }
 
         int startIdx = iterator.getIndex();
-        while (value != ' ' && value != ',' && value != CharacterIterator.DONE) {
+        if (value == PARAMETER_SYMBOL) {
+            value = iterator.next();
+            if (value == ' ' || value == ',' || value == STATEMENT_END || value == CharacterIterator.DONE) {
+                return mapping.setParameter(startIdx);
+            }
+            value = iterator.setIndex(startIdx);
+        }
+        int hash = 0;
+        while (value != ' ' && value != ',' && value != STATEMENT_END && value != CharacterIterator.DONE) {
+            hash = 31 * hash + value;
             if (value < '0' || '9' < value) {
                 isNumber = false;
                 if (isBadNameSymbol(value)) {
-                    throw new IllegalArgumentException("is not a valid symbol '" + iterator.current()
-                            + "' at position " + iterator.getIndex());
+                    throw TranslationException.invalidSymbol(iterator.current(), iterator.getIndex());
                 }
             }
 
             value = iterator.next();
         }
-        return new CharsMapping(startIdx, iterator.getIndex(), isNumber);
+        if (iterator.getIndex() == startIdx) {
+            throw TokenSource.Chars.unexpected(iterator);
+        }
+        return mapping.set(startIdx, iterator.getIndex(), isNumber).setHash(hash);
     }
 
+    /**
+     * Parses the SELECT list, a {@code *} or comma separated fields and aggregates
+     */
     public static void parseSelectExpression(CharacterIterator iterator, MongoShellBuilder mongoShellBuilder) {
-        boolean isParsingNotDone = true;
+        parseSelectExpression(mongoShellBuilder.tokens(iterator), mongoShellBuilder);
+    }
 
-        char value = iterator.next();
-        while (value == ' ') {
-            value = iterator.next();
+    static void parseSelectExpression(TokenSource tokens, MongoShellBuilder mongoShellBuilder) {
+        if (tokens.skipStar()) {
+            mongoShellBuilder.setSelectAll();
+            return;
         }
-        if (value == '*') {
-            if (iterator.next() == ' ') {
-                mongoShellBuilder.setSelectAll();
-                return;
+        do {
+            CharacterIterator iterator = tokens.aggregateChars();
+            MongoShellBuilder.Aggregate aggregate = iterator == null ? null : parseAggregateFunction(iterator);
+            if (aggregate == null) {
+                mongoShellBuilder.addSelectField(tokens.nameOrValue(mongoShellBuilder.nextMapping()));
             } else {
-                throw new IllegalArgumentException("is not a valid symbol '" + iterator.current()
-                        + "' at position " + iterator.getIndex());
+                mongoShellBuilder.addSelectAggregate(aggregate, parseAggregateField(iterator, mongoShellBuilder));
+                tokens.skipTo(iterator.getIndex());
+            }
+        } while (tokens.skipComma());
+    }
+
+    /**
+     * Reads the name of an aggregate function followed by the opening parenthesis, like {@code SUM(}
+     *
+     * @return the aggregate with the iterator after the parenthesis, or null with the iterator left untouched
+     */
+    static MongoShellBuilder.Aggregate parseAggregateFunction(CharacterIterator iterator) {
+        int startIdx = iterator.getIndex();
+        char value = iterator.current();
+        long word = 0;
+        int length = 0;
+        while ('A' <= value && value <= 'Z' && length < 8) {
+            word |= (long) value << (length * 8);
+            length++;
+            value = iterator.next();
+        }
+        if (value == '(') {
+            for (int i = 0; i < AGGREGATE_WORDS.length; i++) {
+                if (AGGREGATE_WORDS[i] == word) {
+                    iterator.next();
+                    return AGGREGATES[i];
+                }
             }
         }
-        while (isParsingNotDone) {
-            CharsMapping charsMapping = parseNameOrValue(iterator);
-            mongoShellBuilder.addSelectField(charsMapping);
-            value = iterator.current();
-            while (value == ' ') {
+        iterator.setIndex(startIdx);
+        return null;
+    }
+
+    /**
+     * Parses the {@code *} or the field of an aggregate and the closing parenthesis
+     *
+     * @param iterator at the first char after the opening parenthesis, it is left at the char after the closing
+     *                 one, which is a space, a comma or the end of the statement
+     * @return the field or null for {@code *}
+     */
+    static CharsMapping parseAggregateField(CharacterIterator iterator, MongoShellBuilder mongoShellBuilder) {
+        char value = iterator.current();
+        CharsMapping field = null;
+        if (value == '*') {
+            value = iterator.next();
+        } else {
+            int startIdx = iterator.getIndex();
+            boolean isNumber = true;
+            int hash = 0;
+            while (value != ')' && value != ' ' && value != ',' && value != STATEMENT_END
+                    && value != CharacterIterator.DONE) {
+                hash = 31 * hash + value;
+                if (value < '0' || '9' < value) {
+                    isNumber = false;
+                    if (isBadNameSymbol(value)) {
+                        throw TranslationException.invalidSymbol(value, iterator.getIndex());
+                    }
+                }
                 value = iterator.next();
             }
-            if (value != ',') {
-                isParsingNotDone = false;
+            if (iterator.getIndex() == startIdx && value != CharacterIterator.DONE) {
+                throw TranslationException.invalidSymbol(value, iterator.getIndex());
             }
-            iterator.setIndex(iterator.getIndex() + 1);
+            field = mongoShellBuilder.nextMapping().set(startIdx, iterator.getIndex(), isNumber).setHash(hash);
         }
-        iterator.setIndex(iterator.getIndex() - 1);
+
+        if (value != ')') {
+            throw value == CharacterIterator.DONE
+                    ? new TranslationException(TranslationException.Kind.UNEXPECTED_END, iterator.getIndex(),
+                            "the aggregate is not closed")
+                    : TranslationException.invalidSymbol(value, iterator.getIndex());
+        }
+        value = iterator.next();
+        if (value != ' ' && value != ',' && value != STATEMENT_END && value != CharacterIterator.DONE) {
+            throw TranslationException.invalidSymbol(value, iterator.getIndex());
+        }
+        return field;
+    }
+
+    /**
+     * Parses the comma separated fields after GROUP BY
+     */
+    public static void parseGroupExpression(CharacterIterator iterator, MongoShellBuilder mongoShellBuilder) {
+        parseGroupExpression(mongoShellBuilder.tokens(iterator), mongoShellBuilder);
     }
 
+    static void parseGroupExpression(TokenSource tokens, MongoShellBuilder mongoShellBuilder) {
+        do {
+            mongoShellBuilder.addGroupField(tokens.nameOrValue(mongoShellBuilder.nextMapping()));
+        } while (tokens.skipComma());
+    }
+
+    /**
+     * Parses the comma separated sort keys after ORDER BY, a field or an aggregate with an optional direction
+     */
+    public static void parseOrderExpression(CharacterIterator iterator, MongoShellBuilder mongoShellBuilder) {
+        parseOrderExpression(mongoShellBuilder.tokens(iterator), mongoShellBuilder);
+    }
+
+    static void parseOrderExpression(TokenSource tokens, MongoShellBuilder mongoShellBuilder) {
+        do {
+            CharacterIterator iterator = tokens.aggregateChars();
+            MongoShellBuilder.Aggregate aggregate = iterator == null ? null : parseAggregateFunction(iterator);
+            CharsMapping field;
+            if (aggregate == null) {
+                field = tokens.nameOrValue(mongoShellBuilder.nextMapping());
+            } else {
+                field = parseAggregateField(iterator, mongoShellBuilder);
+                tokens.skipTo(iterator.getIndex());
+            }
+            boolean isDescending = tokens.skipWord("DESC");
+            if (!isDescending) {
+                tokens.skipWord("ASC");
+            }
+            if (aggregate == null) {
+                mongoShellBuilder.addSortField(field, isDescending);
+            } else {
+                mongoShellBuilder.addSortAggregate(aggregate, field, isDescending);
+            }
+        } while (tokens.skipComma());
+    }
+
+    /**
+     * Parses an aggregate predicate after HAVING or AND, the aggregate is on the left: {@code SUM(amount) > 10}
+     */
+    public static void parseHavingExpression(CharacterIterator iterator, MongoShellBuilder mongoShellBuilder) {
+        parseHavingExpression(mongoShellBuilder.tokens(iterator), mongoShellBuilder);
+    }
+
+    static void parseHavingExpression(TokenSource tokens, MongoShellBuilder mongoShellBuilder) {
+        CharacterIterator iterator = tokens.aggregateChars();
+        MongoShellBuilder.Aggregate aggregate = iterator == null ? null : parseAggregateFunction(iterator);
+        if (aggregate == null) {
+            throw new TranslationException(TranslationException.Kind.INVALID_PREDICATE, tokens.position(),
+                    "in Having statement must be one aggregate and one number");
+        }
+        CharsMapping field = parseAggregateField(iterator, mongoShellBuilder);
+        tokens.skipTo(iterator.getIndex());
+        MongoShellBuilder.WhereExpression.CompareSign sign = tokens.compareSign();
+        mongoShellBuilder.addHavingExpression(aggregate, field, sign,
+                tokens.nameOrValue(mongoShellBuilder.nextMapping()));
+    }
+
+    /**
+     * Parses a predicate after WHERE or AND, a comparison with the name on any side or an IN list
+     */
     public static void parseWhereExpression(CharacterIterator iterator, MongoShellBuilder mongoShellBuilder) {
-        CharsMapping firstMapping = parseNameOrValue(iterator);
-        char value = iterator.next();
+        parseWhereExpression(mongoShellBuilder.tokens(iterator), mongoShellBuilder);
+    }
+
+    static void parseWhereExpression(TokenSource tokens, MongoShellBuilder mongoShellBuilder) {
+        CharsMapping firstMapping = tokens.nameOrValue(mongoShellBuilder.nextMapping());
+        CharacterIterator iterator = tokens.inListChars();
+        if (iterator != null) {
+            parseInList(iterator, mongoShellBuilder);
+            tokens.skipTo(iterator.getIndex());
+            mongoShellBuilder.addWhereInExpression(firstMapping);
+            return;
+        }
+        MongoShellBuilder.WhereExpression.CompareSign sign = tokens.compareSign();
+        if (firstMapping.isNumber && sign == MongoShellBuilder.WhereExpression.CompareSign.LOWER) {
+            sign = MongoShellBuilder.WhereExpression.CompareSign.GREATER;
+        } else if (firstMapping.isNumber && sign == MongoShellBuilder.WhereExpression.CompareSign.GREATER) {
+            sign = MongoShellBuilder.WhereExpression.CompareSign.LOWER;
+        }
+        CharsMapping secondMapping = tokens.nameOrValue(mongoShellBuilder.nextMapping());
+        addWhereExpression(mongoShellBuilder, firstMapping, sign, secondMapping);
+    }
+
+    /**
+     * Parses the {@code (1, 2, 3)} list of an IN predicate into the IN list of the builder
+     *
+     * @param iterator at the first char after IN, it is left at the char after the closing parenthesis
+     */
+    public static void parseInList(CharacterIterator iterator, MongoShellBuilder mongoShellBuilder) {
+        char value = iterator.current();
         while (value == ' ') {
             value = iterator.next();
         }
-        MongoShellBuilder.WhereExpression.CompareSign sign;
-        switch (value) {
-            case '<': {
+        if (value != '(') {
+            throw TranslationException.invalidSymbol(value, iterator.getIndex());
+        }
+
+        do {
+            value = iterator.next();
+            while (value == ' ') {
                 value = iterator.next();
-                if (value == '>') {
-                    sign = MongoShellBuilder.WhereExpression.CompareSign.NON_EQUALS;
-                } else {
-                    iterator.setIndex(iterator.getIndex() - 1);
-                    if (firstMapping.isNumber) {
-                        sign = MongoShellBuilder.WhereExpression.CompareSign.GREATER;
-                    } else {
-                        sign = MongoShellBuilder.WhereExpression.CompareSign.LOWER;
-                    }
-                }
-            } break;
-            case '=': {
-                sign = MongoShellBuilder.WhereExpression.CompareSign.EQUALS;
-            } break;
-            case '>': {
-                if (firstMapping.isNumber) {
-                    sign = MongoShellBuilder.WhereExpression.CompareSign.LOWER;
-                } else {
-                    sign = MongoShellBuilder.WhereExpression.CompareSign.GREATER;
+            }
+            int startIdx = iterator.getIndex();
+            long number = 0;
+            while ('0' <= value && value <= '9') {
+                int digit = value - '0';
+                if (number > (Long.MAX_VALUE - digit) / 10) {
+                    throw TranslationException.atPosition(TranslationException.Kind.NUMBER_TOO_LARGE, startIdx,
+                            "the number at position %2$d is too large");
                 }
-            } break;
-            default: {
-                throw new IllegalArgumentException("is not a valid symbol '" + iterator.current()
-                        + "' at position " + iterator.getIndex());
+                number = number * 10 + digit;
+                value = iterator.next();
+            }
+            if (iterator.getIndex() == startIdx) {
+                throw value == CharacterIterator.DONE
+                        ? new TranslationException(TranslationException.Kind.UNEXPECTED_END, iterator.getIndex(),
+                                "the IN list is not closed")
+                        : TranslationException.invalidSymbol(value, iterator.getIndex());
             }
+            mongoShellBuilder.addInValue(number);
+
+            while (value == ' ') {
+                value = iterator.next();
+            }
+        } while (value == ',');
+
+        if (value != ')') {
+            throw value == CharacterIterator.DONE
+                    ? new TranslationException(TranslationException.Kind.UNEXPECTED_END, iterator.getIndex(),
+                            "the IN list is not closed")
+                    : TranslationException.invalidSymbol(value, iterator.getIndex());
         }
-        if (iterator.next() != ' ') {
-            throw new IllegalArgumentException("is not a valid symbol '" + iterator.current()
-                    + "' at position " + iterator.getIndex());
+        value = iterator.next();
+        if (value != ' ' && value != STATEMENT_END && value != CharacterIterator.DONE) {
+            throw TranslationException.invalidSymbol(value, iterator.getIndex());
         }
-        CharsMapping secondMapping = parseNameOrValue(iterator);
+    }
+
+    /**
+     * Adds the comparison with the name on any side, the sign is already turned for the name on the left
+     */
+    private static void addWhereExpression(MongoShellBuilder mongoShellBuilder, CharsMapping firstMapping,
+                                           MongoShellBuilder.WhereExpression.CompareSign sign,
+                                           CharsMapping secondMapping) {
         if (firstMapping.isNumber) {
             if (!secondMapping.isNumber) {
                 mongoShellBuilder.addWhereExpression(secondMapping, sign, firstMapping);
             } else {
-                throw new IllegalArgumentException("in Where statement must be one number and one variable");
+                throw new TranslationException(TranslationException.Kind.INVALID_PREDICATE, firstMapping.offset,
+                        "in Where statement must be one number and one variable");
             }
         } else {
             if (secondMapping.isNumber) {
                 mongoShellBuilder.addWhereExpression(firstMapping, sign, secondMapping);
             } else {
-                throw new IllegalArgumentException("in Where statement must be one number and one variable");
+                throw new TranslationException(TranslationException.Kind.INVALID_PREDICATE, firstMapping.offset,
+                        "in Where statement must be one number and one variable");
             }
         }
     }
 
-    public static String translate(String sqlQuery) {
-        char[] charSqlQuery = sqlQuery.toCharArray();
-        CharacterIterator inputIterator = new CharArrayIterator(charSqlQuery);
-        MongoShellBuilder mongoShellBuilder = new MongoShellBuilder(charSqlQuery);
-
-        final Stack<Terminal> expectedSymbolStack = new Stack<>();
-        final Stack<Terminal> actualSymbolStack = new Stack<>();
-        expectedSymbolStack.push(Terminal.NTS_SELECT_QUERY);
-        actualSymbolStack.push(Terminal.getTerminal(inputIterator));
-
-        while (!expectedSymbolStack.isEmpty()) {
-            if (expectedSymbolStack.peek() == actualSymbolStack.peek()) {
-
-                actualSymbolStack.pop();
-                switch (expectedSymbolStack.pop()) {
-                    case TS_SELECT: {
-                        parseSelectExpression(inputIterator, mongoShellBuilder);
-                    } break;
-                    case TS_FROM: {
-                        mongoShellBuilder.setFromDatabaseName(parseNameOrValue(inputIterator));
-                    } break;
-                    case TS_WHERE:
-                    case TS_AND: {
-                        parseWhereExpression(inputIterator, mongoShellBuilder);
-                    } break;
-                    case TS_SKIP: {
-                        mongoShellBuilder.setSkipValue(parseNameOrValue(inputIterator));
-                    } break;
-                    case TS_LIMIT: {
-                        mongoShellBuilder.setLimitValue(parseNameOrValue(inputIterator));
-                    } break;
-                }
+    /**
+     * Parses the expression that follows the matched terminal symbol
+     */
+    public static void parseTerminalExpression(Terminal terminal, CharacterIterator inputIterator,
+                                               MongoShellBuilder mongoShellBuilder) {
+        parseTerminalExpression(terminal, mongoShellBuilder.tokens(inputIterator), mongoShellBuilder);
+    }
 
-                if (!expectedSymbolStack.isEmpty()) {
-                    actualSymbolStack.push(Terminal.getTerminal(inputIterator));
-                }
-            } else {
-                switch (ParseTable.getCase(expectedSymbolStack.pop(), actualSymbolStack.peek())) {
-                    case 0: {       // 0.  SELECT_QUERY -> "SELECT" "FROM" WHERE_CLAUSE
-                        expectedSymbolStack.push(Terminal.NTS_WHERE_CLAUSE);
-                        expectedSymbolStack.push(Terminal.TS_FROM);
-                        expectedSymbolStack.push(Terminal.TS_SELECT);
-                    } break;
-                    case 1:         // 1.  WHERE_CLAUSE -> SKIP_CLAUSE
-                    case 4: {       // 4.  WHERE_EXPR -> SKIP_CLAUSE
-                        expectedSymbolStack.push(Terminal.NTS_SKIP_CLAUSE);
-                    } break;
-                    case 2: {       // 2.  WHERE_CLAUSE -> "WHERE" WHERE_EXPR
-                        expectedSymbolStack.push(Terminal.NTS_WHERE_EXPR);
-                        expectedSymbolStack.push(Terminal.TS_WHERE);
-                    } break;
-                    case 3: {       // 3.  WHERE_EXPR -> "AND" WHERE_EXPR
-                        expectedSymbolStack.push(Terminal.NTS_WHERE_EXPR);
-                        expectedSymbolStack.push(Terminal.TS_AND);
-                    } break;
-                    case 5: {       // 5.  SKIP_CLAUSE -> "SKIP"/"OFFSET" LIMIT_CLAUSE
-                        expectedSymbolStack.push(Terminal.NTS_LIMIT_CLAUSE);
-                        expectedSymbolStack.push(Terminal.TS_SKIP);
-                    } break;
-                    case 6: {       // 6.  SKIP_CLAUSE -> LIMIT_CLAUSE
-                        expectedSymbolStack.push(Terminal.NTS_LIMIT_CLAUSE);
-                    } break;
-                    case 7: {       // 7.  LIMIT_CLAUSE -> "LIMIT" $
-                        expectedSymbolStack.push(Terminal.TS_END);
-                        expectedSymbolStack.push(Terminal.TS_LIMIT);
-                    } break;
-                    case 8: {       // 8.  LIMIT_CLAUSE -> $
-                        expectedSymbolStack.push(Terminal.TS_END);
-                    } break;
-                    default: {
-                        throw new IllegalArgumentException("logic of your SQL query is not correct");
-                    }
+    /**
+     * Same as {@link #parseTerminalExpression(Terminal, CharacterIterator, MongoShellBuilder)} over the tokens of
+     * the last {@link Lexer#tokenize} call, the BY of GROUP BY and ORDER BY is a token of its own here
+     *
+     * @param idx index of the token after the terminal
+     * @return index of the next terminal token
+     */
+    public static int parseTerminalExpression(Terminal terminal, Lexer lexer, int idx,
+                                              MongoShellBuilder mongoShellBuilder) {
+        TokenSource.Tokens tokens = lexer.tokens(idx);
+        if ((terminal == Terminal.TS_GROUP || terminal == Terminal.TS_ORDER) && !tokens.skipWord("BY")) {
+            throw tokens.unexpected();
+        }
+        parseTerminalExpression(terminal, tokens, mongoShellBuilder);
+        return tokens.getIndex();
+    }
+
+    private static void parseTerminalExpression(Terminal terminal, TokenSource tokens,
+                                                MongoShellBuilder mongoShellBuilder) {
+        switch (terminal) {
+            case TS_SELECT: {
+                parseSelectExpression(tokens, mongoShellBuilder);
+            } break;
+            case TS_FROM: {
+                mongoShellBuilder.setFromDatabaseName(tokens.nameOrValue(mongoShellBuilder.nextMapping()));
+            } break;
+            case TS_WHERE: {
+                parseWhereExpression(tokens, mongoShellBuilder);
+            } break;
+            case TS_AND: {
+                if (mongoShellBuilder.hasHavingExpressions()) {
+                    parseHavingExpression(tokens, mongoShellBuilder);
+                } else {
+                    parseWhereExpression(tokens, mongoShellBuilder);
                 }
+            } break;
+            case TS_GROUP: {
+                parseGroupExpression(tokens, mongoShellBuilder);
+            } break;
+            case TS_HAVING: {
+                parseHavingExpression(tokens, mongoShellBuilder);
+            } break;
+            case TS_ORDER: {
+                parseOrderExpression(tokens, mongoShellBuilder);
+            } break;
+            case TS_SKIP: {
+                mongoShellBuilder.setSkipValue(tokens.nameOrValue(mongoShellBuilder.nextMapping()));
+            } break;
+            case TS_LIMIT: {
+                mongoShellBuilder.setLimitValue(tokens.nameOrValue(mongoShellBuilder.nextMapping()));
+            } break;
+        }
+    }
+
+    /**
+     * Runs the parser generated from the grammar over the whole input and feeds the parsed clauses into the builder
+     */
+    public static void parse(CharacterIterator inputIterator, MongoShellBuilder mongoShellBuilder) {
+        GeneratedParser.parse(inputIterator, mongoShellBuilder);
+    }
+
+    /**
+     * Translates the query with the context of the current thread, so only the returned string is allocated.
+     * Use {@link TranslatorContext} directly to write the command into your own buffer.
+     */
+    public static String translate(String sqlQuery) {
+        return TranslatorContext.forCurrentThread().translate(sqlQuery);
+    }
+
+    /**
+     * Translates the bytes between the position and the limit of an ASCII or UTF-8 query into the UTF-8 command
+     * without decoding, see {@link TranslatorContext#translate(ByteBuffer, ByteBuffer)}
+     */
+    public static void translate(ByteBuffer sqlQuery, ByteBuffer output) {
+        TranslatorContext.forCurrentThread().translate(sqlQuery, output);
+    }
+
+    /**
+     * Writes the query as a BSON {@code find} command document, ready to be sent through a driver without
+     * rendering and re-parsing the shell command
+     */
+    public static void translateToBson(String sqlQuery, ByteBuffer output) {
+        TranslatorContext.forCurrentThread().translateToBson(sqlQuery, output);
+    }
+
+    /**
+     * Compiles a query with {@code ?} placeholders in place of numbers into a command template, so binding the
+     * values needs no parsing at all
+     */
+    public static PreparedQuery prepare(String sqlQuery) {
+        return TranslatorContext.forCurrentThread().prepare(sqlQuery);
+    }
+
+    /**
+     * Translates a batch in parallel on the common fork-join pool
+     *
+     * @return results in the order of the queries, a failed query doesn't affect the others
+     */
+    public static List<TranslationResult> translateAll(List<String> sqlQueries) {
+        return translateAll(sqlQueries, ForkJoinPool.commonPool());
+    }
+
+    public static List<TranslationResult> translateAll(List<String> sqlQueries, ForkJoinPool pool) {
+        String[] commands = new String[sqlQueries.size()];
+        long[] fingerprints = new long[sqlQueries.size()];
+        TranslationResult[] results = new TranslationResult[sqlQueries.size()];
+        pool.invoke(new BatchTranslation(sqlQueries, commands, fingerprints, results,
+                BatchTranslation.leafSize(sqlQueries.size(), pool.getParallelism())));
+
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                results[i] = TranslationResult.success(commands[i], fingerprints[i]);
             }
         }
+        return Arrays.asList(results);
+    }
 
-        return mongoShellBuilder.build();
+    /**
+     * Translates a batch in parallel on the common fork-join pool without creating results for the successful
+     * queries
+     *
+     * @param out receives the command of every successful query and null for every failed one
+     * @return array with a failed result at the index of every failed query and null elsewhere
+     */
+    public static TranslationResult[] translateAll(String[] sqlQueries, String[] out) {
+        return translateAll(sqlQueries, out, ForkJoinPool.commonPool());
+    }
+
+    public static TranslationResult[] translateAll(String[] sqlQueries, String[] out, ForkJoinPool pool) {
+        if (out.length < sqlQueries.length) {
+            throw new IllegalArgumentException("the output array is shorter than the batch");
+        }
+        Arrays.fill(out, 0, sqlQueries.length, null);
+        TranslationResult[] failures = new TranslationResult[sqlQueries.length];
+        pool.invoke(new BatchTranslation(Arrays.asList(sqlQueries), out, null, failures,
+                BatchTranslation.leafSize(sqlQueries.length, pool.getParallelism())));
+        return failures;
     }
 
     public static void main(String[] args) {
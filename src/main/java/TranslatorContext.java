@@ -0,0 +1,558 @@
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+/**
+ * Reusable state of the translator: the input copy, the iterator, the builder with its pooled mappings and the
+ * parse engine. Once the buffers have grown to the size of the largest query, a translation into a caller
+ * supplied buffer doesn't allocate.
+ *
+ * A context is not thread-safe. Use {@link #forCurrentThread()} to get the context of the calling thread.
+ */
+public class TranslatorContext {
+    private static final ThreadLocal<TranslatorContext> CONTEXTS = ThreadLocal.withInitial(TranslatorContext::new);
+
+    private char[] chars;
+    private final CharArrayIterator iterator;
+    private final ByteBufferCharIterator byteIterator;
+    // wrapper of the last byte array input, reused while the caller passes the same array
+    private ByteBuffer wrappedBytes;
+    private final MongoShellBuilder mongoShellBuilder;
+    private final ParseEngine parseEngine;
+    // tokenizes the query before parsing if set, see setTokenized
+    private Lexer lexer;
+
+    // output buffer for the targets that can't be rendered into directly
+    private final StringBuilder output;
+
+    // rejection of the last tryTranslate call, null if it has succeeded
+    private TranslationException error;
+
+    // timing of the translation in progress, taken only while the metrics are enabled, see TranslatorMetrics
+    private boolean isMeasuring;
+    private long phaseStart;
+    private long lexNanos;
+    private long parseNanos;
+    // the event is reused, its shape is taken from the measured query only if the event is committed
+    private TranslationEvent event;
+    private CharSequence measuredChars;
+    private ByteBuffer measuredBytes;
+
+    public TranslatorContext() {
+        chars = new char[64];
+        iterator = new CharArrayIterator(chars);
+        byteIterator = new ByteBufferCharIterator(ByteBuffer.allocate(0));
+        mongoShellBuilder = new MongoShellBuilder(chars);
+        parseEngine = new ParseEngine();
+        output = new StringBuilder();
+    }
+
+    /**
+     * Switches between the two parsers: the default one reads the query through a CharacterIterator, the
+     * tokenized one splits the whole query by {@link Lexer} first and parses the token stream. The clauses are parsed
+     * by the same code over a {@link TokenSource}, so both give the same commands and reject the same queries.
+     */
+    public void setTokenized(boolean isTokenized) {
+        lexer = isTokenized ? new Lexer() : null;
+    }
+
+    /**
+     * Makes the translations hint the indexes of the catalog, see {@link MongoShellBuilder#setIndexCatalog}
+     *
+     * @param indexCatalog the catalog or null to translate without any index
+     */
+    public void setIndexCatalog(IndexCatalog indexCatalog) {
+        mongoShellBuilder.setIndexCatalog(indexCatalog);
+    }
+
+    /**
+     * Makes the translated aggregations allow the server to use the disk, see {@link MongoShellBuilder#setAllowDiskUse}
+     */
+    public void setAllowDiskUse(boolean isAllowDiskUse) {
+        mongoShellBuilder.setAllowDiskUse(isAllowDiskUse);
+    }
+
+    /**
+     * @return the context owned by the calling thread
+     */
+    public static TranslatorContext forCurrentThread() {
+        return CONTEXTS.get();
+    }
+
+    private void load(CharSequence sqlQuery) {
+        int length = sqlQuery.length();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        if (sqlQuery instanceof String) {
+            ((String) sqlQuery).getChars(0, length, chars, 0);
+        } else if (sqlQuery instanceof StringBuilder) {
+            ((StringBuilder) sqlQuery).getChars(0, length, chars, 0);
+        } else {
+            for (int i = 0; i < length; i++) {
+                chars[i] = sqlQuery.charAt(i);
+            }
+        }
+        if (lexer != null) {
+            lexer.tokenize(chars, length);
+        } else {
+            iterator.reset(chars, length);
+        }
+        mongoShellBuilder.reset(chars);
+    }
+
+    /**
+     * Parses the query into the context builder
+     */
+    private void parse(CharSequence sqlQuery) {
+        if (sqlQuery == null) {
+            throw new NullPointerException();
+        }
+        isMeasuring = TranslatorMetrics.isRecording();
+        if (isMeasuring) {
+            startMeasuring();
+            measuredChars = sqlQuery;
+        }
+        try {
+            load(sqlQuery);
+            if (isMeasuring) {
+                lexNanos = endPhase();
+            }
+            if (lexer != null) {
+                parseEngine.parse(lexer, mongoShellBuilder);
+            } else {
+                GeneratedParser.parse(iterator, mongoShellBuilder);
+            }
+        } catch (RuntimeException e) {
+            if (isMeasuring) {
+                failMeasuring(e);
+            }
+            throw e;
+        }
+        if (isMeasuring) {
+            parseNanos = endPhase();
+        }
+    }
+
+    /**
+     * Parses the bytes between the position and the limit of the buffer into the context builder, the buffer
+     * position is left untouched
+     */
+    private void parse(ByteBuffer sqlQuery) {
+        isMeasuring = TranslatorMetrics.isRecording();
+        if (isMeasuring) {
+            startMeasuring();
+            measuredBytes = sqlQuery;
+        }
+        try {
+            mongoShellBuilder.reset(sqlQuery);
+            boolean isTokenized = lexer != null && sqlQuery.hasArray();
+            if (isTokenized) {
+                lexer.tokenize(sqlQuery.array(), sqlQuery.arrayOffset(), sqlQuery.position(), sqlQuery.limit());
+            } else {
+                byteIterator.reset(sqlQuery, sqlQuery.position(), sqlQuery.limit());
+            }
+            if (isMeasuring) {
+                lexNanos = endPhase();
+            }
+            if (isTokenized) {
+                parseEngine.parse(lexer, mongoShellBuilder);
+            } else {
+                GeneratedParser.parse(byteIterator, mongoShellBuilder);
+            }
+        } catch (RuntimeException e) {
+            if (isMeasuring) {
+                failMeasuring(e);
+            }
+            throw e;
+        }
+        if (isMeasuring) {
+            parseNanos = endPhase();
+        }
+    }
+
+    /**
+     * Renders the parsed query into the output, the build phase of the metrics
+     */
+    private void build(StringBuilder output) {
+        try {
+            mongoShellBuilder.build(output);
+        } catch (RuntimeException e) {
+            if (isMeasuring) {
+                failMeasuring(e);
+            }
+            throw e;
+        }
+        if (isMeasuring) {
+            finishMeasuring();
+        }
+    }
+
+    /**
+     * Same as {@link #build(StringBuilder)} for the UTF-8 command
+     */
+    private void build(ByteBuffer output) {
+        try {
+            mongoShellBuilder.build(output);
+        } catch (RuntimeException e) {
+            if (isMeasuring) {
+                failMeasuring(e);
+            }
+            throw e;
+        }
+        if (isMeasuring) {
+            finishMeasuring();
+        }
+    }
+
+    /**
+     * Same as {@link #build(StringBuilder)} for the BSON command
+     */
+    private void buildFindCommand(ByteBuffer output) {
+        try {
+            mongoShellBuilder.buildFindCommand(output);
+        } catch (RuntimeException e) {
+            if (isMeasuring) {
+                failMeasuring(e);
+            }
+            throw e;
+        }
+        if (isMeasuring) {
+            finishMeasuring();
+        }
+    }
+
+    private void startMeasuring() {
+        lexNanos = -1;
+        parseNanos = -1;
+        if (event == null) {
+            event = new TranslationEvent();
+        }
+        event.fingerprint = 0;
+        event.begin();
+        phaseStart = System.nanoTime();
+    }
+
+    /**
+     * @return time since the end of the previous phase
+     */
+    private long endPhase() {
+        long now = System.nanoTime();
+        long nanos = now - phaseStart;
+        phaseStart = now;
+        return nanos;
+    }
+
+    private void finishMeasuring() {
+        long buildNanos = endPhase();
+        isMeasuring = false;
+        TranslatorMetrics.getInstance().recordSuccess(lexNanos, parseNanos, buildNanos);
+        event.fingerprint = mongoShellBuilder.getFingerprint();
+        commitEvent("SUCCESS", buildNanos);
+    }
+
+    private void failMeasuring(RuntimeException e) {
+        long nanos = endPhase();
+        isMeasuring = false;
+        if (lexNanos < 0) {
+            lexNanos = nanos;
+        } else if (parseNanos < 0) {
+            parseNanos = nanos;
+        }
+        commitEvent(TranslatorMetrics.getInstance().recordFailure(e, lexNanos, parseNanos), 0);
+    }
+
+    private void commitEvent(String outcome, long buildNanos) {
+        event.end();
+        if (event.shouldCommit()) {
+            if (measuredBytes != null) {
+                event.setShape(measuredBytes);
+            } else {
+                event.setShape(measuredChars);
+            }
+            event.outcome = outcome;
+            event.lexNanos = lexNanos;
+            event.parseNanos = Math.max(parseNanos, 0);
+            event.buildNanos = buildNanos;
+            event.commit();
+        }
+        measuredChars = null;
+        measuredBytes = null;
+    }
+
+    /**
+     * Translates an ASCII or UTF-8 query without decoding it. The output gets a char for every byte of the names
+     * and values, so it is the ISO-8859-1 view of the UTF-8 command.
+     */
+    public void translate(ByteBuffer sqlQuery, StringBuilder output) {
+        parse(sqlQuery);
+        build(output);
+    }
+
+    /**
+     * Translates the bytes between the position and the limit of an ASCII or UTF-8 query and puts the UTF-8
+     * command straight into the output. The names are copied from the query bytes without decoding, the query
+     * position is left untouched.
+     *
+     * @throws BufferOverflowException if the command doesn't fit into the remaining space, the buffer position
+     *                                 is not moved in this case
+     */
+    public void translate(ByteBuffer sqlQuery, ByteBuffer output) {
+        parse(sqlQuery);
+        build(output);
+    }
+
+    /**
+     * Same as {@link #translate(ByteBuffer, ByteBuffer)} for a slice of an array
+     */
+    public void translate(byte[] sqlQuery, int offset, int length, ByteBuffer output) {
+        if (wrappedBytes == null || wrappedBytes.array() != sqlQuery) {
+            wrappedBytes = ByteBuffer.wrap(sqlQuery);
+        }
+        wrappedBytes.limit(offset + length).position(offset);
+        translate(wrappedBytes, output);
+    }
+
+    /**
+     * Appends the MongoDB command to the output. Nothing is appended if the query is not valid.
+     */
+    public void translate(CharSequence sqlQuery, StringBuilder output) {
+        parse(sqlQuery);
+        build(output);
+    }
+
+    /**
+     * Same as {@link #translate(CharSequence, StringBuilder)}, but an invalid query is reported by the result
+     * instead of an exception. The rejection skips the stack trace and its message is not formatted until
+     * {@link #getErrorMessage()} is called, so a flood of bad queries is rejected about as fast as it is parsed.
+     *
+     * @return true if the command is appended, false if the query is rejected, then nothing is appended and
+     * {@link #getErrorKind()} and {@link #getErrorPosition()} tell why
+     */
+    public boolean tryTranslate(CharSequence sqlQuery, StringBuilder output) {
+        int outputLength = output.length();
+        boolean wasQuiet = TranslationException.beginQuiet();
+        try {
+            translate(sqlQuery, output);
+            error = null;
+            return true;
+        } catch (TranslationException e) {
+            output.setLength(outputLength);
+            error = e;
+            return false;
+        } finally {
+            TranslationException.endQuiet(wasQuiet);
+        }
+    }
+
+    /**
+     * Same as {@link #translate(ByteBuffer, ByteBuffer)} reporting an invalid query like
+     * {@link #tryTranslate(CharSequence, StringBuilder)}, a rejected query leaves the output untouched
+     *
+     * @throws BufferOverflowException if the command doesn't fit into the remaining space
+     */
+    public boolean tryTranslate(ByteBuffer sqlQuery, ByteBuffer output) {
+        boolean wasQuiet = TranslationException.beginQuiet();
+        try {
+            translate(sqlQuery, output);
+            error = null;
+            return true;
+        } catch (TranslationException e) {
+            error = e;
+            return false;
+        } finally {
+            TranslationException.endQuiet(wasQuiet);
+        }
+    }
+
+    /**
+     * @return kind of the rejection of the last {@code tryTranslate} call or null if it has succeeded
+     */
+    public TranslationException.Kind getErrorKind() {
+        return error == null ? null : error.getKind();
+    }
+
+    /**
+     * @return position of the rejection of the last {@code tryTranslate} call in the query, -1 if it is unknown or
+     * the call has succeeded
+     */
+    public int getErrorPosition() {
+        return error == null ? -1 : error.getPosition();
+    }
+
+    /**
+     * @return message of the rejection of the last {@code tryTranslate} call, formatted now, or null if the call has
+     * succeeded
+     */
+    public String getErrorMessage() {
+        return error == null ? null : error.getMessage();
+    }
+
+    /**
+     * Puts the MongoDB command into the buffer
+     *
+     * @throws BufferOverflowException if the command doesn't fit into the remaining space, the buffer is not
+     *                                 modified in this case
+     */
+    public void translate(CharSequence sqlQuery, CharBuffer output) {
+        renderToOutput(sqlQuery);
+        int length = this.output.length();
+        if (output.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        if (output.hasArray()) {
+            this.output.getChars(0, length, output.array(), output.arrayOffset() + output.position());
+            output.position(output.position() + length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            output.put(this.output.charAt(i));
+        }
+    }
+
+    /**
+     * Appends the MongoDB command to the output. Whether the call allocates depends on the appendable.
+     */
+    public void translate(CharSequence sqlQuery, Appendable output) throws IOException {
+        renderToOutput(sqlQuery);
+        output.append(this.output, 0, this.output.length());
+    }
+
+    public String translate(CharSequence sqlQuery) {
+        renderToOutput(sqlQuery);
+        return output.toString();
+    }
+
+    /**
+     * Translates the query into the command of the page after the last key, see
+     * {@link MongoShellBuilder#setLastKey}: {@code SELECT * FROM events ORDER BY ts OFFSET 5000000 LIMIT 100}
+     * with the last key 42 becomes {@code db.events.find({ts: {$gt: 42}}).sort({ts: 1}).limit(100)}
+     */
+    public String translatePage(CharSequence sqlQuery, long lastKey) {
+        parse(sqlQuery);
+        mongoShellBuilder.setLastKey(lastKey);
+        output.setLength(0);
+        build(output);
+        return output.toString();
+    }
+
+    /**
+     * Writes the BSON command of the page after the last key, see {@link #translatePage}
+     */
+    public void translatePageToBson(CharSequence sqlQuery, long lastKey, ByteBuffer output) {
+        parse(sqlQuery);
+        mongoShellBuilder.setLastKey(lastKey);
+        buildFindCommand(output);
+    }
+
+    /**
+     * @return true if the last translated page is read after the last key instead of skipping, see
+     * {@link MongoShellBuilder#isKeysetApplied()}
+     */
+    public boolean isKeysetApplied() {
+        return mongoShellBuilder.isKeysetApplied();
+    }
+
+    /**
+     * Writes the BSON {@code find} command document at the buffer position, see
+     * {@link MongoShellBuilder#buildFindCommand(ByteBuffer)}
+     */
+    public void translateToBson(CharSequence sqlQuery, ByteBuffer output) {
+        parse(sqlQuery);
+        buildFindCommand(output);
+    }
+
+    /**
+     * Writes the BSON {@code find} command document of an ASCII or UTF-8 query without decoding the query
+     */
+    public void translateToBson(ByteBuffer sqlQuery, ByteBuffer output) {
+        parse(sqlQuery);
+        buildFindCommand(output);
+    }
+
+    /**
+     * @return true if the filter of the last translated query can't match any document, such a query can be
+     * answered with an empty result without sending the command
+     */
+    public boolean isUnsatisfiable() {
+        return mongoShellBuilder.isUnsatisfiable();
+    }
+
+    /**
+     * @return shape fingerprint of the last translated query, see {@link MongoShellBuilder#getFingerprint()}
+     */
+    public long getFingerprint() {
+        return mongoShellBuilder.getFingerprint();
+    }
+
+    /**
+     * @return true if the last translated query sorts its whole result in memory, see
+     * {@link MongoShellBuilder#isBlockingSort()}
+     */
+    public boolean isBlockingSort() {
+        return mongoShellBuilder.isBlockingSort();
+    }
+
+    /**
+     * Appends the MongoDB command to the output and cuts its value literals out into a template
+     *
+     * @param literalOffsets sorted offsets of the number literals in the query, see {@link ShellTemplate#of}
+     * @return the template or null if the literals can't be spliced into the command
+     */
+    public ShellTemplate translateToTemplate(CharSequence sqlQuery, StringBuilder output,
+                                             int[] literalOffsets, int[] literalLengths, int literalCount) {
+        parse(sqlQuery);
+        int commandStart = output.length();
+        mongoShellBuilder.setRecordingSplices(true);
+        try {
+            build(output);
+        } finally {
+            mongoShellBuilder.setRecordingSplices(false);
+        }
+        if (!mongoShellBuilder.isSpliceable()) {
+            return null;
+        }
+        return ShellTemplate.of(output.subSequence(commandStart, output.length()), mongoShellBuilder,
+                literalOffsets, literalLengths, literalCount);
+    }
+
+    /**
+     * Compiles a query with {@code ?} placeholders, see {@link Translator#prepare(String)}
+     */
+    public PreparedQuery prepare(CharSequence sqlQuery) {
+        mongoShellBuilder.setParametersAllowed(true);
+        try {
+            parse(sqlQuery);
+        } finally {
+            mongoShellBuilder.setParametersAllowed(false);
+        }
+
+        int parameterCount = mongoShellBuilder.getParameterCount();
+        int[] parameterOffsets = new int[parameterCount];
+        int[] parameterLengths = new int[parameterCount];
+        for (int i = 0; i < parameterCount; i++) {
+            parameterOffsets[i] = mongoShellBuilder.getParameterOffset(i);
+            parameterLengths[i] = 1;
+        }
+
+        output.setLength(0);
+        mongoShellBuilder.setRecordingSplices(true);
+        try {
+            build(output);
+        } finally {
+            mongoShellBuilder.setRecordingSplices(false);
+        }
+        ShellTemplate template = ShellTemplate.of(output, mongoShellBuilder,
+                parameterOffsets, parameterLengths, parameterCount);
+        if (template == null) {
+            throw new IllegalStateException("placeholders don't map onto the command");
+        }
+        return new PreparedQuery(template, parameterCount);
+    }
+
+    private void renderToOutput(CharSequence sqlQuery) {
+        output.setLength(0);
+        translate(sqlQuery, output);
+    }
+}
@@ -0,0 +1,165 @@
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts of the translation outcomes and latency histograms of the lex, parse and build phases of
+ * {@link TranslatorContext}. The metrics are off by default: a translation then only reads one flag. They are
+ * switched on by {@link #setEnabled}, by the {@code Enabled} attribute of the MBean registered by {@link #register()}
+ * or by the {@code translator.metrics} system property. Every count is a {@link LongAdder}, so the threads
+ * translating at once don't contend on it. While the metrics are on, a {@link TranslationEvent} is committed for
+ * every translation if the flight recorder records it.
+ *
+ * In the default parser the query is tokenized while it is parsed, so its lex phase is only the copy of the query.
+ */
+public final class TranslatorMetrics implements TranslatorMetricsMXBean {
+    public static final String OBJECT_NAME = "sqlForMongoDB:type=TranslatorMetrics";
+
+    static final int BUCKET_COUNT = 40;
+    private static final String SUCCESS = "SUCCESS";
+    private static final String OTHER = "OTHER";
+    private static final TranslationException.Kind[] KINDS = TranslationException.Kind.values();
+
+    private static final TranslatorMetrics INSTANCE = new TranslatorMetrics();
+    private static volatile boolean isEnabled = Boolean.getBoolean("translator.metrics");
+
+    private final LongAdder successCount = new LongAdder();
+    // one count per error kind and the last one for the other failures
+    private final LongAdder[] failureCounts = newAdders(KINDS.length + 1);
+    private final LongAdder[] lexHistogram = newAdders(BUCKET_COUNT);
+    private final LongAdder[] parseHistogram = newAdders(BUCKET_COUNT);
+    private final LongAdder[] buildHistogram = newAdders(BUCKET_COUNT);
+
+    private TranslatorMetrics() {
+    }
+
+    private static LongAdder[] newAdders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    public static TranslatorMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server under {@link #OBJECT_NAME}, nothing is done if they are
+     * already registered
+     */
+    public static void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // registered before
+        } catch (JMException e) {
+            throw new IllegalStateException("the metrics can't be registered", e);
+        }
+    }
+
+    static boolean isRecording() {
+        return isEnabled;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return isEnabled;
+    }
+
+    @Override
+    public void setEnabled(boolean isEnabled) {
+        TranslatorMetrics.isEnabled = isEnabled;
+    }
+
+    static int bucket(long nanos) {
+        return Math.min(63 - Long.numberOfLeadingZeros(Math.max(nanos, 1)), BUCKET_COUNT - 1);
+    }
+
+    void recordSuccess(long lexNanos, long parseNanos, long buildNanos) {
+        successCount.increment();
+        lexHistogram[bucket(lexNanos)].increment();
+        parseHistogram[bucket(parseNanos)].increment();
+        buildHistogram[bucket(buildNanos)].increment();
+    }
+
+    /**
+     * Counts a failed translation, the phases which have not been reached are not recorded
+     *
+     * @param lexNanos   time of the lex phase or -1 if the lex phase has failed
+     * @param parseNanos time of the parse phase or -1 if it has failed or has not been reached
+     * @return the outcome name of the failure
+     */
+    String recordFailure(RuntimeException e, long lexNanos, long parseNanos) {
+        int outcome = e instanceof TranslationException
+                ? ((TranslationException) e).getKind().ordinal()
+                : KINDS.length;
+        failureCounts[outcome].increment();
+        if (lexNanos >= 0) {
+            lexHistogram[bucket(lexNanos)].increment();
+        }
+        if (parseNanos >= 0) {
+            parseHistogram[bucket(parseNanos)].increment();
+        }
+        return outcome < KINDS.length ? KINDS[outcome].name() : OTHER;
+    }
+
+    public long getSuccessCount() {
+        return successCount.sum();
+    }
+
+    public long getFailureCount(TranslationException.Kind kind) {
+        return failureCounts[kind.ordinal()].sum();
+    }
+
+    @Override
+    public Map<String, Long> getOutcomeCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        counts.put(SUCCESS, successCount.sum());
+        for (TranslationException.Kind kind : KINDS) {
+            counts.put(kind.name(), failureCounts[kind.ordinal()].sum());
+        }
+        counts.put(OTHER, failureCounts[KINDS.length].sum());
+        return counts;
+    }
+
+    private static long[] sums(LongAdder[] adders) {
+        long[] sums = new long[adders.length];
+        for (int i = 0; i < adders.length; i++) {
+            sums[i] = adders[i].sum();
+        }
+        return sums;
+    }
+
+    @Override
+    public long[] getLexLatencyHistogram() {
+        return sums(lexHistogram);
+    }
+
+    @Override
+    public long[] getParseLatencyHistogram() {
+        return sums(parseHistogram);
+    }
+
+    @Override
+    public long[] getBuildLatencyHistogram() {
+        return sums(buildHistogram);
+    }
+
+    @Override
+    public void reset() {
+        successCount.reset();
+        for (LongAdder[] adders : new LongAdder[][]{failureCounts, lexHistogram, parseHistogram, buildHistogram}) {
+            for (LongAdder adder : adders) {
+                adder.reset();
+            }
+        }
+    }
+}
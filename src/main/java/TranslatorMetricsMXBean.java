@@ -0,0 +1,28 @@
+import java.util.Map;
+
+/**
+ * Management interface of {@link TranslatorMetrics}. A latency histogram has a bucket per power of two: bucket
+ * {@code i} counts the phases which took from {@code 2^i} to {@code 2^(i + 1) - 1} nanoseconds.
+ */
+public interface TranslatorMetricsMXBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean isEnabled);
+
+    /**
+     * @return number of translations per outcome: {@code SUCCESS}, every {@link TranslationException.Kind} and
+     * {@code OTHER} for the failures which are not translation errors
+     */
+    Map<String, Long> getOutcomeCounts();
+
+    long[] getLexLatencyHistogram();
+
+    long[] getParseLatencyHistogram();
+
+    long[] getBuildLatencyHistogram();
+
+    /**
+     * Sets every count to zero
+     */
+    void reset();
+}
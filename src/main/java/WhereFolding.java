@@ -0,0 +1,160 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fold stage of a {@link MongoShellBuilder} build: simplifies the constraints of every WHERE field, see
+ * {@link RangeFolding}, merges the range after the last key of a keyset page into the constraints of the key field
+ * and records the fold guards a {@link ShellTemplate} checks new literals against.
+ *
+ * The results are kept in the folded {@link MongoShellBuilder.WhereExpression}s, a stage is owned by one builder.
+ */
+final class WhereFolding {
+    private final MongoShellBuilder builder;
+
+    // scratch of the fold
+    private final MongoShellBuilder.WhereExpression.CompareSign[] signs =
+            new MongoShellBuilder.WhereExpression.CompareSign[RangeFolding.MAX_CONSTRAINTS];
+    private final long[] values = new long[RangeFolding.MAX_CONSTRAINTS];
+    private boolean isUnsatisfiable = false;
+
+    // Fold guards: the constraints of every field whose output depends on the values, recorded with the splices
+    private int groupCount;
+    private int[] groupEnds = new int[4];
+    private long[] results = new long[4];
+    private int constraintCount;
+    private int[] inputOffsets = new int[8];
+    private MongoShellBuilder.WhereExpression.CompareSign[] guardSigns =
+            new MongoShellBuilder.WhereExpression.CompareSign[8];
+
+    WhereFolding(MongoShellBuilder builder) {
+        this.builder = builder;
+    }
+
+    /**
+     * Copies the signs and the values of the constraints into the fold scratch
+     *
+     * @return false if some value is a placeholder or doesn't fit into a long, such fields are not folded
+     */
+    private boolean loadValues(MongoShellBuilder.WhereExpression whereExpression, int size) {
+        for (int i = 0; i < size; i++) {
+            CharsMapping valueMapping = whereExpression.valueMappings.get(i);
+            if (valueMapping.isParameter || !valueMapping.isNumber) {
+                return false;
+            }
+            long value = builder.parseNumberOrNegative(valueMapping);
+            if (value < 0) {
+                return false;
+            }
+            signs[i] = whereExpression.signs.get(i);
+            values[i] = value;
+        }
+        return true;
+    }
+
+    /**
+     * Folds the loaded constraints and keeps the result in the expression. An IN list is filtered by the other
+     * constraints, which are dropped then.
+     *
+     * @return the result of {@link RangeFolding#fold}
+     */
+    private long fold(MongoShellBuilder.WhereExpression whereExpression, int size) {
+        long result = RangeFolding.fold(signs, values, size);
+        if (result != RangeFolding.UNSATISFIABLE && whereExpression.hasInList) {
+            whereExpression.inCount = RangeFolding.filter(signs, values, size,
+                    whereExpression.inValues, whereExpression.inCount);
+            result = whereExpression.inCount == 0 ? RangeFolding.UNSATISFIABLE : 0;
+        }
+        whereExpression.isFolded = true;
+        whereExpression.isUnsatisfiable = result == RangeFolding.UNSATISFIABLE;
+        whereExpression.keptMask = result;
+        isUnsatisfiable |= whereExpression.isUnsatisfiable;
+        return result;
+    }
+
+    /**
+     * Simplifies the constraints of every field with several constraints or an IN list
+     *
+     * @param isRecordingSplices whether the fold guards of the fields are recorded
+     */
+    void foldWhereExpressions(List<MongoShellBuilder.WhereExpression> whereExpressions, boolean isRecordingSplices) {
+        isUnsatisfiable = false;
+        groupCount = 0;
+        constraintCount = 0;
+        for (int i = 0; i < whereExpressions.size(); i++) {
+            MongoShellBuilder.WhereExpression whereExpression = whereExpressions.get(i);
+            whereExpression.isFolded = false;
+            int size = whereExpression.size();
+            if (size < 2 && !whereExpression.hasInList || size > RangeFolding.MAX_CONSTRAINTS
+                    || !loadValues(whereExpression, size)) {
+                continue;
+            }
+
+            long result = fold(whereExpression, size);
+            if (isRecordingSplices && !whereExpression.hasInList) {
+                recordGroup(whereExpression, size, result);
+            }
+        }
+    }
+
+    /**
+     * Folds the range after the last key into the constraints of the key field, so the key is left out if the
+     * field has a tighter bound already
+     *
+     * @return true if the key constraint is kept
+     */
+    boolean foldKeyset(MongoShellBuilder.WhereExpression keysetExpression,
+                       MongoShellBuilder.WhereExpression.CompareSign keysetSign, long lastKey) {
+        int size = keysetExpression.size();
+        if (size >= RangeFolding.MAX_CONSTRAINTS || !loadValues(keysetExpression, size)) {
+            return true;
+        }
+        signs[size] = keysetSign;
+        values[size] = lastKey;
+        long result = fold(keysetExpression, size + 1);
+        return keysetExpression.isUnsatisfiable || (result >>> size & 1) != 0;
+    }
+
+    private void recordGroup(MongoShellBuilder.WhereExpression whereExpression, int size, long result) {
+        if (groupCount == groupEnds.length) {
+            groupEnds = Arrays.copyOf(groupEnds, groupCount * 2);
+            results = Arrays.copyOf(results, groupCount * 2);
+        }
+        if (constraintCount + size > inputOffsets.length) {
+            int capacity = Math.max(constraintCount + size, inputOffsets.length * 2);
+            inputOffsets = Arrays.copyOf(inputOffsets, capacity);
+            guardSigns = Arrays.copyOf(guardSigns, capacity);
+        }
+        for (int i = 0; i < size; i++) {
+            inputOffsets[constraintCount] = whereExpression.valueMappings.get(i).offset;
+            guardSigns[constraintCount] = signs[i];
+            constraintCount++;
+        }
+        groupEnds[groupCount] = constraintCount;
+        results[groupCount] = result;
+        groupCount++;
+    }
+
+    boolean isUnsatisfiable() {
+        return isUnsatisfiable;
+    }
+
+    int getGroupCount() {
+        return groupCount;
+    }
+
+    int getGroupEnd(int group) {
+        return groupEnds[group];
+    }
+
+    long getResult(int group) {
+        return results[group];
+    }
+
+    int getInputOffset(int idx) {
+        return inputOffsets[idx];
+    }
+
+    MongoShellBuilder.WhereExpression.CompareSign getSign(int idx) {
+        return guardSigns[idx];
+    }
+}
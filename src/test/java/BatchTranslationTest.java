@@ -0,0 +1,79 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchTranslationTest {
+    private static List<String> batch(int size) {
+        List<String> sqlQueries = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            sqlQueries.add(i % 10 == 3 ? "SELECT * FROM s WHERE " + i + " = " + i : "SELECT * FROM s LIMIT " + i);
+        }
+        return sqlQueries;
+    }
+
+    @Test
+    void resultsKeepInputOrderAndCaptureFailures() {
+        List<String> sqlQueries = batch(10000);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<TranslationResult> results = Translator.translateAll(sqlQueries, pool);
+            assertEquals(sqlQueries.size(), results.size());
+            long fingerprint = results.get(0).getFingerprint();
+            for (int i = 0; i < results.size(); i++) {
+                TranslationResult result = results.get(i);
+                if (i % 10 == 3) {
+                    assertFalse(result.isSuccess());
+                    assertEquals(TranslationException.class, result.getErrorType());
+                    assertEquals("in Where statement must be one number and one variable", result.getErrorMessage());
+                    assertEquals(TranslationException.Kind.INVALID_PREDICATE, result.getErrorKind());
+                    assertEquals(22, result.getErrorPosition());
+                } else {
+                    assertTrue(result.isSuccess());
+                    assertEquals("db.s.find({}).limit(" + i + ")", result.getCommand());
+                    assertEquals(fingerprint, result.getFingerprint());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void arrayBatch() {
+        String[] sqlQueries = batch(1000).toArray(new String[0]);
+        String[] out = new String[sqlQueries.length];
+        TranslationResult[] failures = Translator.translateAll(sqlQueries, out);
+        for (int i = 0; i < sqlQueries.length; i++) {
+            if (i % 10 == 3) {
+                assertNull(out[i]);
+                assertFalse(failures[i].isSuccess());
+                assertEquals(TranslationException.Kind.INVALID_PREDICATE, failures[i].getErrorKind());
+            } else {
+                assertNull(failures[i]);
+                assertEquals("db.s.find({}).limit(" + i + ")", out[i]);
+            }
+        }
+    }
+
+    @Test
+    void otherFailuresHaveNoKind() {
+        List<String> sqlQueries = new ArrayList<>();
+        sqlQueries.add(null);
+        sqlQueries.add("SELECT * FROM s LIMIT");
+        List<TranslationResult> results = Translator.translateAll(sqlQueries);
+        assertEquals(NullPointerException.class, results.get(0).getErrorType());
+        assertNull(results.get(0).getErrorKind());
+        assertEquals(-1, results.get(0).getErrorPosition());
+        assertEquals(TranslationException.Kind.UNEXPECTED_END, results.get(1).getErrorKind());
+        assertEquals(21, results.get(1).getErrorPosition());
+    }
+
+    @Test
+    void emptyBatch() {
+        assertTrue(Translator.translateAll(new ArrayList<>()).isEmpty());
+    }
+}
@@ -0,0 +1,88 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decodes the BSON documents written by {@link BsonWriter} into maps in the order of the elements, arrays are
+ * decoded into lists
+ */
+class BsonReader {
+    static Map<String, Object> read(ByteBuffer input) {
+        ByteBuffer buffer = input.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        Map<String, Object> document = readDocument(buffer);
+        if (buffer.position() != input.limit()) {
+            throw new IllegalArgumentException("trailing bytes after the document");
+        }
+        return document;
+    }
+
+    private static Map<String, Object> readDocument(ByteBuffer buffer) {
+        int start = buffer.position();
+        int length = buffer.getInt();
+        Map<String, Object> document = new LinkedHashMap<>();
+        byte type = buffer.get();
+        while (type != 0) {
+            String key = readCString(buffer);
+            Object value;
+            switch (type) {
+                case BsonWriter.TYPE_STRING: {
+                    int stringLength = buffer.getInt();
+                    byte[] bytes = new byte[stringLength - 1];
+                    buffer.get(bytes);
+                    if (buffer.get() != 0) {
+                        throw new IllegalArgumentException("the string is not terminated");
+                    }
+                    value = new String(bytes, StandardCharsets.UTF_8);
+                } break;
+                case BsonWriter.TYPE_DOCUMENT: {
+                    value = readDocument(buffer);
+                } break;
+                case BsonWriter.TYPE_ARRAY: {
+                    value = new ArrayList<>(readDocument(buffer).values());
+                } break;
+                case BsonWriter.TYPE_BOOLEAN: {
+                    byte flag = buffer.get();
+                    if (flag != 0 && flag != 1) {
+                        throw new IllegalArgumentException("wrong boolean " + flag);
+                    }
+                    value = flag == 1;
+                } break;
+                case BsonWriter.TYPE_NULL: {
+                    value = null;
+                } break;
+                case BsonWriter.TYPE_INT32: {
+                    value = buffer.getInt();
+                } break;
+                case BsonWriter.TYPE_INT64: {
+                    value = buffer.getLong();
+                } break;
+                default: {
+                    throw new IllegalArgumentException("unknown type " + type);
+                }
+            }
+            if (document.containsKey(key)) {
+                throw new IllegalArgumentException("duplicate key " + key);
+            }
+            document.put(key, value);
+            type = buffer.get();
+        }
+        if (buffer.position() - start != length) {
+            throw new IllegalArgumentException("wrong document length " + length);
+        }
+        return document;
+    }
+
+    private static String readCString(ByteBuffer buffer) {
+        int start = buffer.position();
+        while (buffer.get() != 0) {
+        }
+        byte[] bytes = new byte[buffer.position() - start - 1];
+        buffer.position(start);
+        buffer.get(bytes);
+        buffer.get();
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
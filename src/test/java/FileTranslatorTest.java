@@ -0,0 +1,106 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileTranslatorTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void linesAreTranslatedInOrderAcrossBlocksAndWorkers() throws IOException {
+        List<String> lines = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            lines.add("SELECT name, age FROM customers WHERE age > " + i + " LIMIT " + (i % 7 + 1));
+            expected.add("db.customers.find({age: {$gt: " + i + "}}, {name: 1, age: 1}).limit(" + (i % 7 + 1) + ")");
+        }
+        Path input = directory.resolve("input.sql");
+        Path output = directory.resolve("output.js");
+        Files.write(input, lines, StandardCharsets.UTF_8);
+
+        new FileTranslator(3, 256).translate(input, output);
+
+        assertEquals(expected, Files.readAllLines(output, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void blockIsTranslatedInRoundsOfBoundedChunks() throws IOException {
+        List<String> lines = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        int size = 0;
+        for (int i = 0; size < 3 * FileTranslator.MAX_CHUNK_SIZE; i++) {
+            String line = "SELECT * FROM s WHERE a > " + i;
+            lines.add(line);
+            expected.add("db.s.find({a: {$gt: " + i + "}})");
+            size += line.length() + 1;
+        }
+        Path input = directory.resolve("input.sql");
+        Path output = directory.resolve("output.js");
+        Files.write(input, lines, StandardCharsets.UTF_8);
+
+        new FileTranslator(2, FileTranslator.DEFAULT_BLOCK_SIZE).translate(input, output);
+
+        assertEquals(expected, Files.readAllLines(output, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void failedAndEmptyLinesKeepTheirPlace() throws IOException {
+        Path input = directory.resolve("input.sql");
+        Path output = directory.resolve("output.js");
+        Files.write(input, "SELECT * FROM s LIMIT 1\r\n\nSELECT * FROM s WHERE 1 = 1\nSELECT * FROM s"
+                .getBytes(StandardCharsets.UTF_8));
+
+        new FileTranslator(2, 1024).translate(input, output);
+
+        List<String> outputLines = Files.readAllLines(output, StandardCharsets.UTF_8);
+        assertEquals(4, outputLines.size());
+        assertEquals("db.s.find({}).limit(1)", outputLines.get(0));
+        assertEquals("", outputLines.get(1));
+        assertEquals("// in Where statement must be one number and one variable", outputLines.get(2));
+        assertEquals("db.s.find({})", outputLines.get(3));
+    }
+
+    @Test
+    void errorPositionsAreRelativeToTheLine() throws IOException {
+        Path input = directory.resolve("input.sql");
+        Path output = directory.resolve("output.js");
+        Files.write(input, "SELECT * FROM s LIMIT 1\nSELECT * FROM c WHERE a >> 1\n".getBytes(StandardCharsets.UTF_8));
+
+        new FileTranslator(1, 1024).translate(input, output);
+
+        assertEquals(Arrays.asList("db.s.find({}).limit(1)", "// is not a valid symbol '>' at position 24"),
+                Files.readAllLines(output, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void utf8NamesArePassedThrough() throws IOException {
+        String field = "\u0432\u043e\u0437\u0440\u0430\u0441\u0442";
+        String collection = "\u043a\u043b\u0438\u0435\u043d\u0442\u044b";
+        Path input = directory.resolve("input.sql");
+        Path output = directory.resolve("output.js");
+        Files.write(input, ("SELECT " + field + " FROM " + collection + " WHERE " + field + " > 22\n")
+                .getBytes(StandardCharsets.UTF_8));
+
+        new FileTranslator(1, 1024).translate(input, output);
+
+        assertEquals("db." + collection + ".find({" + field + ": {$gt: 22}}, {" + field + ": 1})\n",
+                new String(Files.readAllBytes(output), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void lineLongerThanBlock() throws IOException {
+        Path input = directory.resolve("input.sql");
+        Files.write(input, "SELECT * FROM s LIMIT 1\nSELECT * FROM s LIMIT 2\n".getBytes(StandardCharsets.UTF_8));
+        assertThrows(IOException.class,
+                () -> new FileTranslator(1, 8).translate(input, directory.resolve("output.js")));
+    }
+}
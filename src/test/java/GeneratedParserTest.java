@@ -0,0 +1,80 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Differential checks of the parser generated from the grammar file against {@link ParseEngine}, the reference:
+ * the same commands for the valid queries and the same rejections for the invalid ones
+ */
+class GeneratedParserTest {
+    private final ParseEngine parseEngine = new ParseEngine();
+
+    /**
+     * @return the command or the rejection of the query parsed by the reference or by the generated parser
+     */
+    private String parse(String query, boolean isGenerated) {
+        char[] chars = query.toCharArray();
+        CharArrayIterator iterator = new CharArrayIterator(chars);
+        MongoShellBuilder mongoShellBuilder = new MongoShellBuilder(chars);
+        try {
+            if (isGenerated) {
+                GeneratedParser.parse(iterator, mongoShellBuilder);
+            } else {
+                parseEngine.parse(iterator, mongoShellBuilder);
+            }
+            return mongoShellBuilder.build();
+        } catch (TranslationException e) {
+            return e.getKind() + " " + e.getPosition() + " " + e.getMessage();
+        } catch (RuntimeException e) {
+            return e.getClass().getName() + " " + e.getMessage();
+        }
+    }
+
+    private void assertSameParse(String query) {
+        assertEquals(parse(query, false), parse(query, true), query);
+    }
+
+    @Test
+    void sameCommandsAndRejections() {
+        String[] queries = {
+                "SELECT * FROM sales",
+                "SELECT name, age FROM customers WHERE age > 22 AND id IN (1, 2) ORDER BY age DESC SKIP 3 LIMIT 10",
+                "SELECT a, SUM(b) FROM s GROUP  BY a HAVING SUM(b) > 5 AND COUNT(*) < 9 ORDER   BY SUM(b) LIMIT 2",
+                "SELECT a FROM s OFFSET 5",
+                "SELECT a FROM s;",
+                "SELECT a FROM s WHERE a = 1;  ",
+                "SELECT a FROM s; SELECT b FROM t",
+                "  SELECT   a   FROM   s   LIMIT   1  ",
+                "",
+                "SELEKT * FROM s",
+                "SELECT * FRUM s",
+                "SELECT * FROM s ORDER FFSET 1",
+                "SELECT * FROM s OFFSET",
+                "SELECT * FROM s LIMIT 1 SKIP 2",
+                "SELECT * FROM s LIMIT 1 OFFSET 2",
+                "SELECT * FROM s WHERE a > 1 WHERE b > 1",
+                "SELECT * FROM s GROUP a",
+                "SELECT * FROM s GROUPBY a",
+                "SELECT * FROM s GROUP BYE a",
+                "SELECT * FROM s HAVING SUM(a) > 1",
+                "SELECT * FROM s ORDER BY",
+                "SELECT * FROM s LIMIT;",
+                "SELECT * FROM s LIMITS 1",
+                "SELECT * FROM s limit 1",
+                "FROM s SELECT *",
+                "SELECT * FROM s WHERE a = 1 AND",
+                "SELECT a FROM s GROUP BY a HAVING COUNT(*) > 1 AND a > 1"
+        };
+        for (String query : queries) {
+            assertSameParse(query);
+        }
+    }
+
+    @Test
+    void sameParseOfGeneratedQueries() {
+        QueryGenerator generator = new QueryGenerator(6);
+        for (int i = 0; i < 50_000; i++) {
+            assertSameParse(generator.next(0.5));
+        }
+    }
+}
@@ -0,0 +1,131 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexCatalogTest {
+    private static TranslatorContext context(String catalog) throws IOException {
+        TranslatorContext context = new TranslatorContext();
+        context.setIndexCatalog(IndexCatalog.load(new StringReader(catalog)));
+        return context;
+    }
+
+    @Test
+    void load() throws IOException {
+        IndexCatalog catalog = IndexCatalog.load(new StringReader("customers = age, name; email\nsales=id\n"));
+        assertEquals(2, catalog.getIndexes("customers").size());
+        assertEquals(2, catalog.getIndexes("customers").get(0).getFieldCount());
+        assertEquals("name", catalog.getIndexes("customers").get(0).getField(1));
+        assertEquals("email", catalog.getIndexes("customers").get(1).getField(0));
+        assertEquals("id", catalog.getIndexes("sales").get(0).getField(0));
+        assertTrue(catalog.getIndexes("users").isEmpty());
+
+        assertThrows(IllegalArgumentException.class, () -> IndexCatalog.load(new StringReader("s = a,,b")));
+        assertThrows(IllegalArgumentException.class, () -> IndexCatalog.load(new StringReader("s = a;")));
+    }
+
+    @Test
+    void filterFollowsHintedIndex() throws IOException {
+        TranslatorContext context = context("customers = email; age, purchases, name");
+        assertEquals(
+                "db.customers.find({age: {$gt: 22}, purchases: {$eq: 2}}).hint({age: 1, purchases: 1, name: 1})"
+                        + ".limit(10)",
+                context.translate("SELECT * FROM customers WHERE purchases = 2 AND age > 22 LIMIT 10")
+        );
+        assertEquals(
+                "db.customers.find({purchases: {$eq: 2}, id: {$lt: 5}})",
+                context.translate("SELECT * FROM customers WHERE purchases = 2 AND id < 5")
+        );
+        assertEquals("db.customers.find({})", context.translate("SELECT * FROM customers"));
+        assertEquals("db.sales.find({age: {$gt: 1}})", context.translate("SELECT * FROM sales WHERE age > 1"));
+    }
+
+    @Test
+    void coveredQueryExcludesId() throws IOException {
+        TranslatorContext context = context("customers = age, name; email");
+        assertEquals(
+                "db.customers.find({age: {$gt: 22}}, {name: 1, _id: 0}).hint({age: 1, name: 1})",
+                context.translate("SELECT name FROM customers WHERE age > 22")
+        );
+        assertEquals(
+                "db.customers.find({}, {email: 1, _id: 0})",
+                context.translate("SELECT email FROM customers")
+        );
+        assertEquals(
+                "db.customers.find({age: {$gt: 22}}, {name: 1, id: 1}).hint({age: 1, name: 1})",
+                context.translate("SELECT name, id FROM customers WHERE age > 22")
+        );
+        assertEquals(
+                "db.customers.find({age: {$gt: 22}}).hint({age: 1, name: 1})",
+                context.translate("SELECT * FROM customers WHERE age > 22")
+        );
+    }
+
+    @Test
+    void selectedIdIsNotExcluded() throws IOException {
+        TranslatorContext context = context("s = _id, a");
+        assertEquals("db.s.find({a: {$eq: 1}}, {_id: 1, a: 1})",
+                context.translate("SELECT _id, a FROM s WHERE a = 1"));
+    }
+
+    @Test
+    void sortFollowsIndex() throws IOException {
+        TranslatorContext context = context("posts = author, created; score");
+        assertEquals("db.posts.find({author: {$eq: 3}}).hint({author: 1, created: 1}).sort({created: -1})",
+                context.translate("SELECT * FROM posts WHERE author = 3 ORDER BY created DESC"));
+        assertFalse(context.isBlockingSort());
+        assertEquals("db.posts.find({author: {$gt: 3}}).hint({author: 1, created: 1}).sort({created: -1})",
+                context.translate("SELECT * FROM posts WHERE author > 3 ORDER BY created DESC"));
+        assertTrue(context.isBlockingSort());
+        assertEquals("db.posts.find({x: {$eq: 1}}).hint({author: 1, created: 1}).sort({author: -1, created: -1})",
+                context.translate("SELECT * FROM posts WHERE x = 1 ORDER BY author DESC, created DESC"));
+        assertFalse(context.isBlockingSort());
+        assertEquals("db.posts.find({}, {score: 1, _id: 0}).hint({score: 1}).sort({score: 1})",
+                context.translate("SELECT score FROM posts ORDER BY score"));
+        assertFalse(context.isBlockingSort());
+        assertEquals("db.posts.find({}).sort({author: -1, created: 1})",
+                context.translate("SELECT * FROM posts ORDER BY author DESC, created"));
+        assertTrue(context.isBlockingSort());
+    }
+
+    @Test
+    void byteInputMatchesUtf8Fields() throws IOException {
+        TranslatorContext context = context("s = \u00e9t\u00e9, b");
+        ByteBuffer output = ByteBuffer.allocate(256);
+        context.translate(ByteBuffer.wrap("SELECT b FROM s WHERE \u00e9t\u00e9 > 1".getBytes(StandardCharsets.UTF_8)),
+                output);
+        output.flip();
+        assertEquals("db.s.find({\u00e9t\u00e9: {$gt: 1}}, {b: 1, _id: 0}).hint({\u00e9t\u00e9: 1, b: 1})",
+                StandardCharsets.UTF_8.decode(output).toString());
+    }
+
+    @Test
+    void findCommandHasHint() throws IOException {
+        TranslatorContext context = context("s = b, a");
+        ByteBuffer output = ByteBuffer.allocate(256);
+        context.translateToBson("SELECT a FROM s WHERE a > 1 AND b = 2 LIMIT 3", output);
+        output.flip();
+
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("find", "s");
+        expected.put("filter", document("b", document("$eq", 2), "a", document("$gt", 1)));
+        expected.put("projection", document("a", 1, "_id", 0));
+        expected.put("hint", document("b", 1, "a", 1));
+        expected.put("limit", 3);
+        assertEquals(expected, BsonReader.read(output));
+    }
+
+    private static Map<String, Object> document(Object... keysAndValues) {
+        Map<String, Object> document = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            document.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return document;
+    }
+}
@@ -0,0 +1,135 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LexerTest {
+    private static final String QUERY = "SELECT  name,age FROM people WHERE 20 < age AND age <> 25 OFFSET ? LIMIT 10";
+    private static final int[] KINDS = {
+            Terminal.TS_SELECT.code, Lexer.KIND_NAME, Lexer.KIND_COMMA, Lexer.KIND_NAME, Terminal.TS_FROM.code,
+            Lexer.KIND_NAME, Terminal.TS_WHERE.code, Lexer.KIND_NAME, Lexer.KIND_LOWER, Lexer.KIND_NAME,
+            Terminal.TS_AND.code, Lexer.KIND_NAME, Lexer.KIND_NON_EQUALS, Lexer.KIND_NAME, Terminal.TS_SKIP.code,
+            Lexer.KIND_PARAMETER, Terminal.TS_LIMIT.code, Lexer.KIND_NAME, Terminal.TS_END.code
+    };
+
+    private static void assertTokens(Lexer lexer, String query) {
+        assertEquals(KINDS.length, lexer.getCount());
+        for (int i = 0; i < KINDS.length; i++) {
+            long token = lexer.getToken(i);
+            assertEquals(KINDS[i], Lexer.kind(token), "token " + i);
+        }
+
+        long name = lexer.getToken(1);
+        assertEquals(query.indexOf("name"), Lexer.offset(name));
+        assertEquals(4, Lexer.length(name));
+        assertFalse(Lexer.isNumber(name));
+
+        long number = lexer.getToken(7);
+        assertEquals(query.indexOf("20"), Lexer.offset(number));
+        assertEquals(2, Lexer.length(number));
+        assertTrue(Lexer.isNumber(number));
+
+        assertEquals(query.length(), Lexer.offset(lexer.getToken(KINDS.length - 1)));
+    }
+
+    @Test
+    void tokenizeChars() {
+        Lexer lexer = new Lexer();
+        assertEquals(KINDS.length, lexer.tokenize(QUERY.toCharArray(), QUERY.length()));
+        assertTokens(lexer, QUERY);
+    }
+
+    @Test
+    void tokenizeBytes() {
+        Lexer lexer = new Lexer();
+        byte[] bytes = QUERY.getBytes(StandardCharsets.US_ASCII);
+        assertEquals(KINDS.length, lexer.tokenize(bytes, 0, 0, bytes.length));
+        assertTokens(lexer, QUERY);
+    }
+
+    @Test
+    void tokenizeBytesWithOffset() {
+        String padding = "xx SELECT ";
+        byte[] bytes = (padding + QUERY + " FROM").getBytes(StandardCharsets.US_ASCII);
+        Lexer lexer = new Lexer();
+        lexer.tokenize(bytes, 3, padding.length() - 3, padding.length() - 3 + QUERY.length());
+        assertEquals(KINDS.length, lexer.getCount());
+        assertEquals(padding.length() - 3, Lexer.offset(lexer.getToken(0)));
+        assertEquals('n', lexer.charAt(Lexer.offset(lexer.getToken(1))));
+    }
+
+    @Test
+    void keywordsMustMatchWholeRuns() {
+        Lexer lexer = new Lexer();
+        String[] words = {"SELECTS", "FRO", "AND1", "Limit", "WHERE\u00e9", "W\u0148ERE", "OFFSE", "SKIPPING"};
+        for (String word : words) {
+            lexer.tokenize(word.toCharArray(), word.length());
+            assertEquals(Lexer.KIND_NAME, Lexer.kind(lexer.getToken(0)), word);
+        }
+    }
+
+    @Test
+    void longRunsInBytes() {
+        // runs and space gaps longer than a word of eight bytes, and a run ending exactly at the input end
+        String query = "SELECT a_very_long_column_name,b         FROM c0123456789012345";
+        byte[] bytes = query.getBytes(StandardCharsets.US_ASCII);
+        Lexer lexer = new Lexer();
+        lexer.tokenize(bytes, 0, 0, bytes.length);
+        Lexer charsLexer = new Lexer();
+        charsLexer.tokenize(query.toCharArray(), query.length());
+
+        assertEquals(charsLexer.getCount(), lexer.getCount());
+        for (int i = 0; i < lexer.getCount(); i++) {
+            assertEquals(charsLexer.getToken(i), lexer.getToken(i), "token " + i);
+        }
+        assertEquals("a_very_long_column_name".length(), Lexer.length(lexer.getToken(1)));
+    }
+
+    @Test
+    void statementEndsInCharsAndBytes() {
+        // the second end is inside a word of eight bytes, the line breaks after the ends are skipped
+        String script = "SELECT * FROM a_long_name;\r\nSELECT * FROM b;\n";
+        Lexer charsLexer = new Lexer();
+        charsLexer.tokenize(script.toCharArray(), script.length());
+        Lexer lexer = new Lexer();
+        byte[] bytes = script.getBytes(StandardCharsets.US_ASCII);
+        lexer.tokenize(bytes, 0, 0, bytes.length);
+
+        int[] kinds = {
+                Terminal.TS_SELECT.code, Lexer.KIND_STAR, Terminal.TS_FROM.code, Lexer.KIND_NAME,
+                Terminal.TS_END.code, Terminal.TS_SELECT.code, Lexer.KIND_STAR, Terminal.TS_FROM.code,
+                Lexer.KIND_NAME, Terminal.TS_END.code, Terminal.TS_END.code
+        };
+        assertEquals(kinds.length, charsLexer.getCount());
+        assertEquals(kinds.length, lexer.getCount());
+        for (int i = 0; i < kinds.length; i++) {
+            assertEquals(kinds[i], Lexer.kind(charsLexer.getToken(i)), "token " + i);
+            assertEquals(charsLexer.getToken(i), lexer.getToken(i), "token " + i);
+        }
+        assertEquals(script.indexOf(';'), Lexer.offset(lexer.getToken(4)));
+        assertEquals(1, Lexer.length(lexer.getToken(4)));
+        assertEquals(script.indexOf("SELECT", 1), Lexer.offset(lexer.getToken(5)));
+    }
+
+    @Test
+    void tokenizeCharsRange() {
+        String script = "SELECT * FROM a; SELECT b FROM c";
+        Lexer lexer = new Lexer();
+        int begin = script.indexOf("SELECT b");
+        lexer.tokenize(script.toCharArray(), begin, script.length());
+        assertEquals(5, lexer.getCount());
+        assertEquals(begin, Lexer.offset(lexer.getToken(0)));
+        assertEquals(script.length(), Lexer.offset(lexer.getToken(4)));
+    }
+
+    @Test
+    void invalidRuns() {
+        Lexer lexer = new Lexer();
+        String query = "age>5 *a";
+        lexer.tokenize(query.toCharArray(), query.length());
+        assertEquals(Lexer.KIND_INVALID, Lexer.kind(lexer.getToken(0)));
+        assertEquals(3, lexer.getInvalidSymbolOffset(lexer.getToken(0)));
+        assertEquals(Lexer.KIND_INVALID, Lexer.kind(lexer.getToken(1)));
+    }
+}
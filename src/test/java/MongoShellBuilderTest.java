@@ -0,0 +1,307 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MongoShellBuilderTest {
+    @Test
+    void buildIsRepeatable() {
+        char[] chars = "SELECT name FROM customers WHERE age > 22 AND age <> 25 LIMIT 10".toCharArray();
+        MongoShellBuilder builder = new MongoShellBuilder(chars);
+        Translator.parse(new CharArrayIterator(chars), builder);
+
+        String expected = "db.customers.find({age: {$gt: 22, $ne: 25}}, {name: 1}).limit(10)";
+        assertEquals(expected, builder.build());
+        assertEquals(expected, builder.build());
+    }
+
+    @Test
+    void buildIntoBufferEncodesNames() {
+        String collection = "\u043a\u043b\u0438\u0435\u043d\u0442\u044b\ud83d\ude00";
+        char[] chars = ("SELECT \u00e2ge FROM " + collection + " WHERE \u00e2ge IN (3000000000, 1) LIMIT 10")
+                .toCharArray();
+        MongoShellBuilder builder = new MongoShellBuilder(chars);
+        Translator.parse(new CharArrayIterator(chars), builder);
+
+        ByteBuffer output = ByteBuffer.allocateDirect(128);
+        builder.build(output);
+        byte[] command = new byte[output.flip().remaining()];
+        output.get(command);
+        assertEquals(builder.build(), new String(command, StandardCharsets.UTF_8));
+
+        output.clear().limit(8);
+        assertThrows(BufferOverflowException.class, () -> builder.build(output));
+        assertEquals(0, output.position());
+    }
+
+    @Test
+    void manyPredicatesAreGroupedByField() {
+        int fieldCount = 1000;
+        StringBuilder query = new StringBuilder("SELECT * FROM s WHERE ");
+        StringBuilder expected = new StringBuilder("db.s.find({");
+        for (int i = 0; i < fieldCount; i++) {
+            query.append(i == 0 ? "" : " AND ").append("f").append(i).append(" > ").append(i);
+            expected.append(i == 0 ? "" : ", ").append("f").append(i).append(": {$gt: ").append(i)
+                    .append(", $lt: ").append(i + 10).append('}');
+        }
+        for (int i = fieldCount - 1; i >= 0; i--) {
+            query.append(" AND ").append(i + 10).append(" > f").append(i);
+        }
+        expected.append("})");
+
+        assertEquals(expected.toString(), Translator.translate(query.toString()));
+        TranslatorContext context = new TranslatorContext();
+        context.setTokenized(true);
+        assertEquals(expected.toString(), context.translate(query));
+        assertEquals("db.s.find({f1: {$eq: 1}})", context.translate("SELECT * FROM s WHERE f1 = 1"));
+    }
+
+    @Test
+    void mappingsWithoutHashAreGrouped() {
+        char[] chars = "age age ages 1 2 3".toCharArray();
+        MongoShellBuilder builder = new MongoShellBuilder(chars);
+        builder.setFromDatabaseName(new CharsMapping(0, 3, false));
+        builder.setSelectAll();
+        builder.addWhereExpression(new CharsMapping(0, 3, false),
+                MongoShellBuilder.WhereExpression.CompareSign.GREATER, new CharsMapping(13, 14, true));
+        builder.addWhereExpression(new CharsMapping(8, 12, false),
+                MongoShellBuilder.WhereExpression.CompareSign.EQUALS, new CharsMapping(15, 16, true));
+        builder.addWhereExpression(new CharsMapping(4, 7, false),
+                MongoShellBuilder.WhereExpression.CompareSign.NON_EQUALS, new CharsMapping(17, 18, true));
+        assertEquals("db.age.find({age: {$gt: 1, $ne: 3}, ages: {$eq: 2}})", builder.build());
+    }
+
+    private static Map<String, Object> document(Object... keysAndValues) {
+        Map<String, Object> document = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            document.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return document;
+    }
+
+    private static Map<String, Object> decode(ByteBuffer output) {
+        output.flip();
+        return BsonReader.read(output);
+    }
+
+    @Test
+    void buildFindCommand() {
+        ByteBuffer output = ByteBuffer.allocate(256);
+        Translator.translateToBson("SELECT name, age FROM customers WHERE age > 22 AND age <> 25 AND id < 5 "
+                + "SKIP 5 LIMIT 10", output);
+
+        Map<String, Object> expected = document(
+                "find", "customers",
+                "filter", document(
+                        "age", document("$gt", 22, "$ne", 25),
+                        "id", document("$lt", 5)
+                ),
+                "projection", document("name", 1, "age", 1),
+                "skip", 5,
+                "limit", 10
+        );
+        assertEquals(expected, decode(output));
+    }
+
+    @Test
+    void buildFindCommandWithInList() {
+        ByteBuffer output = ByteBuffer.allocate(256);
+        Translator.translateToBson("SELECT * FROM s WHERE id IN (30, 1, 10, 2, 3, 4, 5, 6, 7, 8, 9, 3000000000) "
+                + "AND id > 1", output);
+
+        Map<String, Object> expected = document(
+                "find", "s",
+                "filter", document("id", document("$in",
+                        Arrays.asList(2, 3, 4, 5, 6, 7, 8, 9, 10, 30, 3000000000L)))
+        );
+        assertEquals(expected, decode(output));
+    }
+
+    @Test
+    void buildFindCommandWithFoldedRange() {
+        ByteBuffer output = ByteBuffer.allocate(128);
+        Translator.translateToBson("SELECT * FROM s WHERE age > 1 AND age > 5 AND age < 9 AND age <> 20 AND id = 2 "
+                + "AND id < 3", output);
+
+        Map<String, Object> expected = document(
+                "find", "s",
+                "filter", document("age", document("$gt", 5, "$lt", 9), "id", 2)
+        );
+        assertEquals(expected, decode(output));
+    }
+
+    @Test
+    void buildFindCommandWithContradiction() {
+        ByteBuffer output = ByteBuffer.allocate(128);
+        Translator.translateToBson("SELECT * FROM s WHERE age = 5 AND id <> 1 AND age = 6 AND id <> 2", output);
+
+        Map<String, Object> expected = document(
+                "find", "s",
+                "filter", document("age", document("$in", List.of()), "id", document("$nin", List.of(1, 2)))
+        );
+        assertEquals(expected, decode(output));
+    }
+
+    @Test
+    void buildFindCommandWithRepeatedOperator() {
+        ByteBuffer output = ByteBuffer.allocate(512);
+        Translator.translateToBson("SELECT a, COUNT(*) FROM s GROUP BY a HAVING COUNT(*) > 1 AND COUNT(*) > 2", output);
+        assertEquals(document("$match", document("$and", List.of(
+                        document("count", document("$gt", 1)), document("count", document("$gt", 2))))),
+                ((List<?>) decode(output).get("pipeline")).get(2));
+    }
+
+    @Test
+    void buildFindCommandWithoutOptionalClauses() {
+        ByteBuffer output = ByteBuffer.allocate(64);
+        Translator.translateToBson("SELECT * FROM sales", output);
+        assertEquals(document("find", "sales", "filter", document()), decode(output));
+    }
+
+    @Test
+    void buildFindCommandEncodesLargeNumbersAsInt64() {
+        ByteBuffer output = ByteBuffer.allocate(128);
+        Translator.translateToBson("SELECT * FROM s WHERE id = 2147483648 LIMIT 2147483647", output);
+
+        Map<String, Object> expected = document(
+                "find", "s",
+                "filter", document("id", document("$eq", 2147483648L)),
+                "limit", 2147483647
+        );
+        assertEquals(expected, decode(output));
+    }
+
+    @Test
+    void buildFindCommandRejectsNumbersOutOfInt64() {
+        assertThrows(IllegalArgumentException.class,
+                () -> Translator.translateToBson("SELECT * FROM s WHERE id = 9223372036854775808",
+                        ByteBuffer.allocate(128)));
+    }
+
+    @Test
+    void buildFindCommandEncodesNamesAsUtf8() {
+        String name = "\u0438\u043c\u044f";
+        Map<String, Object> expected = document(
+                "find", "s",
+                "filter", document(),
+                "projection", document(name, 1)
+        );
+
+        ByteBuffer output = ByteBuffer.allocate(64);
+        Translator.translateToBson("SELECT " + name + " FROM s", output);
+        assertEquals(expected, decode(output));
+
+        ByteBuffer bytesOutput = ByteBuffer.allocate(64);
+        new TranslatorContext().translateToBson(
+                ByteBuffer.wrap(("SELECT " + name + " FROM s").getBytes(StandardCharsets.UTF_8)), bytesOutput);
+        assertEquals(expected, decode(bytesOutput));
+    }
+
+    @Test
+    void buildFindCommandAppendsAtPosition() {
+        TranslatorContext context = new TranslatorContext();
+        ByteBuffer output = ByteBuffer.allocate(128);
+        context.translateToBson("SELECT * FROM a", output);
+        int firstEnd = output.position();
+        context.translateToBson("SELECT * FROM b LIMIT 1", output);
+
+        output.flip();
+        assertEquals(document("find", "a", "filter", document()),
+                BsonReader.read(output.duplicate().limit(firstEnd)));
+        assertEquals(document("find", "b", "filter", document(), "limit", 1),
+                BsonReader.read(output.position(firstEnd)));
+    }
+
+    @Test
+    void buildFindCommandOverflow() {
+        ByteBuffer output = ByteBuffer.allocate(32);
+        output.position(3);
+        assertThrows(BufferOverflowException.class,
+                () -> Translator.translateToBson("SELECT name FROM customers WHERE age > 22", output));
+        assertEquals(3, output.position());
+    }
+
+    @Test
+    void buildAggregateCommand() {
+        ByteBuffer output = ByteBuffer.allocate(512);
+        TranslatorContext context = new TranslatorContext();
+        context.setAllowDiskUse(true);
+        context.translateToBson("SELECT region, COUNT(*), SUM(amount) FROM sales WHERE year > 2020 GROUP BY region "
+                + "HAVING SUM(amount) > 1000 SKIP 1 LIMIT 10", output);
+
+        Map<String, Object> expected = document(
+                "aggregate", "sales",
+                "pipeline", Arrays.asList(
+                        document("$match", document("year", document("$gt", 2020))),
+                        document("$project", document("region", 1, "amount", 1, "_id", 0)),
+                        document("$group", document("_id", "$region", "count", document("$sum", 1),
+                                "sum_amount", document("$sum", "$amount"))),
+                        document("$match", document("sum_amount", document("$gt", 1000))),
+                        document("$skip", 1),
+                        document("$limit", 10),
+                        document("$project", document("region", "$_id", "count", 1, "sum_amount", 1, "_id", 0))),
+                "cursor", document(),
+                "allowDiskUse", true
+        );
+        assertEquals(expected, decode(output));
+    }
+
+    @Test
+    void buildAggregateCommandWithoutGroupFields() {
+        ByteBuffer output = ByteBuffer.allocate(512);
+        Translator.translateToBson("SELECT a, b, MAX(c) FROM s GROUP BY a, b", output);
+        Map<String, Object> group = document("_id", document("a", "$a", "b", "$b"), "max_c", document("$max", "$c"));
+        assertEquals(Arrays.asList(document("$project", document("a", 1, "b", 1, "c", 1, "_id", 0)),
+                document("$group", group),
+                document("$project", document("a", "$_id.a", "b", "$_id.b", "max_c", 1, "_id", 0))),
+                decode(output).get("pipeline"));
+
+        output.clear();
+        Translator.translateToBson("SELECT COUNT(*) FROM s", output);
+        Map<String, Object> expected = document(
+                "aggregate", "s",
+                "pipeline", Arrays.asList(document("$group", document("_id", null, "count", document("$sum", 1)))),
+                "cursor", document()
+        );
+        assertEquals(expected, decode(output));
+    }
+
+    @Test
+    void buildFindCommandWithSort() {
+        ByteBuffer output = ByteBuffer.allocate(512);
+        Translator.translateToBson("SELECT * FROM posts ORDER BY created DESC, id LIMIT 20", output);
+        Map<String, Object> expected = document(
+                "find", "posts",
+                "filter", document(),
+                "sort", document("created", -1, "id", 1),
+                "limit", 20
+        );
+        assertEquals(expected, decode(output));
+
+        output.clear();
+        Translator.translateToBson("SELECT a, b, COUNT(*) FROM s GROUP BY a, b ORDER BY COUNT(*) DESC, b", output);
+        assertEquals(document("$sort", document("count", -1, "_id.b", 1)),
+                ((List<?>) decode(output).get("pipeline")).get(2));
+    }
+
+    @Test
+    void buildFindCommandAfterLastKey() {
+        ByteBuffer output = ByteBuffer.allocate(256);
+        TranslatorContext context = new TranslatorContext();
+        context.translatePageToBson("SELECT * FROM events WHERE a = 1 OFFSET 500 LIMIT 100", 3000000000L, output);
+        Map<String, Object> expected = document(
+                "find", "events",
+                "filter", document("a", document("$eq", 1), "_id", document("$gt", 3000000000L)),
+                "sort", document("_id", 1),
+                "limit", 100
+        );
+        assertEquals(expected, decode(output));
+    }
+}
@@ -0,0 +1,123 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParseEngineTest {
+    private static String parse(ParseEngine engine, String query) {
+        char[] chars = query.toCharArray();
+        MongoShellBuilder builder = new MongoShellBuilder(chars);
+        engine.parse(new CharArrayIterator(chars), builder);
+        return builder.build();
+    }
+
+    @Test
+    void engineIsReusable() {
+        ParseEngine engine = new ParseEngine();
+        assertEquals("db.s.find({age: {$gt: 1}}).skip(2).limit(3)",
+                parse(engine, "SELECT * FROM s WHERE age > 1 SKIP 2 LIMIT 3"));
+        assertThrows(IllegalArgumentException.class, () -> parse(engine, "SELECT * FROM s LIMIT 3 SKIP 2"));
+        assertEquals("db.s.find({}, {a: 1})", parse(engine, "SELECT a FROM s"));
+    }
+
+    @Test
+    void clausesOutOfOrder() {
+        ParseEngine engine = new ParseEngine();
+        assertThrows(IllegalArgumentException.class, () -> parse(engine, "SELECT * FROM s AND a > 1"));
+        assertThrows(IllegalArgumentException.class, () -> parse(engine, "SELECT * FROM s LIMIT 1 WHERE a > 1"));
+        assertThrows(IllegalArgumentException.class, () -> parse(engine, "FROM s"));
+    }
+
+    private static String parseTokens(ParseEngine engine, Lexer lexer, String query) {
+        char[] chars = query.toCharArray();
+        MongoShellBuilder builder = new MongoShellBuilder(chars);
+        lexer.tokenize(chars, chars.length);
+        engine.parse(lexer, builder);
+        return builder.build();
+    }
+
+    @Test
+    void tokenParserMatchesIteratorParser() {
+        String[] queries = {
+                "SELECT * FROM s",
+                "SELECT  a , b,c FROM s WHERE x > 1 AND 2 < y AND z <> 3 AND x = 4 SKIP 5 LIMIT 6",
+                "SELECT * FROM s OFFSET 5",
+                "SELECT FROM FROM WHERE WHERE AND = 1",
+                "SELECT = FROM s",
+                "  SELECT * FROM s LIMIT 1  ",
+                "SELECT * FROM s WHERE 1 = 1",
+                "SELECT * FROM s WHERE a = b",
+                "SELECT * FROM s WHERE a >= 1",
+                "SELECT * FROM s WHERE a >1",
+                "SELECT * FROM s WHERE a> 1",
+                "SELECT *, a FROM s",
+                "SELECT *a FROM s",
+                "SELECT a, FROM s",
+                "SELECT a b FROM s",
+                "SELECT 1 FROM s",
+                "SELECT * FROM s.t",
+                "SELECT * FROM s LIMIT a",
+                "SELECT * FROM s LIMIT 1 SKIP 2",
+                "SELECT * FROM s LIMIT 1,",
+                "SELECT * FROM s WHERE a = ?",
+                "SELECT * FROMs",
+                "select * from s",
+                "SELECT *",
+                "SELECT * FROM s WHERE id IN (3, 1 ,2) AND id > 1 AND x IN(1)",
+                "SELECT * FROM s WHERE id IN ( 1,2 ) LIMIT 1",
+                "SELECT * FROM s WHERE id IN (1,2)LIMIT 1",
+                "SELECT * FROM s WHERE id IN (1,",
+                "SELECT * FROM s WHERE id INX (1)",
+                "SELECT a, SUM(b) FROM s WHERE c > 1 GROUP BY a HAVING SUM(b) > 2 AND SUM(b) <> 5 LIMIT 3",
+                "SELECT a,COUNT(*),MAX(b) FROM s GROUP BY  a , c",
+                "SELECT COUNT(*) FROM s",
+                "SELECT SUM(b FROM s",
+                "SELECT SUM(b)c FROM s",
+                "SELECT f(b) FROM s",
+                "SELECT a FROM s GROUP BY",
+                "SELECT a FROM s GROUP a",
+                "SELECT a FROM s GROUPBY a",
+                "SELECT a FROM s GROUP BY a HAVING SUM(b)>1",
+                "SELECT * FROM s WHERE a = 1 ORDER BY b DESC,c ,  d ASC SKIP 1 LIMIT 2",
+                "SELECT a, MAX(b) FROM s GROUP BY a HAVING MAX(b) > 1 ORDER BY MAX(b) DESC, a",
+                "SELECT * FROM s ORDER BY ASC",
+                "SELECT * FROM s ORDER BY a ASCDESC",
+                "SELECT * FROM s ORDERBY a",
+                "SELECT * FROM s ORDER  BY a",
+        };
+        ParseEngine engine = new ParseEngine();
+        Lexer lexer = new Lexer();
+        for (String query : queries) {
+            String expected;
+            try {
+                expected = parse(engine, query);
+            } catch (IllegalArgumentException e) {
+                assertThrows(IllegalArgumentException.class, () -> parseTokens(engine, lexer, query), query);
+                continue;
+            }
+            assertEquals(expected, parseTokens(engine, lexer, query), query);
+        }
+    }
+
+    @Test
+    void tokenParserReportsPositions() {
+        ParseEngine engine = new ParseEngine();
+        Lexer lexer = new Lexer();
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> parseTokens(engine, lexer, "SELECT * FROM s WHERE a.b > 1"));
+        assertEquals("is not a valid symbol '.' at position 23", e.getMessage());
+    }
+
+    @Test
+    void productionsMatchParseTable() {
+        for (Terminal nonTerminal : Terminal.values()) {
+            for (Terminal terminal : Terminal.values()) {
+                if (nonTerminal.isTerminal || !terminal.isTerminal || terminal == Terminal.TS_UNKNOWN) {
+                    continue;
+                }
+                boolean hasCase = ParseTable.getCase(nonTerminal, terminal) >= 0;
+                assertEquals(hasCase, ParseTable.getProduction(nonTerminal.code, terminal.code) != null,
+                        nonTerminal + " x " + terminal);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PreparedQueryTest {
+    @Test
+    void bindValuesInQueryOrder() {
+        PreparedQuery query = Translator.prepare("SELECT name FROM users WHERE age > ? AND id < ? LIMIT ?");
+        assertEquals(3, query.getParameterCount());
+        assertEquals("db.users.find({age: {$gt: 22}, id: {$lt: 1000}}, {name: 1}).limit(10)",
+                query.bind(22, 1000, 10));
+        assertEquals("db.users.find({age: {$gt: 30}, id: {$lt: 5}}, {name: 1}).limit(1)",
+                query.bind(30, 5, 1));
+    }
+
+    @Test
+    void bindFollowsWhereGrouping() {
+        PreparedQuery query = Translator.prepare("SELECT * FROM s WHERE age > ? AND id = ? AND ? > age SKIP ?");
+        assertEquals("db.s.find({age: {$gt: 1, $lt: 3}, id: {$eq: 2}}).skip(4)", query.bind(1, 2, 3, 4));
+    }
+
+    @Test
+    void literalsStayInTheCommand() {
+        assertEquals("db.c.find({age: {$gt: 7}}).limit(10)",
+                Translator.prepare("SELECT * FROM c WHERE age > ? LIMIT 10").bind(7));
+        assertEquals("db.c.find({age: {$gt: 5}}).skip(3).limit(8)",
+                Translator.prepare("SELECT * FROM c WHERE age > 5 SKIP ? LIMIT ?").bind(3, 8));
+        assertEquals("db.c.find({age: {$gt: 2}}).skip(10).limit(4)",
+                Translator.prepare("SELECT * FROM c WHERE age > ? SKIP 10 LIMIT ?").bind(2, 4));
+    }
+
+    @Test
+    void literalAndPlaceholderOfOneField() {
+        PreparedQuery query = Translator.prepare("SELECT * FROM c WHERE age > ? AND age < 10");
+        assertEquals("db.c.find({age: {$gt: 7, $lt: 10}})", query.bind(7));
+        assertEquals("db.c.find({age: {$gt: 12, $lt: 10}})", query.bind(12));
+        assertEquals("db.c.find({age: {$eq: 3, $gt: 10}})",
+                Translator.prepare("SELECT * FROM c WHERE age = ? AND age > 10").bind(3));
+        // the literals of a field without placeholders are folded once, when the query is prepared
+        assertEquals("db.c.find({a: {$gt: 5}, b: {$eq: 1}})",
+                Translator.prepare("SELECT * FROM c WHERE a > 1 AND a > 5 AND b = ?").bind(1));
+    }
+
+    @Test
+    void bindIntoBuilder() {
+        StringBuilder output = new StringBuilder();
+        Translator.prepare("SELECT * FROM s LIMIT ?").bind(output, 7);
+        assertEquals("db.s.find({}).limit(7)", output.toString());
+    }
+
+    @Test
+    void badBindings() {
+        PreparedQuery query = Translator.prepare("SELECT * FROM s WHERE a = ?");
+        assertThrows(IllegalArgumentException.class, () -> query.bind());
+        assertThrows(IllegalArgumentException.class, () -> query.bind(1, 2));
+        assertThrows(IllegalArgumentException.class, () -> query.bind(-1));
+    }
+
+    @Test
+    void placeholdersOnlyInValuePositions() {
+        assertThrows(IllegalArgumentException.class, () -> Translator.prepare("SELECT ? FROM s"));
+        assertThrows(IllegalArgumentException.class, () -> Translator.prepare("SELECT * FROM ?"));
+        assertThrows(IllegalArgumentException.class, () -> Translator.prepare("SELECT * FROM s WHERE ? = ?"));
+        assertThrows(IllegalArgumentException.class, () -> Translator.prepare("SELECT * FROM s WHERE a = ?1"));
+    }
+
+    @Test
+    void translateRejectsPlaceholders() {
+        assertThrows(IllegalArgumentException.class, () -> Translator.translate("SELECT * FROM s WHERE a = ?"));
+        assertThrows(IllegalArgumentException.class, () -> Translator.translate("SELECT * FROM s LIMIT ?"));
+    }
+}
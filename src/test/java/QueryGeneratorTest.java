@@ -0,0 +1,134 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Property checks over the generated queries: every valid one translates, to the same command with both parsers
+ * and the streaming translator, and every near-miss invalid one is rejected, in time linear in its length.
+ */
+class QueryGeneratorTest {
+    private static final int QUERY_COUNT = 50_000;
+
+    @Test
+    void validQueriesTranslate() throws IOException {
+        QueryGenerator generator = new QueryGenerator(1);
+        TranslatorContext context = new TranslatorContext();
+        TranslatorContext tokenized = new TranslatorContext();
+        tokenized.setTokenized(true);
+        StreamingTranslator streamingTranslator = new StreamingTranslator();
+        int aggregationCount = 0;
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            String query = generator.nextValid();
+            String command;
+            try {
+                command = context.translate(query);
+            } catch (RuntimeException e) {
+                throw new AssertionError(query, e);
+            }
+            assertEquals(command, tokenized.translate(query), query);
+            if (command.contains(".aggregate(")) {
+                aggregationCount++;
+                continue;
+            }
+            StringWriter output = new StringWriter();
+            streamingTranslator.translate(new StringReader(query), output);
+            assertEquals(command, output.toString(), query);
+        }
+        assertTrue(aggregationCount > QUERY_COUNT / 20, "too few aggregations are generated");
+    }
+
+    @Test
+    void invalidQueriesAreRejected() {
+        QueryGenerator generator = new QueryGenerator(2);
+        TranslatorContext context = new TranslatorContext();
+        TranslatorContext tokenized = new TranslatorContext();
+        tokenized.setTokenized(true);
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < QUERY_COUNT; i++) {
+            String query = generator.nextInvalid();
+            try {
+                assertFalse(context.tryTranslate(query, output), query);
+                assertFalse(tokenized.tryTranslate(query, output), query);
+            } catch (RuntimeException e) {
+                throw new AssertionError(query, e);
+            }
+        }
+    }
+
+    @Test
+    void sameSeedGivesSameQueries() {
+        QueryGenerator first = new QueryGenerator(7);
+        QueryGenerator second = new QueryGenerator(7);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(first.next(0.5), second.next(0.5));
+        }
+    }
+
+    @Test
+    void settingsShapeTheQueries() {
+        QueryGenerator generator = new QueryGenerator(3);
+        generator.setColumnCount(0, 0);
+        generator.setPredicateCount(2, 2);
+        generator.setLiteralDigits(3, 3);
+        generator.setInProbability(0);
+        generator.setGroupProbability(0);
+        generator.setOrderProbability(0);
+        generator.setSkipProbability(0);
+        generator.setLimitProbability(1);
+        for (int i = 0; i < 100; i++) {
+            String query = generator.nextValid();
+            assertTrue(query.matches("SELECT \\* FROM c\\d+ WHERE \\S+ \\S+ \\S+ AND \\S+ \\S+ \\S+ LIMIT \\d{3}"),
+                    query);
+        }
+        assertThrows(IllegalArgumentException.class, () -> generator.setLiteralDigits(1, 19));
+        assertThrows(IllegalArgumentException.class, () -> generator.setColumnCount(2, 1));
+    }
+
+    /**
+     * @return the best time of several translations of the query, in nanoseconds
+     */
+    private static long bestTime(TranslatorContext context, String query) {
+        StringBuilder output = new StringBuilder();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            output.setLength(0);
+            long start = System.nanoTime();
+            context.tryTranslate(query, output);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    @Test
+    void translationTimeIsLinear() {
+        assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+            TranslatorContext context = new TranslatorContext();
+            double[] nanosPerChar = new double[2];
+            int[] widths = {2_000, 32_000};
+            for (int i = 0; i < widths.length; i++) {
+                QueryGenerator generator = new QueryGenerator(4);
+                generator.setColumnCount(widths[i], widths[i]);
+                generator.setPredicateCount(widths[i], widths[i]);
+                generator.setFieldNameCount(widths[i]);
+                generator.setGroupProbability(0);
+                long nanos = 0;
+                long length = 0;
+                for (int j = 0; j < 4; j++) {
+                    String valid = generator.nextValid();
+                    String invalid = generator.nextInvalid();
+                    nanos += bestTime(context, valid) + bestTime(context, invalid);
+                    length += valid.length() + invalid.length();
+                }
+                nanosPerChar[i] = (double) nanos / length;
+            }
+            // 16 times longer queries may take longer per char by the cache misses, not by the length
+            assertTrue(nanosPerChar[1] < nanosPerChar[0] * 4,
+                    nanosPerChar[0] + " ns per char grow to " + nanosPerChar[1]);
+        });
+    }
+}
@@ -0,0 +1,114 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScriptTranslatorTest {
+    private static final String[] QUERIES = {
+            "SELECT * FROM sales",
+            "SELECT name, age FROM customers WHERE age > 22 AND id IN (1, 2) ORDER BY age DESC SKIP 3 LIMIT 10",
+            "SELECT a, SUM(b) FROM s GROUP BY a HAVING SUM(b) > 5 ORDER BY SUM(b)",
+            "SELECT a FROM s WHERE a IN (3, 4)",
+            "SELECT a FROM s ORDER BY a DESC",
+            "SELECT a FROM s WHERE a <> 1 SKIP 2"
+    };
+
+    private static ScriptTranslator newTranslator(int parallelism, boolean isTokenized) {
+        ScriptTranslator translator = new ScriptTranslator(parallelism);
+        translator.setTokenized(isTokenized);
+        return translator;
+    }
+
+    private static String translate(ScriptTranslator translator, String script) {
+        StringBuilder output = new StringBuilder();
+        translator.translate(script, output);
+        return output.toString();
+    }
+
+    @Test
+    void statementsAreTranslatedLineByLine() {
+        StringBuilder script = new StringBuilder("\n");
+        StringBuilder expected = new StringBuilder();
+        for (String query : QUERIES) {
+            script.append(query).append(";\r\n");
+            expected.append(Translator.translate(query)).append('\n');
+        }
+        // an empty statement and a last one without the end
+        script.append(" ;").append(QUERIES[0]).append("\n\n");
+        expected.append(Translator.translate(QUERIES[0])).append('\n');
+
+        for (boolean isTokenized : new boolean[] {false, true}) {
+            ScriptTranslator translator = newTranslator(1, isTokenized);
+            StringBuilder output = new StringBuilder("// script\n");
+            assertEquals(QUERIES.length + 1, translator.translate(script, output));
+            assertEquals("// script\n" + expected, output.toString());
+            // the buffers are reused
+            assertEquals(expected.toString(), translate(translator, script.toString()));
+            assertEquals("", translate(translator, " \n;;\n"));
+        }
+    }
+
+    @Test
+    void failedStatementIsCommented() {
+        String script = "SELECT * FROM a; SELEKT * FROM b; SELECT c FROM d WHERE c IN (1;2); SELECT * FROM e";
+        for (boolean isTokenized : new boolean[] {false, true}) {
+            String[] lines = translate(newTranslator(1, isTokenized), script).split("\n");
+            assertEquals(5, lines.length);
+            assertEquals("db.a.find({})", lines[0]);
+            // the positions are counted from the statement start, the lexer rejects the whole misspelled keyword
+            assertEquals(isTokenized ? "// Can't parse 'S' at position 0" : "// Can't parse 'E' at position 4",
+                    lines[1]);
+            assertEquals("// is not a valid symbol ';' at position 29", lines[2]);
+            // the end inside the IN list ends the statement, the rest of the list fails on its own
+            assertEquals("// Can't parse '2' at position 0", lines[3]);
+            assertEquals("db.e.find({})", lines[4]);
+        }
+    }
+
+    @Test
+    void singleQueryMayEndWithStatementEnd() {
+        TranslatorContext tokenized = new TranslatorContext();
+        tokenized.setTokenized(true);
+        for (String query : QUERIES) {
+            String command = Translator.translate(query);
+            assertEquals(command, Translator.translate(query + ";"), query);
+            assertEquals(command, Translator.translate(query + "; \n"), query);
+            assertEquals(command, tokenized.translate(query + ";"), query);
+            assertEquals(command, tokenized.translate(query + ";\r\n"), query);
+        }
+
+        String script = "SELECT * FROM a; SELECT * FROM b";
+        TranslationException e = assertThrows(TranslationException.class, () -> Translator.translate(script));
+        assertEquals(TranslationException.Kind.MISPLACED_CLAUSE, e.getKind());
+        assertEquals(17, e.getPosition());
+        e = assertThrows(TranslationException.class, () -> tokenized.translate(script));
+        assertEquals(TranslationException.Kind.MISPLACED_CLAUSE, e.getKind());
+        assertEquals(17, e.getPosition());
+    }
+
+    @Test
+    void parallelTranslationKeepsOrder() {
+        QueryGenerator generator = new QueryGenerator(5);
+        StringBuilder script = new StringBuilder();
+        while (script.length() < 4 * ScriptTranslator.MIN_CHUNK_SIZE) {
+            script.append(generator.next(0.1)).append(";\n");
+        }
+
+        StringBuilder expected = new StringBuilder();
+        int statementCount = new ScriptTranslator().translate(script, expected);
+        assertEquals(statementCount, expected.chars().filter(value -> value == '\n').count());
+        for (boolean isTokenized : new boolean[] {false, true}) {
+            StringBuilder output = new StringBuilder();
+            assertEquals(statementCount, newTranslator(4, isTokenized).translate(script, output));
+            if (!isTokenized) {
+                assertEquals(expected.toString(), output.toString());
+            }
+            // the parsers may reject an invalid statement with different messages
+            assertEquals(expected.toString().replaceAll("// .*", "//"), output.toString().replaceAll("// .*", "//"));
+        }
+    }
+
+    @Test
+    void invalidParallelism() {
+        assertThrows(IllegalArgumentException.class, () -> new ScriptTranslator(0));
+    }
+}
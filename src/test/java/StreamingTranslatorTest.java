@@ -0,0 +1,251 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.MalformedInputException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingTranslatorTest {
+    @TempDir
+    Path directory;
+
+    private static String translate(StreamingTranslator translator, String query) throws IOException {
+        StringWriter output = new StringWriter();
+        translator.translate(new StringReader(query), output);
+        return output.toString();
+    }
+
+    @Test
+    void sameCommandsAsTranslator() throws IOException {
+        String[] queries = {
+                "SELECT * FROM sales",
+                "SELECT name, age FROM customers WHERE age > 22 AND id IN (1, 2) ORDER BY age DESC SKIP 3 LIMIT 10",
+                "SELECT   a ,b,   c   FROM s",
+                "SELECT a FROM s WHERE a > 1 AND a < 5 AND a <> 3",
+                "SELECT \u00e9t\u00e9 FROM s LIMIT 1"
+        };
+        // a buffer of 4 chars spills the projection of every query with more than one field
+        StreamingTranslator translator = new StreamingTranslator(4);
+        for (String query : queries) {
+            assertEquals(Translator.translate(query), translate(translator, query), query);
+        }
+    }
+
+    @Test
+    void sameRejectionsAsTranslator() throws IOException {
+        String[] queries = {
+                "SELEKT * FROM s",
+                "FROM s",
+                "SELECT *FROM s",
+                "SELECT a, 1 FROM s",
+                "SELECT a, b.c FROM s",
+                "SELECT a, ? FROM s",
+                "SELECT a FROM s WHERE 1 = 1",
+                "SELECT a FROM s WHERE a > 1 LIMIT 1 ORDER BY a",
+                "SELECT a, b FROM s WHERE a IN (1, 2",
+                "SELECT a FROM s WHERE a >",
+                "SELECT * FROM s GROUP BY a"
+        };
+        StreamingTranslator translator = new StreamingTranslator(16);
+        for (String query : queries) {
+            TranslationException expected = assertThrows(TranslationException.class,
+                    () -> Translator.translate(query), query);
+            StringWriter output = new StringWriter();
+            TranslationException e = assertThrows(TranslationException.class,
+                    () -> translator.translate(new StringReader(query), output), query);
+            assertEquals(expected.getKind(), e.getKind(), query);
+            assertEquals(expected.getPosition(), e.getPosition(), query);
+            assertEquals(expected.getMessage(), e.getMessage(), query);
+            assertEquals("", output.toString());
+        }
+    }
+
+    @Test
+    void aggregatesAreRejected() {
+        StreamingTranslator translator = new StreamingTranslator();
+        TranslationException e = assertThrows(TranslationException.class,
+                () -> translate(translator, "SELECT a, COUNT(*) FROM s"));
+        assertEquals(TranslationException.Kind.INVALID_AGGREGATION, e.getKind());
+        assertEquals(10, e.getPosition());
+        e = assertThrows(TranslationException.class, () -> translate(translator, "SELECT a FROM s GROUP BY a"));
+        assertEquals(TranslationException.Kind.INVALID_AGGREGATION, e.getKind());
+    }
+
+    @Test
+    void queryEndsAtLineBreak() throws IOException {
+        StreamingTranslator translator = new StreamingTranslator();
+        assertEquals("db.s.find({}, {a: 1}).limit(2)", translate(translator, "SELECT a FROM s LIMIT 2\r\n \n"));
+
+        StringWriter output = new StringWriter();
+        TranslationException e = assertThrows(TranslationException.class,
+                () -> translator.translate(new StringReader("SELECT a FROM s\nWHERE a > 1"), output));
+        assertEquals(TranslationException.Kind.INVALID_SYMBOL, e.getKind());
+        assertEquals(15, e.getPosition());
+        assertEquals("", output.toString());
+    }
+
+    @Test
+    void channelIsDecodedAsUtf8() throws IOException {
+        byte[] query = "SELECT \u00e9t\u00e9, \u0432\u043e\u0437\u0440\u0430\u0441\u0442 FROM s"
+                .getBytes(StandardCharsets.UTF_8);
+        StringWriter output = new StringWriter();
+        new StreamingTranslator().translate(Channels.newChannel(new ByteArrayInputStream(query)), output);
+        assertEquals("db.s.find({}, {\u00e9t\u00e9: 1, \u0432\u043e\u0437\u0440\u0430\u0441\u0442: 1})",
+                output.toString());
+
+        byte[] malformed = {'S', 'E', 'L', 'E', 'C', 'T', ' ', (byte) 0xc3, ' ', 'F', 'R', 'O', 'M', ' ', 's'};
+        assertThrows(MalformedInputException.class, () -> new StreamingTranslator().translate(
+                Channels.newChannel(new ByteArrayInputStream(malformed)), new StringWriter()));
+    }
+
+    private String translateFile(StreamingTranslator translator, String query) throws IOException {
+        Path input = directory.resolve("query.sql");
+        Files.write(input, query.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (FileChannel channel = FileChannel.open(input)) {
+            translator.translate(channel, Channels.newChannel(output));
+        }
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void seekableInputIsCopiedWithoutSpill() throws IOException {
+        String[] queries = {
+                "SELECT * FROM sales",
+                "SELECT name, age FROM customers WHERE age > 22 AND id IN (1, 2) ORDER BY age DESC SKIP 3 LIMIT 10",
+                "SELECT   a ,b,   c   FROM s",
+                "SELECT \u00e9t\u00e9, \u0432\u043e\u0437\u0440\u0430\u0441\u0442 FROM \u043a\u043b\u0438\u0435"
+                        + " WHERE \u00e9t\u00e9 > 1 LIMIT 1"
+        };
+        // a buffer of 4 chars flushes the projection of every query with more than one field
+        StreamingTranslator translator = new StreamingTranslator(4);
+        for (String query : queries) {
+            assertEquals(Translator.translate(query), translateFile(translator, query), query);
+        }
+
+        TranslationException e = assertThrows(TranslationException.class,
+                () -> translateFile(translator, "SELECT \u00e9, b FROM s WHERE 1 = 1"));
+        assertEquals(TranslationException.Kind.INVALID_PREDICATE, e.getKind());
+        // the offset of the first 1 in bytes, the name before it takes two
+        assertEquals(26, e.getPosition());
+        assertEquals("db.s.find({}, {a: 1})", translateFile(translator, "SELECT a FROM s"));
+    }
+
+    @Test
+    void seekableInputHasTheSameLimits() {
+        StreamingTranslator translator = new StreamingTranslator();
+        TranslationException e = assertThrows(TranslationException.class,
+                () -> translateFile(translator, "SELECT a, SUM(b) FROM s GROUP BY a"));
+        assertEquals(TranslationException.Kind.INVALID_AGGREGATION, e.getKind());
+        assertEquals(10, e.getPosition());
+        e = assertThrows(TranslationException.class, () -> translateFile(translator, "SELECT a FROM s GROUP BY a"));
+        assertEquals(TranslationException.Kind.INVALID_AGGREGATION, e.getKind());
+        e = assertThrows(TranslationException.class, () -> translateFile(translator, "SELECT a FROM s\r\nLIMIT 1"));
+        assertEquals(TranslationException.Kind.INVALID_SYMBOL, e.getKind());
+        assertEquals(15, e.getPosition());
+    }
+
+    @Test
+    void fieldLongerThanBufferIsRejected() {
+        TranslationException e = assertThrows(TranslationException.class,
+                () -> translate(new StreamingTranslator(8), "SELECT a, abcdefghijklmnopqrstuvwxyz0123456789 FROM s"));
+        assertEquals(TranslationException.Kind.INVALID_NAME, e.getKind());
+        assertEquals(10, e.getPosition());
+    }
+
+    /**
+     * Generates {@code SELECT f0, f1, ... FROM wide WHERE f0 > 1} without holding it
+     */
+    private static class WideQueryReader extends Reader {
+        private final int fieldCount;
+        private int fieldIdx;
+        private String pending = "SELECT ";
+        private int pendingIdx;
+
+        WideQueryReader(int fieldCount) {
+            this.fieldCount = fieldCount;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (pendingIdx == pending.length()) {
+                if (fieldIdx > fieldCount) {
+                    return -1;
+                }
+                if (fieldIdx == fieldCount) {
+                    pending = " FROM wide WHERE f0 > 1";
+                } else {
+                    pending = (fieldIdx == 0 ? "f" : ", f") + fieldIdx;
+                }
+                fieldIdx++;
+                pendingIdx = 0;
+            }
+            int count = Math.min(length, pending.length() - pendingIdx);
+            pending.getChars(pendingIdx, pendingIdx + count, buffer, offset);
+            pendingIdx += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Counts the chars and keeps the start and the end of the output
+     */
+    private static class SummaryWriter extends Writer {
+        private final StringBuilder head = new StringBuilder();
+        private final StringBuilder last = new StringBuilder();
+        private long length;
+
+        @Override
+        public void write(char[] buffer, int offset, int count) {
+            for (int i = offset; i < offset + count; i++) {
+                if (head.length() < 64) {
+                    head.append(buffer[i]);
+                }
+                last.append(buffer[i]);
+                if (last.length() > 64) {
+                    last.deleteCharAt(0);
+                }
+            }
+            length += count;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    void wideProjectionIsStreamed() throws IOException {
+        int fieldCount = 200_000;
+        SummaryWriter output = new SummaryWriter();
+        new StreamingTranslator(1024).translate(new WideQueryReader(fieldCount), output);
+
+        assertEquals("db.wide.find({f0: {$gt: 1}}, {f0: 1, f1: 1, f2: 1", output.head.substring(0, 49));
+        assertEquals("f" + (fieldCount - 1) + ": 1})", output.last.substring(output.last.length() - 12));
+        long projectionLength = 0;
+        for (int i = 0; i < fieldCount; i++) {
+            projectionLength += ("f" + i + ": 1").length() + (i == 0 ? 0 : 2);
+        }
+        assertEquals("db.wide.find({f0: {$gt: 1}}, {})".length() + projectionLength, output.length);
+    }
+}
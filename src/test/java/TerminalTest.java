@@ -44,6 +44,31 @@ class TerminalTest {
         assertEquals(Terminal.TS_LIMIT, Terminal.getTerminal(iterator));
     }
 
+    @Test
+    void groupByWithWhitespaces() {
+        CharacterIterator iterator = new StringCharacterIterator("   GROUP  BY a");
+        assertEquals(Terminal.TS_GROUP, Terminal.getTerminal(iterator));
+        assertEquals(' ', iterator.current());
+        assertThrows(IllegalArgumentException.class,
+                () -> Terminal.getTerminal(new StringCharacterIterator("   GROUP a")));
+        assertThrows(IllegalArgumentException.class,
+                () -> Terminal.getTerminal(new StringCharacterIterator("   GROUPBY")));
+    }
+
+    @Test
+    void orderByWithWhitespaces() {
+        CharacterIterator iterator = new StringCharacterIterator("   ORDER BY a");
+        assertEquals(Terminal.TS_ORDER, Terminal.getTerminal(iterator));
+        assertThrows(IllegalArgumentException.class,
+                () -> Terminal.getTerminal(new StringCharacterIterator("   ORDER a")));
+    }
+
+    @Test
+    void havingWithWhitespaces() {
+        CharacterIterator iterator = new StringCharacterIterator("   HAVING");
+        assertEquals(Terminal.TS_HAVING, Terminal.getTerminal(iterator));
+    }
+
     @Test
     void unknownTerminal() {
         CharacterIterator iterator = new StringCharacterIterator("   UNKNOWN");
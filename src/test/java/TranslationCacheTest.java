@@ -0,0 +1,99 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TranslationCacheTest {
+    @Test
+    void queriesDifferingInNumbersShareTemplate() {
+        TranslationCache cache = new TranslationCache(16);
+        assertEquals("db.customers.find({age: {$gt: 22}}).limit(10)",
+                cache.translate("SELECT * FROM customers WHERE age > 22 LIMIT 10"));
+        assertEquals("db.customers.find({age: {$gt: 1234567}}).limit(5)",
+                cache.translate("SELECT * FROM customers WHERE age > 1234567 LIMIT 5"));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void namesWithEqualStringHashesDontShareTemplate() {
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        TranslationCache cache = new TranslationCache(16);
+        assertEquals("db.c.find({}, {Aa: 1})", cache.translate("SELECT Aa FROM c"));
+        assertEquals("db.c.find({}, {BB: 1})", cache.translate("SELECT BB FROM c"));
+        assertEquals("db.Aa.find({})", cache.translate("SELECT * FROM Aa"));
+        assertEquals("db.BB.find({})", cache.translate("SELECT * FROM BB"));
+        assertEquals("db.c.find({AaAa: {$eq: 1}})", cache.translate("SELECT * FROM c WHERE AaAa = 1"));
+        assertEquals("db.c.find({BBBB: {$eq: 1}})", cache.translate("SELECT * FROM c WHERE BBBB = 1"));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(6, cache.size());
+    }
+
+    @Test
+    void splicedLiteralsFollowWhereGrouping() {
+        TranslationCache cache = new TranslationCache(16);
+        cache.translate("SELECT a FROM s WHERE age > 1 AND id < 2 AND 3 > age OFFSET 4 LIMIT 5");
+        assertEquals(
+                "db.s.find({age: {$gt: 10, $lt: 30}, id: {$lt: 20}}, {a: 1}).skip(40).limit(50)",
+                cache.translate("SELECT a FROM s WHERE age > 10 AND id < 20 AND 30 > age OFFSET 40 LIMIT 50")
+        );
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    void foldedShapeIsReusedOnlyForTheSameFold() {
+        TranslationCache cache = new TranslationCache(16);
+        assertEquals("db.s.find({age: {$gt: 5, $ne: 7}})",
+                cache.translate("SELECT * FROM s WHERE age > 1 AND age > 5 AND age <> 7 AND age <> 3"));
+        assertEquals("db.s.find({age: {$gt: 10, $ne: 12}})",
+                cache.translate("SELECT * FROM s WHERE age > 2 AND age > 10 AND age <> 12 AND age <> 8"));
+        assertEquals(1, cache.getHitCount());
+
+        assertEquals("db.s.find({age: {$gt: 9}})",
+                cache.translate("SELECT * FROM s WHERE age > 9 AND age > 5 AND age <> 7 AND age <> 3"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    void leastRecentlyUsedShapeIsEvicted() {
+        TranslationCache cache = new TranslationCache(2);
+        cache.translate("SELECT * FROM a LIMIT 1");
+        cache.translate("SELECT * FROM b LIMIT 1");
+        cache.translate("SELECT * FROM a LIMIT 2");
+        cache.translate("SELECT * FROM c LIMIT 1");
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2, cache.size());
+
+        cache.translate("SELECT * FROM a LIMIT 3");
+        assertEquals(2, cache.getHitCount());
+        cache.translate("SELECT * FROM b LIMIT 3");
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    void literalsOutsideOfValuesAreNotCached() {
+        TranslationCache cache = new TranslationCache(16);
+        assertEquals("db.123.find({}).limit(1)", cache.translate("SELECT * FROM 123 LIMIT 1"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void badQueriesAreNotCached() {
+        TranslationCache cache = new TranslationCache(16);
+        assertThrows(IllegalArgumentException.class, () -> cache.translate("SELECT * FROM s WHERE 1 = 1"));
+        assertThrows(IllegalArgumentException.class, () -> cache.translate("SELECT * FROM s WHERE a > ?"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void inListsAreNotCached() {
+        TranslationCache cache = new TranslationCache(16);
+        assertEquals("db.s.find({id: {$in: [1, 2, 3]}, a: {$gt: 4}})",
+                cache.translate("SELECT * FROM s WHERE id IN (3, 2, 1) AND a > 4"));
+        assertEquals("db.s.find({id: {$in: [2, 3]}, a: {$gt: 4}})",
+                cache.translate("SELECT * FROM s WHERE id IN (3, 2, 3) AND a > 4"));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getHitCount());
+    }
+}
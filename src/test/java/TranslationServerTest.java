@@ -0,0 +1,105 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TranslationServerTest {
+    private static Socket connect(TranslationServer server) throws IOException {
+        return new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void pipelinedRequestsAreAnsweredInOrder() throws IOException {
+        try (TranslationServer server = TranslationServer.start(0);
+             Socket socket = connect(server)) {
+            OutputStream output = socket.getOutputStream();
+            output.write(("SELECT * FROM sales LIMIT 10\r\n"
+                    + "\n"
+                    + "SELECT * FROM s WHERE 1 = 1\n"
+                    + "SELECT name FROM \u043a WHERE age > 22\n").getBytes(StandardCharsets.UTF_8));
+            output.flush();
+
+            BufferedReader reader = reader(socket);
+            assertEquals("db.sales.find({}).limit(10)", reader.readLine());
+            assertEquals("", reader.readLine());
+            assertTrue(reader.readLine().startsWith("// "));
+            assertEquals("db.\u043a.find({age: {$gt: 22}}, {name: 1})", reader.readLine());
+        }
+    }
+
+    @Test
+    void concurrentConnections() throws Exception {
+        int connectionCount = 64;
+        ExecutorService executor = Executors.newFixedThreadPool(connectionCount);
+        try (TranslationServer server = TranslationServer.start(0)) {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int i = 0; i < connectionCount; i++) {
+                int limit = i;
+                results.add(executor.submit(() -> {
+                    try (Socket socket = connect(server)) {
+                        BufferedReader reader = reader(socket);
+                        for (int j = 0; j < 100; j++) {
+                            socket.getOutputStream().write(("SELECT * FROM s LIMIT " + (limit + j) + "\n")
+                                    .getBytes(StandardCharsets.UTF_8));
+                            assertEquals("db.s.find({}).limit(" + (limit + j) + ")", reader.readLine());
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void closeDropsConnections() throws IOException {
+        TranslationServer server = TranslationServer.start(0);
+        try (Socket socket = connect(server)) {
+            socket.getOutputStream().write("SELECT * FROM s\n".getBytes(StandardCharsets.UTF_8));
+            BufferedReader reader = reader(socket);
+            assertEquals("db.s.find({})", reader.readLine());
+            server.close();
+            assertNull(reader.readLine());
+        }
+    }
+
+    @Test
+    void tooLongLineIsAnsweredWithError() throws IOException {
+        try (TranslationServer server = TranslationServer.start(0);
+             Socket socket = connect(server)) {
+            StringBuilder request = new StringBuilder("SELECT * FROM s WHERE a = 1");
+            while (request.length() <= TranslationServer.MAX_LINE_LENGTH) {
+                request.append(" AND a = 1");
+            }
+            request.append("\nSELECT * FROM s LIMIT 1\n");
+            OutputStream output = socket.getOutputStream();
+            output.write(request.toString().getBytes(StandardCharsets.UTF_8));
+            output.flush();
+
+            BufferedReader reader = reader(socket);
+            assertEquals("// the query is longer than " + TranslationServer.MAX_LINE_LENGTH + " chars",
+                    reader.readLine());
+            assertEquals("db.s.find({}).limit(1)", reader.readLine());
+        }
+    }
+}
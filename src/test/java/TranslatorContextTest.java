@@ -0,0 +1,322 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TranslatorContextTest {
+    @Test
+    void reusedContextTranslatesQueriesOfDifferentSizes() {
+        TranslatorContext context = new TranslatorContext();
+        assertEquals(
+                "db.customers.find({age: {$gt: 22, $ne: 25}, purchases: {$eq: 2}, id: {$lt: 5}}).skip(5).limit(10)",
+                context.translate("SELECT * FROM customers WHERE age > 22 AND purchases = 2 AND id < 5 "
+                        + "AND age <> 25 SKIP 5 LIMIT 10")
+        );
+        assertEquals("db.s.find({}, {name: 1})", context.translate("SELECT name FROM s"));
+        assertEquals("db.sales.find({}).limit(10)", context.translate("SELECT * FROM sales LIMIT 10"));
+    }
+
+    @Test
+    void contextRecoversAfterBadQuery() {
+        TranslatorContext context = new TranslatorContext();
+        assertThrows(IllegalArgumentException.class, () -> context.translate("SELECT * FROM s WHERE 1 = 1"));
+        assertEquals("db.s.find({age: {$eq: 1}})", context.translate("SELECT * FROM s WHERE age = 1"));
+    }
+
+    @Test
+    void translateIntoStringBuilderAppends() {
+        StringBuilder output = new StringBuilder("> ");
+        new TranslatorContext().translate(new StringBuilder("SELECT * FROM s LIMIT 1"), output);
+        assertEquals("> db.s.find({}).limit(1)", output.toString());
+    }
+
+    @Test
+    void translateIntoCharBuffer() {
+        TranslatorContext context = new TranslatorContext();
+        CharBuffer output = CharBuffer.allocate(64);
+        context.translate("SELECT * FROM s LIMIT 1", output);
+        output.flip();
+        assertEquals("db.s.find({}).limit(1)", output.toString());
+
+        CharBuffer smallOutput = CharBuffer.allocate(4);
+        assertThrows(BufferOverflowException.class, () -> context.translate("SELECT * FROM s LIMIT 1", smallOutput));
+        assertEquals(0, smallOutput.position());
+    }
+
+    @Test
+    void steadyStateTranslationDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        TranslatorContext context = new TranslatorContext();
+        StringBuilder output = new StringBuilder();
+        String query = "SELECT name, surname FROM customers WHERE age > 22 AND purchases = 2 AND age <> 25 "
+                + "OFFSET 5 LIMIT 10";
+        for (int i = 0; i < 100; i++) {
+            output.setLength(0);
+            context.translate(query, output);
+        }
+
+        final int iterations = 10000;
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            output.setLength(0);
+            context.translate(query, output);
+        }
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        // the measurement itself allocates a few bytes once, the translations must not add anything
+        assertTrue(allocated < iterations, "allocated " + allocated + " bytes");
+    }
+
+    @Test
+    void translateBytesIntoBytes() {
+        TranslatorContext context = new TranslatorContext();
+        byte[] packet = "xxSELECT a FROM s WHERE a > 2 LIMIT 5yy".getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer output = ByteBuffer.allocate(64);
+        context.translate(packet, 2, packet.length - 4, output);
+        assertEquals("db.s.find({a: {$gt: 2}}, {a: 1}).limit(5)",
+                new String(output.array(), 0, output.position(), StandardCharsets.US_ASCII));
+
+        ByteBuffer query = ByteBuffer.allocateDirect(32);
+        query.put("SELECT * FROM s".getBytes(StandardCharsets.US_ASCII)).flip();
+        output.clear();
+        context.translate(query, output);
+        assertEquals("db.s.find({})", new String(output.array(), 0, output.position(), StandardCharsets.US_ASCII));
+        assertEquals(0, query.position());
+    }
+
+    @Test
+    void translateUtf8BytesWithoutDecoding() {
+        String collection = "\u043a\u043b\u0438\u0435\u043d\u0442\u044b";
+        ByteBuffer query = ByteBuffer.wrap(("SELECT * FROM " + collection + " WHERE \u00e2ge = 3")
+                .getBytes(StandardCharsets.UTF_8));
+        ByteBuffer output = ByteBuffer.allocate(64);
+        new TranslatorContext().translate(query, output);
+        assertEquals("db." + collection + ".find({\u00e2ge: {$eq: 3}})",
+                new String(output.array(), 0, output.position(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void translateUtf8BytesWithHint() throws IOException {
+        TranslatorContext context = new TranslatorContext();
+        String field = "\u0432\u043e\u0437\u0440\u0430\u0441\u0442";
+        context.setIndexCatalog(IndexCatalog.load(new StringReader("s = " + field)));
+        String query = "SELECT * FROM s WHERE " + field + " > 5 AND " + field + " < 9";
+        ByteBuffer output = ByteBuffer.allocateDirect(128);
+        context.translate(ByteBuffer.wrap(query.getBytes(StandardCharsets.UTF_8)), output);
+        byte[] command = new byte[output.flip().remaining()];
+        output.get(command);
+        assertEquals(context.translate(query), new String(command, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void translateBytesOverflow() {
+        ByteBuffer output = ByteBuffer.allocate(4);
+        assertThrows(BufferOverflowException.class, () -> new TranslatorContext().translate(
+                ByteBuffer.wrap("SELECT * FROM s".getBytes(StandardCharsets.US_ASCII)), output));
+        assertEquals(0, output.position());
+    }
+
+    @Test
+    void tokenizedContext() {
+        TranslatorContext context = new TranslatorContext();
+        context.setTokenized(true);
+        String query = "SELECT name, age FROM customers WHERE age > 22 AND age <> 25 SKIP 5 LIMIT 10";
+        String expected = "db.customers.find({age: {$gt: 22, $ne: 25}}, {name: 1, age: 1}).skip(5).limit(10)";
+        assertEquals(expected, context.translate(query));
+
+        ByteBuffer output = ByteBuffer.allocate(128);
+        context.translate(ByteBuffer.wrap(query.getBytes(StandardCharsets.UTF_8)), output);
+        assertEquals(expected, new String(output.array(), 0, output.position(), StandardCharsets.UTF_8));
+
+        assertThrows(IllegalArgumentException.class, () -> context.translate("SELECT * FROM s WHERE 1 = 1"));
+        assertEquals("db.s.find({})", context.translate("SELECT * FROM s"));
+    }
+
+    @Test
+    void bothParsersRejectMissingValues() {
+        String[] queries = {
+                "SELECT * FROM c LIMIT",
+                "SELECT * FROM c SKIP 5 LIMIT ;",
+                "SELECT * FROM",
+                "SELECT * FROM c WHERE a =",
+                "SELECT * FROM c WHERE a =1",
+                "SELECT * FROM c GROUP BY",
+                "SELECT a, FROM c",
+        };
+        TranslatorContext context = new TranslatorContext();
+        TranslatorContext tokenized = new TranslatorContext();
+        tokenized.setTokenized(true);
+        for (String query : queries) {
+            TranslationException expected = assertThrows(TranslationException.class, () -> context.translate(query));
+            TranslationException actual = assertThrows(TranslationException.class, () -> tokenized.translate(query));
+            assertEquals(expected.getMessage(), actual.getMessage(), query);
+        }
+        TranslationException exception = assertThrows(TranslationException.class,
+                () -> context.translate("SELECT * FROM c LIMIT"));
+        assertEquals(TranslationException.Kind.UNEXPECTED_END, exception.getKind());
+    }
+
+    @Test
+    void translatePageAfterLastKey() {
+        TranslatorContext context = new TranslatorContext();
+        assertEquals("db.events.find({_id: {$gt: 42}}).sort({_id: 1}).limit(100)",
+                context.translatePage("SELECT * FROM events OFFSET 5000000 LIMIT 100", 42));
+        assertTrue(context.isKeysetApplied());
+        assertEquals("db.events.find({}).skip(5000000).limit(100)",
+                context.translate("SELECT * FROM events OFFSET 5000000 LIMIT 100"));
+        assertFalse(context.isKeysetApplied());
+        assertEquals("db.events.find({ts: {$lt: 42}}).sort({ts: -1}).limit(100)",
+                context.translatePage("SELECT * FROM events ORDER BY ts DESC OFFSET 500 LIMIT 100", 42));
+    }
+
+    @Test
+    void lastKeyIsMergedIntoKeyField() {
+        TranslatorContext context = new TranslatorContext();
+        assertEquals("db.events.find({ts: {$gt: 42}, a: {$eq: 1}}).sort({ts: 1}).limit(10)",
+                context.translatePage("SELECT * FROM events WHERE ts > 10 AND a = 1 ORDER BY ts SKIP 9 LIMIT 10", 42));
+        assertEquals("db.events.find({ts: {$gt: 100}}).sort({ts: 1}).limit(10)",
+                context.translatePage("SELECT * FROM events WHERE ts > 100 ORDER BY ts SKIP 9 LIMIT 10", 42));
+        assertEquals("db.events.find({ts: {$in: [50, 60]}}).sort({ts: 1})",
+                context.translatePage("SELECT * FROM events WHERE ts IN (1, 50, 60) ORDER BY ts", 42));
+        assertEquals("db.events.find({ts: {$in: []}}).sort({ts: 1}).limit(10)",
+                context.translatePage("SELECT * FROM events WHERE ts < 10 ORDER BY ts LIMIT 10", 42));
+        assertTrue(context.isUnsatisfiable());
+    }
+
+    @Test
+    void pageWithSkipWhenKeyDoesNotApply() {
+        TranslatorContext context = new TranslatorContext();
+        assertEquals("db.events.find({}).sort({ts: 1, b: 1}).skip(100).limit(10)",
+                context.translatePage("SELECT * FROM events ORDER BY ts, b SKIP 100 LIMIT 10", 42));
+        assertFalse(context.isKeysetApplied());
+        assertEquals("db.events.aggregate([{$project: {a: 1, _id: 0}}, {$group: {_id: \"$a\"}}, {$skip: 100}, "
+                        + "{$project: {a: \"$_id\", _id: 0}}])",
+                context.translatePage("SELECT a FROM events GROUP BY a SKIP 100", 42));
+        assertFalse(context.isKeysetApplied());
+    }
+
+    private static long fingerprint(TranslatorContext context, String query) {
+        context.translate(query);
+        return context.getFingerprint();
+    }
+
+    @Test
+    void fingerprintIgnoresValues() {
+        TranslatorContext context = new TranslatorContext();
+        long fingerprint = fingerprint(context, "SELECT a, b FROM s WHERE a > 1 AND b IN (1, 2) SKIP 5 LIMIT 10");
+        assertEquals(fingerprint,
+                fingerprint(context, "SELECT a, b FROM s WHERE a > 700 AND b IN (9) SKIP 0 LIMIT 1"));
+        assertEquals(fingerprint,
+                fingerprint(context, "SELECT a,  b FROM s WHERE 700 < a AND b IN (9) SKIP 0 LIMIT 1"));
+
+        assertNotEquals(fingerprint,
+                fingerprint(context, "SELECT b, a FROM s WHERE a > 1 AND b IN (1) SKIP 5 LIMIT 10"));
+        assertNotEquals(fingerprint,
+                fingerprint(context, "SELECT a, b FROM t WHERE a > 1 AND b IN (1) SKIP 5 LIMIT 10"));
+        assertNotEquals(fingerprint,
+                fingerprint(context, "SELECT a, b FROM s WHERE a < 1 AND b IN (1) SKIP 5 LIMIT 10"));
+        assertNotEquals(fingerprint,
+                fingerprint(context, "SELECT a, b FROM s WHERE a > 1 AND b = 1 SKIP 5 LIMIT 10"));
+        assertNotEquals(fingerprint,
+                fingerprint(context, "SELECT a, b FROM s WHERE a > 1 AND b IN (1) LIMIT 10"));
+        assertNotEquals(fingerprint,
+                fingerprint(context, "SELECT a, b FROM s WHERE a > 1 AND b IN (1) SKIP 5"));
+        assertNotEquals(fingerprint(context, "SELECT * FROM s ORDER BY a"),
+                fingerprint(context, "SELECT * FROM s ORDER BY a DESC"));
+        assertNotEquals(fingerprint(context, "SELECT a, SUM(b) FROM s GROUP BY a"),
+                fingerprint(context, "SELECT a, MAX(b) FROM s GROUP BY a"));
+
+        TranslatorContext tokenized = new TranslatorContext();
+        tokenized.setTokenized(true);
+        String query = "SELECT a, b FROM s WHERE a > 1 AND b IN (1, 2) SKIP 5 LIMIT 10";
+        assertEquals(fingerprint, fingerprint(tokenized, query));
+        context.translate(ByteBuffer.wrap(query.getBytes(StandardCharsets.US_ASCII)), ByteBuffer.allocate(128));
+        assertEquals(fingerprint, context.getFingerprint());
+    }
+
+    @Test
+    void fingerprintsOfGeneratedShapesDontCollide() {
+        String[] signs = {"<", ">", "=", "<>"};
+        Random random = new Random(42);
+        TranslatorContext context = new TranslatorContext();
+        Map<Long, String> shapes = new HashMap<>();
+        for (int i = 0; i < 200_000; i++) {
+            StringBuilder shape = new StringBuilder("SELECT ");
+            int fieldCount = random.nextInt(4);
+            for (int j = 0; j < fieldCount; j++) {
+                shape.append(j == 0 ? "" : ", ").append('f').append(random.nextInt(40));
+            }
+            shape.append(fieldCount == 0 ? "*" : "").append(" FROM c").append(random.nextInt(50));
+            int predicateCount = random.nextInt(4);
+            for (int j = 0; j < predicateCount; j++) {
+                shape.append(j == 0 ? " WHERE " : " AND ").append('f').append(random.nextInt(40));
+                int sign = random.nextInt(signs.length + 1);
+                shape.append(sign == signs.length ? " IN (?)" : " " + signs[sign] + " ?");
+            }
+            if (random.nextBoolean()) {
+                shape.append(" ORDER BY f").append(random.nextInt(40)).append(random.nextBoolean() ? " DESC" : "");
+            }
+            shape.append(random.nextBoolean() ? " SKIP ?" : "").append(random.nextBoolean() ? " LIMIT ?" : "");
+
+            String query = shape.toString().replace("?", Integer.toString(random.nextInt(1000)));
+            String previous = shapes.putIfAbsent(fingerprint(context, query), shape.toString());
+            if (previous != null) {
+                assertEquals(previous, shape.toString(), "fingerprint collision");
+            }
+        }
+        assertTrue(shapes.size() > 100_000, "the corpus has too few distinct shapes");
+    }
+
+    @Test
+    void tryTranslateReportsRejections() {
+        TranslatorContext context = new TranslatorContext();
+        StringBuilder output = new StringBuilder("> ");
+        assertTrue(context.tryTranslate("SELECT * FROM s LIMIT 1", output));
+        assertEquals("> db.s.find({}).limit(1)", output.toString());
+        assertNull(context.getErrorKind());
+        assertEquals(-1, context.getErrorPosition());
+        assertNull(context.getErrorMessage());
+
+        output.setLength(2);
+        assertFalse(context.tryTranslate("SELECT * FROM s WHERE a.b > 1", output));
+        assertEquals("> ", output.toString());
+        assertEquals(TranslationException.Kind.INVALID_SYMBOL, context.getErrorKind());
+        assertEquals(23, context.getErrorPosition());
+        assertEquals("is not a valid symbol '.' at position 23", context.getErrorMessage());
+
+        assertFalse(context.tryTranslate("SELECT a, SUM(b) FROM s", output));
+        assertEquals(TranslationException.Kind.INVALID_AGGREGATION, context.getErrorKind());
+        assertEquals("the field at position 7 is neither grouped nor aggregated", context.getErrorMessage());
+
+        ByteBuffer bytesOutput = ByteBuffer.allocate(64);
+        assertFalse(context.tryTranslate(ByteBuffer.wrap("SELEKT".getBytes(StandardCharsets.US_ASCII)), bytesOutput));
+        assertEquals(TranslationException.Kind.UNKNOWN_KEYWORD, context.getErrorKind());
+        assertEquals(0, bytesOutput.position());
+        assertTrue(context.tryTranslate(ByteBuffer.wrap("SELECT a FROM s".getBytes(StandardCharsets.US_ASCII)),
+                bytesOutput));
+        assertEquals("db.s.find({}, {a: 1})", new String(bytesOutput.array(), 0, bytesOutput.position(),
+                StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void throwingTranslationKeepsStackTrace() {
+        TranslatorContext context = new TranslatorContext();
+        assertFalse(context.tryTranslate("SELECT * FROM s WHERE 1 = 1", new StringBuilder()));
+        TranslationException e = assertThrows(TranslationException.class,
+                () -> context.translate("SELECT * FROM s WHERE 1 = 1"));
+        assertTrue(e.getStackTrace().length > 0);
+        assertEquals("in Where statement must be one number and one variable", e.getMessage());
+    }
+}
@@ -0,0 +1,177 @@
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TranslatorMetricsTest {
+    private final TranslatorMetrics metrics = TranslatorMetrics.getInstance();
+
+    @BeforeEach
+    void enable() {
+        metrics.reset();
+        metrics.setEnabled(true);
+    }
+
+    @AfterEach
+    void disable() {
+        metrics.setEnabled(false);
+        metrics.reset();
+    }
+
+    private static long sum(long[] histogram) {
+        return Arrays.stream(histogram).sum();
+    }
+
+    @Test
+    void countsOutcomes() {
+        TranslatorContext context = new TranslatorContext();
+        context.translate("SELECT * FROM sales WHERE a > 1");
+        context.translateToBson("SELECT a FROM sales", ByteBuffer.allocate(256));
+        assertThrows(TranslationException.class, () -> context.translate("SELEKT * FROM sales"));
+        assertThrows(TranslationException.class, () -> context.translate("SELECT * FROM sales WHERE 1 = 1"));
+        assertThrows(TranslationException.class, () -> context.translate("SELECT * FROM sales LIMIT 1 WHERE a > 1"));
+
+        assertEquals(2, metrics.getSuccessCount());
+        assertEquals(1, metrics.getFailureCount(TranslationException.Kind.UNKNOWN_KEYWORD));
+        assertEquals(1, metrics.getFailureCount(TranslationException.Kind.INVALID_PREDICATE));
+        assertEquals(1, metrics.getFailureCount(TranslationException.Kind.MISPLACED_CLAUSE));
+        assertEquals(0, metrics.getOutcomeCounts().get("OTHER"));
+        // every translation got through the lexing, the two successful ones were built
+        assertEquals(5, sum(metrics.getLexLatencyHistogram()));
+        assertEquals(5, sum(metrics.getParseLatencyHistogram()));
+        assertEquals(2, sum(metrics.getBuildLatencyHistogram()));
+    }
+
+    @Test
+    void tokenizedParserIsCounted() {
+        TranslatorContext context = new TranslatorContext();
+        context.setTokenized(true);
+        context.translate(ByteBuffer.wrap("SELECT * FROM s".getBytes(StandardCharsets.US_ASCII)),
+                ByteBuffer.allocate(64));
+        assertThrows(TranslationException.class, () -> context.translate("SELECT * FROM s WHERE a >"));
+
+        assertEquals(1, metrics.getSuccessCount());
+        assertEquals(1, metrics.getFailureCount(TranslationException.Kind.UNEXPECTED_END));
+    }
+
+    @Test
+    void disabledMetricsCountNothing() {
+        metrics.setEnabled(false);
+        TranslatorContext context = new TranslatorContext();
+        context.translate("SELECT * FROM sales");
+        assertThrows(TranslationException.class, () -> context.translate("SELEKT * FROM sales"));
+
+        assertEquals(0, metrics.getSuccessCount());
+        assertEquals(0, metrics.getFailureCount(TranslationException.Kind.UNKNOWN_KEYWORD));
+        assertEquals(0, sum(metrics.getLexLatencyHistogram()));
+    }
+
+    @Test
+    void bucketsArePowersOfTwo() {
+        assertEquals(0, TranslatorMetrics.bucket(0));
+        assertEquals(0, TranslatorMetrics.bucket(1));
+        assertEquals(1, TranslatorMetrics.bucket(3));
+        assertEquals(10, TranslatorMetrics.bucket(1024));
+        assertEquals(TranslatorMetrics.BUCKET_COUNT - 1, TranslatorMetrics.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    void exposedAsMXBean() throws Exception {
+        TranslatorMetrics.register();
+        TranslatorMetrics.register();
+        Translator.translate("SELECT * FROM sales");
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(TranslatorMetrics.OBJECT_NAME);
+        assertEquals(true, server.getAttribute(name, "Enabled"));
+        long[] histogram = (long[]) server.getAttribute(name, "ParseLatencyHistogram");
+        assertEquals(TranslatorMetrics.BUCKET_COUNT, histogram.length);
+        assertNotNull(server.getAttribute(name, "OutcomeCounts"));
+        assertEquals(1L, metrics.getOutcomeCounts().get("SUCCESS"));
+    }
+
+    @Test
+    void flightRecorderEvents() throws Exception {
+        Path file = Files.createTempFile("translations", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(TranslationEvent.class);
+            recording.start();
+            TranslatorContext context = new TranslatorContext();
+            context.translate("SELECT * FROM sales WHERE a1 > 10 AND b IN (1, 22)");
+            assertThrows(TranslationException.class, () -> context.translate("SELECT * FROM sales WHERE a >"));
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            events.removeIf(event -> !event.getEventType().getName().equals("sqlForMongoDB.Translation"));
+            assertEquals(2, events.size());
+            assertEquals("SELECT * FROM sales WHERE a1 > ? AND b IN (?, ?)", events.get(0).getString("shape"));
+            assertEquals("SUCCESS", events.get(0).getString("outcome"));
+            assertEquals("UNEXPECTED_END", events.get(1).getString("outcome"));
+            assertEquals("SELECT * FROM sales WHERE a >", events.get(1).getString("shape"));
+            assertEquals(0, events.get(1).getLong("fingerprint"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void enabledMetricsDoNotAllocate() {
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        TranslatorContext context = new TranslatorContext();
+        StringBuilder output = new StringBuilder();
+        String query = "SELECT name FROM customers WHERE age > 22 AND age <> 25 LIMIT 10";
+        for (int i = 0; i < 100; i++) {
+            output.setLength(0);
+            context.translate(query, output);
+        }
+
+        final int iterations = 10000;
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            output.setLength(0);
+            context.translate(query, output);
+        }
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        // without a recording the event is never committed, so neither it nor its shape is allocated
+        assertTrue(allocated < iterations, "allocated " + allocated + " bytes");
+        assertEquals(iterations + 100, metrics.getSuccessCount());
+    }
+
+    @Test
+    void errorKindAndPosition() {
+        TranslationException e = assertThrows(TranslationException.class,
+                () -> Translator.translate("SELECT * FROM s WHERE a.b > 1"));
+        assertEquals(TranslationException.Kind.INVALID_SYMBOL, e.getKind());
+        assertEquals(23, e.getPosition());
+        assertEquals("is not a valid symbol '.' at position 23", e.getMessage());
+
+        e = assertThrows(TranslationException.class,
+                () -> Translator.translate("SELECT * FROM sales WHERE a IN (1, 2"));
+        assertEquals(TranslationException.Kind.UNEXPECTED_END, e.getKind());
+        e = assertThrows(TranslationException.class,
+                () -> Translator.translate("SELECT * FROM s WHERE a IN (99999999999999999999)"));
+        assertEquals(TranslationException.Kind.NUMBER_TOO_LARGE, e.getKind());
+        assertEquals(28, e.getPosition());
+        Map<String, Long> counts = metrics.getOutcomeCounts();
+        assertEquals(TranslationException.Kind.values().length + 2, counts.size());
+    }
+}
@@ -1,5 +1,8 @@
 import org.junit.jupiter.api.Test;
 
+import java.util.Random;
+import java.util.TreeSet;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class TranslatorTest {
@@ -120,4 +123,284 @@ class TranslatorTest {
         assertThrows(IllegalArgumentException.class,
                 () -> Translator.translate("SELECT * FROM s WHERE age = number"));
     }
-}
\ No newline at end of file
+
+    @Test
+    void selectAnyFromWhereInList() {
+        assertEquals(
+                "db.s.find({id: {$in: [1, 3, 5]}})",
+                Translator.translate("SELECT * FROM s WHERE id IN (5, 3, 3, 1)")
+        );
+        assertEquals(
+                "db.s.find({id: {$in: [7]}, age: {$gt: 1}}).limit(2)",
+                Translator.translate("SELECT * FROM s WHERE id IN(7) AND age > 1 LIMIT 2")
+        );
+    }
+
+    @Test
+    void selectAnyFromWhereInListsAreMerged() {
+        assertEquals(
+                "db.s.find({id: {$in: [9]}})",
+                Translator.translate(
+                        "SELECT * FROM s WHERE id > 0 AND id IN ( 9 ,3,1 ) AND id <> 3 AND id IN (3, 9, 12)"
+                )
+        );
+        assertEquals(
+                "db.s.find({id: {$in: []}})",
+                Translator.translate("SELECT * FROM s WHERE id IN (1) AND id IN (2)")
+        );
+    }
+
+    @Test
+    void selectAnyFromWhereLargeInList() {
+        Random random = new Random(42);
+        TreeSet<Long> expectedValues = new TreeSet<>();
+        StringBuilder query = new StringBuilder("SELECT * FROM s WHERE id IN (");
+        for (int i = 0; i < 100_000; i++) {
+            long value = random.nextInt(50_000) * 1_000_003L;
+            expectedValues.add(value);
+            query.append(i == 0 ? "" : ", ").append(value);
+        }
+        query.append(')');
+
+        StringBuilder expected = new StringBuilder("db.s.find({id: {$in: [");
+        for (long value : expectedValues) {
+            expected.append(value == expectedValues.first() ? "" : ", ").append(value);
+        }
+        expected.append("]}})");
+        assertEquals(expected.toString(), Translator.translate(query.toString()));
+    }
+
+    @Test
+    void selectAnyFromWhereBadInList() {
+        String[] queries = {
+                "SELECT * FROM s WHERE id IN ()",
+                "SELECT * FROM s WHERE id IN (1, )",
+                "SELECT * FROM s WHERE id IN (1, 2",
+                "SELECT * FROM s WHERE id IN (1 2)",
+                "SELECT * FROM s WHERE id IN (a)",
+                "SELECT * FROM s WHERE id IN (?)",
+                "SELECT * FROM s WHERE id IN 1",
+                "SELECT * FROM s WHERE id IN (1)LIMIT 1",
+                "SELECT * FROM s WHERE id IN (9223372036854775808)",
+                "SELECT * FROM s WHERE 1 IN (1)",
+                "SELECT * FROM s WHERE id IS (1)",
+        };
+        for (String query : queries) {
+            assertThrows(IllegalArgumentException.class, () -> Translator.translate(query), query);
+        }
+    }
+
+    @Test
+    void selectAnyFromWhereRangeIsFolded() {
+        assertEquals(
+                "db.s.find({age: {$gt: 30, $lt: 50}})",
+                Translator.translate("SELECT * FROM s WHERE age > 22 AND age > 30 AND age < 50 AND age <> 10")
+        );
+        assertEquals(
+                "db.s.find({age: {$ne: 7, $lt: 50}, id: 3})",
+                Translator.translate("SELECT * FROM s WHERE 60 > age AND age <> 7 AND id = 3 AND age < 50 "
+                        + "AND 7 <> age AND age <> 60 AND id > 1 AND 3 = id")
+        );
+        assertEquals(
+                "db.s.find({age: 40})",
+                Translator.translate("SELECT * FROM s WHERE age > 22 AND age = 40 AND age < 50 AND age <> 10")
+        );
+        assertEquals(
+                "db.s.find({id: {$in: [4, 6]}})",
+                Translator.translate("SELECT * FROM s WHERE id IN (1, 4, 5, 6, 9) AND id > 3 AND id < 9 AND id <> 5")
+        );
+        assertEquals(
+                "db.s.find({age: {$gt: 1, $lt: 2}})",
+                Translator.translate("SELECT * FROM s WHERE age > 1 AND age < 2")
+        );
+    }
+
+    @Test
+    void selectAnyFromWhereContradiction() {
+        String[] queries = {
+                "SELECT * FROM s WHERE age > 50 AND age < 10",
+                "SELECT * FROM s WHERE age > 5 AND age < 5",
+                "SELECT * FROM s WHERE age = 1 AND age = 2",
+                "SELECT * FROM s WHERE age = 1 AND age <> 1",
+                "SELECT * FROM s WHERE age = 1 AND age > 1",
+                "SELECT * FROM s WHERE id IN (1, 2) AND id > 2",
+                "SELECT * FROM s WHERE id IN (1) AND id IN (2)",
+        };
+        TranslatorContext context = new TranslatorContext();
+        for (String query : queries) {
+            context.translate(query);
+            assertTrue(context.isUnsatisfiable(), query);
+        }
+        // a contradiction matches no document
+        assertEquals("db.s.find({age: {$in: []}})",
+                context.translate("SELECT * FROM s WHERE age > 50 AND age < 10"));
+        assertEquals("db.s.find({age: {$in: []}, id: {$eq: 1}})",
+                context.translate("SELECT * FROM s WHERE age = 5 AND id = 1 AND age = 6"));
+
+        context.translate("SELECT * FROM s WHERE age > 5 AND age < 6 AND id = 1");
+        assertFalse(context.isUnsatisfiable());
+    }
+
+    @Test
+    void selectAnyFromWhereNotFolded() {
+        assertEquals(
+                "db.s.find({$and: [{age: {$gt: 99999999999999999999}}, {age: {$gt: 1}}]})",
+                Translator.translate("SELECT * FROM s WHERE age > 99999999999999999999 AND age > 1")
+        );
+        PreparedQuery query = Translator.prepare("SELECT * FROM s WHERE age > ? AND age > ?");
+        assertEquals("db.s.find({$and: [{age: {$gt: 1}}, {age: {$gt: 5}}]})", query.bind(1, 5));
+    }
+
+    @Test
+    void selectAnyFromWhereNeverRepeatsOperator() {
+        assertEquals(
+                "db.s.find({age: {$gt: 1, $nin: [3, 7]}, id: {$eq: 2}})",
+                Translator.translate("SELECT * FROM s WHERE age > 1 AND age <> 3 AND id = 2 AND age <> 7")
+        );
+        assertEquals(
+                "db.s.find({id: {$eq: 2}, $and: [{age: {$lt: 99999999999999999999}}, {age: {$lt: 5}}]})",
+                Translator.translate("SELECT * FROM s WHERE age < 99999999999999999999 AND id = 2 AND age < 5")
+        );
+        assertEquals(
+                "db.s.aggregate([{$project: {a: 1, _id: 0}}, {$group: {_id: \"$a\", count: {$sum: 1}}}, "
+                        + "{$match: {$and: [{count: {$gt: 1}}, {count: {$gt: 2}}]}}, "
+                        + "{$project: {a: \"$_id\", count: 1, _id: 0}}])",
+                Translator.translate("SELECT a, COUNT(*) FROM s GROUP BY a HAVING COUNT(*) > 1 AND COUNT(*) > 2")
+        );
+    }
+
+    @Test
+    void selectGroupedFromWhereHaving() {
+        assertEquals(
+                "db.sales.aggregate([{$match: {year: {$gt: 2020}}}, {$project: {region: 1, amount: 1, _id: 0}}, "
+                        + "{$group: {_id: \"$region\", sum_amount: {$sum: \"$amount\"}}}, "
+                        + "{$match: {sum_amount: {$gt: 1000}}}, {$limit: 10}, "
+                        + "{$project: {region: \"$_id\", sum_amount: 1, _id: 0}}])",
+                Translator.translate("SELECT region, SUM(amount) FROM sales WHERE year > 2020 GROUP BY region "
+                        + "HAVING SUM(amount) > 1000 LIMIT 10")
+        );
+        assertEquals(
+                "db.s.aggregate([{$project: {a: 1, b: 1, x: 1, y: 1, _id: 0}}, "
+                        + "{$group: {_id: {a: \"$a\", b: \"$b\"}, avg_x: {$avg: \"$x\"}, max_y: {$max: \"$y\"}}}, "
+                        + "{$match: {avg_x: {$gt: 1}, max_y: {$ne: 3}}}, {$skip: 2}, {$limit: 5}, "
+                        + "{$project: {a: \"$_id.a\", b: \"$_id.b\", avg_x: 1, max_y: 1, _id: 0}}])",
+                Translator.translate("SELECT a, b, AVG(x), MAX(y) FROM s GROUP BY a, b "
+                        + "HAVING AVG(x) > 1 AND MAX(y) <> 3 OFFSET 2 LIMIT 5")
+        );
+    }
+
+    @Test
+    void selectCountFrom() {
+        assertEquals(
+                "db.sales.aggregate([{$group: {_id: null, count: {$sum: 1}}}])",
+                Translator.translate("SELECT COUNT(*) FROM sales")
+        );
+        assertEquals(
+                "db.s.aggregate([{$project: {a: 1, b: 1, _id: 0}}, {$group: {_id: \"$a\", count: {$sum: 1}, "
+                        + "min_b: {$min: \"$b\"}}}, {$match: {count: {$gt: 1}}}, "
+                        + "{$project: {a: \"$_id\", count: 1, min_b: 1, _id: 0}}])",
+                Translator.translate("SELECT a, COUNT(*), MIN(b) FROM s GROUP BY a HAVING COUNT(*) > 1")
+        );
+        // a group field which is not selected is not a result column
+        assertEquals(
+                "db.s.aggregate([{$project: {a: 1, _id: 0}}, {$group: {_id: \"$a\", count: {$sum: 1}}}, "
+                        + "{$project: {count: 1, _id: 0}}])",
+                Translator.translate("SELECT COUNT(*) FROM s GROUP BY a")
+        );
+    }
+
+    @Test
+    void selectGroupedAllowDiskUse() {
+        TranslatorContext context = new TranslatorContext();
+        context.setAllowDiskUse(true);
+        assertEquals(
+                "db.s.aggregate([{$project: {a: 1, _id: 0}}, {$group: {_id: \"$a\"}}, "
+                        + "{$project: {a: \"$_id\", _id: 0}}], {allowDiskUse: true})",
+                context.translate("SELECT a FROM s GROUP BY a")
+        );
+        assertEquals("db.s.find({})", context.translate("SELECT * FROM s"));
+    }
+
+    @Test
+    void selectGroupedBadQueries() {
+        String[] queries = {
+                "SELECT a, SUM(x) FROM s GROUP BY b",
+                "SELECT * FROM s GROUP BY a",
+                "SELECT SUM(*) FROM s",
+                "SELECT COUNT(x) FROM s",
+                "SELECT SUM() FROM s",
+                "SELECT SUM(x FROM s",
+                "SELECT SUM(x)y FROM s",
+                "SELECT a FROM s GROUP a",
+                "SELECT a FROM s GROUP BY a HAVING a > 1",
+                "SELECT a FROM s GROUP BY a HAVING SUM(x) > b",
+                "SELECT a FROM s GROUP BY a HAVING SUM(x) >= 1",
+                "SELECT a FROM s HAVING SUM(x) > 1 GROUP BY a",
+        };
+        for (String query : queries) {
+            assertThrows(IllegalArgumentException.class, () -> Translator.translate(query), query);
+            TranslatorContext context = new TranslatorContext();
+            context.setTokenized(true);
+            assertThrows(IllegalArgumentException.class, () -> context.translate(query), query);
+        }
+    }
+
+    @Test
+    void selectAnyFromOrderBy() {
+        TranslatorContext context = new TranslatorContext();
+        assertEquals(
+                "db.posts.find({}).sort({created: -1}).limit(20)",
+                context.translate("SELECT * FROM posts ORDER BY created DESC LIMIT 20")
+        );
+        assertFalse(context.isBlockingSort());
+        assertEquals(
+                "db.posts.find({a: {$gt: 1}}, {a: 1}).sort({created: -1, b: 1, c: 1}).skip(5)",
+                context.translate("SELECT a FROM posts WHERE a > 1 ORDER BY created DESC, b ASC,c SKIP 5")
+        );
+        assertTrue(context.isBlockingSort());
+        assertEquals("db.posts.find({}).sort({_id: 1})", context.translate("SELECT * FROM posts ORDER BY _id"));
+        assertFalse(context.isBlockingSort());
+        assertEquals("db.posts.find({}).sort({a: 1})", context.translate("SELECT * FROM posts ORDER BY a, a DESC"));
+        assertTrue(context.isBlockingSort());
+    }
+
+    @Test
+    void selectGroupedOrderBy() {
+        TranslatorContext context = new TranslatorContext();
+        assertEquals(
+                "db.sales.aggregate([{$project: {region: 1, amount: 1, _id: 0}}, "
+                        + "{$group: {_id: \"$region\", sum_amount: {$sum: \"$amount\"}}}, "
+                        + "{$sort: {sum_amount: -1, _id: 1}}, {$limit: 3}, "
+                        + "{$project: {region: \"$_id\", sum_amount: 1, _id: 0}}])",
+                context.translate("SELECT region, SUM(amount) FROM sales GROUP BY region "
+                        + "ORDER BY SUM(amount) DESC, region LIMIT 3")
+        );
+        assertFalse(context.isBlockingSort());
+        assertEquals(
+                "db.s.aggregate([{$project: {a: 1, b: 1, _id: 0}}, {$group: {_id: {a: \"$a\", b: \"$b\"}}}, "
+                        + "{$sort: {\"_id.b\": -1}}, {$project: {a: \"$_id.a\", b: \"$_id.b\", _id: 0}}])",
+                context.translate("SELECT a, b FROM s GROUP BY a, b ORDER BY b DESC")
+        );
+        assertTrue(context.isBlockingSort());
+    }
+
+    @Test
+    void selectOrderByBadQueries() {
+        String[] queries = {
+                "SELECT a FROM s GROUP BY a ORDER BY c",
+                "SELECT a FROM s ORDER a",
+                "SELECT a FROM s ORDER BY a,",
+                "SELECT a FROM s ORDER BY a DESCX",
+                "SELECT a FROM s ORDER BY 1",
+                "SELECT a FROM s ORDER BY ?",
+                "SELECT a FROM s LIMIT 1 ORDER BY a",
+                "SELECT a FROM s ORDER BY a GROUP BY a",
+        };
+        for (String query : queries) {
+            assertThrows(IllegalArgumentException.class, () -> Translator.translate(query), query);
+            TranslatorContext context = new TranslatorContext();
+            context.setTokenized(true);
+            assertThrows(IllegalArgumentException.class, () -> context.translate(query), query);
+        }
+    }
+}